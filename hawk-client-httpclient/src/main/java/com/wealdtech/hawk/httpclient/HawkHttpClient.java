@@ -0,0 +1,235 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.httpclient;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+
+import javax.crypto.Mac;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+
+/**
+ * Hawk signing for the JDK HTTP client, for clients that issue many
+ * concurrent requests without a thread per request.
+ * <p>
+ * If the Hawk client's configuration calls for payload validation then the
+ * request body is hashed as it is published, and published again when the
+ * request is sent, so the body is never held in memory.  This requires the
+ * body publisher to support more than one subscription, as all of those from
+ * {@link HttpRequest.BodyPublishers} other than <code>ofInputStream()</code>
+ * do.  Requests with a body to hash must have a Content-Type header.
+ * <p>
+ * If a request is rejected because the client's clock differs from the
+ * server's then the client's clock skew for that server is corrected from
+ * the server's WWW-Authenticate header, and the request is sent once more if
+ * it is idempotent and its body, if any, has been hashed.
+ * <p>
+ * Each step runs on the thread that completes the previous one, so signing
+ * and retrying add no hand-off to another executor.
+ */
+public class HawkHttpClient
+{
+  private static final ImmutableSet<String> IDEMPOTENT_METHODS = ImmutableSet.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE");
+
+  private final HttpClient httpClient;
+  private final HawkClient client;
+
+  /**
+   * Create a signing client.
+   * @param httpClient the HTTP client to send requests
+   * @param client the Hawk client to sign requests
+   */
+  public HawkHttpClient(final HttpClient httpClient, final HawkClient client)
+  {
+    checkNotNull(httpClient, "Hawk HTTP client requires an HTTP client");
+    checkNotNull(client, "Hawk HTTP client requires a hawk client");
+    this.httpClient = httpClient;
+    this.client = client;
+  }
+
+  /**
+   * Sign and send a request asynchronously.
+   * @param request the request
+   * @param handler the handler for the response body
+   * @return a future for the response
+   * @throws com.wealdtech.DataError if the request has a body to hash but no Content-Type header
+   */
+  public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request, final HttpResponse.BodyHandler<T> handler)
+  {
+    if ((request.headers().firstValue(HttpHeaders.AUTHORIZATION).isPresent()) ||
+        (!this.client.isValidFor(request.uri().getRawPath())))
+    {
+      return this.httpClient.sendAsync(request, handler);
+    }
+    return hash(request).thenCompose(hash -> send(request, handler, hash, true));
+  }
+
+  /**
+   * Sign and send a request, blocking until the response is available.
+   * @param request the request
+   * @param handler the handler for the response body
+   * @return the response
+   * @throws IOException if the request could not be sent or the response received
+   * @throws InterruptedException if the calling thread is interrupted
+   * @throws com.wealdtech.DataError if the request has a body to hash but no Content-Type header
+   */
+  public <T> HttpResponse<T> send(final HttpRequest request, final HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException
+  {
+    try
+    {
+      return sendAsync(request, handler).get();
+    }
+    catch (ExecutionException ee)
+    {
+      if (ee.getCause() instanceof IOException)
+      {
+        throw (IOException)ee.getCause();
+      }
+      if (ee.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)ee.getCause();
+      }
+      throw new IOException(ee.getCause());
+    }
+  }
+
+  public HttpClient getHttpClient()
+  {
+    return this.httpClient;
+  }
+
+  // Send a signed request, retrying once if the client's clock was out
+  private <T> CompletableFuture<HttpResponse<T>> send(final HttpRequest request, final HttpResponse.BodyHandler<T> handler, final String hash, final boolean retry)
+  {
+    return this.httpClient.sendAsync(sign(request, hash), handler).thenCompose(response ->
+    {
+      if ((retry) &&
+          (response.statusCode() == 401) &&
+          (this.client.adjustForAuthenticateHeader(request.uri(), response.headers().firstValue(HttpHeaders.WWW_AUTHENTICATE).orElse(null))) &&
+          (isRepeatable(request, hash)))
+      {
+        return send(request, handler, hash, false);
+      }
+      return CompletableFuture.completedFuture(response);
+    });
+  }
+
+  // Create a copy of a request with an authorization header
+  private HttpRequest sign(final HttpRequest request, final String hash)
+  {
+    final HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+                                                   .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()))
+                                                   .expectContinue(request.expectContinue());
+    if (request.timeout().isPresent())
+    {
+      builder.timeout(request.timeout().get());
+    }
+    if (request.version().isPresent())
+    {
+      builder.version(request.version().get());
+    }
+    for (final Map.Entry<String, List<String>> header : request.headers().map().entrySet())
+    {
+      for (final String value : header.getValue())
+      {
+        builder.header(header.getKey(), value);
+      }
+    }
+    builder.header(HttpHeaders.AUTHORIZATION, this.client.generateAuthorizationHeader(request.uri(), request.method(), hash, null, null, null));
+    return builder.build();
+  }
+
+  // Hash the body of a request as it is published, if required
+  private CompletableFuture<String> hash(final HttpRequest request)
+  {
+    if ((!this.client.isPayloadHashRequired()) || (!hasBody(request)))
+    {
+      return CompletableFuture.completedFuture(null);
+    }
+    final String contentType = request.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null);
+    final HashingSubscriber subscriber = new HashingSubscriber(this.client.startPayloadHash(contentType));
+    request.bodyPublisher().get().subscribe(subscriber);
+    return subscriber.result;
+  }
+
+  private static boolean hasBody(final HttpRequest request)
+  {
+    final Optional<HttpRequest.BodyPublisher> publisher = request.bodyPublisher();
+    return (publisher.isPresent()) && (publisher.get().contentLength() != 0);
+  }
+
+  // A request can be sent again if it is idempotent and any body it has can be published again
+  private static boolean isRepeatable(final HttpRequest request, final String hash)
+  {
+    return (IDEMPOTENT_METHODS.contains(request.method().toUpperCase(Locale.ENGLISH))) &&
+           ((hash != null) || (!hasBody(request)));
+  }
+
+  /**
+   * A subscriber passing a published body through a MAC.
+   */
+  private static class HashingSubscriber implements Flow.Subscriber<ByteBuffer>
+  {
+    private final Mac mac;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    HashingSubscriber(final Mac mac)
+    {
+      this.mac = mac;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription)
+    {
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item)
+    {
+      this.mac.update(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable)
+    {
+      this.result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete()
+    {
+      this.result.complete(Hawk.completeBodyMac(this.mac));
+    }
+  }
+}
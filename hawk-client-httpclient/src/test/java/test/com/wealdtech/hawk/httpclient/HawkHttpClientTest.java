@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.httpclient;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientConfiguration;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.httpclient.HawkHttpClient;
+
+public class HawkHttpClientTest
+{
+  private static final int PORT = 18247;
+  private static final URI URI_BASE = URI.create("http://localhost:" + PORT + "/hawk");
+
+  private HawkCredentials credentials;
+  private HawkServer hawkServer;
+  private HttpServer httpServer;
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.credentials = new HawkCredentials.Builder()
+                                          .keyId("dh37fgj492je")
+                                          .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                          .algorithm(HawkCredentials.Algorithm.SHA256)
+                                          .build();
+    this.hawkServer = new HawkServer.Builder().build();
+    this.httpServer = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+    this.httpServer.createContext("/", new VerifyingHandler());
+    this.httpServer.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.httpServer.stop(0);
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception
+  {
+    final HawkHttpClient client = createClient(Hawk.PayloadValidation.NEVER);
+    final List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+    for (int i = 0; i < 50; i++)
+    {
+      responses.add(client.sendAsync(HttpRequest.newBuilder(URI_BASE.resolve("/hawk?request=" + i)).GET().build(), HttpResponse.BodyHandlers.ofString()));
+    }
+    for (final CompletableFuture<HttpResponse<String>> response : responses)
+    {
+      assertEquals(response.get().statusCode(), 200);
+      assertEquals(response.get().body(), "unhashed 0");
+    }
+  }
+
+  @Test
+  public void testPayloadHash() throws Exception
+  {
+    final HawkHttpClient client = createClient(Hawk.PayloadValidation.MANDATORY);
+    final HttpRequest request = HttpRequest.newBuilder(URI_BASE)
+                                           .header("Content-Type", "text/plain")
+                                           .POST(HttpRequest.BodyPublishers.ofString("Thank you for flying Hawk"))
+                                           .build();
+    final HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    assertEquals(response.statusCode(), 200);
+    assertEquals(response.body(), "hashed 25");
+
+    // Large file bodies are hashed without being held in memory
+    final File file = File.createTempFile("hawkbody", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), Strings.repeat("0123456789abcdef", 65536).getBytes(StandardCharsets.UTF_8));
+    final HttpRequest fileRequest = HttpRequest.newBuilder(URI_BASE)
+                                               .header("Content-Type", "application/octet-stream")
+                                               .PUT(HttpRequest.BodyPublishers.ofFile(file.toPath()))
+                                               .build();
+    final HttpResponse<String> fileResponse = client.sendAsync(fileRequest, HttpResponse.BodyHandlers.ofString()).get();
+    assertEquals(fileResponse.statusCode(), 200);
+    assertEquals(fileResponse.body(), "hashed " + file.length());
+
+    // Requests without a body are not hashed
+    assertEquals(client.send(HttpRequest.newBuilder(URI_BASE).GET().build(), HttpResponse.BodyHandlers.ofString()).body(), "unhashed 0");
+  }
+
+  @Test
+  public void testSkewRetry() throws Exception
+  {
+    final HawkClient hawkClient = new HawkClient.Builder().credentials(this.credentials).build();
+    hawkClient.setServerDate(System.currentTimeMillis() - 600000L);
+    final HawkHttpClient client = new HawkHttpClient(HttpClient.newHttpClient(), hawkClient);
+
+    this.requests.set(0);
+    assertEquals(client.sendAsync(HttpRequest.newBuilder(URI_BASE).GET().build(), HttpResponse.BodyHandlers.discarding()).get().statusCode(), 200);
+    assertEquals(this.requests.get(), 2);
+
+    this.requests.set(0);
+    assertEquals(client.sendAsync(HttpRequest.newBuilder(URI_BASE).GET().build(), HttpResponse.BodyHandlers.discarding()).get().statusCode(), 200);
+    assertEquals(this.requests.get(), 1);
+  }
+
+  @Test
+  public void testNoRetryForNonIdempotent() throws Exception
+  {
+    final HawkClient hawkClient = new HawkClient.Builder().credentials(this.credentials).build();
+    hawkClient.setServerDate(System.currentTimeMillis() - 600000L);
+    final HawkHttpClient client = new HawkHttpClient(HttpClient.newHttpClient(), hawkClient);
+    final HttpRequest request = HttpRequest.newBuilder(URI_BASE)
+                                           .header("Content-Type", "text/plain")
+                                           .POST(HttpRequest.BodyPublishers.ofString("Some content"))
+                                           .build();
+    this.requests.set(0);
+    assertEquals(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode(), 401);
+    assertEquals(this.requests.get(), 1);
+    assertEquals(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode(), 200);
+  }
+
+  private HawkHttpClient createClient(final Hawk.PayloadValidation payloadValidation)
+  {
+    final HawkClient hawkClient = new HawkClient.Builder()
+                                                .credentials(this.credentials)
+                                                .configuration(new HawkClientConfiguration.Builder().payloadValidation(payloadValidation).build())
+                                                .build();
+    return new HawkHttpClient(HttpClient.newHttpClient(), hawkClient);
+  }
+
+  // Verify the Hawk header and payload hash of each request
+  private class VerifyingHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      requests.incrementAndGet();
+      final byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+      final ImmutableMap<String, String> headers = hawkServer.parseAuthorizationHeader(exchange.getRequestHeaders().getFirst("Authorization"));
+      String hash = null;
+      if ((headers != null) && (headers.containsKey("hash")))
+      {
+        final Mac mac = Hawk.startBodyMac(credentials, exchange.getRequestHeaders().getFirst("Content-Type"));
+        mac.update(body);
+        hash = Hawk.completeBodyMac(mac);
+      }
+      final URI uri = URI.create("http://localhost:" + PORT + exchange.getRequestURI().toString());
+      final HawkVerificationResult result = hawkServer.verify(credentials, uri, exchange.getRequestMethod(), headers, hash, body.length > 0);
+      if (!result.isValid())
+      {
+        exchange.getResponseHeaders().add("WWW-Authenticate", hawkServer.generateAuthenticateHeader());
+      }
+      final byte[] response = ((hash == null ? "unhashed " : "hashed ") + body.length).getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(result.isValid() ? 200 : 401, response.length);
+      exchange.getResponseBody().write(response);
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import static com.wealdtech.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import com.wealdtech.hawk.HawkClient;
+
+/**
+ * Request filter providing an Authorization header for requests to Hawk
+ * applications from JAX-RS 2 clients, including asynchronous invocations.
+ * <p>
+ * Requests without a body are signed by the filter.  If the client's
+ * configuration requires payload validation then requests with a body are
+ * signed by the writer interceptor once the body has been serialized, so that
+ * the payload hash can be included in the header.  As the header must be sent
+ * before the body, such bodies are held in memory until they are signed.
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class HawkAuthorizationFilter implements ClientRequestFilter, WriterInterceptor
+{
+  private static final String PROPERTY_URI = "com.wealdtech.hawk.uri";
+  private static final String PROPERTY_METHOD = "com.wealdtech.hawk.method";
+
+  private final transient HawkClient client;
+
+  public HawkAuthorizationFilter(final HawkClient client)
+  {
+    checkNotNull(client, "Hawk authorization filter requires a hawk client");
+    this.client = client;
+  }
+
+  @Override
+  public void filter(final ClientRequestContext request)
+  {
+    if ((!request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)) &&
+        (client.isValidFor(request.getUri().getRawPath())))
+    {
+      if ((this.client.isPayloadHashRequired()) && (request.hasEntity()))
+      {
+        // Sign once the body is available
+        request.setProperty(PROPERTY_URI, request.getUri());
+        request.setProperty(PROPERTY_METHOD, request.getMethod());
+      }
+      else
+      {
+        request.getHeaders().add(HttpHeaders.AUTHORIZATION, this.client.generateAuthorizationHeader(request.getUri(), request.getMethod(), null, null, null, null));
+      }
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(final WriterInterceptorContext context) throws IOException
+  {
+    final Object uri = context.getProperty(PROPERTY_URI);
+    if (!(uri instanceof URI))
+    {
+      context.proceed();
+      return;
+    }
+
+    final OutputStream out = context.getOutputStream();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    context.setOutputStream(body);
+    context.proceed();
+
+    final String hash = this.client.calculatePayloadHash(context.getMediaType().toString(), body.toByteArray());
+    context.getHeaders().add(HttpHeaders.AUTHORIZATION, this.client.generateAuthorizationHeader((URI)uri, (String)context.getProperty(PROPERTY_METHOD), hash, null, null, null));
+    body.writeTo(out);
+    context.setOutputStream(out);
+  }
+}
@@ -1,5 +1,5 @@
 /*
- *    Copyright 2013 Weald Technology Trading Limited
+ *    Copyright 2014 Weald Technology Trading Limited
  *
  *   Licensed under the Apache License, Version 2.0 (the "License");
  *   you may not use this file except in compliance with the License.
@@ -16,41 +16,348 @@
 
 package com.wealdtech.hawk.jersey;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HttpHeaders;
 import com.google.inject.Inject;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
 import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.RequestWriter;
 import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.spi.MessageBodyWorkers;
+import com.wealdtech.hawk.Hawk;
 import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientRouter;
+import com.wealdtech.hawk.HawkVerificationResult;
 
+import javax.crypto.Mac;
+import javax.ws.rs.core.Response.Status;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.Locale;
 
+import static com.wealdtech.Preconditions.checkArgument;
 import static com.wealdtech.Preconditions.checkNotNull;
 
 /**
  * Request filter providing an Authorization header
  * for requests to Hawk applications.
+ * <p>
+ * If the Hawk client's configuration calls for payload validation then the
+ * request entity is hashed as it is serialized.  As the header must be sent
+ * before the body, the serialized entity is held until the hash is complete:
+ * in memory up to a threshold, by default 1MB, and in a temporary file
+ * beyond it.  Payload hashing requires the message body workers of the
+ * Jersey client, for example
+ * <code>new HawkAuthorizationFilter(hawkClient, client.getMessageBodyWorkers())</code>.
+ * <p>
+ * If the Hawk client's configuration calls for response validation then the
+ * Server-Authorization header of each response is verified, and the response
+ * payload hashed as it is read, failing when its end is reached if it does
+ * not match the hash in the header.  Payloads are not held in memory, so can
+ * be of any size.
+ * <p>
+ * If a request is rejected because the client's clock differs from the
+ * server's then the client's clock skew for that server is corrected from
+ * the server's WWW-Authenticate header, and idempotent requests are retried
+ * once, so that clock drift costs a single round trip per server.
+ * <p>
+ * Requests made through an <code>AsyncWebResource</code> pass through the
+ * same filter chain on the Jersey client's executor, so are signed and
+ * verified in the same way.  Clients of the JDK HTTP client that need
+ * non-blocking signing should use the hawk-client-httpclient module.
+ * <p>
+ * A filter created with a {@link HawkClientRouter} signs each request with
+ * the client routed to by the request's URI, so a single filter can sign
+ * requests to many servers with different credentials.  Requests that match
+ * no route are passed on unsigned.
  */
 public class HawkAuthorizationFilter extends ClientFilter
 {
+  public static final String SERVER_AUTHORIZATION = "Server-Authorization";
+  public static final int DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+
+  private static final ImmutableSet<String> IDEMPOTENT_METHODS = ImmutableSet.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE");
+
   private final transient HawkClient client;
+  private final transient HawkClientRouter router;
+  private final transient EntityWriter entityWriter;
+  private final int spoolThreshold;
 
   @Inject
   public HawkAuthorizationFilter(final HawkClient client)
   {
+    this(client, null, DEFAULT_SPOOL_THRESHOLD);
+  }
+
+  /**
+   * Create a filter able to hash request payloads.
+   * @param client the Hawk client
+   * @param workers the message body workers of the Jersey client, used to serialize request entities
+   */
+  public HawkAuthorizationFilter(final HawkClient client, final MessageBodyWorkers workers)
+  {
+    this(client, workers, DEFAULT_SPOOL_THRESHOLD);
+  }
+
+  /**
+   * Create a filter able to hash request payloads.
+   * @param client the Hawk client
+   * @param workers the message body workers of the Jersey client, used to serialize request entities
+   * @param spoolThreshold the size in bytes above which serialized entities are held in a temporary file rather than memory
+   */
+  public HawkAuthorizationFilter(final HawkClient client, final MessageBodyWorkers workers, final int spoolThreshold)
+  {
+    this(client, null, workers, spoolThreshold);
     checkNotNull(client, "Hawk authorization filter requires a hawk client");
+  }
+
+  /**
+   * Create a filter signing requests with the client routed to by their URIs.
+   * @param router the Hawk client router
+   * @param workers the message body workers of the Jersey client, used to serialize request entities
+   */
+  public HawkAuthorizationFilter(final HawkClientRouter router, final MessageBodyWorkers workers)
+  {
+    this(router, workers, DEFAULT_SPOOL_THRESHOLD);
+  }
+
+  /**
+   * Create a filter signing requests with the client routed to by their URIs.
+   * @param router the Hawk client router
+   * @param workers the message body workers of the Jersey client, used to serialize request entities
+   * @param spoolThreshold the size in bytes above which serialized entities are held in a temporary file rather than memory
+   */
+  public HawkAuthorizationFilter(final HawkClientRouter router, final MessageBodyWorkers workers, final int spoolThreshold)
+  {
+    this(null, router, workers, spoolThreshold);
+    checkNotNull(router, "Hawk authorization filter requires a hawk client router");
+  }
+
+  private HawkAuthorizationFilter(final HawkClient client, final HawkClientRouter router, final MessageBodyWorkers workers, final int spoolThreshold)
+  {
+    checkArgument(spoolThreshold >= 0, "The spool threshold may not be negative");
     this.client = client;
+    this.router = router;
+    this.entityWriter = workers == null ? null : new EntityWriter(workers);
+    this.spoolThreshold = spoolThreshold;
   }
 
   @Override
   public ClientResponse handle(final ClientRequest cr)
   {
-    if ((!cr.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)) &&
-        (client.isValidFor(cr.getURI().getRawPath())))
+    final URI uri = cr.getURI();
+    final HawkClient client = this.router == null ? this.client : this.router.route(uri);
+    if ((client == null) ||
+        (cr.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)) ||
+        (!client.isValidFor(uri.getRawPath())))
+    {
+      return getNext().handle(cr);
+    }
+
+    final String method = cr.getMethod();
+    if ((cr.getEntity() == null) || (!client.isPayloadHashRequired()))
+    {
+      return send(cr, client, uri, method, null);
+    }
+    if (this.entityWriter == null)
+    {
+      throw new ClientHandlerException("Hawk payload validation requires the filter to be created with message body workers");
+    }
+
+    final PayloadSpool spool = new PayloadSpool(this.spoolThreshold);
+    try
+    {
+      return send(cr, client, uri, method, spool(cr, client, spool));
+    }
+    finally
+    {
+      spool.delete();
+    }
+  }
+
+  /**
+   * Send a request with an authorization header.  If the server rejects the
+   * request with a timestamp showing that the client's clock is out then
+   * the client's skew for the server is corrected and, if the request can
+   * safely be repeated, it is sent once more.
+   * @return the response
+   */
+  private ClientResponse send(final ClientRequest cr, final HawkClient client, final URI uri, final String method, final String hash)
+  {
+    String authorizationHeader = client.generateAuthorizationHeader(uri, method, hash, null, null, null);
+    cr.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, authorizationHeader);
+    ClientResponse response = getNext().handle(cr);
+    if ((response.getStatus() == Status.UNAUTHORIZED.getStatusCode()) &&
+        (client.adjustForAuthenticateHeader(uri, response.getHeaders().getFirst(HttpHeaders.WWW_AUTHENTICATE))) &&
+        (isRepeatable(cr)))
+    {
+      response.close();
+      authorizationHeader = client.generateAuthorizationHeader(uri, method, hash, null, null, null);
+      cr.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, authorizationHeader);
+      response = getNext().handle(cr);
+    }
+    return verify(client, uri, method, authorizationHeader, response);
+  }
+
+  /**
+   * Find out if a request can be sent again: its method must be idempotent
+   * and its entity, if any, able to be written more than once.
+   */
+  private static boolean isRepeatable(final ClientRequest cr)
+  {
+    if (!IDEMPOTENT_METHODS.contains(cr.getMethod().toUpperCase(Locale.ENGLISH)))
+    {
+      return false;
+    }
+    final Object entity = cr.getEntity();
+    return (entity == null) || (entity instanceof String) || (entity instanceof byte[]) || (entity instanceof File);
+  }
+
+  /**
+   * Verify the Server-Authorization header of a response if the client's
+   * configuration requires it.  The payload is verified as it is read, and
+   * reading the end of a payload that does not match its hash fails.
+   * @return the response
+   * @throws ClientHandlerException if the response fails verification
+   */
+  private ClientResponse verify(final HawkClient client, final URI uri, final String method, final String authorizationHeader, final ClientResponse response)
+  {
+    final Hawk.PayloadValidation validation = client.getResponseValidation();
+    if (validation == Hawk.PayloadValidation.NEVER)
+    {
+      return response;
+    }
+    final String serverAuthorizationHeader = response.getHeaders().getFirst(SERVER_AUTHORIZATION);
+    if (serverAuthorizationHeader == null)
+    {
+      if (validation == Hawk.PayloadValidation.MANDATORY)
+      {
+        response.close();
+        throw new ClientHandlerException("Response does not have a Server-Authorization header");
+      }
+      return response;
+    }
+
+    final ImmutableMap<String, String> serverAuthorizationHeaders = client.parseServerAuthorizationHeader(serverAuthorizationHeader);
+    final HawkVerificationResult result = client.verifyServerAuthorization(uri, method, authorizationHeader, serverAuthorizationHeaders);
+    if (!result.isValid())
+    {
+      response.close();
+      throw new ClientHandlerException("Response failed verification: " + result.getMessage());
+    }
+    if (!response.hasEntity())
+    {
+      return response;
+    }
+    final String hash = serverAuthorizationHeaders.get("hash");
+    final String contentType = response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+    if ((hash == null) || (contentType == null))
+    {
+      if (validation == Hawk.PayloadValidation.MANDATORY)
+      {
+        response.close();
+        throw new ClientHandlerException("Response payload is not covered by its Server-Authorization header");
+      }
+      return response;
+    }
+    response.setEntityInputStream(client.verifyPayload(response.getEntityInputStream(), contentType, hash, response.getLength()));
+    return response;
+  }
+
+  /**
+   * Serialize the entity of a request into a spool, hashing it on the way,
+   * and replace the entity with the spooled bytes.
+   * @return the hash of the entity
+   */
+  private String spool(final ClientRequest cr, final HawkClient client, final PayloadSpool spool)
+  {
+    final String hash;
+    try
+    {
+      hash = this.entityWriter.write(cr, client, spool);
+    }
+    catch (IOException ioe)
+    {
+      throw new ClientHandlerException("Failed to serialize request entity", ioe);
+    }
+
+    // The spooled bytes are exactly what is sent, so must not be adapted again
+    cr.setEntity(spool.toEntity());
+    cr.setAdapter(IDENTITY_ADAPTER);
+    return hash;
+  }
+
+  private static final ClientRequestAdapter IDENTITY_ADAPTER = new ClientRequestAdapter()
+  {
+    @Override
+    public OutputStream adapt(final ClientRequest request, final OutputStream out)
+    {
+      return out;
+    }
+  };
+
+  /**
+   * Access to Jersey's own entity serialization, so that entities are
+   * serialized exactly as they would be when sent.
+   */
+  private static class EntityWriter extends RequestWriter
+  {
+    EntityWriter(final MessageBodyWorkers workers)
+    {
+      super(workers);
+    }
+
+    /**
+     * Write the entity of a request, hashing it as it is written.  The
+     * request's adapter is applied, and its content type set if absent.
+     * @return the hash of the entity
+     */
+    String write(final ClientRequest cr, final HawkClient client, final OutputStream out) throws IOException
+    {
+      final RequestEntityWriter writer = getRequestEntityWriter(cr);
+      final String contentType = writer.getMediaType().toString();
+      final Mac mac = client.startPayloadHash(contentType);
+      // The entity writer closes the stream when done
+      writer.writeRequestEntity(new HashingOutputStream(out, mac));
+      if (!cr.getHeaders().containsKey(HttpHeaders.CONTENT_TYPE))
+      {
+        cr.getHeaders().putSingle(HttpHeaders.CONTENT_TYPE, contentType);
+      }
+      return Hawk.completeBodyMac(mac);
+    }
+  }
+
+  /**
+   * An output stream passing everything written to it to a MAC as well.
+   */
+  private static class HashingOutputStream extends FilterOutputStream
+  {
+    private final Mac mac;
+
+    HashingOutputStream(final OutputStream out, final Mac mac)
+    {
+      super(out);
+      this.mac = mac;
+    }
+
+    @Override
+    public void write(final int b) throws IOException
+    {
+      this.mac.update((byte)b);
+      this.out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException
     {
-      final URI uri = cr.getURI();
-      final String method = cr.getMethod();
-      cr.getHeaders().add(HttpHeaders.AUTHORIZATION, this.client.generateAuthorizationHeader(uri, method, null, null, null, null));
+      this.mac.update(b, off, len);
+      this.out.write(b, off, len);
     }
-    return getNext().handle(cr);}
   }
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream holding a request payload in memory up to a threshold,
+ * and in a temporary file beyond it.
+ */
+class PayloadSpool extends OutputStream
+{
+  private final int threshold;
+  private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+  private File file;
+  private OutputStream fileOut;
+
+  PayloadSpool(final int threshold)
+  {
+    this.threshold = threshold;
+  }
+
+  @Override
+  public void write(final int b) throws IOException
+  {
+    target(1).write(b);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException
+  {
+    target(len).write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    if (this.fileOut != null)
+    {
+      this.fileOut.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (this.fileOut != null)
+    {
+      this.fileOut.close();
+    }
+  }
+
+  /**
+   * Obtain the spooled payload as an entity for the request.
+   * @return a byte array if the payload is held in memory, otherwise the file holding it
+   */
+  Object toEntity()
+  {
+    return this.file == null ? this.memory.toByteArray() : this.file;
+  }
+
+  /**
+   * Remove the temporary file, if any.
+   */
+  void delete()
+  {
+    if (this.file != null)
+    {
+      try
+      {
+        close();
+      }
+      catch (IOException ioe)
+      {
+        // Deleting anyway
+      }
+      if (!this.file.delete())
+      {
+        this.file.deleteOnExit();
+      }
+      this.file = null;
+    }
+  }
+
+  // Obtain the stream to write to, moving to a file once the threshold is passed
+  private OutputStream target(final int len) throws IOException
+  {
+    if ((this.fileOut == null) && (this.memory.size() + len > this.threshold))
+    {
+      this.file = File.createTempFile("hawk-payload", ".tmp");
+      this.fileOut = new FileOutputStream(this.file);
+      this.memory.writeTo(this.fileOut);
+      this.memory = null;
+    }
+    return this.fileOut == null ? this.memory : this.fileOut;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jersey;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientRouter;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.jersey.HawkAuthorizationFilter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.testng.Assert.*;
+
+public class TestHawkClientRouting
+{
+  private static final int PORT = 18248;
+  private static final String URL = "http://localhost:" + PORT;
+
+  private HawkCredentials credentials1, credentials2;
+  private HawkServer hawkServer;
+  private HttpServer httpServer;
+  private Client client;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.credentials1 = new HawkCredentials.Builder()
+                                           .keyId("dh37fgj492je")
+                                           .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                           .algorithm(HawkCredentials.Algorithm.SHA256)
+                                           .build();
+    this.credentials2 = new HawkCredentials.Builder()
+                                           .keyId("kbmdu72h12xt")
+                                           .key("nzvxvljms2n239w7alsaduanpet109apbisuda0bt79")
+                                           .algorithm(HawkCredentials.Algorithm.SHA256)
+                                           .build();
+    this.hawkServer = new HawkServer.Builder().build();
+    this.httpServer = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+    this.httpServer.createContext("/", new VerifyingHandler());
+    this.httpServer.start();
+
+    final HawkClientRouter router = new HawkClientRouter.Builder()
+                                                        .route(URI.create(URL + "/one/"), new HawkClient.Builder().credentials(this.credentials1).build())
+                                                        .route(URI.create(URL + "/two/"), new HawkClient.Builder().credentials(this.credentials2).build())
+                                                        .build();
+    this.client = Client.create(new DefaultClientConfig());
+    this.client.addFilter(new HawkAuthorizationFilter(router, this.client.getMessageBodyWorkers()));
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.httpServer.stop(0);
+  }
+
+  @Test
+  public void testRouting() throws Exception
+  {
+    final ClientResponse response1 = this.client.resource(URL + "/one/resource").get(ClientResponse.class);
+    assertEquals(response1.getStatus(), 200);
+    assertEquals(response1.getEntity(String.class), "dh37fgj492je");
+
+    final ClientResponse response2 = this.client.resource(URL + "/two/resource").get(ClientResponse.class);
+    assertEquals(response2.getStatus(), 200);
+    assertEquals(response2.getEntity(String.class), "kbmdu72h12xt");
+  }
+
+  @Test
+  public void testUnrouted() throws Exception
+  {
+    assertEquals(this.client.resource(URL + "/three/resource").get(ClientResponse.class).getStatus(), 401);
+  }
+
+  // Verify requests against the credentials named in their headers, returning the key ID
+  private class VerifyingHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      final String authorizationHeader = exchange.getRequestHeaders().getFirst("Authorization");
+      if (authorizationHeader == null)
+      {
+        exchange.sendResponseHeaders(401, -1);
+        exchange.close();
+        return;
+      }
+      final ImmutableMap<String, String> headers = hawkServer.parseAuthorizationHeader(authorizationHeader);
+      final HawkCredentials credentials = credentials1.getKeyId().equals(headers.get("id")) ? credentials1 : credentials2;
+      final URI uri = URI.create(URL + exchange.getRequestURI().toString());
+      final HawkVerificationResult result = hawkServer.verify(credentials, uri, exchange.getRequestMethod(), headers, null, false);
+      if (result.isValid())
+      {
+        final byte[] body = credentials.getKeyId().getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      else
+      {
+        exchange.sendResponseHeaders(401, -1);
+      }
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jersey;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.jersey.HawkAuthorizationFilter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class TestHawkClockSkew
+{
+  private static final int PORT = 18246;
+  private static final String URL = "http://localhost:" + PORT + "/skew";
+
+  private HawkCredentials credentials;
+  private HawkServer hawkServer;
+  private HttpServer httpServer;
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.credentials = new HawkCredentials.Builder()
+                                          .keyId("dh37fgj492je")
+                                          .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                          .algorithm(HawkCredentials.Algorithm.SHA256)
+                                          .build();
+    this.hawkServer = new HawkServer.Builder().build();
+    this.httpServer = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+    this.httpServer.createContext("/", new VerifyingHandler());
+    this.httpServer.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.httpServer.stop(0);
+  }
+
+  @Test
+  public void testRetryAfterSkew() throws Exception
+  {
+    final Client client = createClient();
+    this.requests.set(0);
+    assertEquals(client.resource(URL).get(ClientResponse.class).getStatus(), 200);
+    assertEquals(this.requests.get(), 2);
+
+    // The corrected skew is kept for later requests
+    this.requests.set(0);
+    assertEquals(client.resource(URL).put(ClientResponse.class, "Some content").getStatus(), 200);
+    assertEquals(this.requests.get(), 1);
+  }
+
+  @Test
+  public void testNoRetryForNonIdempotent() throws Exception
+  {
+    final Client client = createClient();
+    this.requests.set(0);
+    assertEquals(client.resource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Some content").getStatus(), 401);
+    assertEquals(this.requests.get(), 1);
+    // The skew is corrected even though the request was not retried
+    assertEquals(client.resource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Some content").getStatus(), 200);
+  }
+
+  private Client createClient()
+  {
+    final HawkClient hawkClient = new HawkClient.Builder().credentials(this.credentials).build();
+    hawkClient.setServerDate(System.currentTimeMillis() - 600000L);
+    final Client client = Client.create(new DefaultClientConfig());
+    client.addFilter(new HawkAuthorizationFilter(hawkClient));
+    return client;
+  }
+
+  // Verify requests, rejecting them with the server's time if they fail
+  private class VerifyingHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      requests.incrementAndGet();
+      final ImmutableMap<String, String> headers = hawkServer.parseAuthorizationHeader(exchange.getRequestHeaders().getFirst("Authorization"));
+      final URI uri = URI.create("http://localhost:" + PORT + exchange.getRequestURI().toString());
+      final HawkVerificationResult result = hawkServer.verify(credentials, uri, exchange.getRequestMethod(), headers, null, false);
+      if (result.isValid())
+      {
+        exchange.sendResponseHeaders(200, -1);
+      }
+      else
+      {
+        exchange.getResponseHeaders().add("WWW-Authenticate", hawkServer.generateAuthenticateHeader());
+        exchange.sendResponseHeaders(401, -1);
+      }
+      exchange.close();
+    }
+  }
+}
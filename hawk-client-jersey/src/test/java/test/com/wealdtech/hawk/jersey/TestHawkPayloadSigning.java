@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientConfiguration;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.jersey.HawkAuthorizationFilter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.crypto.Mac;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+public class TestHawkPayloadSigning
+{
+  private static final int PORT = 18244;
+  private static final String URL = "http://localhost:" + PORT + "/upload";
+
+  private HawkCredentials credentials;
+  private HawkServer hawkServer;
+  private HttpServer httpServer;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.credentials = new HawkCredentials.Builder()
+                                          .keyId("dh37fgj492je")
+                                          .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                          .algorithm(HawkCredentials.Algorithm.SHA256)
+                                          .build();
+    this.hawkServer = new HawkServer.Builder().build();
+    this.httpServer = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+    this.httpServer.createContext("/", new VerifyingHandler());
+    this.httpServer.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.httpServer.stop(0);
+  }
+
+  @Test
+  public void testSmallPayload() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.MANDATORY, HawkAuthorizationFilter.DEFAULT_SPOOL_THRESHOLD);
+    final ClientResponse response = client.resource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Thank you for flying Hawk");
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.getEntity(String.class), "hashed 25");
+  }
+
+  @Test
+  public void testSpooledPayload() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.MANDATORY, 1024);
+    final String body = Strings.repeat("0123456789abcdef", 8192);
+    final ClientResponse response = client.resource(URL).type(MediaType.TEXT_PLAIN).put(ClientResponse.class, body);
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.getEntity(String.class), "hashed " + body.length());
+  }
+
+  @Test
+  public void testAsyncResource() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.MANDATORY, HawkAuthorizationFilter.DEFAULT_SPOOL_THRESHOLD);
+    final Future<ClientResponse> response = client.asyncResource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Thank you for flying Hawk");
+    assertEquals(response.get().getStatus(), 200);
+    assertEquals(response.get().getEntity(String.class), "hashed 25");
+  }
+
+  @Test
+  public void testNoPayloadValidation() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.NEVER, HawkAuthorizationFilter.DEFAULT_SPOOL_THRESHOLD);
+    final ClientResponse response = client.resource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Thank you for flying Hawk");
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.getEntity(String.class), "unhashed 25");
+  }
+
+  @Test
+  public void testMandatoryWithoutWorkers() throws Exception
+  {
+    final HawkClient hawkClient = createHawkClient(Hawk.PayloadValidation.MANDATORY);
+    final Client client = Client.create(new DefaultClientConfig());
+    client.addFilter(new HawkAuthorizationFilter(hawkClient));
+    try
+    {
+      client.resource(URL).type(MediaType.TEXT_PLAIN).post(ClientResponse.class, "Thank you for flying Hawk");
+      fail("Sent request without payload hash");
+    }
+    catch (ClientHandlerException che)
+    {
+      // Good
+    }
+    // Requests without entities do not need workers
+    assertEquals(client.resource(URL).get(ClientResponse.class).getStatus(), 200);
+  }
+
+  private HawkClient createHawkClient(final Hawk.PayloadValidation payloadValidation)
+  {
+    return new HawkClient.Builder()
+                         .credentials(this.credentials)
+                         .configuration(new HawkClientConfiguration.Builder().payloadValidation(payloadValidation).build())
+                         .build();
+  }
+
+  private Client createClient(final Hawk.PayloadValidation payloadValidation, final int spoolThreshold)
+  {
+    final Client client = Client.create(new DefaultClientConfig());
+    client.addFilter(new HawkAuthorizationFilter(createHawkClient(payloadValidation), client.getMessageBodyWorkers(), spoolThreshold));
+    return client;
+  }
+
+  // Verify the Hawk header and payload hash of each request
+  private class VerifyingHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      final byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+      final ImmutableMap<String, String> headers = hawkServer.splitAuthorizationHeader(exchange.getRequestHeaders().getFirst("Authorization"));
+      final String hash;
+      if (headers.containsKey("hash"))
+      {
+        final Mac mac = Hawk.startBodyMac(credentials, exchange.getRequestHeaders().getFirst("Content-Type"));
+        mac.update(body);
+        hash = Hawk.completeBodyMac(mac);
+      }
+      else
+      {
+        hash = null;
+      }
+      final URI uri = URI.create("http://localhost:" + PORT + exchange.getRequestURI().toString());
+      final HawkVerificationResult result = hawkServer.verify(credentials, uri, exchange.getRequestMethod(), headers, hash, body.length > 0);
+      final byte[] response = ((hash == null ? "unhashed " : "hashed ") + body.length).getBytes("UTF-8");
+      exchange.sendResponseHeaders(result.isValid() ? 200 : 401, response.length);
+      exchange.getResponseBody().write(response);
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Strings;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientConfiguration;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.jersey.HawkAuthorizationFilter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.testng.Assert.*;
+
+public class TestHawkResponseVerification
+{
+  private static final int PORT = 18245;
+  private static final String URL = "http://localhost:" + PORT;
+  private static final String PAYLOAD = Strings.repeat("Signed response ", 65536);
+
+  private HawkCredentials credentials;
+  private HawkServer hawkServer;
+  private HttpServer httpServer;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.credentials = new HawkCredentials.Builder()
+                                          .keyId("dh37fgj492je")
+                                          .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                          .algorithm(HawkCredentials.Algorithm.SHA256)
+                                          .build();
+    this.hawkServer = new HawkServer.Builder().build();
+    this.httpServer = HttpServer.create(new InetSocketAddress("localhost", PORT), 0);
+    this.httpServer.createContext("/", new SigningHandler());
+    this.httpServer.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.httpServer.stop(0);
+  }
+
+  @Test
+  public void testSignedResponse() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.MANDATORY);
+    assertEquals(client.resource(URL + "/signed").get(String.class), PAYLOAD);
+  }
+
+  @Test
+  public void testTamperedPayload() throws Exception
+  {
+    final Client client = createClient(Hawk.PayloadValidation.IFPRESENT);
+    try
+    {
+      client.resource(URL + "/tampered").get(String.class);
+      fail("Read tampered response");
+    }
+    catch (ClientHandlerException che)
+    {
+      // Good
+    }
+  }
+
+  @Test
+  public void testUnsignedResponse() throws Exception
+  {
+    assertEquals(createClient(Hawk.PayloadValidation.IFPRESENT).resource(URL + "/unsigned").get(String.class), PAYLOAD);
+    assertEquals(createClient(Hawk.PayloadValidation.NEVER).resource(URL + "/tampered").get(String.class).length(), PAYLOAD.length());
+    try
+    {
+      createClient(Hawk.PayloadValidation.MANDATORY).resource(URL + "/unsigned").get(String.class);
+      fail("Accepted unsigned response");
+    }
+    catch (ClientHandlerException che)
+    {
+      // Good
+    }
+  }
+
+  private Client createClient(final Hawk.PayloadValidation responseValidation)
+  {
+    final HawkClient hawkClient = new HawkClient.Builder()
+                                                .credentials(this.credentials)
+                                                .configuration(new HawkClientConfiguration.Builder().responseValidation(responseValidation).build())
+                                                .build();
+    final Client client = Client.create(new DefaultClientConfig());
+    client.addFilter(new HawkAuthorizationFilter(hawkClient));
+    return client;
+  }
+
+  // Sign responses to requests, tampering with the payload if asked
+  private class SigningHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      final String path = exchange.getRequestURI().getPath();
+      final byte[] payload = PAYLOAD.getBytes("UTF-8");
+      exchange.getResponseHeaders().add("Content-Type", "text/plain");
+      if (!"/unsigned".equals(path))
+      {
+        final String hash = Hawk.calculateBodyMac(credentials, "text/plain", PAYLOAD);
+        final URI uri = URI.create(URL + exchange.getRequestURI().toString());
+        exchange.getResponseHeaders().add("Server-Authorization",
+                                          hawkServer.generateServerAuthorizationHeader(credentials,
+                                                                                       uri,
+                                                                                       exchange.getRequestMethod(),
+                                                                                       hawkServer.parseAuthorizationHeader(exchange.getRequestHeaders().getFirst("Authorization")),
+                                                                                       hash,
+                                                                                       null));
+      }
+      if ("/tampered".equals(path))
+      {
+        payload[payload.length - 1] = '!';
+      }
+      exchange.sendResponseHeaders(200, payload.length);
+      exchange.getResponseBody().write(payload);
+      exchange.close();
+    }
+  }
+}
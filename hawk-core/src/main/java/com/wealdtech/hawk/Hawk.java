@@ -93,16 +93,76 @@ public class Hawk
                                     final String ext,
                                     final String app,
                                     final String dlg)
+  {
+    checkNotNull(uri, "URI is required but not supplied");
+    checkNotNull(uri.getHost(), "URI host is required but not supplied");
+    final String resource = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + '?' + uri.getRawQuery();
+    return calculateMAC(credentials, authType, timestamp, resource, uri.getHost(), getPort(uri), nonce, method, hash, ext, app, dlg);
+  }
+
+  /**
+   * Calculate and return a MAC from the individual parts of the request
+   * target rather than a URI.  This allows servers that already hold the
+   * request line and host to avoid building and parsing a URI for each
+   * request.  The result is the same as that of
+   * {@link #calculateMAC(HawkCredentials, AuthType, Long, URI, String, String, String, String, String, String)}
+   * for the equivalent URI.
+   *
+   * @param credentials
+   *          Hawk credentials of the requestor
+   * @param authType
+   *          The type of the MAC to calculate
+   * @param timestamp
+   *          timestamp of the request
+   * @param resource
+   *          the raw path of the request, including the raw query string if
+   *          present
+   * @param host
+   *          the host of the request
+   * @param port
+   *          the port of the request
+   * @param nonce
+   *          nonce a random string used to uniquely identify the request
+   * @param method
+   *          the HTTP method of the request
+   * @param hash
+   *          a hash of the request's payload, or <code>null</code> if payload
+   *          authentication is not required
+   * @param ext
+   *          optional extra data, as supplied by the requestor to differentiate
+   *          the request if required
+   * @param app
+   *          application ID, used for Oz
+   * @param dlg
+   *          delegator, used for Oz
+   * @return the MAC
+   * @throws DataError
+   *           if there is an issue with the data that prevents creation of the
+   *           MAC
+   */
+  public static String calculateMAC(final HawkCredentials credentials,
+                                    final AuthType authType,
+                                    final Long timestamp,
+                                    final String resource,
+                                    final String host,
+                                    final int port,
+                                    final String nonce,
+                                    final String method,
+                                    final String hash,
+                                    final String ext,
+                                    final String app,
+                                    final String dlg)
   {
     // Check that required parameters are present
     checkNotNull(credentials, "Credentials are required but not supplied");
     checkNotNull(timestamp, "Timestamp is required but not supplied");
-    checkNotNull(uri, "URI is required but not supplied");
+    checkNotNull(resource, "Resource is required but not supplied");
+    checkNotNull(host, "Host is required but not supplied");
     checkNotNull(authType, "Authentication type is required but not supplied");
 
-    if (authType.equals(AuthType.HEADER))
+    if (!authType.equals(AuthType.BEWIT))
     {
-      // Additional parameters for core authentications
+      // Additional parameters for header and response authentications
       checkNotNull(nonce, "Nonce is required but not supplied");
       checkNotNull(method, "Method is required but not supplied");
     }
@@ -115,7 +175,7 @@ public class Hawk
     sb.append('\n');
     sb.append(timestamp);
     sb.append('\n');
-    if (authType.equals(AuthType.HEADER))
+    if (!authType.equals(AuthType.BEWIT))
     {
       sb.append(nonce);
     }
@@ -129,18 +189,13 @@ public class Hawk
       sb.append(method.toUpperCase(Locale.ENGLISH));
     }
     sb.append('\n');
-    sb.append(uri.getRawPath());
-    if (uri.getQuery() != null)
-    {
-      sb.append('?');
-      sb.append(uri.getRawQuery());
-    }
+    sb.append(resource);
     sb.append('\n');
-    sb.append(uri.getHost().toLowerCase(Locale.ENGLISH));
+    sb.append(host.toLowerCase(Locale.ENGLISH));
     sb.append('\n');
-    sb.append(getPort(uri));
+    sb.append(port);
     sb.append('\n');
-    if ((authType.equals(AuthType.HEADER)) &&
+    if ((!authType.equals(AuthType.BEWIT)) &&
         (hash != null))
     {
       sb.append(hash);
@@ -164,7 +219,7 @@ public class Hawk
    * @param uri the URI
    * @return The port.
    */
-  private static int getPort(final URI uri)
+  static int getPort(final URI uri)
   {
     int port = uri.getPort();
     if (port == -1)
@@ -248,6 +303,80 @@ public class Hawk
    *           MAC
    */
   public static String calculateMac(final HawkCredentials credentials, final String text)
+  {
+    try
+    {
+      return BaseEncoding.base64().encode(initMac(credentials).doFinal(text.getBytes("UTF-8")));
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      throw new ServerError("Unable to encode with UTF-8", uee);
+    }
+  }
+
+  /**
+   * Start generating the MAC for a body with a specific content-type, for
+   * bodies that are read as a stream rather than held in memory.  The bytes
+   * of the body should be passed to the returned MAC as they are read, and
+   * the MAC finished with {@link #completeBodyMac(Mac)}.  The result is the
+   * same as that of {@link #calculateBodyMac(HawkCredentials, String, String)}
+   * for a body encoded as UTF-8.
+   *
+   * @param credentials
+   *          Hawk credentials of the requestor
+   * @param contentType
+   *          the MIME content type
+   * @return the MAC, ready to be updated with the body
+   * @throws DataError
+   *           if there is an issue with the data that prevents creation of the
+   *           MAC
+   */
+  public static Mac startBodyMac(final HawkCredentials credentials, final String contentType)
+  {
+    checkNotNull(contentType, "Content type is required but not supplied");
+
+    final StringBuilder sb = new StringBuilder(64);
+    sb.append("hawk.");
+    sb.append(HAWKVERSION);
+    sb.append(".payload\n");
+    if (contentType.indexOf(';') != -1)
+    {
+      sb.append(contentType.substring(0, contentType.indexOf(';')).toLowerCase(Locale.ENGLISH));
+    }
+    else
+    {
+      sb.append(contentType.toLowerCase(Locale.ENGLISH));
+    }
+    sb.append('\n');
+
+    final Mac mac = initMac(credentials);
+    try
+    {
+      mac.update(sb.toString().getBytes("UTF-8"));
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      throw new ServerError("Unable to encode with UTF-8", uee);
+    }
+    return mac;
+  }
+
+  /**
+   * Finish generating the MAC for a body started with
+   * {@link #startBodyMac(HawkCredentials, String)}.
+   *
+   * @param mac
+   *          the MAC, updated with the full body
+   * @return the MAC
+   */
+  public static String completeBodyMac(final Mac mac)
+  {
+    mac.update((byte)'\n');
+    return BaseEncoding.base64().encode(mac.doFinal());
+  }
+
+  // Obtain a MAC initialised with the key of the credentials
+  static Mac initMac(final HawkCredentials credentials)
   {
     try
     {
@@ -255,7 +384,7 @@ public class Hawk
       try
       {
         mac.init(new SecretKeySpec(credentials.getKey().getBytes("UTF-8"), credentials.getJavaAlgorithm()));
-        return BaseEncoding.base64().encode(mac.doFinal(text.getBytes("UTF-8")));
+        return mac;
       }
       catch (UnsupportedEncodingException uee)
       {
@@ -301,7 +430,15 @@ public class Hawk
     checkState((ttl > 0), "TTL must be a positive value");
 
     // Calculate expiry from ttl and current time
-    Long expiry = System.currentTimeMillis() / MILLISECONDS_IN_SECONDS + ttl;
+    return generateBewitExpiringAt(credentials, uri, System.currentTimeMillis() / MILLISECONDS_IN_SECONDS + ttl, ext);
+  }
+
+  // Generate a bewit with a given expiry
+  static String generateBewitExpiringAt(final HawkCredentials credentials,
+                                        final URI uri,
+                                        final long expiry,
+                                        final String ext)
+  {
     final String mac = Hawk.calculateMAC(credentials, Hawk.AuthType.BEWIT, expiry, uri, null, null, null, ext, null, null);
 
     final StringBuffer sb = new StringBuffer(256);
@@ -327,7 +464,11 @@ public class Hawk
     /**
      * Authentication via a bewit query parameter
      */
-    BEWIT;
+    BEWIT,
+    /**
+     * Authentication of a response via a Server-Authorization HTTP header
+     */
+    RESPONSE;
 
     @Override
     @JsonValue
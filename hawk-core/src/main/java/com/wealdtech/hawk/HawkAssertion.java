@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import java.security.Principal;
+
+import com.google.common.base.Objects;
+
+/**
+ * An assertion minted by an edge service that has verified a Hawk request,
+ * allowing internal services to accept the request without verifying it
+ * again.  See {@link HawkAssertionSigner}.
+ */
+public final class HawkAssertion implements Principal
+{
+  private final String keyId;
+  private final String principal;
+  private final long expiry;
+
+  HawkAssertion(final String keyId, final String principal, final long expiry)
+  {
+    this.keyId = keyId;
+    this.principal = principal;
+    this.expiry = expiry;
+  }
+
+  /**
+   * Obtain the key ID of the credentials with which the original request was verified.
+   * @return the key ID
+   */
+  public String getKeyId()
+  {
+    return this.keyId;
+  }
+
+  /**
+   * Obtain the name of the principal authenticated by the original request.
+   * @return the name of the principal
+   */
+  @Override
+  public String getName()
+  {
+    return this.principal;
+  }
+
+  /**
+   * Obtain the time at which the assertion expires.
+   * @return the expiry, in seconds since the epoch
+   */
+  public long getExpiry()
+  {
+    return this.expiry;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("keyId", this.keyId)
+                  .add("principal", this.principal)
+                  .add("expiry", this.expiry)
+                  .toString();
+  }
+
+  @Override
+  public boolean equals(final Object that)
+  {
+    if (!(that instanceof HawkAssertion))
+    {
+      return false;
+    }
+    final HawkAssertion other = (HawkAssertion)that;
+    return Objects.equal(this.keyId, other.keyId) && Objects.equal(this.principal, other.principal) && this.expiry == other.expiry;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hashCode(this.keyId, this.principal, this.expiry);
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import com.wealdtech.DataError;
+
+/**
+ * Mint and validate assertions that a request has already been verified
+ * with Hawk.
+ * <p>
+ * An edge service that verifies a Hawk request can mint a short-lived
+ * assertion carrying the key ID and principal, bound to the method and
+ * resource of the request, and pass it to internal services in the
+ * {@link #HEADER} header.  Internal services sharing the signing key then
+ * validate the assertion with a single HMAC over a few dozen bytes, with no
+ * credentials lookup or nonce check.
+ * <p>
+ * The resource is the raw path and query of the request.  The host and port
+ * are deliberately not covered, as they change from hop to hop.  Assertions
+ * are not protected against replay within their lifetime so should only be
+ * used on trusted internal networks, and the signing key must never be
+ * shared with clients.
+ */
+public final class HawkAssertionSigner
+{
+  /** The header in which assertions are passed */
+  public static final String HEADER = "X-Hawk-Assertion";
+
+  private static final String ALGORITHM = "HmacSHA256";
+  // Version 2 delimits the payload in the MAC input
+  private static final int VERSION = 2;
+  private static final int MAC_LENGTH = 16;
+  private static final int MINIMUM_KEY_LENGTH = 16;
+  private static final byte SEPARATOR = '\n';
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  private final long ttl;
+  private final ThreadLocal<Mac> macs;
+
+  private HawkAssertionSigner(final String key, final Long ttl)
+  {
+    checkNotNull(key, "The signing key is required");
+    final byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+    checkArgument((keyBytes.length >= MINIMUM_KEY_LENGTH), "The signing key must be at least %s bytes", MINIMUM_KEY_LENGTH);
+    this.ttl = ttl == null ? 10L : ttl;
+    checkArgument((this.ttl > 0), "The time to live must be positive");
+    final SecretKeySpec keySpec = new SecretKeySpec(keyBytes, ALGORITHM);
+    // Check the key once here so that the thread-local initialiser cannot fail
+    createMac(keySpec);
+    this.macs = new ThreadLocal<Mac>()
+    {
+      @Override
+      protected Mac initialValue()
+      {
+        return createMac(keySpec);
+      }
+    };
+  }
+
+  /**
+   * Mint an assertion for a verified request.
+   * @param keyId the key ID of the credentials with which the request was verified
+   * @param principal the name of the authenticated principal
+   * @param method the method of the request
+   * @param uri the URI of the request
+   * @return the assertion
+   */
+  public String mint(final String keyId, final String principal, final String method, final URI uri)
+  {
+    checkNotNull(uri, "The URI is required");
+    return mint(keyId, principal, method, resourceOf(uri));
+  }
+
+  /**
+   * Mint an assertion for a verified request.
+   * @param keyId the key ID of the credentials with which the request was verified
+   * @param principal the name of the authenticated principal
+   * @param method the method of the request
+   * @param resource the raw path of the request, including the raw query string
+   * @return the assertion
+   */
+  public String mint(final String keyId, final String principal, final String method, final String resource)
+  {
+    checkNotNull(keyId, "The key ID is required");
+    checkNotNull(principal, "The principal is required");
+    checkNotNull(method, "The method is required");
+    checkNotNull(resource, "The resource is required");
+    final byte[] keyIdBytes = keyId.getBytes(Charsets.UTF_8);
+    final byte[] principalBytes = principal.getBytes(Charsets.UTF_8);
+    checkArgument(((keyIdBytes.length <= 0xFFFF) && (principalBytes.length <= 0xFFFF)), "The key ID or principal is too long");
+
+    final ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 2 + keyIdBytes.length + 2 + principalBytes.length);
+    payload.put((byte)VERSION);
+    payload.putLong(System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS + this.ttl);
+    payload.putShort((short)keyIdBytes.length);
+    payload.put(keyIdBytes);
+    payload.putShort((short)principalBytes.length);
+    payload.put(principalBytes);
+
+    final byte[] payloadBytes = payload.array();
+    return ENCODING.encode(payloadBytes) + "." + ENCODING.encode(sign(payloadBytes, method, resource));
+  }
+
+  /**
+   * Validate an assertion.
+   * @param assertion the assertion, as passed in the {@link #HEADER} header
+   * @param method the method of the request
+   * @param uri the URI of the request
+   * @return the assertion if it is valid for the request, otherwise <code>Optional.absent()</code>
+   */
+  public Optional<HawkAssertion> verify(final String assertion, final String method, final URI uri)
+  {
+    if (uri == null)
+    {
+      return Optional.absent();
+    }
+    return verify(assertion, method, resourceOf(uri));
+  }
+
+  /**
+   * Validate an assertion.
+   * @param assertion the assertion, as passed in the {@link #HEADER} header
+   * @param method the method of the request
+   * @param resource the raw path of the request, including the raw query string
+   * @return the assertion if it is valid for the request, otherwise <code>Optional.absent()</code>
+   */
+  public Optional<HawkAssertion> verify(final String assertion, final String method, final String resource)
+  {
+    if ((assertion == null) || (method == null) || (resource == null))
+    {
+      return Optional.absent();
+    }
+    final int separator = assertion.indexOf('.');
+    if (separator == -1)
+    {
+      return Optional.absent();
+    }
+    final byte[] payload;
+    final byte[] mac;
+    try
+    {
+      payload = ENCODING.decode(assertion.substring(0, separator));
+      mac = ENCODING.decode(assertion.substring(separator + 1));
+    }
+    catch (IllegalArgumentException iae)
+    {
+      return Optional.absent();
+    }
+    if (!MessageDigest.isEqual(sign(payload, method, resource), mac))
+    {
+      return Optional.absent();
+    }
+
+    // The payload is authentic so can be trusted to be well-formed, but check anyway
+    try
+    {
+      final ByteBuffer buf = ByteBuffer.wrap(payload);
+      if (buf.get() != VERSION)
+      {
+        return Optional.absent();
+      }
+      final long expiry = buf.getLong();
+      if (expiry < System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS)
+      {
+        return Optional.absent();
+      }
+      final String keyId = readString(buf);
+      final String principal = readString(buf);
+      if (buf.hasRemaining())
+      {
+        return Optional.absent();
+      }
+      return Optional.of(new HawkAssertion(keyId, principal, expiry));
+    }
+    catch (RuntimeException re)
+    {
+      return Optional.absent();
+    }
+  }
+
+  private byte[] sign(final byte[] payload, final String method, final String resource)
+  {
+    final Mac mac = this.macs.get();
+    // The payload is preceded by its length so that no bytes can move between it and the method
+    final int length = payload.length;
+    mac.update(new byte[] { (byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length });
+    mac.update(payload);
+    mac.update(method.toUpperCase(Locale.ENGLISH).getBytes(Charsets.UTF_8));
+    mac.update(SEPARATOR);
+    mac.update(resource.getBytes(Charsets.UTF_8));
+    return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+  }
+
+  private static String readString(final ByteBuffer buf)
+  {
+    final byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+    buf.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static String resourceOf(final URI uri)
+  {
+    final String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+    return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+  }
+
+  private static Mac createMac(final SecretKeySpec keySpec)
+  {
+    try
+    {
+      final Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(keySpec);
+      return mac;
+    }
+    catch (NoSuchAlgorithmException nsae)
+    {
+      throw new DataError.Bad("Unknown encryption algorithm", nsae);
+    }
+    catch (InvalidKeyException ike)
+    {
+      throw new DataError.Bad("Invalid key", ike);
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    // Deliberately omits the signing key
+    return Objects.toStringHelper(this)
+                  .add("ttl", this.ttl)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private String key;
+    private Long ttl;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the key with which assertions are signed.  This must be shared by
+     * all services that mint or validate assertions, and by nothing else.
+     * @param key the signing key, at least 16 bytes long
+     * @return The builder
+     */
+    public Builder key(final String key)
+    {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Override the time for which assertions are valid.  Defaults to <code>10</code>.
+     * @param ttl the time to live of assertions, in seconds
+     * @return The builder
+     */
+    public Builder ttl(final Long ttl)
+    {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Build the signer.
+     * @return a new signer
+     * @throws DataError if the data provided is invalid for a signer
+     */
+    public HawkAssertionSigner build()
+    {
+      return new HawkAssertionSigner(this.key, this.ttl);
+    }
+  }
+}
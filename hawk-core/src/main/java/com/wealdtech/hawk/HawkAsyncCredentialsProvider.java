@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A provider of Hawk credentials that obtains them without blocking the
+ * calling thread, for example from a non-blocking datastore client.
+ */
+public interface HawkAsyncCredentialsProvider
+{
+  /**
+   * Obtain the Hawk credentials for a key ID.
+   * @param keyId the Hawk key ID
+   * @return a future for the Hawk credentials, which completes with
+   *         <code>null</code> if they could not be found
+   */
+  ListenableFuture<HawkCredentials> getHawkCredentialsAsync(final String keyId);
+}
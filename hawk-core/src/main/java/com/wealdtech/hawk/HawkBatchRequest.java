@@ -0,0 +1,262 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.wealdtech.DataError;
+
+/**
+ * A request to be verified as part of a batch, with its Hawk authorization
+ * header already parsed.
+ * <p>
+ * If the request carries no credentials then they are looked up by the key ID
+ * in the authorization header when the batch is verified.
+ * <p>
+ * The request is identified by either its URI or the parts of its request
+ * target, the latter avoiding the need to build a URI.
+ */
+public final class HawkBatchRequest
+{
+  private final HawkCredentials credentials;
+  private final URI uri;
+  private final String resource;
+  private final String host;
+  private final int port;
+  private final String method;
+  private final ImmutableMap<String, String> authorizationHeaders;
+  private final String hash;
+  private final boolean hasBody;
+
+  private HawkBatchRequest(final HawkCredentials credentials,
+                           final URI uri,
+                           final String resource,
+                           final String host,
+                           final Integer port,
+                           final String method,
+                           final ImmutableMap<String, String> authorizationHeaders,
+                           final String hash,
+                           final Boolean hasBody)
+  {
+    if (uri == null)
+    {
+      checkNotNull(resource, "Either the URI or the request target is required");
+      checkNotNull(host, "The host of the request target is required");
+      checkNotNull(port, "The port of the request target is required");
+    }
+    else
+    {
+      checkArgument((resource == null) && (host == null) && (port == null), "Only one of the URI and the request target may be supplied");
+    }
+    checkNotNull(method, "The method is required");
+    checkNotNull(authorizationHeaders, "The authorization headers are required");
+    this.credentials = credentials;
+    this.uri = uri;
+    this.resource = resource;
+    this.host = host;
+    this.port = port == null ? -1 : port;
+    this.method = method;
+    this.authorizationHeaders = authorizationHeaders;
+    this.hash = hash;
+    this.hasBody = hasBody == null ? false : hasBody;
+  }
+
+  /**
+   * Obtain the credentials against which to verify the request.
+   * @return the credentials, or <code>null</code> if they are to be looked up
+   */
+  public HawkCredentials getCredentials()
+  {
+    return this.credentials;
+  }
+
+  /**
+   * Obtain the URI of the request.
+   * @return the URI, or <code>null</code> if the request is identified by its request target
+   */
+  public URI getUri()
+  {
+    return this.uri;
+  }
+
+  public String getResource()
+  {
+    return this.resource;
+  }
+
+  public String getHost()
+  {
+    return this.host;
+  }
+
+  public int getPort()
+  {
+    return this.port;
+  }
+
+  public String getMethod()
+  {
+    return this.method;
+  }
+
+  public ImmutableMap<String, String> getAuthorizationHeaders()
+  {
+    return this.authorizationHeaders;
+  }
+
+  public String getHash()
+  {
+    return this.hash;
+  }
+
+  public boolean hasBody()
+  {
+    return this.hasBody;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("keyId", this.authorizationHeaders.get("id"))
+                  .add("uri", this.uri)
+                  .add("resource", this.resource)
+                  .add("host", this.host)
+                  .add("port", this.port)
+                  .add("method", this.method)
+                  .add("hash", this.hash)
+                  .add("hasBody", this.hasBody)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private HawkCredentials credentials;
+    private URI uri;
+    private String resource;
+    private String host;
+    private Integer port;
+    private String method;
+    private ImmutableMap<String, String> authorizationHeaders;
+    private String hash;
+    private Boolean hasBody;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the credentials against which to verify the request.  If not set
+     * then the credentials are looked up by key ID.
+     * @param credentials the credentials
+     * @return The builder
+     */
+    public Builder credentials(final HawkCredentials credentials)
+    {
+      this.credentials = credentials;
+      return this;
+    }
+
+    /**
+     * Set the URI of the request.
+     * @param uri the URI of the request
+     * @return The builder
+     */
+    public Builder uri(final URI uri)
+    {
+      this.uri = uri;
+      return this;
+    }
+
+    /**
+     * Set the request target of the request, in place of its URI.
+     * @param resource the raw path of the request, including the raw query string if present
+     * @param host the host of the request
+     * @param port the port of the request
+     * @return The builder
+     */
+    public Builder target(final String resource, final String host, final Integer port)
+    {
+      this.resource = resource;
+      this.host = host;
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Set the method of the request.
+     * @param method the method of the request
+     * @return The builder
+     */
+    public Builder method(final String method)
+    {
+      this.method = method;
+      return this;
+    }
+
+    /**
+     * Set the parsed Hawk authorization header of the request.
+     * @param authorizationHeaders the Hawk authorization header fields
+     * @return The builder
+     */
+    public Builder authorizationHeaders(final ImmutableMap<String, String> authorizationHeaders)
+    {
+      this.authorizationHeaders = authorizationHeaders;
+      return this;
+    }
+
+    /**
+     * Set the hash of the body of the request.
+     * @param hash the hash of the body
+     * @return The builder
+     */
+    public Builder hash(final String hash)
+    {
+      this.hash = hash;
+      return this;
+    }
+
+    /**
+     * Set if the request has a body.  Defaults to <code>false</code>.
+     * @param hasBody <code>true</code> if the request has a body
+     * @return The builder
+     */
+    public Builder hasBody(final Boolean hasBody)
+    {
+      this.hasBody = hasBody;
+      return this;
+    }
+
+    /**
+     * Build the request.
+     * @return a new request
+     * @throws DataError if the data provided is invalid for a request
+     */
+    public HawkBatchRequest build()
+    {
+      return new HawkBatchRequest(this.credentials, this.uri, this.resource, this.host, this.port, this.method, this.authorizationHeaders, this.hash, this.hasBody);
+    }
+  }
+}
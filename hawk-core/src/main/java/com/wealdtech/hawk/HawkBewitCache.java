@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.wealdtech.DataError;
+
+/**
+ * Generate bewits, reusing those already generated for the same
+ * credentials, URI and extra data.
+ * <p>
+ * The expiry of each bewit is rounded up to the next multiple of the bucket
+ * size, so all requests for the same bewit within a bucket obtain the same
+ * bewit, and its MAC is only calculated once.  This also gives identical
+ * URLs for the same resource, allowing them to be cached by CDNs and
+ * browsers.  The cost is that bewits remain valid for up to one bucket
+ * longer than their time to live.
+ */
+public final class HawkBewitCache
+{
+  private final long bucket;
+  private final long maximumSize;
+  private final Cache<Key, String> bewits;
+
+  private HawkBewitCache(final Long bucket, final Long maximumSize)
+  {
+    this.bucket = bucket == null ? 300L : bucket;
+    checkArgument((this.bucket > 0), "The bucket size must be a positive value");
+    this.maximumSize = maximumSize == null ? 10000L : maximumSize;
+    checkArgument((this.maximumSize >= 0), "The maximum size may not be negative");
+    // A bewit is only handed out until its bucket ends, at most one bucket after it was generated
+    this.bewits = CacheBuilder.newBuilder()
+                              .expireAfterWrite(this.bucket, TimeUnit.SECONDS)
+                              .maximumSize(this.maximumSize)
+                              .build();
+  }
+
+  /**
+   * Obtain a bewit, generating it if it is not already present.
+   *
+   * @param credentials
+   *          Hawk credentials of the requestor
+   * @param uri
+   *          URI of the request, including query parameters if appropriate
+   * @param ttl
+   *          the minimum time to live for the bewit, in seconds
+   * @param ext
+   *          optional extra data, as supplied by the requestor to differentiate
+   *          the request if required
+   * @return the bewit
+   * @throws DataError
+   *           if there is an issue with the data that prevents creation of the
+   *           bewit
+   * @see Hawk#generateBewit(HawkCredentials, URI, Long, String)
+   */
+  public String generateBewit(final HawkCredentials credentials,
+                              final URI uri,
+                              final Long ttl,
+                              final String ext)
+  {
+    checkNotNull(credentials, "Credentials are required but not supplied");
+    checkNotNull(uri, "URI is required but not supplied");
+    checkNotNull(ttl, "TTL is required but not supplied");
+    checkState((ttl > 0), "TTL must be a positive value");
+
+    // Round the expiry up to the end of its bucket
+    final long earliest = System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS + ttl;
+    final long expiry = ((earliest + this.bucket - 1) / this.bucket) * this.bucket;
+    final Key key = new Key(credentials, uri, ext, expiry);
+    String bewit = this.bewits.getIfPresent(key);
+    if (bewit == null)
+    {
+      bewit = Hawk.generateBewitExpiringAt(credentials, uri, expiry, ext);
+      this.bewits.put(key, bewit);
+    }
+    return bewit;
+  }
+
+  /**
+   * Obtain the number of bewits held.
+   * @return the approximate number of bewits held
+   */
+  public long size()
+  {
+    return this.bewits.size();
+  }
+
+  // The identity of a bewit
+  private static final class Key
+  {
+    private final HawkCredentials credentials;
+    private final URI uri;
+    private final String ext;
+    private final long expiry;
+
+    Key(final HawkCredentials credentials, final URI uri, final String ext, final long expiry)
+    {
+      this.credentials = credentials;
+      this.uri = uri;
+      this.ext = ext;
+      this.expiry = expiry;
+    }
+
+    @Override
+    public boolean equals(final Object that)
+    {
+      if (!(that instanceof Key))
+      {
+        return false;
+      }
+      final Key other = (Key)that;
+      return (this.expiry == other.expiry) &&
+             (this.uri.equals(other.uri)) &&
+             (Objects.equal(this.ext, other.ext)) &&
+             (this.credentials.equals(other.credentials));
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Objects.hashCode(this.credentials, this.uri, this.ext, this.expiry);
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("bucket", this.bucket)
+                  .add("maximumSize", this.maximumSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private Long bucket;
+    private Long maximumSize;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Override the size of the buckets to which expiries are rounded.  Defaults to <code>300</code>.
+     * @param bucket the size of the buckets, in seconds
+     * @return The builder
+     */
+    public Builder bucket(final Long bucket)
+    {
+      this.bucket = bucket;
+      return this;
+    }
+
+    /**
+     * Override the maximum number of bewits to hold.  Defaults to <code>10000</code>.
+     * @param maximumSize the maximum number of bewits to hold
+     * @return The builder
+     */
+    public Builder maximumSize(final Long maximumSize)
+    {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Build the cache.
+     * @return a new cache
+     * @throws DataError if the data provided is invalid for a cache
+     */
+    public HawkBewitCache build()
+    {
+      return new HawkBewitCache(this.bucket, this.maximumSize);
+    }
+  }
+}
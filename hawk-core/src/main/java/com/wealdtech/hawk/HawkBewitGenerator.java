@@ -0,0 +1,454 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+
+/**
+ * Generate bewits in bulk for a single set of credentials.
+ * <p>
+ * Requests are read in chunks and each chunk is split between tasks on the
+ * generator's pool.  Each task holds a MAC cloned from one initialised with
+ * the credentials' key and reusable buffers for the normalized string and
+ * the bewits, so once its buffers have grown to fit generating a bewit
+ * allocates little beyond what is needed to read the request's URI.  The
+ * current time is read once per chunk.  The bewits are identical to those
+ * from {@link Hawk#generateBewit(HawkCredentials, URI, Long, String)} for
+ * the same expiry.
+ * <p>
+ * Bewits are passed to the sink on the calling thread in the order of the
+ * requests, so the sink need not be thread-safe.
+ */
+public final class HawkBewitGenerator
+{
+  private static final String PREFIX = "hawk." + Hawk.HAWKVERSION + "." + Hawk.AuthType.BEWIT.toString() + "\n";
+
+  private final HawkCredentials credentials;
+  private final long ttl;
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final Mac mac;
+
+  /**
+   * The destination of generated bewits.
+   */
+  public interface Sink
+  {
+    /**
+     * Accept a bewit.  The bewit is a view of the generator's buffer and is
+     * only valid for the duration of the call; copy it if it is required
+     * afterwards.
+     * @param request the request for the bewit
+     * @param bewit the bewit
+     * @throws IOException if the bewit cannot be written
+     */
+    void accept(HawkBewitRequest request, CharSequence bewit) throws IOException;
+  }
+
+  private HawkBewitGenerator(final HawkCredentials credentials, final Long ttl, final ForkJoinPool pool, final Integer chunkSize)
+  {
+    checkNotNull(credentials, "Credentials are required");
+    checkNotNull(ttl, "TTL is required");
+    checkArgument((ttl > 0), "TTL must be a positive value");
+    this.credentials = credentials;
+    this.ttl = ttl;
+    if (pool == null)
+    {
+      this.pool = SharedPool.POOL;
+    }
+    else
+    {
+      this.pool = pool;
+    }
+    this.chunkSize = chunkSize == null ? 1024 : chunkSize;
+    checkArgument((this.chunkSize > 0), "The chunk size must be a positive value");
+    this.mac = Hawk.initMac(credentials);
+  }
+
+  // Holder for the shared pool, so that it is only created if required
+  private static final class SharedPool
+  {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+  /**
+   * Generate bewits for a number of requests, in parallel.
+   * @param requests the requests
+   * @param sink the destination of the bewits
+   * @return the number of bewits generated
+   * @throws IOException if the sink fails to accept a bewit
+   * @throws DataError if a request cannot be used to generate a bewit
+   */
+  public long generate(final Iterable<HawkBewitRequest> requests, final Sink sink) throws IOException
+  {
+    checkNotNull(requests, "The requests are required");
+    return generate(requests.iterator(), sink);
+  }
+
+  /**
+   * Generate bewits for a number of requests, in parallel.  Requests are
+   * read from the iterator as they are required, so need not all be held in
+   * memory.
+   * @param requests the requests
+   * @param sink the destination of the bewits
+   * @return the number of bewits generated
+   * @throws IOException if the sink fails to accept a bewit
+   * @throws DataError if a request cannot be used to generate a bewit
+   */
+  public long generate(final Iterator<HawkBewitRequest> requests, final Sink sink) throws IOException
+  {
+    checkNotNull(requests, "The requests are required");
+    checkNotNull(sink, "The sink is required");
+    final Encoder[] encoders = new Encoder[this.pool.getParallelism()];
+    final HawkBewitRequest[] chunk = new HawkBewitRequest[encoders.length * this.chunkSize];
+    long count = 0;
+    while (requests.hasNext())
+    {
+      int size = 0;
+      while ((size < chunk.length) && (requests.hasNext()))
+      {
+        chunk[size++] = requests.next();
+      }
+      final long now = System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS;
+
+      final List<EncodeTask> tasks = Lists.newArrayListWithCapacity(encoders.length);
+      for (int i = 0, from = 0; from < size; i++, from += this.chunkSize)
+      {
+        if (encoders[i] == null)
+        {
+          encoders[i] = new Encoder(newMac(), this.chunkSize);
+        }
+        tasks.add(new EncodeTask(encoders[i], chunk, from, Math.min(size, from + this.chunkSize), now));
+      }
+      this.pool.invoke(new RecursiveAction()
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute()
+        {
+          invokeAll(tasks);
+        }
+      });
+
+      for (final EncodeTask task : tasks)
+      {
+        task.encoder.emit(chunk, task.from, task.to, sink);
+      }
+      Arrays.fill(chunk, 0, size, null);
+      count += size;
+    }
+    return count;
+  }
+
+  // Obtain a MAC initialised with the key of the credentials
+  private Mac newMac()
+  {
+    try
+    {
+      return (Mac)this.mac.clone();
+    }
+    catch (CloneNotSupportedException cnse)
+    {
+      return Hawk.initMac(this.credentials);
+    }
+  }
+
+  // Encode a range of a chunk in to an encoder's buffers
+  private final class EncodeTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final Encoder encoder;
+    private final HawkBewitRequest[] chunk;
+    private final int from;
+    private final int to;
+    private final long now;
+
+    EncodeTask(final Encoder encoder, final HawkBewitRequest[] chunk, final int from, final int to, final long now)
+    {
+      this.encoder = encoder;
+      this.chunk = chunk;
+      this.from = from;
+      this.to = to;
+      this.now = now;
+    }
+
+    @Override
+    protected void compute()
+    {
+      this.encoder.encode(this.chunk, this.from, this.to, this.now);
+    }
+  }
+
+  /**
+   * The reusable state for generating bewits on a single thread.
+   */
+  private final class Encoder
+  {
+    private final Mac mac;
+    private final byte[] macBytes;
+    private final char[] macChars;
+    private final CharsetEncoder utf8 = Charsets.UTF_8.newEncoder()
+                                                      .onMalformedInput(CodingErrorAction.REPLACE)
+                                                      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder text = new StringBuilder(256);
+    private char[] chars = new char[256];
+    private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+    // The bewits, one after another, and the end of each
+    private char[] out = new char[256];
+    private CharBuffer outView = CharBuffer.wrap(this.out);
+    private int outLength;
+    private final int[] ends;
+
+    Encoder(final Mac mac, final int chunkSize)
+    {
+      this.mac = mac;
+      this.macBytes = new byte[mac.getMacLength()];
+      this.macChars = new char[(this.macBytes.length + 2) / 3 * 4];
+      this.ends = new int[chunkSize];
+    }
+
+    void encode(final HawkBewitRequest[] chunk, final int from, final int to, final long now)
+    {
+      this.outLength = 0;
+      for (int i = from; i < to; i++)
+      {
+        encode(chunk[i], now);
+        this.ends[i - from] = this.outLength;
+      }
+    }
+
+    void emit(final HawkBewitRequest[] chunk, final int from, final int to, final Sink sink) throws IOException
+    {
+      int start = 0;
+      for (int i = from; i < to; i++)
+      {
+        final int end = this.ends[i - from];
+        this.outView.limit(end).position(start);
+        sink.accept(chunk[i], this.outView);
+        this.outView.clear();
+        start = end;
+      }
+    }
+
+    private void encode(final HawkBewitRequest request, final long now)
+    {
+      checkNotNull(request, "The request is required");
+      final long expiry = now + (request.getTtl() == null ? HawkBewitGenerator.this.ttl : request.getTtl());
+      final URI uri = request.getUri();
+      final String ext = request.getExt();
+
+      // Normalized string, as in Hawk.calculateMAC()
+      this.text.setLength(0);
+      this.text.append(PREFIX);
+      this.text.append(expiry);
+      this.text.append("\n\nGET\n");
+      this.text.append(uri.getRawPath());
+      if (uri.getRawQuery() != null)
+      {
+        this.text.append('?');
+        this.text.append(uri.getRawQuery());
+      }
+      this.text.append('\n');
+      final String host = uri.getHost();
+      for (int i = 0; i < host.length(); i++)
+      {
+        this.text.append(Character.toLowerCase(host.charAt(i)));
+      }
+      this.text.append('\n');
+      this.text.append(Hawk.getPort(uri));
+      this.text.append("\n\n");
+      if (ext != null)
+      {
+        for (int i = 0; i < ext.length(); i++)
+        {
+          final char c = ext.charAt(i);
+          if (c == '\\')
+          {
+            this.text.append("\\\\");
+          }
+          else if (c == '\n')
+          {
+            this.text.append("\\n");
+          }
+          else
+          {
+            this.text.append(c);
+          }
+        }
+      }
+      this.text.append('\n');
+
+      this.mac.update(this.bytes.array(), 0, encodeText());
+      try
+      {
+        this.mac.doFinal(this.macBytes, 0);
+      }
+      catch (ShortBufferException sbe)
+      {
+        throw new ServerError("MAC buffer too small", sbe);
+      }
+
+      // Bewit, as in Hawk.generateBewit()
+      this.text.setLength(0);
+      this.text.append(HawkBewitGenerator.this.credentials.getKeyId());
+      this.text.append('\\');
+      this.text.append(expiry);
+      this.text.append('\\');
+      this.text.append(this.macChars, 0, HawkHeaderWriter.encodeBase64(this.macBytes, 0, this.macBytes.length, this.macChars, 0));
+      this.text.append('\\');
+      if (ext != null)
+      {
+        this.text.append(ext);
+      }
+      final int length = encodeText();
+      final int required = this.outLength + (length + 2) / 3 * 4;
+      if (required > this.out.length)
+      {
+        this.out = Arrays.copyOf(this.out, Math.max(this.out.length * 2, required));
+        this.outView = CharBuffer.wrap(this.out);
+      }
+      this.outLength += HawkHeaderWriter.encodeBase64(this.bytes.array(), 0, length, this.out, this.outLength);
+    }
+
+    // Encode the text as UTF-8 in to the byte buffer, returning the number of bytes
+    private int encodeText()
+    {
+      final int length = this.text.length();
+      if (length > this.chars.length)
+      {
+        this.chars = new char[Math.max(this.chars.length * 2, length)];
+      }
+      this.text.getChars(0, length, this.chars, 0);
+      if (length * 3 > this.bytes.capacity())
+      {
+        this.bytes = ByteBuffer.allocate(Math.max(this.bytes.capacity() * 2, length * 3));
+      }
+      this.bytes.clear();
+      this.utf8.reset();
+      this.utf8.encode(CharBuffer.wrap(this.chars, 0, length), this.bytes, true);
+      this.utf8.flush(this.bytes);
+      return this.bytes.position();
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    // Deliberately omits the key
+    return Objects.toStringHelper(this)
+                  .add("keyId", this.credentials.getKeyId())
+                  .add("ttl", this.ttl)
+                  .add("parallelism", this.pool.getParallelism())
+                  .add("chunkSize", this.chunkSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private HawkCredentials credentials;
+    private Long ttl;
+    private ForkJoinPool pool;
+    private Integer chunkSize;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the credentials with which to generate bewits.
+     * @param credentials the credentials
+     * @return The builder
+     */
+    public Builder credentials(final HawkCredentials credentials)
+    {
+      this.credentials = credentials;
+      return this;
+    }
+
+    /**
+     * Set the time to live of bewits that do not specify their own.
+     * @param ttl the time to live, in seconds
+     * @return The builder
+     */
+    public Builder ttl(final Long ttl)
+    {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Override the pool on which to generate bewits.  Defaults to a pool
+     * shared by all generators, with one thread per processor.
+     * @param pool the pool
+     * @return The builder
+     */
+    public Builder pool(final ForkJoinPool pool)
+    {
+      this.pool = pool;
+      return this;
+    }
+
+    /**
+     * Override the number of bewits generated by each task.  Defaults to <code>1024</code>.
+     * @param chunkSize the number of bewits generated by each task
+     * @return The builder
+     */
+    public Builder chunkSize(final Integer chunkSize)
+    {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /**
+     * Build the generator.
+     * @return a new generator
+     * @throws DataError if the data provided is invalid for a generator
+     */
+    public HawkBewitGenerator build()
+    {
+      return new HawkBewitGenerator(this.credentials, this.ttl, this.pool, this.chunkSize);
+    }
+  }
+}
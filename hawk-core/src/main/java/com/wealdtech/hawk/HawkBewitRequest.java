@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+
+/**
+ * A request for a bewit, as part of a bulk generation by
+ * {@link HawkBewitGenerator}.
+ */
+public final class HawkBewitRequest
+{
+  private final URI uri;
+  private final String ext;
+  private final Long ttl;
+
+  private HawkBewitRequest(final URI uri, final String ext, final Long ttl)
+  {
+    checkNotNull(uri, "The URI is required");
+    checkNotNull(uri.getHost(), "The URI host is required");
+    checkArgument((ttl == null) || (ttl > 0), "TTL must be a positive value");
+    this.uri = uri;
+    this.ext = ext;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Obtain the URI for which the bewit grants access.
+   * @return the URI
+   */
+  public URI getUri()
+  {
+    return this.uri;
+  }
+
+  /**
+   * Obtain the extra data of the bewit.
+   * @return the extra data, or <code>null</code> if none
+   */
+  public String getExt()
+  {
+    return this.ext;
+  }
+
+  /**
+   * Obtain the time to live of the bewit.
+   * @return the time to live, in seconds, or <code>null</code> to use that of the generator
+   */
+  public Long getTtl()
+  {
+    return this.ttl;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("uri", this.uri)
+                  .add("ext", this.ext)
+                  .add("ttl", this.ttl)
+                  .omitNullValues()
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private URI uri;
+    private String ext;
+    private Long ttl;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the URI for which the bewit grants access.
+     * @param uri the URI, including query parameters if appropriate
+     * @return The builder
+     */
+    public Builder uri(final URI uri)
+    {
+      this.uri = uri;
+      return this;
+    }
+
+    /**
+     * Set the extra data of the bewit.
+     * @param ext the extra data
+     * @return The builder
+     */
+    public Builder ext(final String ext)
+    {
+      this.ext = ext;
+      return this;
+    }
+
+    /**
+     * Override the time to live of the bewit.  Defaults to that of the generator.
+     * @param ttl the time to live, in seconds
+     * @return The builder
+     */
+    public Builder ttl(final Long ttl)
+    {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /**
+     * Build the request.
+     * @return a new request
+     * @throws DataError if the data provided is invalid for a request
+     */
+    public HawkBewitRequest build()
+    {
+      return new HawkBewitRequest(this.uri, this.ext, this.ttl);
+    }
+  }
+}
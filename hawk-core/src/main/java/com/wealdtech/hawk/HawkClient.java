@@ -18,19 +18,36 @@ package com.wealdtech.hawk;
 
 import static com.wealdtech.Preconditions.*;
 
+import java.io.InputStream;
 import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.wealdtech.DataError;
-import com.wealdtech.utils.StringUtils;
 
 public final class HawkClient implements Comparable<HawkClient>
 {
+  private static final String HEADER_TS = "ts";
+  private static final String HEADER_TSM = "tsm";
+  private static final String HEADER_NONCE = "nonce";
+  private static final String HEADER_MAC = "mac";
+  private static final String HEADER_HASH = "hash";
+  private static final String HEADER_EXT = "ext";
+  private static final String HEADER_APP = "app";
+  private static final String HEADER_DLG = "dlg";
+
   private final HawkClientConfiguration configuration;
   private final HawkCredentials credentials;
-  private long mTimeSkew;
+  private volatile long mTimeSkew;
+  // Clock skew of individual servers in milliseconds, by lower-case host
+  private final ConcurrentMap<String, Long> serverSkews = new ConcurrentHashMap<>();
 
   @Inject
   private HawkClient(final HawkClientConfiguration configuration,
@@ -79,6 +96,71 @@ public final class HawkClient implements Comparable<HawkClient>
     mTimeSkew = date - System.currentTimeMillis();
   }
 
+  /**
+   * Adjust the client to handle clock skew for a single server, given the
+   * WWW-Authenticate header of a response from that server rejecting a
+   * request.  The header is only used if its timestamp MAC is valid.
+   * <p>
+   * Skew set this way applies to requests for the same host, and takes
+   * precedence over that set by {@link #setServerDate(long)}.
+   *
+   * @param uri the URI of the rejected request
+   * @param authenticateHeader the WWW-Authenticate header of the response
+   * @return <code>true</code> if the header was valid and changed the skew for the server, otherwise <code>false</code>
+   */
+  public boolean adjustForAuthenticateHeader(final URI uri, final String authenticateHeader)
+  {
+    checkNotNull(uri, "URI is required but not supplied");
+    checkNotNull(uri.getHost(), "URI host is required but not supplied");
+    final ImmutableMap<String, String> fields = HawkServer.parseHeader(authenticateHeader);
+    if ((fields == null) || (fields.get(HEADER_TS) == null) || (fields.get(HEADER_TSM) == null))
+    {
+      return false;
+    }
+    final long serverTime;
+    try
+    {
+      serverTime = Long.parseLong(fields.get(HEADER_TS));
+    }
+    catch (NumberFormatException nfe)
+    {
+      return false;
+    }
+    if (!HawkServer.timeConstantEquals(Hawk.calculateTSMac(serverTime), fields.get(HEADER_TSM)))
+    {
+      return false;
+    }
+    final String host = uri.getHost().toLowerCase(Locale.ENGLISH);
+    final long skew = serverTime * Hawk.MILLISECONDS_IN_SECONDS - System.currentTimeMillis();
+    if (Math.abs(skew - getTimeSkew(host)) < Hawk.MILLISECONDS_IN_SECONDS)
+    {
+      // The server's timestamp only has a resolution of a second
+      return false;
+    }
+    this.serverSkews.put(host, skew);
+    return true;
+  }
+
+  // Obtain the clock skew for a host, in milliseconds
+  private long getTimeSkew(final String host)
+  {
+    if ((host != null) && (!this.serverSkews.isEmpty()))
+    {
+      final Long skew = this.serverSkews.get(host.toLowerCase(Locale.ENGLISH));
+      if (skew != null)
+      {
+        return skew;
+      }
+    }
+    return this.mTimeSkew;
+  }
+
+  // Obtain the current time on a server, in seconds
+  long getServerTime(final String host)
+  {
+    return (System.currentTimeMillis() + getTimeSkew(host)) / Hawk.MILLISECONDS_IN_SECONDS;
+  }
+
   /**
    * Generate the value for the Hawk authorization header.
    *
@@ -98,8 +180,8 @@ public final class HawkClient implements Comparable<HawkClient>
                                             final String app,
                                             final String dlg)
   {
-    long timestamp = (System.currentTimeMillis() + mTimeSkew) / Hawk.MILLISECONDS_IN_SECONDS;
-    final String nonce = StringUtils.generateRandomString(6);
+    long timestamp = getServerTime(uri == null ? null : uri.getHost());
+    final String nonce = this.configuration.getNonceGenerator().generate();
     final String mac = Hawk.calculateMAC(this.credentials, Hawk.AuthType.HEADER, timestamp, uri, nonce, method, hash, ext, app, dlg);
 
     final StringBuilder sb = new StringBuilder(1024);
@@ -126,6 +208,182 @@ public final class HawkClient implements Comparable<HawkClient>
     return sb.toString();
   }
 
+  /**
+   * Create a writer that generates authorization headers for this client
+   * directly into caller-supplied buffers, for clients that sign requests at
+   * high rates.  The writer is not thread-safe, so each thread should create
+   * its own.
+   *
+   * @return a new header writer
+   */
+  public HawkHeaderWriter newHeaderWriter()
+  {
+    return new HawkHeaderWriter(this, this.credentials, this.configuration.getNonceGenerator());
+  }
+
+  /**
+   * Find out if the client is configured to include the hash of request
+   * payloads in its authorization headers.
+   *
+   * @return <code>true</code> if payloads should be hashed
+   */
+  public boolean isPayloadHashRequired()
+  {
+    return this.configuration.getPayloadValidation() != Hawk.PayloadValidation.NEVER;
+  }
+
+  /**
+   * Calculate the hash of a request payload, for passing to
+   * {@link #generateAuthorizationHeader(URI, String, String, String, String, String)}.
+   *
+   * @param contentType the MIME content type of the payload
+   * @param body the payload
+   * @return the hash of the payload
+   * @throws DataError If there is a problem with the data passed in which makes it impossible to generate the hash
+   */
+  public String calculatePayloadHash(final String contentType, final byte[] body)
+  {
+    checkNotNull(body, "Body is required but not supplied");
+    final Mac mac = startPayloadHash(contentType);
+    mac.update(body);
+    return Hawk.completeBodyMac(mac);
+  }
+
+  /**
+   * Start calculating the hash of a request payload that is written as a
+   * stream rather than held in memory.  The bytes of the payload should be
+   * passed to the returned MAC as they are written, and the hash obtained
+   * with {@link Hawk#completeBodyMac(Mac)}.
+   *
+   * @param contentType the MIME content type of the payload
+   * @return the MAC, ready to be updated with the payload
+   * @throws DataError If there is a problem with the data passed in which makes it impossible to generate the hash
+   */
+  public Mac startPayloadHash(final String contentType)
+  {
+    return Hawk.startBodyMac(this.credentials, contentType);
+  }
+
+  /**
+   * Find out how the client is configured to authenticate responses with
+   * their Server-Authorization header.
+   *
+   * @return the response validation setting
+   */
+  public Hawk.PayloadValidation getResponseValidation()
+  {
+    return this.configuration.getResponseValidation();
+  }
+
+  /**
+   * Parse a Server-Authorization header into individual fields, without
+   * throwing an exception if the header is invalid.
+   *
+   * @param serverAuthorizationHeader the Server-Authorization header
+   * @return A map of the header's fields, or <code>null</code> if the header is not a Hawk header
+   */
+  public ImmutableMap<String, String> parseServerAuthorizationHeader(final String serverAuthorizationHeader)
+  {
+    return HawkServer.parseHeader(serverAuthorizationHeader);
+  }
+
+  /**
+   * Verify the Server-Authorization header of a response to a request made
+   * by this client, without throwing an exception if verification fails.
+   * <p>
+   * This authenticates the response's header, including the payload hash it
+   * contains, but not the payload itself.  To authenticate the payload as it
+   * is read pass it through {@link #verifyPayload(InputStream, String, String)}
+   * with the hash from the header.
+   *
+   * @param uri the URI of the request
+   * @param method the method of the request
+   * @param authorizationHeader the authorization header of the request, as generated by this client
+   * @param serverAuthorizationHeaders the fields of the response's Server-Authorization header
+   * @return the result of verification
+   */
+  public HawkVerificationResult verifyServerAuthorization(final URI uri,
+                                                          final String method,
+                                                          final String authorizationHeader,
+                                                          final ImmutableMap<String, String> serverAuthorizationHeaders)
+  {
+    final ImmutableMap<String, String> requestHeaders = HawkServer.parseHeader(authorizationHeader);
+    if ((requestHeaders == null) || (requestHeaders.get(HEADER_TS) == null) || (requestHeaders.get(HEADER_NONCE) == null))
+    {
+      return HawkVerificationResult.of(HawkVerificationResult.Reason.INVALID_REQUEST, "The request's authorization header is not valid");
+    }
+    if (serverAuthorizationHeaders == null)
+    {
+      return HawkVerificationResult.of(HawkVerificationResult.Reason.INVALID_HEADER);
+    }
+    if (serverAuthorizationHeaders.get(HEADER_MAC) == null)
+    {
+      return HawkVerificationResult.of(HawkVerificationResult.Reason.MISSING_MAC);
+    }
+    final long timestamp;
+    try
+    {
+      timestamp = Long.parseLong(requestHeaders.get(HEADER_TS));
+    }
+    catch (NumberFormatException nfe)
+    {
+      return HawkVerificationResult.of(HawkVerificationResult.Reason.INVALID_TIMESTAMP);
+    }
+    final String mac = Hawk.calculateMAC(this.credentials,
+                                         Hawk.AuthType.RESPONSE,
+                                         timestamp,
+                                         uri,
+                                         requestHeaders.get(HEADER_NONCE),
+                                         method,
+                                         serverAuthorizationHeaders.get(HEADER_HASH),
+                                         serverAuthorizationHeaders.get(HEADER_EXT),
+                                         requestHeaders.get(HEADER_APP),
+                                         requestHeaders.get(HEADER_DLG));
+    if (!HawkServer.timeConstantEquals(mac, serverAuthorizationHeaders.get(HEADER_MAC)))
+    {
+      return HawkVerificationResult.of(HawkVerificationResult.Reason.BAD_MAC, "The MAC in the response does not match the client-calculated MAC");
+    }
+    return HawkVerificationResult.OK;
+  }
+
+  /**
+   * Wrap a response payload so that it is hashed as it is read and checked
+   * against the hash from the response's Server-Authorization header when
+   * the end of the payload is reached.
+   *
+   * @param payload the payload
+   * @param contentType the MIME content type of the payload
+   * @param hash the expected hash of the payload
+   * @return the wrapped payload
+   * @throws DataError If there is a problem with the data passed in which makes it impossible to verify the payload
+   * @see #verifyPayload(InputStream, String, String, long)
+   */
+  public HawkPayloadInputStream verifyPayload(final InputStream payload, final String contentType, final String hash)
+  {
+    return verifyPayload(payload, contentType, hash, -1L);
+  }
+
+  /**
+   * Wrap a response payload so that it is hashed as it is read and checked
+   * against the hash from the response's Server-Authorization header once
+   * the declared length of the payload or the end of the payload is reached.
+   * Closing the payload before then does not read the remainder, and leaves
+   * the payload unverified.
+   *
+   * @param payload the payload
+   * @param contentType the MIME content type of the payload
+   * @param hash the expected hash of the payload
+   * @param contentLength the Content-Length of the response, or <code>-1</code> if not known
+   * @return the wrapped payload
+   * @throws DataError If there is a problem with the data passed in which makes it impossible to verify the payload
+   */
+  public HawkPayloadInputStream verifyPayload(final InputStream payload, final String contentType, final String hash, final long contentLength)
+  {
+    checkNotNull(payload, "Payload is required but not supplied");
+    checkNotNull(hash, "Hash is required but not supplied");
+    return new HawkPayloadInputStream(payload, startPayloadHash(contentType), hash, contentLength);
+  }
+
   public boolean isValidFor(final String path)
   {
     return ((this.configuration.getPathPrefix() == null) ||
@@ -32,7 +32,11 @@ import static com.wealdtech.Preconditions.*;
  * <ul>
  * <li>pathPrefix: the path prefix for which the client should add authentication.  Defaults to <code>null</code> for everything</li>
  * <li>payloadValidation: if payload validation should take place.  Defaults to <code>NEVER</code></li>
+ * <li>responseValidation: if responses should be authenticated with their Server-Authorization header.  Defaults to <code>NEVER</code></li>
+ * <li>nonceLength: the length of generated nonces, in characters of six bits each.  Defaults to <code>12</code></li>
+ * <li>nonceCounter: if generated nonces start with a process-wide counter, guaranteeing uniqueness within the process.  Defaults to <code>false</code></li>
  * </ul>
+ * Alternatively, a custom nonce generator can be supplied to the builder.
  * This is configured as a standard Jackson object and can be realized as part
  * of a ConfigurationSource.
  */
@@ -40,6 +44,8 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
 {
   private String pathPrefix = null;
   private PayloadValidation payloadValidation = PayloadValidation.NEVER;
+  private PayloadValidation responseValidation = PayloadValidation.NEVER;
+  private HawkNonceGenerator nonceGenerator = new HawkRandomNonceGenerator.Builder().build();
 
   /**
    * Create a client configuration with default values
@@ -58,10 +64,27 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
    *          which requests to authenticate, or <code>null</code> for the default
    * @param payloadValidation
    *          how to validate against payloads, or <code>null</code> for the default
+   * @param responseValidation
+   *          how to validate responses, or <code>null</code> for the default
+   * @param nonceLength
+   *          the length of generated nonces, or <code>null</code> for the default
+   * @param nonceCounter
+   *          if generated nonces start with a counter, or <code>null</code> for the default
    */
   @JsonCreator
   private HawkClientConfiguration(@JsonProperty("pathprefix") final String pathPrefix,
-                                  @JsonProperty("payloadvalidation") final PayloadValidation payloadValidation)
+                                  @JsonProperty("payloadvalidation") final PayloadValidation payloadValidation,
+                                  @JsonProperty("responsevalidation") final PayloadValidation responseValidation,
+                                  @JsonProperty("noncelength") final Integer nonceLength,
+                                  @JsonProperty("noncecounter") final Boolean nonceCounter)
+  {
+    this(pathPrefix, payloadValidation, responseValidation, new HawkRandomNonceGenerator.Builder().length(nonceLength).counter(nonceCounter).build());
+  }
+
+  private HawkClientConfiguration(final String pathPrefix,
+                                  final PayloadValidation payloadValidation,
+                                  final PayloadValidation responseValidation,
+                                  final HawkNonceGenerator nonceGenerator)
   {
     if (pathPrefix != null)
     {
@@ -71,12 +94,21 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
     {
       this.payloadValidation = payloadValidation;
     }
+    if (responseValidation != null)
+    {
+      this.responseValidation = responseValidation;
+    }
+    if (nonceGenerator != null)
+    {
+      this.nonceGenerator = nonceGenerator;
+    }
     validate();
   }
 
   private void validate()
   {
     checkNotNull(this.payloadValidation, "Payload validation setting is required");
+    checkNotNull(this.responseValidation, "Response validation setting is required");
     checkArgument(this.pathPrefix == null || this.pathPrefix.startsWith("/"), "Path prefix must start with \"/\" if present");
   }
 
@@ -90,6 +122,16 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
     return this.payloadValidation;
   }
 
+  public PayloadValidation getResponseValidation()
+  {
+    return this.responseValidation;
+  }
+
+  public HawkNonceGenerator getNonceGenerator()
+  {
+    return this.nonceGenerator;
+  }
+
   // Standard object methods follow
   @Override
   public String toString()
@@ -97,6 +139,8 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
     return Objects.toStringHelper(this)
                   .add("pathPrefix", this.getPathPrefix())
                   .add("payloadValidation", this.getPayloadValidation())
+                  .add("responseValidation", this.getResponseValidation())
+                  .add("nonceGenerator", this.getNonceGenerator())
                   .toString();
   }
 
@@ -109,7 +153,7 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
   @Override
   public int hashCode()
   {
-    return Objects.hashCode(this.getPathPrefix(), this.getPayloadValidation());
+    return Objects.hashCode(this.getPathPrefix(), this.getPayloadValidation(), this.getResponseValidation(), this.getNonceGenerator());
   }
 
   @Override
@@ -118,6 +162,8 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
     return ComparisonChain.start()
                           .compare(this.getPathPrefix(), that.getPathPrefix(), Ordering.<String>natural().nullsFirst())
                           .compare(this.getPayloadValidation(), that.getPayloadValidation())
+                          .compare(this.getResponseValidation(), that.getResponseValidation())
+                          .compare(this.getNonceGenerator(), that.getNonceGenerator(), Ordering.usingToString())
                           .result();
   }
 
@@ -125,6 +171,8 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
   {
     private String pathPrefix;
     private PayloadValidation payloadValidation;
+    private PayloadValidation responseValidation;
+    private HawkNonceGenerator nonceGenerator;
 
     /**
      * Generate a new builder.
@@ -141,6 +189,8 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
     {
       this.pathPrefix = prior.pathPrefix;
       this.payloadValidation = prior.payloadValidation;
+      this.responseValidation = prior.responseValidation;
+      this.nonceGenerator = prior.nonceGenerator;
     }
 
     /**
@@ -165,6 +215,28 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
       return this;
     }
 
+    /**
+     * Override the default handling of response validation.
+     * @param responseValidation the new response validation value
+     * @return The builder
+     */
+    public Builder responseValidation(final PayloadValidation responseValidation)
+    {
+      this.responseValidation = responseValidation;
+      return this;
+    }
+
+    /**
+     * Override the default nonce generator.
+     * @param nonceGenerator the new nonce generator
+     * @return The builder
+     */
+    public Builder nonceGenerator(final HawkNonceGenerator nonceGenerator)
+    {
+      this.nonceGenerator = nonceGenerator;
+      return this;
+    }
+
     /**
      * Create a new Hawk client configuration from the defaults
      * and overrides provided.
@@ -173,7 +245,7 @@ public class HawkClientConfiguration implements Configuration, Comparable<HawkCl
      */
     public HawkClientConfiguration build()
     {
-      return new HawkClientConfiguration(this.pathPrefix, this.payloadValidation);
+      return new HawkClientConfiguration(this.pathPrefix, this.payloadValidation, this.responseValidation, this.nonceGenerator);
     }
   }
 }
@@ -0,0 +1,305 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Route requests to the Hawk client that should sign them, by scheme, host,
+ * port and path prefix, so that a single filter can sign requests for many
+ * servers with different credentials and configurations.
+ * <p>
+ * Routes are compiled into a trie keyed on the normalized scheme, host and
+ * port followed by the path, so a lookup takes time proportional to the
+ * length of the request's host and path regardless of the number of routes,
+ * and does not allocate.  The route with the longest matching path prefix
+ * wins.  Path prefixes match as in {@link HawkClient#isValidFor(String)},
+ * character by character, so the prefix <code>/api</code> matches the path
+ * <code>/apis</code>; end prefixes with <code>/</code> to match only whole
+ * path segments.  The client's own path prefix, if any, applies as well.
+ */
+public final class HawkClientRouter
+{
+  // Separates the port from the path, and cannot appear in either
+  private static final char PORT_END = '#';
+
+  private final ImmutableList<HawkClient> clients;
+
+  // The compiled trie.  The edges of each node are sorted by character
+  private final int[] edgeStart;
+  private final char[] edgeChars;
+  private final int[] edgeTargets;
+  private final int[] values;
+
+  private HawkClientRouter(final Map<String, HawkClient> routes)
+  {
+    checkNotNull(routes, "Routes are required");
+    final List<HawkClient> routeClients = Lists.newArrayList();
+    final TrieNode root = new TrieNode();
+    int nodeCount = 1;
+    int edgeCount = 0;
+    for (final Map.Entry<String, HawkClient> route : routes.entrySet())
+    {
+      TrieNode node = root;
+      for (int i = 0; i < route.getKey().length(); i++)
+      {
+        final char c = route.getKey().charAt(i);
+        TrieNode child = node.children.get(c);
+        if (child == null)
+        {
+          child = new TrieNode();
+          node.children.put(c, child);
+          nodeCount++;
+          edgeCount++;
+        }
+        node = child;
+      }
+      node.value = routeClients.size();
+      routeClients.add(route.getValue());
+    }
+    this.clients = ImmutableList.copyOf(routeClients);
+
+    // Flatten the trie breadth-first into arrays
+    this.edgeStart = new int[nodeCount + 1];
+    this.edgeChars = new char[edgeCount];
+    this.edgeTargets = new int[edgeCount];
+    this.values = new int[nodeCount];
+    final List<TrieNode> queue = Lists.newArrayListWithCapacity(nodeCount);
+    queue.add(root);
+    int edge = 0;
+    for (int i = 0; i < queue.size(); i++)
+    {
+      final TrieNode node = queue.get(i);
+      this.values[i] = node.value;
+      this.edgeStart[i] = edge;
+      for (final Map.Entry<Character, TrieNode> child : node.children.entrySet())
+      {
+        this.edgeChars[edge] = child.getKey();
+        this.edgeTargets[edge] = queue.size();
+        queue.add(child.getValue());
+        edge++;
+      }
+    }
+    this.edgeStart[nodeCount] = edge;
+  }
+
+  /**
+   * Find the client for a request.
+   * @param uri the URI of the request
+   * @return the client, or <code>null</code> if no route matches the URI
+   */
+  public HawkClient route(final URI uri)
+  {
+    checkNotNull(uri, "URI is required but not supplied");
+    if ((uri.getScheme() == null) || (uri.getHost() == null))
+    {
+      return null;
+    }
+    final int port = uri.getPort() == -1 ? defaultPort(uri.getScheme()) : uri.getPort();
+    if (port == -1)
+    {
+      return null;
+    }
+    return route(uri.getScheme(), uri.getHost(), port, uri.getRawPath());
+  }
+
+  /**
+   * Find the client for a request from the parts of its target.
+   * @param scheme the scheme of the request
+   * @param host the host of the request
+   * @param port the port of the request
+   * @param path the raw path of the request
+   * @return the client, or <code>null</code> if no route matches the request
+   */
+  public HawkClient route(final String scheme, final String host, final int port, final String path)
+  {
+    int node = walk(0, scheme);
+    node = walk(node, "://");
+    node = walk(node, host);
+    node = walk(node, ":");
+    node = walkPort(node, port);
+    node = next(node, PORT_END);
+    if (node == -1)
+    {
+      return null;
+    }
+
+    // Follow the path, remembering the longest matching prefix
+    int best = this.values[node];
+    if (path != null)
+    {
+      for (int i = 0; i < path.length(); i++)
+      {
+        node = next(node, path.charAt(i));
+        if (node == -1)
+        {
+          break;
+        }
+        if (this.values[node] != -1)
+        {
+          best = this.values[node];
+        }
+      }
+    }
+    return best == -1 ? null : this.clients.get(best);
+  }
+
+  /**
+   * Obtain the number of routes.
+   * @return the number of routes
+   */
+  public int size()
+  {
+    return this.clients.size();
+  }
+
+  // Follow the characters of a case-insensitive string from a node
+  private int walk(int node, final String str)
+  {
+    for (int i = 0; (i < str.length()) && (node != -1); i++)
+    {
+      node = next(node, Character.toLowerCase(str.charAt(i)));
+    }
+    return node;
+  }
+
+  // Follow the digits of a port from a node
+  private int walkPort(int node, final int port)
+  {
+    int divisor = 1;
+    while (port / divisor >= 10)
+    {
+      divisor *= 10;
+    }
+    for (; (divisor > 0) && (node != -1); divisor /= 10)
+    {
+      node = next(node, (char)('0' + (port / divisor) % 10));
+    }
+    return node;
+  }
+
+  // Follow a single edge from a node
+  private int next(final int node, final char c)
+  {
+    if (node == -1)
+    {
+      return -1;
+    }
+    final int edge = Arrays.binarySearch(this.edgeChars, this.edgeStart[node], this.edgeStart[node + 1], c);
+    return edge < 0 ? -1 : this.edgeTargets[edge];
+  }
+
+  private static int defaultPort(final String scheme)
+  {
+    if ("http".equalsIgnoreCase(scheme))
+    {
+      return 80;
+    }
+    if ("https".equalsIgnoreCase(scheme))
+    {
+      return 443;
+    }
+    return -1;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("routes", this.clients.size())
+                  .toString();
+  }
+
+  // A node of the trie while it is being built
+  private static class TrieNode
+  {
+    private final TreeMap<Character, TrieNode> children = new TreeMap<>();
+    private int value = -1;
+  }
+
+  public static class Builder
+  {
+    private final Map<String, HawkClient> routes = Maps.newLinkedHashMap();
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Add a route.
+     * @param scheme the scheme of requests, for example <code>https</code>
+     * @param host the host of requests
+     * @param port the port of requests, or <code>-1</code> for the default port of the scheme
+     * @param pathPrefix the path prefix of requests, or <code>null</code> for all paths
+     * @param client the client to sign matching requests
+     * @return The builder
+     * @throws com.wealdtech.DataError if the route is invalid or duplicates an existing route
+     */
+    public Builder route(final String scheme, final String host, final int port, final String pathPrefix, final HawkClient client)
+    {
+      checkNotNull(scheme, "Scheme is required but not supplied");
+      checkNotNull(host, "Host is required but not supplied");
+      checkNotNull(client, "Client is required but not supplied");
+      checkArgument((pathPrefix == null) || (pathPrefix.startsWith("/")), "Path prefix must start with \"/\" if present");
+      final int actualPort = port == -1 ? defaultPort(scheme) : port;
+      checkArgument((actualPort > 0) && (actualPort <= 65535), "Port is invalid or the scheme has no default port");
+      final String key = scheme.toLowerCase(Locale.ENGLISH) + "://" + host.toLowerCase(Locale.ENGLISH) + ":" + actualPort + PORT_END + (pathPrefix == null ? "" : pathPrefix);
+      checkState(!this.routes.containsKey(key), "Duplicate route");
+      this.routes.put(key, client);
+      return this;
+    }
+
+    /**
+     * Add a route from a URI, whose path, if any, is the path prefix.
+     * @param prefix the URI prefix of requests, for example <code>https://api.example.com/v1/</code>
+     * @param client the client to sign matching requests
+     * @return The builder
+     * @throws com.wealdtech.DataError if the route is invalid or duplicates an existing route
+     */
+    public Builder route(final URI prefix, final HawkClient client)
+    {
+      checkNotNull(prefix, "URI prefix is required but not supplied");
+      final String path = prefix.getRawPath();
+      return route(prefix.getScheme(), prefix.getHost(), prefix.getPort(), (path == null) || (path.isEmpty()) ? null : path, client);
+    }
+
+    /**
+     * Build the router.
+     * @return a new router
+     */
+    public HawkClientRouter build()
+    {
+      return new HawkClientRouter(this.routes);
+    }
+  }
+}
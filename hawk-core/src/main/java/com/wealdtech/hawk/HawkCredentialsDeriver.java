@@ -0,0 +1,318 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkCredentials.Algorithm;
+
+/**
+ * Derive Hawk credentials from a server-held master secret rather than
+ * looking them up.
+ * <p>
+ * The key for a key ID is derived with HKDF (RFC 5869) over HMAC-SHA256, using
+ * the key ID as the HKDF info.  Anyone holding the master secret can issue
+ * credentials, and the server can authenticate them without any storage.
+ * <p>
+ * If versioning is enabled then key IDs take the form
+ * <code>version.epoch.name</code>, for example <code>2.1394000000.backup</code>.
+ * The version selects the master secret, allowing masters to be rotated, and
+ * key IDs with an epoch below the configured minimum are rejected, allowing
+ * all earlier credentials to be revoked at once.  If versioning is disabled
+ * then any key ID is accepted and derived from the current master secret.
+ */
+public final class HawkCredentialsDeriver
+{
+  private static final String HKDF_ALGORITHM = "HmacSHA256";
+  private static final int DERIVED_KEY_LENGTH = 32;
+  private static final Splitter KEYIDSPLITTER = Splitter.on('.').limit(3);
+  private static final BaseEncoding KEYENCODING = BaseEncoding.base64Url().omitPadding();
+
+  private final ImmutableMap<Integer, byte[]> pseudoRandomKeys;
+  private final int currentVersion;
+  private final boolean versioned;
+  private final long minimumEpoch;
+  private final Algorithm algorithm;
+  private final long cacheSize;
+  private final Cache<String, HawkCredentials> derived;
+
+  private HawkCredentialsDeriver(final Map<Integer, String> masterSecrets,
+                                 final Integer currentVersion,
+                                 final Boolean versioned,
+                                 final Long minimumEpoch,
+                                 final Algorithm algorithm,
+                                 final Long cacheSize)
+  {
+    checkNotNull(masterSecrets, "Master secrets are required");
+    checkState(!masterSecrets.isEmpty(), "At least one master secret is required");
+    checkNotNull(currentVersion, "The current version is required");
+    checkState(masterSecrets.containsKey(currentVersion), "There is no master secret for the current version");
+    this.currentVersion = currentVersion;
+    this.versioned = versioned == null ? true : versioned;
+    this.minimumEpoch = minimumEpoch == null ? 0L : minimumEpoch;
+    this.algorithm = algorithm == null ? Algorithm.SHA256 : algorithm;
+    this.cacheSize = cacheSize == null ? 10000L : cacheSize;
+    checkArgument((this.cacheSize >= 0), "The cache size may not be negative");
+
+    // The extract step depends only on the master secret so is carried out once
+    final Map<Integer, byte[]> keys = Maps.newHashMap();
+    for (final Map.Entry<Integer, String> entry : masterSecrets.entrySet())
+    {
+      checkNotNull(entry.getValue(), "Master secret for version %s is missing", entry.getKey());
+      keys.put(entry.getKey(), hmac(new byte[DERIVED_KEY_LENGTH], entry.getValue().getBytes(Charsets.UTF_8)));
+    }
+    this.pseudoRandomKeys = ImmutableMap.copyOf(keys);
+    this.derived = CacheBuilder.newBuilder().maximumSize(this.cacheSize).build();
+  }
+
+  /**
+   * Derive the credentials for a key ID.
+   *
+   * @param keyId
+   *          the key ID
+   * @return the Hawk credentials, or <code>null</code> if the key ID is not
+   *         valid for this deriver
+   */
+  public HawkCredentials derive(final String keyId)
+  {
+    if (keyId == null)
+    {
+      return null;
+    }
+    HawkCredentials credentials = this.derived.getIfPresent(keyId);
+    if (credentials == null)
+    {
+      final byte[] prk = this.pseudoRandomKeys.get(versionOf(keyId));
+      if (prk == null)
+      {
+        return null;
+      }
+      credentials = new HawkCredentials.Builder()
+                                       .keyId(keyId)
+                                       .key(KEYENCODING.encode(expand(prk, keyId.getBytes(Charsets.UTF_8))))
+                                       .algorithm(this.algorithm)
+                                       .build();
+      this.derived.put(keyId, credentials);
+    }
+    return credentials;
+  }
+
+  /**
+   * Generate a key ID for a client using the current master secret.
+   *
+   * @param name
+   *          the name of the client
+   * @param epoch
+   *          the epoch of the key ID
+   * @return the key ID
+   * @throws DataError
+   *           if versioning is not enabled
+   */
+  public String generateKeyId(final String name, final long epoch)
+  {
+    checkNotNull(name, "The name is required");
+    checkState(this.versioned, "Key IDs can only be generated when versioning is enabled");
+    checkState((epoch >= 0), "The epoch may not be negative");
+    return this.currentVersion + "." + epoch + "." + name;
+  }
+
+  // Obtain the version of the master secret for a key ID, or null if the key ID is not acceptable
+  private Integer versionOf(final String keyId)
+  {
+    if (!this.versioned)
+    {
+      return this.currentVersion;
+    }
+    final List<String> fields = Lists.newArrayList(KEYIDSPLITTER.split(keyId));
+    if ((fields.size() != 3) || (fields.get(2).isEmpty()))
+    {
+      return null;
+    }
+    try
+    {
+      final long epoch = Long.parseLong(fields.get(1));
+      if (epoch < this.minimumEpoch)
+      {
+        return null;
+      }
+      return Integer.valueOf(fields.get(0));
+    }
+    catch (NumberFormatException nfe)
+    {
+      return null;
+    }
+  }
+
+  // HKDF expand step, producing a single block of output
+  private static byte[] expand(final byte[] prk, final byte[] info)
+  {
+    final byte[] input = new byte[info.length + 1];
+    System.arraycopy(info, 0, input, 0, info.length);
+    input[info.length] = 0x01;
+    return hmac(prk, input);
+  }
+
+  private static byte[] hmac(final byte[] key, final byte[] data)
+  {
+    try
+    {
+      final Mac mac = Mac.getInstance(HKDF_ALGORITHM);
+      mac.init(new SecretKeySpec(key, HKDF_ALGORITHM));
+      return mac.doFinal(data);
+    }
+    catch (NoSuchAlgorithmException nsae)
+    {
+      throw new DataError.Bad("Unknown encryption algorithm", nsae);
+    }
+    catch (InvalidKeyException ike)
+    {
+      throw new DataError.Bad("Invalid key", ike);
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    // Deliberately omits the master secrets
+    return Objects.toStringHelper(this)
+                  .add("versions", this.pseudoRandomKeys.keySet())
+                  .add("currentVersion", this.currentVersion)
+                  .add("versioned", this.versioned)
+                  .add("minimumEpoch", this.minimumEpoch)
+                  .add("algorithm", this.algorithm)
+                  .add("cacheSize", this.cacheSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private final Map<Integer, String> masterSecrets = Maps.newHashMap();
+    private Integer currentVersion;
+    private Boolean versioned;
+    private Long minimumEpoch;
+    private Algorithm algorithm;
+    private Long cacheSize;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Add a master secret.  The first master secret added becomes the current
+     * version unless overridden.
+     * @param version the version of the master secret
+     * @param masterSecret the master secret
+     * @return The builder
+     */
+    public Builder masterSecret(final int version, final String masterSecret)
+    {
+      this.masterSecrets.put(version, masterSecret);
+      if (this.currentVersion == null)
+      {
+        this.currentVersion = version;
+      }
+      return this;
+    }
+
+    /**
+     * Override the current version of the master secret.
+     * @param currentVersion the current version
+     * @return The builder
+     */
+    public Builder currentVersion(final Integer currentVersion)
+    {
+      this.currentVersion = currentVersion;
+      return this;
+    }
+
+    /**
+     * Override if key IDs carry version and epoch fields.  Defaults to <code>true</code>.
+     * @param versioned if key IDs carry version and epoch fields
+     * @return The builder
+     */
+    public Builder versioned(final Boolean versioned)
+    {
+      this.versioned = versioned;
+      return this;
+    }
+
+    /**
+     * Override the minimum acceptable epoch.  Defaults to <code>0</code>.
+     * @param minimumEpoch the minimum acceptable epoch
+     * @return The builder
+     */
+    public Builder minimumEpoch(final Long minimumEpoch)
+    {
+      this.minimumEpoch = minimumEpoch;
+      return this;
+    }
+
+    /**
+     * Override the algorithm of the derived credentials.  Defaults to <code>SHA256</code>.
+     * @param algorithm the algorithm
+     * @return The builder
+     */
+    public Builder algorithm(final Algorithm algorithm)
+    {
+      this.algorithm = algorithm;
+      return this;
+    }
+
+    /**
+     * Override the maximum number of derived credentials to hold in cache.  Defaults to <code>10000</code>.
+     * @param cacheSize the maximum number of derived credentials to hold in cache
+     * @return The builder
+     */
+    public Builder cacheSize(final Long cacheSize)
+    {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * Build the deriver.
+     * @return a new deriver
+     * @throws DataError if the data provided is invalid for a deriver
+     */
+    public HawkCredentialsDeriver build()
+    {
+      return new HawkCredentialsDeriver(this.masterSecrets, this.currentVersion, this.versioned, this.minimumEpoch, this.algorithm, this.cacheSize);
+    }
+  }
+}
@@ -0,0 +1,490 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkCredentials.Algorithm;
+
+/**
+ * A compact, read-only index of Hawk credentials keyed by key ID.
+ * <p>
+ * The index is an open-addressed hash table held in primitive buffers, with
+ * the key IDs and keys of all credentials stored contiguously as UTF-8.
+ * Credentials are only materialized when they are looked up, so the index
+ * costs a few tens of bytes per set of credentials rather than a full object
+ * graph.
+ * <p>
+ * An index can be written to a snapshot file, and a snapshot can be loaded
+ * either on to the heap or by memory-mapping it, in which case the index is
+ * held entirely off-heap.
+ */
+public final class HawkCredentialsIndex
+{
+  // Snapshot layout: header, then slot hashes, then slot offsets, then records.
+  // Each record is [id length][id][key length][key][algorithm]
+  private static final int MAGIC = 0x484b4349;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 20;
+
+  private static final int EMPTY = -1;
+  private static final int MAX_FIELD_LENGTH = 0xffff;
+  private static final int MAX_ENTRIES = 1 << 28;
+  private static final Algorithm[] ALGORITHMS = Algorithm.values();
+
+  private final int size;
+  private final int mask;
+  private final IntBuffer hashes;
+  private final IntBuffer offsets;
+  private final ByteBuffer data;
+
+  private HawkCredentialsIndex(final int size, final IntBuffer hashes, final IntBuffer offsets, final ByteBuffer data)
+  {
+    this.size = size;
+    this.mask = hashes.capacity() - 1;
+    this.hashes = hashes;
+    this.offsets = offsets;
+    this.data = data;
+  }
+
+  /**
+   * Obtain the credentials for a key ID.
+   *
+   * @param keyId
+   *          the key ID
+   * @return the Hawk credentials, or <code>null</code> if they could not be found
+   */
+  public HawkCredentials get(final String keyId)
+  {
+    checkNotNull(keyId, "The key ID is required");
+    final byte[] id = keyId.getBytes(Charsets.UTF_8);
+    final int hash = hash(id);
+    int slot = hash & this.mask;
+    while (true)
+    {
+      final int offset = this.offsets.get(slot);
+      if (offset == EMPTY)
+      {
+        return null;
+      }
+      if ((this.hashes.get(slot) == hash) && (matches(offset, id)))
+      {
+        return materialize(keyId, offset + 2 + id.length);
+      }
+      slot = (slot + 1) & this.mask;
+    }
+  }
+
+  /**
+   * Find out if the index contains credentials for a key ID.
+   *
+   * @param keyId
+   *          the key ID
+   * @return <code>true</code> if the index contains credentials for the key ID,
+   *         otherwise <code>false</code>
+   */
+  public boolean contains(final String keyId)
+  {
+    return get(keyId) != null;
+  }
+
+  /**
+   * Obtain the number of credentials in the index.
+   *
+   * @return the number of credentials in the index
+   */
+  public int size()
+  {
+    return this.size;
+  }
+
+  // Compare the key ID of the record at the given offset with a key ID
+  private boolean matches(final int offset, final byte[] id)
+  {
+    if ((this.data.getShort(offset) & MAX_FIELD_LENGTH) != id.length)
+    {
+      return false;
+    }
+    for (int i = 0; i < id.length; i++)
+    {
+      if (this.data.get(offset + 2 + i) != id[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Build credentials from the key portion of the record at the given offset
+  private HawkCredentials materialize(final String keyId, final int offset)
+  {
+    final int keyLength = this.data.getShort(offset) & MAX_FIELD_LENGTH;
+    final byte[] key = new byte[keyLength];
+    for (int i = 0; i < keyLength; i++)
+    {
+      key[i] = this.data.get(offset + 2 + i);
+    }
+    return new HawkCredentials.Builder()
+                              .keyId(keyId)
+                              .key(new String(key, Charsets.UTF_8))
+                              .algorithm(ALGORITHMS[this.data.get(offset + 2 + keyLength)])
+                              .build();
+  }
+
+  // FNV-1a, which is stable across JVMs and so safe to persist in snapshots
+  private static int hash(final byte[] bytes)
+  {
+    int hash = 0x811c9dc5;
+    for (final byte b : bytes)
+    {
+      hash ^= (b & 0xff);
+      hash *= 0x01000193;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Write the index to a snapshot file.
+   *
+   * @param file
+   *          the file to which to write the snapshot
+   * @throws ServerError
+   *           if the snapshot could not be written
+   */
+  public void writeTo(final File file)
+  {
+    checkNotNull(file, "The snapshot file is required");
+    try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536)))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(this.size);
+      out.writeInt(this.hashes.capacity());
+      out.writeInt(this.data.limit());
+      for (int i = 0; i < this.hashes.capacity(); i++)
+      {
+        out.writeInt(this.hashes.get(i));
+      }
+      for (int i = 0; i < this.offsets.capacity(); i++)
+      {
+        out.writeInt(this.offsets.get(i));
+      }
+      final ByteBuffer source = this.data.duplicate();
+      source.rewind();
+      final byte[] chunk = new byte[8192];
+      while (source.hasRemaining())
+      {
+        final int length = Math.min(chunk.length, source.remaining());
+        source.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+    catch (IOException ioe)
+    {
+      throw new ServerError("Failed to write credentials snapshot", ioe);
+    }
+  }
+
+  /**
+   * Load an index from a snapshot file on to the heap.
+   *
+   * @param file
+   *          the snapshot file
+   * @return the index
+   * @throws DataError
+   *           if the file is not a valid snapshot
+   * @throws ServerError
+   *           if the snapshot could not be read
+   */
+  public static HawkCredentialsIndex load(final File file)
+  {
+    checkNotNull(file, "The snapshot file is required");
+    try (final FileChannel channel = new FileInputStream(file).getChannel())
+    {
+      checkState((channel.size() <= Integer.MAX_VALUE), "The credentials snapshot is too large to load on to the heap");
+      final ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+      while (buffer.hasRemaining())
+      {
+        if (channel.read(buffer) == -1)
+        {
+          throw new DataError.Bad("The credentials snapshot is truncated");
+        }
+      }
+      buffer.flip();
+      return fromSnapshot(buffer);
+    }
+    catch (IOException ioe)
+    {
+      throw new ServerError("Failed to read credentials snapshot", ioe);
+    }
+  }
+
+  /**
+   * Load an index from a snapshot file by memory-mapping it.  The index
+   * remains valid for the lifetime of the returned object, and the file
+   * should not be altered while it is in use.
+   *
+   * @param file
+   *          the snapshot file
+   * @return the index
+   * @throws DataError
+   *           if the file is not a valid snapshot
+   * @throws ServerError
+   *           if the snapshot could not be mapped
+   */
+  public static HawkCredentialsIndex map(final File file)
+  {
+    checkNotNull(file, "The snapshot file is required");
+    try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+         final FileChannel channel = raf.getChannel())
+    {
+      checkState((channel.size() <= Integer.MAX_VALUE), "The credentials snapshot is too large to map");
+      return fromSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    catch (IOException ioe)
+    {
+      throw new ServerError("Failed to map credentials snapshot", ioe);
+    }
+  }
+
+  private static HawkCredentialsIndex fromSnapshot(final ByteBuffer buffer)
+  {
+    checkState((buffer.limit() >= HEADER_SIZE), "The credentials snapshot is truncated");
+    checkState((buffer.getInt(0) == MAGIC), "The file is not a credentials snapshot");
+    checkState((buffer.getInt(4) == VERSION), "The credentials snapshot version %s is not supported", buffer.getInt(4));
+    final int size = buffer.getInt(8);
+    final int capacity = buffer.getInt(12);
+    final int dataLength = buffer.getInt(16);
+    checkState(((capacity > 0) && ((capacity & (capacity - 1)) == 0) && (size >= 0) && (size < capacity)), "The credentials snapshot has an invalid table size");
+    checkState(((dataLength >= 0) && (buffer.limit() == HEADER_SIZE + (long)capacity * 8 + dataLength)), "The credentials snapshot is truncated");
+
+    final int dataStart = HEADER_SIZE + capacity * 8;
+    final IntBuffer offsets = region(buffer, HEADER_SIZE + capacity * 4, capacity * 4).asIntBuffer();
+    final ByteBuffer data = region(buffer, dataStart, dataLength);
+    checkRecords(size, offsets, data);
+    return new HawkCredentialsIndex(size,
+                                    region(buffer, HEADER_SIZE, capacity * 4).asIntBuffer(),
+                                    offsets,
+                                    data);
+  }
+
+  /**
+   * Check that every slot of a snapshot refers to a whole record with a
+   * valid algorithm, and that the number of occupied slots matches the size,
+   * which leaves at least one empty slot to end every probe.  Lookups trust
+   * the snapshot once it has been loaded, so a corrupt snapshot must be
+   * rejected here.
+   */
+  private static void checkRecords(final int size, final IntBuffer offsets, final ByteBuffer data)
+  {
+    final int dataLength = data.limit();
+    int occupied = 0;
+    for (int slot = 0; slot < offsets.capacity(); slot++)
+    {
+      final int offset = offsets.get(slot);
+      if (offset == EMPTY)
+      {
+        continue;
+      }
+      occupied++;
+      checkState(((offset >= 0) && ((long)offset + 2 <= dataLength)), "The credentials snapshot has an invalid record offset");
+      final long keyStart = (long)offset + 2 + (data.getShort(offset) & MAX_FIELD_LENGTH);
+      checkState((keyStart + 2 <= dataLength), "The credentials snapshot has an invalid record");
+      final long algorithmStart = keyStart + 2 + (data.getShort((int)keyStart) & MAX_FIELD_LENGTH);
+      checkState((algorithmStart + 1 <= dataLength), "The credentials snapshot has an invalid record");
+      final int algorithm = data.get((int)algorithmStart);
+      checkState(((algorithm >= 0) && (algorithm < ALGORITHMS.length)), "The credentials snapshot has an invalid algorithm");
+    }
+    checkState((occupied == size), "The credentials snapshot has an invalid table size");
+  }
+
+  private static ByteBuffer region(final ByteBuffer buffer, final int start, final int length)
+  {
+    final ByteBuffer region = buffer.duplicate();
+    region.position(start);
+    region.limit(start + length);
+    return region.slice();
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("size", this.size)
+                  .add("capacity", this.hashes.capacity())
+                  .add("dataLength", this.data.limit())
+                  .toString();
+  }
+
+  /**
+   * Builder class to create an index of Hawk credentials.
+   */
+  public static class Builder
+  {
+    private byte[] data = new byte[4096];
+    private int dataLength;
+    private int[] entryHashes = new int[64];
+    private int[] entryOffsets = new int[64];
+    private int count;
+
+    /**
+     * Start a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Add a set of credentials to the index.
+     *
+     * @param credentials
+     *          the credentials
+     * @return the builder
+     * @throws DataError
+     *           if the credentials cannot be held in the index
+     */
+    public Builder add(final HawkCredentials credentials)
+    {
+      checkNotNull(credentials, "The credentials are required");
+      checkState((this.count < MAX_ENTRIES), "Too many credentials for a single index");
+      final byte[] id = credentials.getKeyId().getBytes(Charsets.UTF_8);
+      final byte[] key = credentials.getKey().getBytes(Charsets.UTF_8);
+      checkState((id.length <= MAX_FIELD_LENGTH), "The key ID is too long to be indexed");
+      checkState((key.length <= MAX_FIELD_LENGTH), "The key is too long to be indexed");
+
+      final int recordLength = 2 + id.length + 2 + key.length + 1;
+      checkState(((long)this.dataLength + recordLength <= Integer.MAX_VALUE - HEADER_SIZE), "Too much credential data for a single index");
+      ensureDataCapacity(recordLength);
+      if (this.count == this.entryHashes.length)
+      {
+        this.entryHashes = Arrays.copyOf(this.entryHashes, this.count * 2);
+        this.entryOffsets = Arrays.copyOf(this.entryOffsets, this.count * 2);
+      }
+      this.entryHashes[this.count] = hash(id);
+      this.entryOffsets[this.count] = this.dataLength;
+      this.count++;
+
+      this.dataLength = putField(id, this.dataLength);
+      this.dataLength = putField(key, this.dataLength);
+      this.data[this.dataLength++] = (byte)credentials.getAlgorithm().ordinal();
+      return this;
+    }
+
+    /**
+     * Add multiple sets of credentials to the index.
+     *
+     * @param credentials
+     *          the credentials
+     * @return the builder
+     * @throws DataError
+     *           if the credentials cannot be held in the index
+     */
+    public Builder addAll(final Iterable<HawkCredentials> credentials)
+    {
+      checkNotNull(credentials, "The credentials are required");
+      for (final HawkCredentials entry : credentials)
+      {
+        add(entry);
+      }
+      return this;
+    }
+
+    private void ensureDataCapacity(final int additional)
+    {
+      if (this.dataLength + additional > this.data.length)
+      {
+        final long target = Math.max((long)this.data.length * 2, (long)this.dataLength + additional);
+        this.data = Arrays.copyOf(this.data, (int)Math.min(target, Integer.MAX_VALUE - HEADER_SIZE));
+      }
+    }
+
+    private int putField(final byte[] field, final int offset)
+    {
+      this.data[offset] = (byte)(field.length >>> 8);
+      this.data[offset + 1] = (byte)field.length;
+      System.arraycopy(field, 0, this.data, offset + 2, field.length);
+      return offset + 2 + field.length;
+    }
+
+    /**
+     * Build the index.
+     *
+     * @return the index
+     * @throws DataError
+     *           if the same key ID has been added more than once
+     */
+    public HawkCredentialsIndex build()
+    {
+      // Keep the table at most half full so that most lookups need a single probe
+      final int capacity = Integer.highestOneBit(Math.max(this.count, 1) * 2 - 1) << 1;
+      final int mask = capacity - 1;
+      final ByteBuffer records = ByteBuffer.wrap(Arrays.copyOf(this.data, this.dataLength));
+      final int[] hashes = new int[capacity];
+      final int[] offsets = new int[capacity];
+      Arrays.fill(offsets, EMPTY);
+
+      for (int i = 0; i < this.count; i++)
+      {
+        final int hash = this.entryHashes[i];
+        final int offset = this.entryOffsets[i];
+        int slot = hash & mask;
+        while (offsets[slot] != EMPTY)
+        {
+          if ((hashes[slot] == hash) && (sameId(offsets[slot], offset)))
+          {
+            throw new DataError.Bad("Duplicate key ID in credentials index");
+          }
+          slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+      }
+
+      return new HawkCredentialsIndex(this.count, IntBuffer.wrap(hashes), IntBuffer.wrap(offsets), records);
+    }
+
+    private boolean sameId(final int first, final int second)
+    {
+      final int length = 2 + (((this.data[first] & 0xff) << 8) | (this.data[first + 1] & 0xff));
+      for (int i = 0; i < length; i++)
+      {
+        if (this.data[first + i] != this.data[second + i])
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
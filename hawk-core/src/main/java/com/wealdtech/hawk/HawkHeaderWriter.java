@@ -0,0 +1,419 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+
+/**
+ * Generate Hawk authorization headers directly into caller-supplied
+ * buffers.
+ * <p>
+ * The writer holds a MAC initialised with the client's key and reusable
+ * buffers for the normalized request string and the header, and encodes the
+ * MAC as base64 directly into the header.  Once its buffers have grown to
+ * fit, generating a header allocates nothing if the client uses a
+ * {@link HawkRandomNonceGenerator}; other nonce generators cost the
+ * allocation of the nonce itself.  The headers are identical to those from
+ * {@link HawkClient#generateAuthorizationHeader(java.net.URI, String, String, String, String, String)}.
+ * <p>
+ * Writers are obtained with {@link HawkClient#newHeaderWriter()} and are not
+ * thread-safe; each thread should have its own.
+ */
+public final class HawkHeaderWriter
+{
+  private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  private static final int TEXT_PLAIN = 0;
+  private static final int TEXT_UPPER = 1;
+  private static final int TEXT_LOWER = 2;
+  private static final int TEXT_ESCAPED = 3;
+  private static final char[] PREFIX = ("hawk." + Hawk.HAWKVERSION + "." + Hawk.AuthType.HEADER.toString() + "\n").toCharArray();
+
+  private final HawkClient client;
+  private final String keyId;
+  private final HawkNonceGenerator nonceGenerator;
+  private final HawkRandomNonceGenerator directNonceGenerator;
+  private final Mac mac;
+  private final byte[] macBytes;
+
+  // Reusable buffers, grown as required
+  private byte[] normalized = new byte[256];
+  private int normalizedLength;
+  private char[] header = new char[256];
+  private int headerLength;
+  private char[] nonce = new char[32];
+  private int nonceLength;
+  private CharBuffer nonceView = CharBuffer.wrap(this.nonce);
+  private CharBuffer headerView = CharBuffer.wrap(this.header);
+
+  HawkHeaderWriter(final HawkClient client, final HawkCredentials credentials, final HawkNonceGenerator nonceGenerator)
+  {
+    this.client = client;
+    this.keyId = credentials.getKeyId();
+    this.nonceGenerator = nonceGenerator;
+    this.directNonceGenerator = nonceGenerator instanceof HawkRandomNonceGenerator ? (HawkRandomNonceGenerator)nonceGenerator : null;
+    this.mac = Hawk.initMac(credentials);
+    this.macBytes = new byte[this.mac.getMacLength()];
+  }
+
+  /**
+   * Generate an authorization header and append it to the output.  This can
+   * be a <code>StringBuilder</code> or a <code>CharBuffer</code>, among others.
+   *
+   * @param out the output
+   * @param method the method of the request
+   * @param resource the raw path of the request, including the raw query string if present
+   * @param host the host of the request
+   * @param port the port of the request
+   * @param hash a hash of the request's payload, or <code>null</code> if payload authentication is not required
+   * @param ext extra data, or <code>null</code> if none
+   * @throws IOException if the output cannot be written
+   * @throws DataError if there is a problem with the data passed in which makes it impossible to generate a valid authorization header
+   */
+  public void writeAuthorizationHeader(final Appendable out,
+                                       final String method,
+                                       final String resource,
+                                       final String host,
+                                       final int port,
+                                       final String hash,
+                                       final String ext) throws IOException
+  {
+    checkNotNull(out, "Output is required but not supplied");
+    generate(method, resource, host, port, hash, ext);
+    this.headerView.limit(this.headerLength).position(0);
+    out.append(this.headerView);
+  }
+
+  /**
+   * Generate an authorization header as ASCII bytes into an array.
+   *
+   * @param out the array
+   * @param offset the offset in the array at which to write the header
+   * @param method the method of the request
+   * @param resource the raw path of the request, including the raw query string if present
+   * @param host the host of the request
+   * @param port the port of the request
+   * @param hash a hash of the request's payload, or <code>null</code> if payload authentication is not required
+   * @param ext extra data, or <code>null</code> if none
+   * @return the number of bytes written
+   * @throws DataError if the array is too small, or if there is a problem with the data passed in which makes it impossible to generate a valid authorization header
+   */
+  public int writeAuthorizationHeader(final byte[] out,
+                                      final int offset,
+                                      final String method,
+                                      final String resource,
+                                      final String host,
+                                      final int port,
+                                      final String hash,
+                                      final String ext)
+  {
+    checkNotNull(out, "Output is required but not supplied");
+    generate(method, resource, host, port, hash, ext);
+    checkArgument(((offset >= 0) && (out.length - offset >= this.headerLength)), "Output is too small for the authorization header");
+    for (int i = 0; i < this.headerLength; i++)
+    {
+      final char c = this.header[i];
+      checkArgument((c < 0x80), "Authorization header contains non-ASCII characters");
+      out[offset + i] = (byte)c;
+    }
+    return this.headerLength;
+  }
+
+  // Generate the header into the internal buffer
+  private void generate(final String method, final String resource, final String host, final int port, final String hash, final String ext)
+  {
+    checkNotNull(method, "Method is required but not supplied");
+    checkNotNull(resource, "Resource is required but not supplied");
+    checkNotNull(host, "Host is required but not supplied");
+    final long timestamp = this.client.getServerTime(host);
+    generateNonce();
+
+    // Normalized request string, as in Hawk.calculateMAC()
+    this.normalizedLength = 0;
+    this.headerLength = 0;
+    for (final char c : PREFIX)
+    {
+      putByte(c);
+    }
+    putNumber(timestamp);
+    putByte('\n');
+    this.nonceView.limit(this.nonceLength).position(0);
+    putText(this.nonceView, TEXT_PLAIN);
+    putByte('\n');
+    putText(method, TEXT_UPPER);
+    putByte('\n');
+    putText(resource, TEXT_PLAIN);
+    putByte('\n');
+    putText(host, TEXT_LOWER);
+    putByte('\n');
+    putNumber(port);
+    putByte('\n');
+    if (hash != null)
+    {
+      putText(hash, TEXT_PLAIN);
+    }
+    putByte('\n');
+    if (ext != null)
+    {
+      putText(ext, TEXT_ESCAPED);
+    }
+    putByte('\n');
+
+    this.mac.update(this.normalized, 0, this.normalizedLength);
+    try
+    {
+      this.mac.doFinal(this.macBytes, 0);
+    }
+    catch (ShortBufferException sbe)
+    {
+      throw new ServerError("MAC buffer too small", sbe);
+    }
+
+    // Header, as in HawkClient.generateAuthorizationHeader()
+    this.headerLength = 0;
+    append("Hawk id=\"");
+    append(this.keyId);
+    append("\", ts=\"");
+    appendNumber(timestamp);
+    append("\", nonce=\"");
+    ensureHeader(this.nonceLength);
+    System.arraycopy(this.nonce, 0, this.header, this.headerLength, this.nonceLength);
+    this.headerLength += this.nonceLength;
+    if (hash != null)
+    {
+      append("\", hash=\"");
+      append(hash);
+    }
+    if ((ext != null) && (!ext.isEmpty()))
+    {
+      append("\", ext=\"");
+      append(ext);
+    }
+    append("\", mac=\"");
+    appendBase64(this.macBytes);
+    append("\"");
+  }
+
+  private void generateNonce()
+  {
+    if (this.directNonceGenerator != null)
+    {
+      this.nonceLength = this.directNonceGenerator.getLength();
+      if (this.nonce.length < this.nonceLength)
+      {
+        this.nonce = new char[this.nonceLength];
+        this.nonceView = CharBuffer.wrap(this.nonce);
+      }
+      this.directNonceGenerator.generate(this.nonce, 0);
+    }
+    else
+    {
+      final String generated = this.nonceGenerator.generate();
+      this.nonceLength = generated.length();
+      if (this.nonce.length < this.nonceLength)
+      {
+        this.nonce = new char[this.nonceLength];
+        this.nonceView = CharBuffer.wrap(this.nonce);
+      }
+      generated.getChars(0, this.nonceLength, this.nonce, 0);
+    }
+  }
+
+  // Normalized string helpers, encoding as UTF-8
+
+  private void putByte(final int b)
+  {
+    if (this.normalizedLength == this.normalized.length)
+    {
+      this.normalized = Arrays.copyOf(this.normalized, this.normalized.length * 2);
+    }
+    this.normalized[this.normalizedLength++] = (byte)b;
+  }
+
+  // Add text, encoding as UTF-8 in the same way as String.getBytes()
+  private void putText(final CharSequence text, final int mode)
+  {
+    final int length = text.length();
+    for (int i = 0; i < length; i++)
+    {
+      char c = text.charAt(i);
+      if (c < 0x80)
+      {
+        if ((mode == TEXT_ESCAPED) && ((c == '\\') || (c == '\n')))
+        {
+          putByte('\\');
+          c = c == '\n' ? 'n' : c;
+        }
+        else if (mode == TEXT_UPPER)
+        {
+          c = Character.toUpperCase(c);
+        }
+        else if (mode == TEXT_LOWER)
+        {
+          c = Character.toLowerCase(c);
+        }
+        putByte(c);
+      }
+      else if (Character.isHighSurrogate(c) && (i + 1 < length) && (Character.isLowSurrogate(text.charAt(i + 1))))
+      {
+        final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        putByte(0xF0 | (codePoint >> 18));
+        putByte(0x80 | ((codePoint >> 12) & 0x3F));
+        putByte(0x80 | ((codePoint >> 6) & 0x3F));
+        putByte(0x80 | (codePoint & 0x3F));
+      }
+      else
+      {
+        if (mode == TEXT_UPPER)
+        {
+          c = Character.toUpperCase(c);
+        }
+        else if (mode == TEXT_LOWER)
+        {
+          c = Character.toLowerCase(c);
+        }
+        if (c < 0x800)
+        {
+          putByte(0xC0 | (c >> 6));
+          putByte(0x80 | (c & 0x3F));
+        }
+        else if (Character.isSurrogate(c))
+        {
+          // Unpaired surrogate
+          putByte('?');
+        }
+        else
+        {
+          putByte(0xE0 | (c >> 12));
+          putByte(0x80 | ((c >> 6) & 0x3F));
+          putByte(0x80 | (c & 0x3F));
+        }
+      }
+    }
+  }
+
+  private void putNumber(final long value)
+  {
+    ensureHeader(20);
+    final int start = this.headerLength;
+    appendNumber(value);
+    for (int i = start; i < this.headerLength; i++)
+    {
+      putByte(this.header[i]);
+    }
+    this.headerLength = start;
+  }
+
+  // Header helpers
+
+  private void ensureHeader(final int extra)
+  {
+    if (this.headerLength + extra > this.header.length)
+    {
+      this.header = Arrays.copyOf(this.header, Math.max(this.header.length * 2, this.headerLength + extra));
+      this.headerView = CharBuffer.wrap(this.header);
+    }
+  }
+
+  private void append(final String s)
+  {
+    ensureHeader(s.length());
+    s.getChars(0, s.length(), this.header, this.headerLength);
+    this.headerLength += s.length();
+  }
+
+  private void appendNumber(final long value)
+  {
+    ensureHeader(20);
+    if (value == 0)
+    {
+      this.header[this.headerLength++] = '0';
+      return;
+    }
+    long remaining = value;
+    if (remaining < 0)
+    {
+      this.header[this.headerLength++] = '-';
+    }
+    final int start = this.headerLength;
+    while (remaining != 0)
+    {
+      this.header[this.headerLength++] = (char)('0' + Math.abs(remaining % 10));
+      remaining /= 10;
+    }
+    // Digits were written least significant first
+    for (int i = start, j = this.headerLength - 1; i < j; i++, j--)
+    {
+      final char c = this.header[i];
+      this.header[i] = this.header[j];
+      this.header[j] = c;
+    }
+  }
+
+  private void appendBase64(final byte[] bytes)
+  {
+    ensureHeader((bytes.length + 2) / 3 * 4);
+    this.headerLength += encodeBase64(bytes, 0, bytes.length, this.header, this.headerLength);
+  }
+
+  /**
+   * Encode bytes as padded base64 into a character array.
+   * @return the number of characters written
+   */
+  static int encodeBase64(final byte[] bytes, final int offset, final int length, final char[] out, final int outOffset)
+  {
+    final int end = offset + length;
+    int pos = outOffset;
+    int i = offset;
+    while (i + 2 < end)
+    {
+      final int bits = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+      out[pos++] = BASE64[bits >>> 18];
+      out[pos++] = BASE64[(bits >>> 12) & 0x3F];
+      out[pos++] = BASE64[(bits >>> 6) & 0x3F];
+      out[pos++] = BASE64[bits & 0x3F];
+      i += 3;
+    }
+    final int remaining = end - i;
+    if (remaining == 1)
+    {
+      final int bits = (bytes[i] & 0xFF) << 16;
+      out[pos++] = BASE64[bits >>> 18];
+      out[pos++] = BASE64[(bits >>> 12) & 0x3F];
+      out[pos++] = '=';
+      out[pos++] = '=';
+    }
+    else if (remaining == 2)
+    {
+      final int bits = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8);
+      out[pos++] = BASE64[bits >>> 18];
+      out[pos++] = BASE64[(bits >>> 12) & 0x3F];
+      out[pos++] = BASE64[(bits >>> 6) & 0x3F];
+      out[pos++] = '=';
+    }
+    return pos - outOffset;
+  }
+}
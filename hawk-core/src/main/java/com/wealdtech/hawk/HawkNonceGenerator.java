@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+/**
+ * Generate nonces for Hawk authorization headers.
+ * <p>
+ * Implementations must be thread-safe, and should avoid contention as they
+ * are called for every signed request.  Nonces must only contain characters
+ * that are valid in a quoted header value other than the quote and
+ * backslash, and should be unique for every request with the same
+ * credentials and timestamp; a repeated nonce is rejected by the server as a
+ * replay.
+ */
+public interface HawkNonceGenerator
+{
+  /**
+   * Generate a nonce.
+   * @return a new nonce
+   */
+  String generate();
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.crypto.Mac;
+
+import com.wealdtech.DataError;
+
+/**
+ * An input stream that hashes a payload as it is read and checks the hash
+ * against an expected value once the payload has been read, so that
+ * payloads of any size can be authenticated in constant memory.
+ * <p>
+ * The payload has been read when either the declared length of the payload
+ * has been read or the end of the stream is reached, whichever is first, so
+ * readers that stop at the end of the payload without looking for the end
+ * of the stream still have the payload checked.  Closing the stream before
+ * the payload has been read does not read the remainder, which may be large,
+ * so the payload is left unverified.
+ * <p>
+ * If the hash does not match then the read that completes the payload, or
+ * the close, throws an {@link IOException} caused by a
+ * {@link DataError.Authentication}, as do all later reads, and
+ * {@link #isVerified()} remains <code>false</code>.  Note that the payload
+ * is only authenticated once it has been read in full; callers that act on
+ * the payload as it is read must be prepared to discard their work.
+ */
+public final class HawkPayloadInputStream extends FilterInputStream
+{
+  private final Mac mac;
+  private final String hash;
+  private final long length;
+  private long count;
+  private boolean complete;
+  private boolean verified;
+  private DataError failure;
+
+  /**
+   * Create a stream checking a payload against its hash.
+   * @param in the payload
+   * @param mac the payload MAC, as started by {@link Hawk#startBodyMac(HawkCredentials, String)}
+   * @param hash the expected hash of the payload
+   * @param length the declared length of the payload, or <code>-1</code> if not known
+   */
+  public HawkPayloadInputStream(final InputStream in, final Mac mac, final String hash, final long length)
+  {
+    super(in);
+    this.mac = mac;
+    this.hash = hash;
+    this.length = length;
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    checkFailure();
+    final int b = this.in.read();
+    if (b == -1)
+    {
+      complete();
+    }
+    else if (!this.complete)
+    {
+      this.mac.update((byte)b);
+      this.count++;
+      checkLength();
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException
+  {
+    checkFailure();
+    final int read = this.in.read(b, off, len);
+    if (read == -1)
+    {
+      complete();
+    }
+    else if (!this.complete)
+    {
+      this.mac.update(b, off, read);
+      this.count += read;
+      checkLength();
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException
+  {
+    if (n <= 0)
+    {
+      return 0;
+    }
+    // Skipped bytes still need to be hashed
+    final byte[] buffer = new byte[(int)Math.min(n, 4096)];
+    long skipped = 0;
+    while (skipped < n)
+    {
+      final int count = read(buffer, 0, (int)Math.min(n - skipped, buffer.length));
+      if (count == -1)
+      {
+        break;
+      }
+      skipped += count;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported()
+  {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(final int readlimit)
+  {
+    // Not supported
+  }
+
+  @Override
+  public synchronized void reset() throws IOException
+  {
+    throw new IOException("Mark and reset are not supported");
+  }
+
+  /**
+   * Find out if the payload has been read in full and matches its hash.
+   * @return <code>true</code> if the payload has been verified, otherwise <code>false</code>
+   */
+  public boolean isVerified()
+  {
+    return this.verified;
+  }
+
+  /**
+   * Close the stream.  If the payload has been read then its hash is checked;
+   * otherwise the remainder is not read, and the payload is left unverified.
+   * @throws IOException if the payload has been read and does not match its hash, or the stream cannot be closed
+   */
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      // Covers a declared length of zero, which no read completes
+      checkLength();
+      checkFailure();
+    }
+    finally
+    {
+      this.in.close();
+    }
+  }
+
+  // Complete the payload if its declared length has been read
+  private void checkLength() throws IOException
+  {
+    if ((this.length >= 0) && (this.count >= this.length))
+    {
+      complete();
+    }
+  }
+
+  private void checkFailure() throws IOException
+  {
+    if (this.failure != null)
+    {
+      // A new exception each time, so that it can be suppressed by a later failure when closing
+      throw new IOException(this.failure.getMessage(), this.failure);
+    }
+  }
+
+  private void complete() throws IOException
+  {
+    if (this.complete)
+    {
+      return;
+    }
+    this.complete = true;
+    this.verified = HawkServer.timeConstantEquals(this.hash, Hawk.completeBodyMac(this.mac));
+    if (!this.verified)
+    {
+      this.failure = new DataError.Authentication("The payload does not match its hash");
+      checkFailure();
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+
+/**
+ * The default nonce generator, producing random nonces from the URL-safe
+ * base64 alphabet, so each character carries six bits of entropy.
+ * <p>
+ * Each thread has its own random source and character buffer, so generation
+ * takes no locks and allocates nothing beyond the nonce itself.
+ * <p>
+ * In counter mode the first {@link #COUNTER_LENGTH} characters of each
+ * nonce encode a process-wide counter and the remainder are random, so that
+ * nonces are guaranteed to be unique within the process while remaining
+ * unpredictable.  Threads reserve blocks of the counter at a time, so the
+ * shared counter is touched only once every {@link #COUNTER_BLOCK} nonces.
+ */
+public final class HawkRandomNonceGenerator implements HawkNonceGenerator
+{
+  /** The number of characters used for the counter in counter mode */
+  public static final int COUNTER_LENGTH = 8;
+  /** The number of counter values reserved by a thread at a time */
+  public static final int COUNTER_BLOCK = 1024;
+
+  private static final int DEFAULT_LENGTH = 12;
+  private static final int MAX_LENGTH = 256;
+  private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+  private static final int BITS_PER_CHAR = 6;
+  private static final int CHARS_PER_LONG = Long.SIZE / BITS_PER_CHAR;
+  private static final int CHAR_MASK = (1 << BITS_PER_CHAR) - 1;
+
+  // Shared between all generators, so that nonces are unique across the process
+  private static final AtomicLong COUNTER = new AtomicLong();
+
+  private final int length;
+  private final boolean counter;
+  private final ThreadLocal<State> state;
+
+  /**
+   * Per-thread generation state
+   */
+  private static final class State
+  {
+    final char[] buffer;
+    long next;
+    long limit;
+
+    State(final int length)
+    {
+      this.buffer = new char[length];
+    }
+  }
+
+  private HawkRandomNonceGenerator(final Integer length, final Integer entropy, final Boolean counter)
+  {
+    checkArgument(((length == null) || (entropy == null)), "Only one of length and entropy may be supplied");
+    checkArgument(((entropy == null) || (entropy > 0)), "The entropy must be positive");
+    this.counter = counter == null ? false : counter;
+    if (entropy != null)
+    {
+      // Round up to whole characters
+      final int randomLength = (entropy + BITS_PER_CHAR - 1) / BITS_PER_CHAR;
+      this.length = this.counter ? randomLength + COUNTER_LENGTH : randomLength;
+    }
+    else
+    {
+      this.length = length == null ? DEFAULT_LENGTH : length;
+    }
+    checkArgument(((this.length > 0) && (this.length <= MAX_LENGTH)), "The nonce length must be between 1 and %s", MAX_LENGTH);
+    checkArgument(((!this.counter) || (this.length > COUNTER_LENGTH)), "The nonce length must be greater than %s in counter mode", COUNTER_LENGTH);
+    final int stateLength = this.length;
+    this.state = new ThreadLocal<State>()
+    {
+      @Override
+      protected State initialValue()
+      {
+        return new State(stateLength);
+      }
+    };
+  }
+
+  @Override
+  public String generate()
+  {
+    final char[] buffer = this.state.get().buffer;
+    generate(buffer, 0);
+    return new String(buffer);
+  }
+
+  /**
+   * Generate a nonce directly into a buffer, without allocating.
+   * @param destination the buffer, which must have room for {@link #getLength()} characters
+   * @param offset the offset in the buffer at which to write the nonce
+   */
+  public void generate(final char[] destination, final int offset)
+  {
+    final int end = offset + this.length;
+    int pos = offset;
+    if (this.counter)
+    {
+      final State state = this.state.get();
+      if (state.next == state.limit)
+      {
+        state.next = COUNTER.getAndAdd(COUNTER_BLOCK);
+        state.limit = state.next + COUNTER_BLOCK;
+      }
+      long value = state.next++;
+      for (int i = offset + COUNTER_LENGTH - 1; i >= offset; i--)
+      {
+        destination[i] = ALPHABET[(int)(value & CHAR_MASK)];
+        value >>>= BITS_PER_CHAR;
+      }
+      pos += COUNTER_LENGTH;
+    }
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (pos < end)
+    {
+      long bits = random.nextLong();
+      for (int i = 0; (i < CHARS_PER_LONG) && (pos < end); i++)
+      {
+        destination[pos++] = ALPHABET[(int)(bits & CHAR_MASK)];
+        bits >>>= BITS_PER_CHAR;
+      }
+    }
+  }
+
+  /**
+   * Obtain the number of random bits in each nonce.
+   * @return the entropy of each nonce, in bits
+   */
+  public int getEntropy()
+  {
+    return (this.counter ? this.length - COUNTER_LENGTH : this.length) * BITS_PER_CHAR;
+  }
+
+  public int getLength()
+  {
+    return this.length;
+  }
+
+  public boolean isCounter()
+  {
+    return this.counter;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("length", this.length)
+                  .add("counter", this.counter)
+                  .toString();
+  }
+
+  @Override
+  public boolean equals(final Object that)
+  {
+    if (!(that instanceof HawkRandomNonceGenerator))
+    {
+      return false;
+    }
+    final HawkRandomNonceGenerator other = (HawkRandomNonceGenerator)that;
+    return (this.length == other.length) && (this.counter == other.counter);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hashCode(this.length, this.counter);
+  }
+
+  public static class Builder
+  {
+    private Integer length;
+    private Integer entropy;
+    private Boolean counter;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Override the length of nonces.  Defaults to <code>12</code>, giving
+     * 72 bits of entropy.
+     * @param length the length of nonces, in characters
+     * @return The builder
+     */
+    public Builder length(final Integer length)
+    {
+      this.length = length;
+      return this;
+    }
+
+    /**
+     * Set the length of nonces from the number of bits of entropy required,
+     * rounding up to whole characters.  In counter mode this is in addition
+     * to the counter.  May not be used along with {@link #length(Integer)}.
+     * @param bits the number of bits of entropy required
+     * @return The builder
+     */
+    public Builder entropy(final Integer bits)
+    {
+      this.entropy = bits;
+      return this;
+    }
+
+    /**
+     * Override if nonces start with a process-wide counter.  Defaults to <code>false</code>.
+     * @param counter if nonces start with a process-wide counter
+     * @return The builder
+     */
+    public Builder counter(final Boolean counter)
+    {
+      this.counter = counter;
+      return this;
+    }
+
+    /**
+     * Build the generator.
+     * @return a new generator
+     * @throws DataError if the data provided is invalid for a generator
+     */
+    public HawkRandomNonceGenerator build()
+    {
+      return new HawkRandomNonceGenerator(this.length, this.entropy, this.counter);
+    }
+  }
+}
@@ -24,24 +24,36 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import com.wealdtech.DataError;
 import com.wealdtech.ServerError;
 import com.wealdtech.hawk.Hawk.PayloadValidation;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
 
 /**
  * The Hawk server. Note that this is not an HTTP server in itself, but provides
@@ -50,11 +62,12 @@ import com.wealdtech.hawk.Hawk.PayloadValidation;
 public final class HawkServer implements Comparable<HawkServer>
 {
   private static final Splitter WHITESPACESPLITTER = Splitter.onPattern("\\s+").limit(2);
-  private static final Pattern FIELDPATTERN = Pattern.compile("([^=]*)\\s*=\\s*\"([^\"]*)[,\"\\s]*");
   private static final Pattern BEWITPATTERN = Pattern.compile("bewit=([^&]*)");
   private static final Splitter BEWITSPLITTER = Splitter.on('\\');
   private static final String BEWITREMOVEALMATCH = "bewit=[^&]*";
 
+  private static final String HAWK_SCHEME = "hawk";
+
   private static final String HEADER_MAC = "mac";
   private static final String HEADER_TS = "ts";
   private static final String HEADER_NONCE = "nonce";
@@ -70,7 +83,12 @@ public final class HawkServer implements Comparable<HawkServer>
   private static final int BEWIT_FIELD_MAC = 2;
   private static final int BEWIT_FIELD_EXT = 3;
 
+  private static final int MAX_SECONDS_DIGITS = 18;
+  private static final int SHARDS_PER_THREAD = 4;
+
   private final HawkServerConfiguration configuration;
+  private final Executor cryptoExecutor;
+  private final ForkJoinPool batchPool;
   private LoadingCache<String, Boolean> nonces;
 
   /**
@@ -81,6 +99,25 @@ public final class HawkServer implements Comparable<HawkServer>
    */
   @Inject
   private HawkServer(final HawkServerConfiguration configuration)
+  {
+    this(configuration, null, null);
+  }
+
+  /**
+   * Create an instance of the Hawk server with custom configuration and
+   * executors for asynchronous and batch verification.
+   *
+   * @param configuration
+   *          the specific configuration
+   * @param cryptoExecutor
+   *          the executor on which to verify MACs once credentials have been
+   *          obtained asynchronously, or <code>null</code> to verify them on
+   *          the thread that completes the lookup
+   * @param batchPool
+   *          the pool on which to verify batches of requests, or
+   *          <code>null</code> to use a pool shared by all servers
+   */
+  private HawkServer(final HawkServerConfiguration configuration, final Executor cryptoExecutor, final ForkJoinPool batchPool)
   {
     if (configuration == null)
     {
@@ -90,9 +127,31 @@ public final class HawkServer implements Comparable<HawkServer>
     {
       this.configuration = configuration;
     }
+    if (cryptoExecutor == null)
+    {
+      this.cryptoExecutor = MoreExecutors.sameThreadExecutor();
+    }
+    else
+    {
+      this.cryptoExecutor = cryptoExecutor;
+    }
+    if (batchPool == null)
+    {
+      this.batchPool = SharedBatchPool.POOL;
+    }
+    else
+    {
+      this.batchPool = batchPool;
+    }
     initializeCache();
   }
 
+  // Holder for the shared batch pool, so that it is only created if required
+  private static final class SharedBatchPool
+  {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
   private void initializeCache()
   {
     this.nonces = CacheBuilder.newBuilder()
@@ -114,62 +173,602 @@ public final class HawkServer implements Comparable<HawkServer>
    * @param authorizationHeaders the Hawk authentication headers
    * @param hash the hash of the body, if available
    * @param hasBody <code>true</code> if the request has a body, <code>false</code> if not
+   * @throws DataError if the request fails authentication
    */
   public void authenticate(final HawkCredentials credentials, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
+  {
+    final HawkVerificationResult result = verify(credentials, uri, method, authorizationHeaders, hash, hasBody);
+    if (!result.isValid())
+    {
+      throw result.toError();
+    }
+  }
+
+  /**
+   * Verify a request using Hawk, without throwing an exception if the request
+   * fails verification.
+   * @param credentials the Hawk credentials against which to verify
+   * @param uri the URI of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers
+   * @param hash the hash of the body, if available
+   * @param hasBody <code>true</code> if the request has a body, <code>false</code> if not
+   * @return the result of verification
+   */
+  public HawkVerificationResult verify(final HawkCredentials credentials, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
+  {
+    final HawkVerificationResult checked = checkHeaders(authorizationHeaders, hash, hasBody);
+    if (!checked.isValid())
+    {
+      return checked;
+    }
+    return verifyMac(credentials, uri, method, authorizationHeaders, hash);
+  }
+
+  /**
+   * Verify a request using Hawk given the parts of its request target rather
+   * than a URI, without throwing an exception if the request fails
+   * verification.  This suits servers that already hold the request line
+   * and host and would otherwise have to build a URI for each request.
+   * @param credentials the Hawk credentials against which to verify
+   * @param resource the raw path of the request, including the raw query string if present
+   * @param host the host of the request
+   * @param port the port of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers
+   * @param hash the hash of the body, if available
+   * @param hasBody <code>true</code> if the request has a body, <code>false</code> if not
+   * @return the result of verification
+   */
+  public HawkVerificationResult verify(final HawkCredentials credentials, final String resource, final String host, final int port, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
+  {
+    final HawkVerificationResult checked = checkHeaders(authorizationHeaders, hash, hasBody);
+    if (!checked.isValid())
+    {
+      return checked;
+    }
+    if (!isUniqueNonce(nonceKey(authorizationHeaders)))
+    {
+      return HawkVerificationResult.of(Reason.REPLAYED_NONCE);
+    }
+    return checkMac(credentials, resource, host, port, method, authorizationHeaders, hash);
+  }
+
+  /**
+   * Verify a request using Hawk, obtaining the credentials asynchronously.
+   * <p>
+   * Checks that do not need the credentials are carried out immediately, so
+   * malformed or stale requests do not result in a lookup.  The nonce check
+   * and MAC verification run on the server's crypto executor once the
+   * credentials are available.
+   * @param provider the provider of the Hawk credentials against which to verify
+   * @param uri the URI of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers
+   * @param hash the hash of the body, if available
+   * @param hasBody <code>true</code> if the request has a body, <code>false</code> if not
+   * @return a future for the result of verification
+   */
+  public ListenableFuture<HawkVerificationResult> verifyAsync(final HawkAsyncCredentialsProvider provider, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
+  {
+    final HawkVerificationResult checked = checkHeaders(authorizationHeaders, hash, hasBody);
+    if (!checked.isValid())
+    {
+      return Futures.immediateFuture(checked);
+    }
+    return Futures.transform(provider.getHawkCredentialsAsync(authorizationHeaders.get(HEADER_ID)), new Function<HawkCredentials, HawkVerificationResult>()
+    {
+      @Override
+      public HawkVerificationResult apply(final HawkCredentials credentials)
+      {
+        if (credentials == null)
+        {
+          return HawkVerificationResult.of(Reason.UNKNOWN_ID);
+        }
+        return verifyMac(credentials, uri, method, authorizationHeaders, hash);
+      }
+    }, this.cryptoExecutor);
+  }
+
+  /**
+   * Authenticate a request using Hawk, obtaining the credentials asynchronously.
+   * @param provider the provider of the Hawk credentials against which to authenticate
+   * @param uri the URI of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers
+   * @param hash the hash of the body, if available
+   * @param hasBody <code>true</code> if the request has a body, <code>false</code> if not
+   * @return a future for the credentials that authenticated the request, which
+   *         fails with a {@link DataError} if the request fails authentication
+   */
+  public ListenableFuture<HawkCredentials> authenticateAsync(final HawkAsyncCredentialsProvider provider, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
+  {
+    final HawkVerificationResult checked = checkHeaders(authorizationHeaders, hash, hasBody);
+    if (!checked.isValid())
+    {
+      return Futures.immediateFailedFuture(checked.toError());
+    }
+    return Futures.transform(provider.getHawkCredentialsAsync(authorizationHeaders.get(HEADER_ID)), new AsyncFunction<HawkCredentials, HawkCredentials>()
+    {
+      @Override
+      public ListenableFuture<HawkCredentials> apply(final HawkCredentials credentials)
+      {
+        if (credentials == null)
+        {
+          return toAuthentication(null, HawkVerificationResult.of(Reason.UNKNOWN_ID));
+        }
+        return toAuthentication(credentials, verifyMac(credentials, uri, method, authorizationHeaders, hash));
+      }
+    }, this.cryptoExecutor);
+  }
+
+  /**
+   * Verify a batch of requests using Hawk, in parallel.
+   * <p>
+   * The requests are split in to shards by nonce and each shard is verified
+   * as a separate task on the server's batch pool.  Within a shard the nonces
+   * of all requests that pass their header checks are checked against the
+   * nonce cache in a single operation, and only then are the MACs calculated.
+   * As with single requests a nonce is consumed even if the MAC turns out to
+   * be incorrect, and a nonce that appears more than once in the batch is
+   * accepted only for the first request in which it appears.
+   * @param requests the requests to verify
+   * @param lookup a function to look up the credentials for a key ID, returning
+   *          <code>null</code> if there are none; used only for requests that
+   *          do not carry their own credentials and may be <code>null</code> if
+   *          all requests do so
+   * @return the results of verification, in the same order as the requests
+   */
+  public List<HawkVerificationResult> verifyAll(final List<HawkBatchRequest> requests, final Function<String, HawkCredentials> lookup)
+  {
+    checkNotNull(requests, "The requests are required");
+    final HawkVerificationResult[] results = new HawkVerificationResult[requests.size()];
+    if (results.length == 0)
+    {
+      return ImmutableList.of();
+    }
+
+    // Split the requests in to shards by nonce, so that duplicate nonces are always in the same shard
+    final int numShards = Math.min(results.length, this.batchPool.getParallelism() * SHARDS_PER_THREAD);
+    final List<List<Integer>> shards = Lists.newArrayListWithCapacity(numShards);
+    for (int i = 0; i < numShards; i++)
+    {
+      shards.add(Lists.<Integer>newArrayList());
+    }
+    for (int i = 0; i < results.length; i++)
+    {
+      final HawkBatchRequest request = requests.get(i);
+      final int hash = Objects.hashCode(request.getAuthorizationHeaders().get(HEADER_NONCE));
+      shards.get((hash & Integer.MAX_VALUE) % numShards).add(i);
+    }
+
+    final List<BatchShardTask> tasks = Lists.newArrayListWithCapacity(numShards);
+    for (final List<Integer> shard : shards)
+    {
+      if (!shard.isEmpty())
+      {
+        tasks.add(new BatchShardTask(requests, shard, lookup, results));
+      }
+    }
+    this.batchPool.invoke(new RecursiveAction()
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute()
+      {
+        invokeAll(tasks);
+      }
+    });
+    return ImmutableList.copyOf(results);
+  }
+
+  /**
+   * Authenticate a batch of requests using Hawk, in parallel.
+   * @param requests the requests to authenticate
+   * @param lookup a function to look up the credentials for a key ID
+   * @return the errors for the requests, in the same order as the requests,
+   *         with <code>null</code> for requests that authenticated
+   * @see #verifyAll(List, Function)
+   */
+  public List<DataError> authenticateAll(final List<HawkBatchRequest> requests, final Function<String, HawkCredentials> lookup)
+  {
+    final List<HawkVerificationResult> results = verifyAll(requests, lookup);
+    final List<DataError> errors = Lists.newArrayListWithCapacity(results.size());
+    for (final HawkVerificationResult result : results)
+    {
+      errors.add(result.isValid() ? null : result.toError());
+    }
+    return errors;
+  }
+
+  // Verify a shard of a batch, writing results in to the shared results array
+  private final class BatchShardTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final List<HawkBatchRequest> requests;
+    private final List<Integer> shard;
+    private final Function<String, HawkCredentials> lookup;
+    private final HawkVerificationResult[] results;
+
+    BatchShardTask(final List<HawkBatchRequest> requests, final List<Integer> shard, final Function<String, HawkCredentials> lookup, final HawkVerificationResult[] results)
+    {
+      this.requests = requests;
+      this.shard = shard;
+      this.lookup = lookup;
+      this.results = results;
+    }
+
+    @Override
+    protected void compute()
+    {
+      final HawkCredentials[] credentials = new HawkCredentials[this.shard.size()];
+      final List<String> nonceKeys = Lists.newArrayListWithCapacity(this.shard.size());
+      for (int i = 0; i < credentials.length; i++)
+      {
+        final HawkBatchRequest request = this.requests.get(this.shard.get(i));
+        HawkVerificationResult result = checkHeaders(request.getAuthorizationHeaders(), request.getHash(), request.hasBody());
+        if (result.isValid())
+        {
+          credentials[i] = request.getCredentials();
+          if ((credentials[i] == null) && (this.lookup != null))
+          {
+            credentials[i] = this.lookup.apply(request.getAuthorizationHeaders().get(HEADER_ID));
+          }
+          if (credentials[i] == null)
+          {
+            result = HawkVerificationResult.of(Reason.UNKNOWN_ID);
+          }
+        }
+        if (result.isValid())
+        {
+          nonceKeys.add(nonceKey(request.getAuthorizationHeaders()));
+        }
+        else
+        {
+          this.results[this.shard.get(i)] = result;
+          nonceKeys.add(null);
+        }
+      }
+
+      final boolean[] unique = areUniqueNonces(nonceKeys);
+      for (int i = 0; i < credentials.length; i++)
+      {
+        final int index = this.shard.get(i);
+        if (this.results[index] == null)
+        {
+          if (unique[i])
+          {
+            final HawkBatchRequest request = this.requests.get(index);
+            if (request.getUri() == null)
+            {
+              this.results[index] = checkMac(credentials[i], request.getResource(), request.getHost(), request.getPort(), request.getMethod(), request.getAuthorizationHeaders(), request.getHash());
+            }
+            else
+            {
+              this.results[index] = checkMac(credentials[i], request.getUri(), request.getMethod(), request.getAuthorizationHeaders(), request.getHash());
+            }
+          }
+          else
+          {
+            this.results[index] = HawkVerificationResult.of(Reason.REPLAYED_NONCE);
+          }
+        }
+      }
+    }
+  }
+
+  // Check the parts of a request that do not need credentials
+  private HawkVerificationResult checkHeaders(final ImmutableMap<String, String> authorizationHeaders, final String hash, final boolean hasBody)
   {
     // Ensure that the required fields are present
-    checkNotNull(authorizationHeaders.get(HEADER_TS), "The timestamp was not supplied");
-    checkNotNull(authorizationHeaders.get(HEADER_NONCE), "The nonce was not supplied");
-    checkNotNull(authorizationHeaders.get(HEADER_ID), "The id was not supplied");
-    checkNotNull(authorizationHeaders.get(HEADER_MAC), "The mac was not supplied");
+    final String ts = authorizationHeaders.get(HEADER_TS);
+    if (ts == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_TIMESTAMP);
+    }
+    if (authorizationHeaders.get(HEADER_NONCE) == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_NONCE);
+    }
+    if (authorizationHeaders.get(HEADER_ID) == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_ID);
+    }
+    if (authorizationHeaders.get(HEADER_MAC) == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_MAC);
+    }
     if ((this.configuration.getPayloadValidation().equals(PayloadValidation.MANDATORY)) && (hasBody))
     {
-      checkNotNull(authorizationHeaders.get("hash"), "The payload hash was not supplied");
-      checkNotNull(hash, "The payload hash could not be calculated");
+      if (authorizationHeaders.get("hash") == null)
+      {
+        return HawkVerificationResult.of(Reason.MISSING_HASH);
+      }
+      if (hash == null)
+      {
+        return HawkVerificationResult.of(Reason.MISSING_HASH, "The payload hash could not be calculated");
+      }
     }
 
     // Ensure that the timestamp passed in is within suitable bounds
-    confirmTimestampWithinBounds(authorizationHeaders.get(HEADER_TS));
+    final long timestamp = parseSeconds(ts);
+    if (timestamp == -1)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_TIMESTAMP);
+    }
+    if (!isTimestampWithinBounds(timestamp))
+    {
+      return HawkVerificationResult.of(Reason.STALE_TIMESTAMP);
+    }
+    return HawkVerificationResult.OK;
+  }
 
+  // Check the nonce and MAC of a request whose headers have already been checked
+  private HawkVerificationResult verifyMac(final HawkCredentials credentials, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash)
+  {
     // Ensure that this is not a replay of a previous request
-    confirmUniqueNonce(authorizationHeaders.get(HEADER_NONCE) + authorizationHeaders.get(HEADER_TS) + authorizationHeaders.get(HEADER_ID));
+    if (!isUniqueNonce(nonceKey(authorizationHeaders)))
+    {
+      return HawkVerificationResult.of(Reason.REPLAYED_NONCE);
+    }
+    return checkMac(credentials, uri, method, authorizationHeaders, hash);
+  }
 
-    // Ensure that the MAC is correct
-    final String mac = Hawk.calculateMAC(credentials, Hawk.AuthType.HEADER, Long.valueOf(authorizationHeaders.get(HEADER_TS)), uri, authorizationHeaders.get(HEADER_NONCE), method, hash, authorizationHeaders.get(HEADER_EXT), authorizationHeaders.get(HEADER_APP), authorizationHeaders.get(HEADER_DLG));
+  // Check the MAC of a request whose headers and nonce have already been checked
+  private static HawkVerificationResult checkMac(final HawkCredentials credentials, final URI uri, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash)
+  {
+    final String ts = authorizationHeaders.get(HEADER_TS);
+    final String nonce = authorizationHeaders.get(HEADER_NONCE);
+    final String mac;
+    try
+    {
+      mac = Hawk.calculateMAC(credentials, Hawk.AuthType.HEADER, parseSeconds(ts), uri, nonce, method, hash, authorizationHeaders.get(HEADER_EXT), authorizationHeaders.get(HEADER_APP), authorizationHeaders.get(HEADER_DLG));
+    }
+    catch (DataError de)
+    {
+      // Only happens if the request itself is malformed, for example has an unknown scheme
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, de.getMessage());
+    }
     if (!timeConstantEquals(mac, authorizationHeaders.get(HEADER_MAC)))
     {
-      throw new DataError.Authentication("The MAC in the request does not match the server-calculated MAC");
+      return HawkVerificationResult.of(Reason.BAD_MAC);
     }
+    return HawkVerificationResult.OK;
+  }
+
+  // Check the MAC of a request given its request target, whose headers and nonce have already been checked
+  private static HawkVerificationResult checkMac(final HawkCredentials credentials, final String resource, final String host, final int port, final String method, final ImmutableMap<String, String> authorizationHeaders, final String hash)
+  {
+    final String ts = authorizationHeaders.get(HEADER_TS);
+    final String nonce = authorizationHeaders.get(HEADER_NONCE);
+    final String mac;
+    try
+    {
+      mac = Hawk.calculateMAC(credentials, Hawk.AuthType.HEADER, parseSeconds(ts), resource, host, port, nonce, method, hash, authorizationHeaders.get(HEADER_EXT), authorizationHeaders.get(HEADER_APP), authorizationHeaders.get(HEADER_DLG));
+    }
+    catch (DataError de)
+    {
+      // Only happens if the request itself is malformed, for example has an unknown scheme
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, de.getMessage());
+    }
+    if (!timeConstantEquals(mac, authorizationHeaders.get(HEADER_MAC)))
+    {
+      return HawkVerificationResult.of(Reason.BAD_MAC);
+    }
+    return HawkVerificationResult.OK;
+  }
+
+  // Turn a verification in to an authentication, failing if verification failed
+  private static ListenableFuture<HawkCredentials> toAuthentication(final HawkCredentials credentials, final HawkVerificationResult result)
+  {
+    if (!result.isValid())
+    {
+      return Futures.immediateFailedFuture(result.toError());
+    }
+    return Futures.immediateFuture(credentials);
   }
 
   /**
    * Authenticate a request using a Hawk bewit.
    * @param credentials the Hawk credentials against which to authenticate
    * @param uri the URI of the request
+   * @throws DataError if the request fails authentication
    */
   public void authenticate(final HawkCredentials credentials, final URI uri)
   {
-    final String bewit = extractBewit(uri);
-    final ImmutableMap<String, String> bewitFields = splitBewit(bewit);
-    checkNotNull(bewitFields.get(HEADER_ID), "ID missing from bewit");
-    checkNotNull(bewitFields.get(HEADER_EXPIRY), "Expiry missing from bewit");
-    checkNotNull(bewitFields.get(HEADER_MAC), "MAC missing from bewit");
-    checkState((credentials.getKeyId().equals(bewitFields.get(HEADER_ID))), "The id in the bewit is not recognised");
-    final Long expiry = Long.parseLong(bewitFields.get(HEADER_EXPIRY));
+    final HawkVerificationResult result = verify(credentials, uri);
+    if (!result.isValid())
+    {
+      throw result.toError();
+    }
+  }
+
+  /**
+   * Verify a request using a Hawk bewit, without throwing an exception if the
+   * request fails verification.
+   * @param credentials the Hawk credentials against which to verify
+   * @param uri the URI of the request
+   * @return the result of verification
+   */
+  public HawkVerificationResult verify(final HawkCredentials credentials, final URI uri)
+  {
+    final ImmutableMap<String, String> bewitFields = parseBewit(uri);
+    if (bewitFields == null)
+    {
+      return HawkVerificationResult.of(findBewit(uri) == null ? Reason.MISSING_BEWIT : Reason.INVALID_BEWIT);
+    }
+    final HawkVerificationResult checked = checkBewit(bewitFields);
+    if (!checked.isValid())
+    {
+      return checked;
+    }
+    final long expiry = parseSeconds(bewitFields.get(HEADER_EXPIRY));
+    if ((credentials == null) || (!credentials.getKeyId().equals(bewitFields.get(HEADER_ID))))
+    {
+      return HawkVerificationResult.of(Reason.UNKNOWN_ID, "The id in the bewit is not recognised");
+    }
 
     final URI strippedUri = stripBewit(uri);
 
-    final String calculatedMac = Hawk.calculateMAC(credentials, Hawk.AuthType.BEWIT, expiry, strippedUri, null, null, null, bewitFields.get(HEADER_EXT), null, null);
+    final String calculatedMac;
+    try
+    {
+      calculatedMac = Hawk.calculateMAC(credentials, Hawk.AuthType.BEWIT, expiry, strippedUri, null, null, null, bewitFields.get(HEADER_EXT), null, null);
+    }
+    catch (DataError de)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, de.getMessage());
+    }
+    if (!timeConstantEquals(calculatedMac, bewitFields.get(HEADER_MAC)))
+    {
+      return HawkVerificationResult.of(Reason.BAD_MAC);
+    }
+    return HawkVerificationResult.OK;
+  }
+
+  /**
+   * Verify a request using a Hawk bewit given the parts of its request target
+   * rather than a URI, without throwing an exception if the request fails
+   * verification.
+   * @param credentials the Hawk credentials against which to verify
+   * @param resource the raw path of the request, including the raw query string
+   * @param host the host of the request
+   * @param port the port of the request
+   * @return the result of verification
+   */
+  public HawkVerificationResult verify(final HawkCredentials credentials, final String resource, final String host, final int port)
+  {
+    final String bewit = findBewit(resource);
+    final ImmutableMap<String, String> bewitFields = decodeBewit(bewit);
+    if (bewitFields == null)
+    {
+      return HawkVerificationResult.of(bewit == null ? Reason.MISSING_BEWIT : Reason.INVALID_BEWIT);
+    }
+    final HawkVerificationResult checked = checkBewit(bewitFields);
+    if (!checked.isValid())
+    {
+      return checked;
+    }
+    if ((credentials == null) || (!credentials.getKeyId().equals(bewitFields.get(HEADER_ID))))
+    {
+      return HawkVerificationResult.of(Reason.UNKNOWN_ID, "The id in the bewit is not recognised");
+    }
+
+    final String calculatedMac;
+    try
+    {
+      calculatedMac = Hawk.calculateMAC(credentials, Hawk.AuthType.BEWIT, parseSeconds(bewitFields.get(HEADER_EXPIRY)), stripBewit(resource), host, port, null, null, null, bewitFields.get(HEADER_EXT), null, null);
+    }
+    catch (DataError de)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, de.getMessage());
+    }
     if (!timeConstantEquals(calculatedMac, bewitFields.get(HEADER_MAC)))
     {
-      throw new DataError.Authentication("The MAC in the request does not match the server-calculated MAC");
+      return HawkVerificationResult.of(Reason.BAD_MAC);
+    }
+    return HawkVerificationResult.OK;
+  }
+
+  /**
+   * Verify a request using a Hawk bewit, obtaining the credentials asynchronously.
+   * @param provider the provider of the Hawk credentials against which to verify
+   * @param uri the URI of the request
+   * @return a future for the result of verification
+   */
+  public ListenableFuture<HawkVerificationResult> verifyAsync(final HawkAsyncCredentialsProvider provider, final URI uri)
+  {
+    final ImmutableMap<String, String> bewitFields = parseBewit(uri);
+    if (bewitFields == null)
+    {
+      return Futures.immediateFuture(HawkVerificationResult.of(findBewit(uri) == null ? Reason.MISSING_BEWIT : Reason.INVALID_BEWIT));
+    }
+    final HawkVerificationResult checked = checkBewit(bewitFields);
+    if (!checked.isValid())
+    {
+      return Futures.immediateFuture(checked);
+    }
+    return Futures.transform(provider.getHawkCredentialsAsync(bewitFields.get(HEADER_ID)), new Function<HawkCredentials, HawkVerificationResult>()
+    {
+      @Override
+      public HawkVerificationResult apply(final HawkCredentials credentials)
+      {
+        if (credentials == null)
+        {
+          return HawkVerificationResult.of(Reason.UNKNOWN_ID);
+        }
+        return verify(credentials, uri);
+      }
+    }, this.cryptoExecutor);
+  }
+
+  /**
+   * Authenticate a request using a Hawk bewit, obtaining the credentials asynchronously.
+   * @param provider the provider of the Hawk credentials against which to authenticate
+   * @param uri the URI of the request
+   * @return a future for the credentials that authenticated the request, which
+   *         fails with a {@link DataError} if the request fails authentication
+   */
+  public ListenableFuture<HawkCredentials> authenticateAsync(final HawkAsyncCredentialsProvider provider, final URI uri)
+  {
+    final ImmutableMap<String, String> bewitFields = parseBewit(uri);
+    if (bewitFields == null)
+    {
+      return toAuthentication(null, HawkVerificationResult.of(findBewit(uri) == null ? Reason.MISSING_BEWIT : Reason.INVALID_BEWIT));
+    }
+    final HawkVerificationResult checked = checkBewit(bewitFields);
+    if (!checked.isValid())
+    {
+      return toAuthentication(null, checked);
     }
+    return Futures.transform(provider.getHawkCredentialsAsync(bewitFields.get(HEADER_ID)), new AsyncFunction<HawkCredentials, HawkCredentials>()
+    {
+      @Override
+      public ListenableFuture<HawkCredentials> apply(final HawkCredentials credentials)
+      {
+        if (credentials == null)
+        {
+          return toAuthentication(null, HawkVerificationResult.of(Reason.UNKNOWN_ID));
+        }
+        return toAuthentication(credentials, verify(credentials, uri));
+      }
+    }, this.cryptoExecutor);
+  }
+
+  // Check the parts of a bewit that do not need credentials
+  private static HawkVerificationResult checkBewit(final ImmutableMap<String, String> bewitFields)
+  {
+    final long expiry = parseSeconds(bewitFields.get(HEADER_EXPIRY));
+    if (expiry == -1)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_BEWIT, "Timestamp is invalid");
+    }
+    if (System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS > expiry)
+    {
+      return HawkVerificationResult.of(Reason.EXPIRED_BEWIT);
+    }
+    return HawkVerificationResult.OK;
   }
 
   // Strip the bewit query parameter from a URI
   private URI stripBewit(final URI uri)
   {
-    String uristr = uri.toString().replaceAll(BEWITREMOVEALMATCH, "");
+    try
+    {
+      return new URI(stripBewit(uri.toString()));
+    }
+    catch (URISyntaxException use)
+    {
+      throw new ServerError("Failed to remove bewit from query string", use);
+    }
+  }
+
+  // Strip the bewit query parameter from the text of a URI or request target
+  private static String stripBewit(final String target)
+  {
+    String uristr = target.replaceAll(BEWITREMOVEALMATCH, "");
     // If the bewit was the first parameter...
     uristr = uristr.replaceAll("\\?&", "?");
     // If the bewit was the only parameter...
@@ -177,38 +776,71 @@ public final class HawkServer implements Comparable<HawkServer>
     // If the bewit was a middle parameter...
     uristr = uristr.replaceAll("&&", "&");
     // If the bewit was the last parameter...
-    uristr = uristr.replaceAll("&$", "");
-    try
+    return uristr.replaceAll("&$", "");
+  }
+
+  // Check that the request nonce has not already been seen within the allowable time period
+  private boolean isUniqueNonce(final String nonce)
+  {
+    if (this.nonces.getUnchecked(nonce))
     {
-      return new URI(uristr);
+      return false;
     }
-    catch (URISyntaxException use)
+    this.nonces.put(nonce, true);
+    return true;
+  }
+
+  // Check a number of nonces at once, marking them all as seen; null nonces are ignored
+  private boolean[] areUniqueNonces(final List<String> nonceKeys)
+  {
+    final boolean[] unique = new boolean[nonceKeys.size()];
+    final Map<String, Boolean> seen = this.nonces.getAllPresent(Iterables.filter(nonceKeys, Predicates.notNull()));
+    final Map<String, Boolean> fresh = Maps.newHashMap();
+    for (int i = 0; i < unique.length; i++)
     {
-      throw new ServerError("Failed to remove bewit from query string", use);
+      final String nonceKey = nonceKeys.get(i);
+      if ((nonceKey != null) && (!Boolean.TRUE.equals(seen.get(nonceKey))) && (!fresh.containsKey(nonceKey)))
+      {
+        unique[i] = true;
+        fresh.put(nonceKey, true);
+      }
     }
+    this.nonces.putAll(fresh);
+    return unique;
   }
 
-  // Confirm that the request nonce has not already been seen within the allowable time period
-  private void confirmUniqueNonce(final String nonce)
+  // The key under which the nonce of a request is recorded
+  private static String nonceKey(final ImmutableMap<String, String> authorizationHeaders)
   {
-    checkState(!this.nonces.getUnchecked(nonce), "The nonce supplied is the same as one seen previously");
-    this.nonces.put(nonce, true);
+    return authorizationHeaders.get(HEADER_NONCE) + authorizationHeaders.get(HEADER_TS) + authorizationHeaders.get(HEADER_ID);
   }
 
-  // Confirm that the request timestamp is within an acceptable range of current time
-  private void confirmTimestampWithinBounds(final String ts)
+  // Check that the request timestamp is within an acceptable range of current time
+  private boolean isTimestampWithinBounds(final long timestamp)
   {
-    Long timestamp;
-    try
+    final long now = System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS;
+    return Math.abs(now - timestamp) <= configuration.getTimestampSkew();
+  }
+
+  // Parse a non-negative number of seconds, returning -1 rather than throwing if it is invalid
+  private static long parseSeconds(final String value)
+  {
+    final int length = value.length();
+    if ((length == 0) || (length > MAX_SECONDS_DIGITS))
     {
-      timestamp = Long.valueOf(ts);
+      return -1;
     }
-    catch (Exception e)
+    long result = 0;
+    for (int i = 0; i < length; i++)
     {
-      throw new DataError.Bad("The timestamp is in the wrong format; we expect seconds since the epoch", e);
+      final char c = value.charAt(i);
+      if ((c < '0') || (c > '9'))
+      {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
     }
-    long now = System.currentTimeMillis() / Hawk.MILLISECONDS_IN_SECONDS;
-    checkState((Math.abs(now - timestamp) <= configuration.getTimestampSkew()), "The timestamp is too far from the current time to be acceptable");
+    return result;
   }
 
   /**
@@ -231,8 +863,89 @@ public final class HawkServer implements Comparable<HawkServer>
     return sb.toString();
   }
 
+  /**
+   * Generate text for a Server-Authorization header, allowing the client to
+   * authenticate the response to a request that this server has verified.
+   * The response MAC reuses the timestamp and nonce of the request, and
+   * covers the hash of the response payload if supplied.
+   * <p>
+   * Note that this generates the header's contents, and not the header itself.
+   *
+   * @param credentials the Hawk credentials with which the request was verified
+   * @param uri the URI of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers of the request
+   * @param hash the hash of the response payload, or <code>null</code> if none
+   * @param ext extra data, or <code>null</code> if none
+   * @return text suitable for placement in a Server-Authorization header
+   * @throws DataError if the request's authentication headers are incomplete
+   */
+  public String generateServerAuthorizationHeader(final HawkCredentials credentials,
+                                                  final URI uri,
+                                                  final String method,
+                                                  final ImmutableMap<String, String> authorizationHeaders,
+                                                  final String hash,
+                                                  final String ext)
+  {
+    checkNotNull(authorizationHeaders, "Authorization headers are required but not supplied");
+    checkNotNull(authorizationHeaders.get(HEADER_TS), "Timestamp is required but not supplied");
+    final String mac = Hawk.calculateMAC(credentials, Hawk.AuthType.RESPONSE, parseSeconds(authorizationHeaders.get(HEADER_TS)), uri, authorizationHeaders.get(HEADER_NONCE), method, hash, ext, authorizationHeaders.get(HEADER_APP), authorizationHeaders.get(HEADER_DLG));
+    return serverAuthorizationHeader(mac, hash, ext);
+  }
+
+  /**
+   * Generate text for a Server-Authorization header given the parts of the
+   * request target rather than a URI.  The result is the same as that of
+   * {@link #generateServerAuthorizationHeader(HawkCredentials, URI, String, ImmutableMap, String, String)}
+   * for the equivalent URI.
+   *
+   * @param credentials the Hawk credentials with which the request was verified
+   * @param resource the raw path of the request, including the raw query string if present
+   * @param host the host of the request
+   * @param port the port of the request
+   * @param method the method of the request
+   * @param authorizationHeaders the Hawk authentication headers of the request
+   * @param hash the hash of the response payload, or <code>null</code> if none
+   * @param ext extra data, or <code>null</code> if none
+   * @return text suitable for placement in a Server-Authorization header
+   * @throws DataError if the request's authentication headers are incomplete
+   */
+  public String generateServerAuthorizationHeader(final HawkCredentials credentials,
+                                                  final String resource,
+                                                  final String host,
+                                                  final int port,
+                                                  final String method,
+                                                  final ImmutableMap<String, String> authorizationHeaders,
+                                                  final String hash,
+                                                  final String ext)
+  {
+    checkNotNull(authorizationHeaders, "Authorization headers are required but not supplied");
+    checkNotNull(authorizationHeaders.get(HEADER_TS), "Timestamp is required but not supplied");
+    final String mac = Hawk.calculateMAC(credentials, Hawk.AuthType.RESPONSE, parseSeconds(authorizationHeaders.get(HEADER_TS)), resource, host, port, authorizationHeaders.get(HEADER_NONCE), method, hash, ext, authorizationHeaders.get(HEADER_APP), authorizationHeaders.get(HEADER_DLG));
+    return serverAuthorizationHeader(mac, hash, ext);
+  }
+
+  private static String serverAuthorizationHeader(final String mac, final String hash, final String ext)
+  {
+    final StringBuilder sb = new StringBuilder(128);
+    sb.append("Hawk mac=\"");
+    sb.append(mac);
+    if (hash != null)
+    {
+      sb.append("\", hash=\"");
+      sb.append(hash);
+    }
+    if ((ext != null) && (!"".equals(ext)))
+    {
+      sb.append("\", ext=\"");
+      sb.append(ext);
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+
   // Avoid any weakness through fast-path comparison of strings
-  private static boolean timeConstantEquals(final String first, final String second)
+  static boolean timeConstantEquals(final String first, final String second)
   {
     if ((first == null) || (second == null))
     {
@@ -267,18 +980,99 @@ public final class HawkServer implements Comparable<HawkServer>
     List<String> headerfields = Lists.newArrayList(WHITESPACESPLITTER.split(authorizationheader));
     checkState((headerfields.size() == 2), "The authorization header does not contain the expected number of fields");
     checkState(("hawk".equals(headerfields.get(0).toLowerCase(Locale.ENGLISH))), "The authorization header is not a Hawk authorization header");
+    return splitFields(headerfields.get(1));
+  }
 
-    Map<String, String> fields = new HashMap<>();
-    Matcher m = FIELDPATTERN.matcher(headerfields.get(1));
-    while (m.find())
+  /**
+   * Parse an authorization header into individual fields, without throwing an
+   * exception if the header is invalid.
+   * @param authorizationheader the Hawk authorization header
+   * @return A map of authorization parameters, or <code>null</code> if the header is not a Hawk authorization header
+   */
+  public ImmutableMap<String, String> parseAuthorizationHeader(final String authorizationheader)
+  {
+    return parseHeader(authorizationheader);
+  }
+
+  // Parse any Hawk header into individual fields, returning null if it is not a Hawk header
+  static ImmutableMap<String, String> parseHeader(final String authorizationheader)
+  {
+    if (authorizationheader == null)
     {
-      String key = m.group(1);
-      String value = m.group(2);
-      fields.put(key, value);
+      return null;
+    }
+    final int length = authorizationheader.length();
+    int schemeEnd = 0;
+    while ((schemeEnd < length) && (!Character.isWhitespace(authorizationheader.charAt(schemeEnd))))
+    {
+      schemeEnd++;
+    }
+    if ((schemeEnd != HAWK_SCHEME.length()) || (!authorizationheader.regionMatches(true, 0, HAWK_SCHEME, 0, schemeEnd)))
+    {
+      return null;
+    }
+    int fieldsStart = schemeEnd;
+    while ((fieldsStart < length) && (Character.isWhitespace(authorizationheader.charAt(fieldsStart))))
+    {
+      fieldsStart++;
+    }
+    if (fieldsStart == schemeEnd)
+    {
+      return null;
+    }
+    return splitFields(authorizationheader.substring(fieldsStart));
+  }
+
+  // Split the fields of an authorization header in a single pass, without regular expressions
+  private static ImmutableMap<String, String> splitFields(final String fieldstr)
+  {
+    final Map<String, String> fields = new HashMap<>();
+    final int length = fieldstr.length();
+    int pos = 0;
+    while (pos < length)
+    {
+      final int equals = fieldstr.indexOf('=', pos);
+      if (equals == -1)
+      {
+        break;
+      }
+      int valueStart = equals + 1;
+      while ((valueStart < length) && (Character.isWhitespace(fieldstr.charAt(valueStart))))
+      {
+        valueStart++;
+      }
+      if ((valueStart == length) || (fieldstr.charAt(valueStart) != '"'))
+      {
+        break;
+      }
+      valueStart++;
+      int valueEnd = fieldstr.indexOf('"', valueStart);
+      if (valueEnd == -1)
+      {
+        valueEnd = length;
+      }
+      int keyEnd = equals;
+      while ((keyEnd > pos) && (Character.isWhitespace(fieldstr.charAt(keyEnd - 1))))
+      {
+        keyEnd--;
+      }
+      fields.put(fieldstr.substring(pos, keyEnd), fieldstr.substring(valueStart, valueEnd));
+
+      // Skip separators before the next field
+      pos = valueEnd;
+      while ((pos < length) && (isFieldSeparator(fieldstr.charAt(pos))))
+      {
+        pos++;
+      }
     }
     return ImmutableMap.copyOf(fields);
   }
 
+  private static boolean isFieldSeparator(final char c)
+  {
+    return (c == ',') || (c == '"') || (Character.isWhitespace(c));
+  }
+
   /**
    * Split a base64-encoded bewit into individual fields.
    * @param bewit the base64-encoded bewit
@@ -326,6 +1120,103 @@ public final class HawkServer implements Comparable<HawkServer>
     return m.group(1);
   }
 
+  /**
+   * Extract and decode the bewit from a URI, without throwing an exception if
+   * the bewit is missing or malformed.  Note that this does not check the
+   * expiry of the bewit.
+   * @param uri the URI from which to pull the bewit
+   * @return A map of bewit parameters, or <code>null</code> if there is no valid bewit
+   */
+  public ImmutableMap<String, String> parseBewit(final URI uri)
+  {
+    return decodeBewit(findBewit(uri));
+  }
+
+  /**
+   * Extract and decode the bewit from the raw path and query string of a
+   * request, without throwing an exception if the bewit is missing or
+   * malformed.  Note that this does not check the expiry of the bewit.
+   * @param resource the raw path of the request, including the raw query string
+   * @return A map of bewit parameters, or <code>null</code> if there is no valid bewit
+   */
+  public ImmutableMap<String, String> parseResourceBewit(final String resource)
+  {
+    return decodeBewit(findBewit(resource));
+  }
+
+  // Decode a bewit, returning null if it is missing or malformed
+  private static ImmutableMap<String, String> decodeBewit(final String bewit)
+  {
+    if ((bewit == null) || (!isBase64(bewit)))
+    {
+      return null;
+    }
+    final String decodedBewit;
+    try
+    {
+      decodedBewit = new String(BaseEncoding.base64().decode(bewit));
+    }
+    catch (IllegalArgumentException iae)
+    {
+      return null;
+    }
+    List<String> bewitfields = Lists.newArrayList(BEWITSPLITTER.split(decodedBewit));
+    if (bewitfields.size() != BEWIT_FIELDS)
+    {
+      return null;
+    }
+    return ImmutableMap.of(HEADER_ID, bewitfields.get(BEWIT_FIELD_ID),
+                           HEADER_EXPIRY, bewitfields.get(BEWIT_FIELD_EXPIRY),
+                           HEADER_MAC, bewitfields.get(BEWIT_FIELD_MAC),
+                           HEADER_EXT, bewitfields.get(BEWIT_FIELD_EXT));
+  }
+
+  // Find the bewit in a URI, returning null if there is none
+  private static String findBewit(final URI uri)
+  {
+    if (uri == null)
+    {
+      return null;
+    }
+    return findBewit(uri.toString());
+  }
+
+  // Find the bewit in the text of a URI or request target, returning null if there is none
+  private static String findBewit(final String target)
+  {
+    if (target == null)
+    {
+      return null;
+    }
+    Matcher m = BEWITPATTERN.matcher(target);
+    return m.find() ? m.group(1) : null;
+  }
+
+  // Check the structure of base64 text so that bad bewits are rejected without an exception
+  private static boolean isBase64(final String text)
+  {
+    final int length = text.length();
+    if ((length == 0) || (length % 4 != 0))
+    {
+      return false;
+    }
+    int padding = 0;
+    for (int i = 0; i < length; i++)
+    {
+      final char c = text.charAt(i);
+      if (c == '=')
+      {
+        padding++;
+      }
+      else if ((padding > 0) ||
+               (!(((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9')) || (c == '+') || (c == '/'))))
+      {
+        return false;
+      }
+    }
+    return padding <= 2;
+  }
+
   // Standard object methods follow
   @Override
   public String toString()
@@ -358,6 +1249,8 @@ public final class HawkServer implements Comparable<HawkServer>
   public static class Builder
   {
     private HawkServerConfiguration configuration;
+    private Executor cryptoExecutor;
+    private ForkJoinPool batchPool;
 
     /**
      * Generate a new builder.
@@ -373,6 +1266,8 @@ public final class HawkServer implements Comparable<HawkServer>
     public Builder(final HawkServer prior)
     {
       this.configuration = prior.configuration;
+      this.cryptoExecutor = prior.cryptoExecutor;
+      this.batchPool = prior.batchPool;
     }
 
     /**
@@ -386,13 +1281,37 @@ public final class HawkServer implements Comparable<HawkServer>
       return this;
     }
 
+    /**
+     * Override the executor used to verify MACs for asynchronous verification.
+     * Defaults to verifying on the thread that completes the credentials lookup.
+     * @param cryptoExecutor the new executor
+     * @return The builder
+     */
+    public Builder cryptoExecutor(final Executor cryptoExecutor)
+    {
+      this.cryptoExecutor = cryptoExecutor;
+      return this;
+    }
+
+    /**
+     * Override the pool used to verify batches of requests.
+     * Defaults to a pool shared by all servers with one thread per processor.
+     * @param batchPool the new pool
+     * @return The builder
+     */
+    public Builder batchPool(final ForkJoinPool batchPool)
+    {
+      this.batchPool = batchPool;
+      return this;
+    }
+
     /**
      * Build the server
      * @return a new server
      */
     public HawkServer build()
     {
-      return new HawkServer(this.configuration);
+      return new HawkServer(this.configuration, this.cryptoExecutor, this.batchPool);
     }
   }
 }
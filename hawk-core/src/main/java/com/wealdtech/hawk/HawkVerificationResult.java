@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+
+/**
+ * The result of verifying a Hawk request.
+ * <p>
+ * Verification results allow requests to be rejected without the cost of
+ * creating an exception.  Results without a detail are preallocated, so
+ * obtaining them does not allocate either.
+ */
+public final class HawkVerificationResult
+{
+  /**
+   * The kind of error that a failed verification corresponds to.
+   */
+  public enum ErrorType
+  {
+    /**
+     * Required information was missing
+     */
+    MISSING,
+    /**
+     * Information was present but invalid
+     */
+    BAD,
+    /**
+     * Information was valid but did not authenticate the request
+     */
+    AUTHENTICATION
+  }
+
+  /**
+   * The reason for the result of a verification.
+   */
+  public enum Reason
+  {
+    OK(null, "Request verified"),
+    MISSING_HEADER(ErrorType.MISSING, "No authorization header"),
+    INVALID_HEADER(ErrorType.BAD, "The authorization header is not a valid Hawk authorization header"),
+    MISSING_ID(ErrorType.MISSING, "The id was not supplied"),
+    MISSING_TIMESTAMP(ErrorType.MISSING, "The timestamp was not supplied"),
+    MISSING_NONCE(ErrorType.MISSING, "The nonce was not supplied"),
+    MISSING_MAC(ErrorType.MISSING, "The mac was not supplied"),
+    MISSING_HASH(ErrorType.MISSING, "The payload hash was not supplied"),
+    MISSING_CONTENT_TYPE(ErrorType.BAD, "Missing content type header for body verification"),
+    INVALID_PAYLOAD(ErrorType.BAD, "Failed to read the message body to calculate hash"),
+    INVALID_TIMESTAMP(ErrorType.BAD, "The timestamp is in the wrong format; we expect seconds since the epoch"),
+    STALE_TIMESTAMP(ErrorType.BAD, "The timestamp is too far from the current time to be acceptable"),
+    REPLAYED_NONCE(ErrorType.BAD, "The nonce supplied is the same as one seen previously"),
+    MISSING_BEWIT(ErrorType.BAD, "The query string did not contain a bewit"),
+    INVALID_BEWIT(ErrorType.BAD, "The bewit is not valid"),
+    EXPIRED_BEWIT(ErrorType.BAD, "The bewit has expired"),
+    UNSUPPORTED_METHOD(ErrorType.BAD, "HTTP method not supported with bewit"),
+    UNKNOWN_ID(ErrorType.BAD, "The id is not recognised"),
+    INVALID_REQUEST(ErrorType.BAD, "The request could not be verified"),
+    BAD_MAC(ErrorType.AUTHENTICATION, "The MAC in the request does not match the server-calculated MAC");
+
+    private final ErrorType errorType;
+    private final String message;
+
+    private Reason(final ErrorType errorType, final String message)
+    {
+      this.errorType = errorType;
+      this.message = message;
+    }
+
+    /**
+     * Obtain the type of error for this reason.
+     * @return the type of error, or <code>null</code> if this reason is not a failure
+     */
+    public ErrorType getErrorType()
+    {
+      return this.errorType;
+    }
+
+    /**
+     * Obtain the default message for this reason.
+     * @return the default message
+     */
+    public String getMessage()
+    {
+      return this.message;
+    }
+  }
+
+  private static final Map<Reason, HawkVerificationResult> PREALLOCATED = new EnumMap<>(Reason.class);
+  static
+  {
+    for (final Reason reason : Reason.values())
+    {
+      PREALLOCATED.put(reason, new HawkVerificationResult(reason, null));
+    }
+  }
+
+  /**
+   * The result of a successful verification.
+   */
+  public static final HawkVerificationResult OK = PREALLOCATED.get(Reason.OK);
+
+  private final Reason reason;
+  private final String detail;
+
+  private HawkVerificationResult(final Reason reason, final String detail)
+  {
+    this.reason = reason;
+    this.detail = detail;
+  }
+
+  /**
+   * Obtain the preallocated result for a reason.
+   * @param reason the reason
+   * @return the result
+   */
+  public static HawkVerificationResult of(final Reason reason)
+  {
+    return PREALLOCATED.get(reason);
+  }
+
+  /**
+   * Obtain a result for a reason with additional detail.
+   * @param reason the reason
+   * @param detail the detail, or <code>null</code> for none
+   * @return the result
+   */
+  public static HawkVerificationResult of(final Reason reason, final String detail)
+  {
+    if (detail == null)
+    {
+      return PREALLOCATED.get(reason);
+    }
+    return new HawkVerificationResult(reason, detail);
+  }
+
+  /**
+   * Find out if verification succeeded.
+   * @return <code>true</code> if verification succeeded, otherwise <code>false</code>
+   */
+  public boolean isValid()
+  {
+    return this.reason == Reason.OK;
+  }
+
+  public Reason getReason()
+  {
+    return this.reason;
+  }
+
+  /**
+   * Obtain the detail of the result.
+   * @return the detail, or <code>null</code> if there is none
+   */
+  public String getDetail()
+  {
+    return this.detail;
+  }
+
+  /**
+   * Obtain a message describing the result.
+   * @return the detail if present, otherwise the default message for the reason
+   */
+  public String getMessage()
+  {
+    return this.detail == null ? this.reason.getMessage() : this.detail;
+  }
+
+  /**
+   * Create the error corresponding to a failed verification, as thrown by the
+   * exception-based authentication methods.
+   * @return the error
+   * @throws IllegalStateException if the verification succeeded
+   */
+  public DataError toError()
+  {
+    if (this.reason.getErrorType() == null)
+    {
+      throw new IllegalStateException("Successful verification has no error");
+    }
+    switch (this.reason.getErrorType())
+    {
+      case MISSING:
+        return new DataError.Missing(getMessage());
+      case AUTHENTICATION:
+        return new DataError.Authentication(getMessage());
+      default:
+        return new DataError.Bad(getMessage());
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("reason", this.reason)
+                  .add("detail", this.detail)
+                  .omitNullValues()
+                  .toString();
+  }
+}
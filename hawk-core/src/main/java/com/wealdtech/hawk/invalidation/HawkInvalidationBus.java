@@ -0,0 +1,344 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.invalidation;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.Closeable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wealdtech.DataError;
+
+/**
+ * A bus to broadcast invalidations of cached Hawk credentials between nodes.
+ * <p>
+ * Invalidations are applied to local listeners immediately.  They are then
+ * queued, with repeated invalidations of the same key ID coalesced, and sent
+ * to other nodes in batches at a fixed interval.  Each message is kept within
+ * a maximum size so that it fits in a single datagram.
+ * <p>
+ * Message format: magic (4 bytes), version (1 byte), sender node ID (8 bytes),
+ * number of key IDs (2 bytes), then for each key ID its UTF-8 length (2 bytes)
+ * and bytes.
+ */
+public final class HawkInvalidationBus implements Closeable
+{
+  private static final int MAGIC = 0x484b4956;
+  private static final byte VERSION = 1;
+  private static final int MESSAGE_HEADER_SIZE = 15;
+  private static final int MAX_KEYS_PER_MESSAGE = 0xffff;
+
+  private final HawkInvalidationTransport transport;
+  private final long flushInterval;
+  private final int maxMessageSize;
+  private final long nodeId;
+  private final List<HawkInvalidationListener> listeners = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService flusher;
+  private final Object lock = new Object();
+  private Set<String> pending = new LinkedHashSet<>();
+
+  private HawkInvalidationBus(final HawkInvalidationTransport transport, final Long flushInterval, final Integer maxMessageSize)
+  {
+    checkNotNull(transport, "The transport is required");
+    this.transport = transport;
+    this.flushInterval = flushInterval == null ? 50L : flushInterval;
+    this.maxMessageSize = maxMessageSize == null ? 1400 : maxMessageSize;
+    checkArgument((this.flushInterval > 0), "The flush interval must be positive");
+    checkArgument((this.maxMessageSize > MESSAGE_HEADER_SIZE + 2), "The maximum message size is too small");
+    this.nodeId = new SecureRandom().nextLong();
+
+    this.transport.start(new HawkInvalidationTransport.Receiver()
+    {
+      @Override
+      public void receive(final byte[] message, final int offset, final int length)
+      {
+        handle(message, offset, length);
+      }
+    });
+    this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hawk-invalidation-%d").build());
+    this.flusher.scheduleWithFixedDelay(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          flush();
+        }
+        catch (RuntimeException re)
+        {
+          // A failed send loses the batch, which leaves entries to expire as
+          // they would without invalidation.  Keep flushing future batches.
+        }
+      }
+    }, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Add a listener to be told of invalidations, both local and remote.
+   * @param listener the listener
+   */
+  public void addListener(final HawkInvalidationListener listener)
+  {
+    checkNotNull(listener, "The listener is required");
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener.
+   * @param listener the listener
+   */
+  public void removeListener(final HawkInvalidationListener listener)
+  {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Invalidate a key ID on this node and, shortly afterwards, on all other nodes.
+   * @param keyId the key ID
+   * @throws DataError if the key ID is too long to be sent
+   */
+  public void invalidate(final String keyId)
+  {
+    invalidate(Collections.singletonList(keyId));
+  }
+
+  /**
+   * Invalidate a number of key IDs on this node and, shortly afterwards, on
+   * all other nodes.  Every local listener is told even if one fails, and
+   * the other nodes are still told; the failure is then rethrown.
+   * @param keyIds the key IDs
+   * @throws DataError if a key ID is too long to be sent
+   */
+  public void invalidate(final Collection<String> keyIds)
+  {
+    checkNotNull(keyIds, "The key IDs are required");
+    for (final String keyId : keyIds)
+    {
+      checkNotNull(keyId, "The key ID is required");
+      checkState((keyId.getBytes(Charsets.UTF_8).length <= this.maxMessageSize - MESSAGE_HEADER_SIZE - 2), "The key ID is too long to be sent");
+    }
+    // Queued first so that other nodes are told even if a local listener fails
+    synchronized (this.lock)
+    {
+      this.pending.addAll(keyIds);
+    }
+    final RuntimeException failure = notifyListeners(keyIds);
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+
+  /**
+   * Send any pending invalidations to other nodes immediately.
+   * @throws com.wealdtech.ServerError if the invalidations could not be sent
+   */
+  public void flush()
+  {
+    final Set<String> batch;
+    synchronized (this.lock)
+    {
+      if (this.pending.isEmpty())
+      {
+        return;
+      }
+      batch = this.pending;
+      this.pending = new LinkedHashSet<>();
+    }
+
+    final ByteBuffer message = ByteBuffer.allocate(this.maxMessageSize);
+    int count = 0;
+    startMessage(message);
+    for (final String keyId : batch)
+    {
+      final byte[] id = keyId.getBytes(Charsets.UTF_8);
+      if ((message.remaining() < 2 + id.length) || (count == MAX_KEYS_PER_MESSAGE))
+      {
+        sendMessage(message, count);
+        startMessage(message);
+        count = 0;
+      }
+      message.putShort((short)id.length);
+      message.put(id);
+      count++;
+    }
+    sendMessage(message, count);
+  }
+
+  private void startMessage(final ByteBuffer message)
+  {
+    message.clear();
+    message.putInt(MAGIC);
+    message.put(VERSION);
+    message.putLong(this.nodeId);
+    message.putShort((short)0);
+  }
+
+  private void sendMessage(final ByteBuffer message, final int count)
+  {
+    message.putShort(MESSAGE_HEADER_SIZE - 2, (short)count);
+    this.transport.send(Arrays.copyOf(message.array(), message.position()));
+  }
+
+  // Handle a message from another node
+  private void handle(final byte[] data, final int offset, final int length)
+  {
+    final ByteBuffer message = ByteBuffer.wrap(data, offset, length);
+    try
+    {
+      if ((message.getInt() != MAGIC) || (message.get() != VERSION) || (message.getLong() == this.nodeId))
+      {
+        // Not for us, or our own message reflected back to us
+        return;
+      }
+      final int count = message.getShort() & MAX_KEYS_PER_MESSAGE;
+      final List<String> keyIds = Lists.newArrayListWithCapacity(count);
+      for (int i = 0; i < count; i++)
+      {
+        final byte[] id = new byte[message.getShort() & 0xffff];
+        message.get(id);
+        keyIds.add(new String(id, Charsets.UTF_8));
+      }
+      // There is nobody to report a listener failure to for a remote invalidation
+      notifyListeners(keyIds);
+    }
+    catch (BufferUnderflowException bue)
+    {
+      // Truncated or corrupt message; ignore it
+    }
+  }
+
+  // Tell every listener of invalidations even if one fails, returning the last failure if any
+  private RuntimeException notifyListeners(final Collection<String> keyIds)
+  {
+    RuntimeException failure = null;
+    for (final HawkInvalidationListener listener : this.listeners)
+    {
+      try
+      {
+        listener.invalidate(keyIds);
+      }
+      catch (RuntimeException re)
+      {
+        failure = re;
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * Send any pending invalidations and close the bus and its transport.
+   */
+  @Override
+  public void close()
+  {
+    this.flusher.shutdown();
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      this.transport.close();
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("transport", this.transport)
+                  .add("flushInterval", this.flushInterval)
+                  .add("maxMessageSize", this.maxMessageSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private HawkInvalidationTransport transport;
+    private Long flushInterval;
+    private Integer maxMessageSize;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the transport used to reach other nodes.
+     * @param transport the transport
+     * @return The builder
+     */
+    public Builder transport(final HawkInvalidationTransport transport)
+    {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Override the interval between sending batches of invalidations, in milliseconds.  Defaults to <code>50</code>.
+     * @param flushInterval the interval between sending batches
+     * @return The builder
+     */
+    public Builder flushInterval(final Long flushInterval)
+    {
+      this.flushInterval = flushInterval;
+      return this;
+    }
+
+    /**
+     * Override the maximum size of a single message, in bytes.  Defaults to <code>1400</code>.
+     * @param maxMessageSize the maximum size of a single message
+     * @return The builder
+     */
+    public Builder maxMessageSize(final Integer maxMessageSize)
+    {
+      this.maxMessageSize = maxMessageSize;
+      return this;
+    }
+
+    /**
+     * Build the bus, starting its transport.
+     * @return a new bus
+     * @throws DataError if the data provided is invalid for a bus
+     */
+    public HawkInvalidationBus build()
+    {
+      return new HawkInvalidationBus(this.transport, this.flushInterval, this.maxMessageSize);
+    }
+  }
+}
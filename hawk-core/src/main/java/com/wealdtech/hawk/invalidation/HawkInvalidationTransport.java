@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.invalidation;
+
+import java.io.Closeable;
+
+/**
+ * A transport to carry invalidation messages between nodes.
+ * <p>
+ * Transports are not required to be reliable; a lost invalidation means that
+ * a cache holds an entry until it expires, as it would without invalidation.
+ */
+public interface HawkInvalidationTransport extends Closeable
+{
+  /**
+   * Start delivering messages received from other nodes.
+   * @param receiver the receiver for incoming messages
+   */
+  void start(final Receiver receiver);
+
+  /**
+   * Send a message to all other nodes.
+   * @param message the message
+   * @throws com.wealdtech.ServerError if the message could not be sent
+   */
+  void send(final byte[] message);
+
+  /**
+   * Stop the transport and release any resources it holds.
+   */
+  @Override
+  void close();
+
+  /**
+   * A receiver of messages from other nodes.
+   */
+  interface Receiver
+  {
+    /**
+     * Receive a message.
+     * @param message the message
+     * @param offset the offset of the message in the buffer
+     * @param length the length of the message
+     */
+    void receive(final byte[] message, final int offset, final int length);
+  }
+}
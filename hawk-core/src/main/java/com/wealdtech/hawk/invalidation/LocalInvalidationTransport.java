@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.invalidation;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An in-process transport, delivering messages synchronously to all other
+ * transports created from the same hub.  Useful for testing, and for
+ * applications that run multiple caches within the same process.
+ */
+public final class LocalInvalidationTransport implements HawkInvalidationTransport
+{
+  private final Hub hub;
+  private volatile Receiver receiver;
+
+  private LocalInvalidationTransport(final Hub hub)
+  {
+    this.hub = hub;
+  }
+
+  @Override
+  public void start(final Receiver receiver)
+  {
+    checkNotNull(receiver, "The receiver is required");
+    this.receiver = receiver;
+    this.hub.transports.add(this);
+  }
+
+  @Override
+  public void send(final byte[] message)
+  {
+    for (final LocalInvalidationTransport transport : this.hub.transports)
+    {
+      if (transport != this)
+      {
+        transport.receiver.receive(message, 0, message.length);
+      }
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    this.hub.transports.remove(this);
+  }
+
+  /**
+   * A hub connecting a number of local transports.
+   */
+  public static final class Hub
+  {
+    private final List<LocalInvalidationTransport> transports = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a new transport connected to this hub.
+     * @return the transport
+     */
+    public LocalInvalidationTransport newTransport()
+    {
+      return new LocalInvalidationTransport(this);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.invalidation;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+
+/**
+ * A transport sending each message as a UDP datagram to a fixed list of
+ * peers.  Delivery is best-effort.
+ * <p>
+ * Anyone who can reach the bound port can otherwise send invalidations, so
+ * either give every peer the same shared key, in which case each datagram
+ * carries an HMAC and datagrams without a valid one are dropped, or make
+ * sure that the port is only reachable from a trusted network.  The HMAC
+ * does not protect against replay, but a replayed invalidation only causes
+ * credentials to be looked up again.
+ */
+public final class UdpInvalidationTransport implements HawkInvalidationTransport
+{
+  private static final int MAX_DATAGRAM_SIZE = 65507;
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int MAC_LENGTH = 16;
+  private static final int MINIMUM_KEY_LENGTH = 16;
+
+  private final DatagramSocket socket;
+  private final ImmutableList<InetSocketAddress> peers;
+  private final ThreadLocal<Mac> macs;
+  private Thread receiverThread;
+
+  private UdpInvalidationTransport(final InetSocketAddress bindAddress, final List<InetSocketAddress> peers, final String key)
+  {
+    checkNotNull(bindAddress, "The bind address is required");
+    this.peers = ImmutableList.copyOf(peers);
+    if (key == null)
+    {
+      this.macs = null;
+    }
+    else
+    {
+      final byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+      checkArgument((keyBytes.length >= MINIMUM_KEY_LENGTH), "The shared key must be at least %s bytes", MINIMUM_KEY_LENGTH);
+      final SecretKeySpec keySpec = new SecretKeySpec(keyBytes, ALGORITHM);
+      // Check the key once here so that the thread-local initialiser cannot fail
+      createMac(keySpec);
+      this.macs = new ThreadLocal<Mac>()
+      {
+        @Override
+        protected Mac initialValue()
+        {
+          return createMac(keySpec);
+        }
+      };
+    }
+    try
+    {
+      this.socket = new DatagramSocket(bindAddress);
+    }
+    catch (SocketException se)
+    {
+      throw new ServerError("Failed to bind invalidation socket", se);
+    }
+  }
+
+  /**
+   * Obtain the local address to which this transport is bound.
+   * @return the local address
+   */
+  public InetSocketAddress getLocalAddress()
+  {
+    return (InetSocketAddress)this.socket.getLocalSocketAddress();
+  }
+
+  @Override
+  public synchronized void start(final Receiver receiver)
+  {
+    checkNotNull(receiver, "The receiver is required");
+    checkState((this.receiverThread == null), "The transport has already been started");
+    this.receiverThread = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        final DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+        while (!socket.isClosed())
+        {
+          try
+          {
+            packet.setLength(MAX_DATAGRAM_SIZE);
+            socket.receive(packet);
+            if (macs == null)
+            {
+              receiver.receive(packet.getData(), packet.getOffset(), packet.getLength());
+            }
+            else if (isAuthentic(packet.getData(), packet.getOffset(), packet.getLength()))
+            {
+              receiver.receive(packet.getData(), packet.getOffset(), packet.getLength() - MAC_LENGTH);
+            }
+          }
+          catch (IOException ioe)
+          {
+            // Either the socket has been closed, in which case the loop ends,
+            // or a single datagram was lost
+          }
+          catch (RuntimeException re)
+          {
+            // A failure handling a single datagram must not stop the receiver
+          }
+        }
+      }
+    }, "hawk-invalidation-receiver");
+    this.receiverThread.setDaemon(true);
+    this.receiverThread.start();
+  }
+
+  @Override
+  public void send(final byte[] message)
+  {
+    final byte[] datagram = this.macs == null ? message : sign(message);
+    // Attempt every peer even if one fails, so that one bad peer does not
+    // cut the others off
+    ServerError failure = null;
+    for (final InetSocketAddress peer : this.peers)
+    {
+      try
+      {
+        this.socket.send(new DatagramPacket(datagram, datagram.length, peer));
+      }
+      catch (IOException ioe)
+      {
+        failure = new ServerError("Failed to send invalidation to " + peer, ioe);
+      }
+    }
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    this.socket.close();
+  }
+
+  // Append the MAC of a message to it
+  private byte[] sign(final byte[] message)
+  {
+    final Mac mac = this.macs.get();
+    mac.update(message);
+    final byte[] datagram = Arrays.copyOf(message, message.length + MAC_LENGTH);
+    System.arraycopy(mac.doFinal(), 0, datagram, message.length, MAC_LENGTH);
+    return datagram;
+  }
+
+  // Check the MAC at the end of a datagram
+  private boolean isAuthentic(final byte[] data, final int offset, final int length)
+  {
+    if (length < MAC_LENGTH)
+    {
+      return false;
+    }
+    final int messageLength = length - MAC_LENGTH;
+    final Mac mac = this.macs.get();
+    mac.update(data, offset, messageLength);
+    final byte[] expected = Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+    return MessageDigest.isEqual(expected, Arrays.copyOfRange(data, offset + messageLength, offset + length));
+  }
+
+  private static Mac createMac(final SecretKeySpec keySpec)
+  {
+    try
+    {
+      final Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(keySpec);
+      return mac;
+    }
+    catch (NoSuchAlgorithmException nsae)
+    {
+      throw new DataError.Bad("Unknown encryption algorithm", nsae);
+    }
+    catch (InvalidKeyException ike)
+    {
+      throw new DataError.Bad("Invalid key", ike);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("localAddress", this.getLocalAddress())
+                  .add("peers", this.peers)
+                  .add("authenticated", this.macs != null)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private InetSocketAddress bindAddress;
+    private final ImmutableList.Builder<InetSocketAddress> peers = ImmutableList.builder();
+    private String key;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the local address on which to receive invalidations.
+     * @param bindAddress the local address
+     * @return The builder
+     */
+    public Builder bindAddress(final InetSocketAddress bindAddress)
+    {
+      this.bindAddress = bindAddress;
+      return this;
+    }
+
+    /**
+     * Add a peer to which to send invalidations.
+     * @param peer the address of the peer
+     * @return The builder
+     */
+    public Builder peer(final InetSocketAddress peer)
+    {
+      this.peers.add(checkNotNull(peer, "The peer address is required"));
+      return this;
+    }
+
+    /**
+     * Set the key shared by all peers with which to authenticate
+     * invalidations.  If not set, invalidations are not authenticated.
+     * @param key the shared key, of at least 16 bytes
+     * @return The builder
+     */
+    public Builder key(final String key)
+    {
+      this.key = key;
+      return this;
+    }
+
+    /**
+     * Build the transport, binding its socket.
+     * @return a new transport
+     * @throws com.wealdtech.DataError if the shared key is too short
+     * @throws com.wealdtech.ServerError if the socket cannot be bound
+     */
+    public UdpInvalidationTransport build()
+    {
+      return new UdpInvalidationTransport(this.bindAddress, this.peers.build(), this.key);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.net.URI;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.io.BaseEncoding;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkAssertion;
+import com.wealdtech.hawk.HawkAssertionSigner;
+
+public class HawkAssertionSignerTest
+{
+  private final HawkAssertionSigner signer = new HawkAssertionSigner.Builder().key("internal signing key one").build();
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    final String assertion = this.signer.mint("dh37fgj492je", "Steve", "get", URI.create("https://api.example.com/resource?a=b"));
+    // Internal hops see a different host and port
+    final Optional<HawkAssertion> result = this.signer.verify(assertion, "GET", URI.create("http://10.0.0.1:8080/resource?a=b"));
+    assertTrue(result.isPresent());
+    assertEquals(result.get().getKeyId(), "dh37fgj492je");
+    assertEquals(result.get().getName(), "Steve");
+    assertTrue(result.get().getExpiry() > System.currentTimeMillis() / 1000L);
+    assertEquals(this.signer.verify(assertion, "GET", "/resource?a=b"), result);
+    this.signer.toString();
+  }
+
+  @Test
+  public void testBinding() throws Exception
+  {
+    final String assertion = this.signer.mint("dh37fgj492je", "Steve", "GET", "/resource");
+    assertFalse(this.signer.verify(assertion, "POST", "/resource").isPresent());
+    assertFalse(this.signer.verify(assertion, "GET", "/other").isPresent());
+    assertFalse(this.signer.verify(assertion, "GET", "/resource?admin=true").isPresent());
+    final HawkAssertionSigner other = new HawkAssertionSigner.Builder().key("internal signing key two").build();
+    assertFalse(other.verify(assertion, "GET", "/resource").isPresent());
+  }
+
+  @Test
+  public void testTampered() throws Exception
+  {
+    final String assertion = this.signer.mint("dh37fgj492je", "Steve", "GET", "/resource");
+    final String forged = this.signer.mint("dh37fgj492je", "Admin", "GET", "/resource");
+    // Payload from one assertion with the MAC of another
+    final String spliced = forged.substring(0, forged.indexOf('.')) + assertion.substring(assertion.indexOf('.'));
+    assertFalse(this.signer.verify(spliced, "GET", "/resource").isPresent());
+    assertFalse(this.signer.verify("", "GET", "/resource").isPresent());
+    assertFalse(this.signer.verify("not.valid!", "GET", "/resource").isPresent());
+    assertFalse(this.signer.verify(null, "GET", "/resource").isPresent());
+  }
+
+  @Test
+  public void testMethodBoundary() throws Exception
+  {
+    // Moving the start of the method on to the end of the payload must not rebind the assertion to another method
+    final String assertion = this.signer.mint("dh37fgj492je", "Steve", "MKCOL", "/resource");
+    final BaseEncoding encoding = BaseEncoding.base64Url().omitPadding();
+    final byte[] payload = encoding.decode(assertion.substring(0, assertion.indexOf('.')));
+    final byte[] extended = new byte[payload.length + 2];
+    System.arraycopy(payload, 0, extended, 0, payload.length);
+    extended[payload.length] = 'M';
+    extended[payload.length + 1] = 'K';
+    final String shifted = encoding.encode(extended) + assertion.substring(assertion.indexOf('.'));
+    assertFalse(this.signer.verify(shifted, "COL", "/resource").isPresent());
+    assertTrue(this.signer.verify(assertion, "MKCOL", "/resource").isPresent());
+  }
+
+  @Test
+  public void testExpired() throws Exception
+  {
+    final HawkAssertionSigner shortLived = new HawkAssertionSigner.Builder().key("internal signing key one").ttl(1L).build();
+    final String assertion = shortLived.mint("dh37fgj492je", "Steve", "GET", "/resource");
+    assertTrue(this.signer.verify(assertion, "GET", "/resource").isPresent());
+    Thread.sleep(2100L);
+    assertFalse(this.signer.verify(assertion, "GET", "/resource").isPresent());
+  }
+
+  @Test
+  public void testValidation() throws Exception
+  {
+    try
+    {
+      new HawkAssertionSigner.Builder().build();
+      fail("Created assertion signer without key");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkAssertionSigner.Builder().key("short").build();
+      fail("Created assertion signer with short key");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
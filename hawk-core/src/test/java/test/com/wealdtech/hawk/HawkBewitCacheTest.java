@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.net.URI;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkBewitCache;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+
+public class HawkBewitCacheTest
+{
+  private HawkCredentials testcredentials1, testcredentials2;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.testcredentials1 = new HawkCredentials.Builder()
+                                               .keyId("dh37fgj492je")
+                                               .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+    this.testcredentials2 = new HawkCredentials.Builder()
+                                               .keyId("kbmdu72h12xt")
+                                               .key("nzvxvljms2n239w7alsaduanpet109apbisuda0bt79")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+  }
+
+  @Test
+  public void testCaching() throws Exception
+  {
+    final HawkBewitCache cache = new HawkBewitCache.Builder().bucket(3600L).build();
+    final URI uri = URI.create("https://static.example.com/assets/logo.png");
+    final long now = System.currentTimeMillis() / 1000L;
+    final String bewit = cache.generateBewit(this.testcredentials1, uri, 60L, null);
+    assertEquals(cache.generateBewit(this.testcredentials1, uri, 60L, null), bewit);
+    assertEquals(cache.size(), 1L);
+
+    // Expiry is rounded up to the end of the bucket
+    final HawkServer server = new HawkServer.Builder().build();
+    final long expiry = Long.parseLong(server.splitBewit(bewit).get("expiry"));
+    assertEquals(expiry % 3600L, 0L);
+    assertTrue((expiry >= now + 60L) && (expiry < now + 60L + 3600L + 5L));
+    assertTrue(server.verify(this.testcredentials1, "/assets/logo.png?bewit=" + bewit, "static.example.com", 443).isValid());
+
+    // Different credentials, URIs and extra data give different bewits
+    assertNotEquals(cache.generateBewit(this.testcredentials2, uri, 60L, null), bewit);
+    assertNotEquals(cache.generateBewit(this.testcredentials1, URI.create("https://static.example.com/assets/logo.gif"), 60L, null), bewit);
+    assertNotEquals(cache.generateBewit(this.testcredentials1, uri, 60L, "user1"), bewit);
+    assertEquals(cache.size(), 4L);
+    cache.toString();
+  }
+
+  @Test
+  public void testNoCaching() throws Exception
+  {
+    final HawkBewitCache cache = new HawkBewitCache.Builder().bucket(3600L).maximumSize(0L).build();
+    final URI uri = URI.create("https://static.example.com/assets/logo.png");
+    // Bucketing alone gives the same bewit
+    assertEquals(cache.generateBewit(this.testcredentials1, uri, 60L, null), cache.generateBewit(this.testcredentials1, uri, 60L, null));
+    assertEquals(cache.size(), 0L);
+  }
+
+  @Test
+  public void testValidation() throws Exception
+  {
+    try
+    {
+      new HawkBewitCache.Builder().bucket(0L).build();
+      fail("Created bewit cache with zero bucket");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkBewitCache.Builder().build().generateBewit(this.testcredentials1, URI.create("https://static.example.com/"), -1L, null);
+      fail("Generated bewit with negative TTL");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkBewitGenerator;
+import com.wealdtech.hawk.HawkBewitRequest;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+
+public class HawkBewitGeneratorTest
+{
+  private HawkCredentials testcredentials1;
+  private ForkJoinPool pool;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.testcredentials1 = new HawkCredentials.Builder()
+                                               .keyId("dh37fgj492je")
+                                               .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+    this.pool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.pool.shutdown();
+  }
+
+  @Test
+  public void testGenerate() throws Exception
+  {
+    final HawkBewitGenerator generator = new HawkBewitGenerator.Builder()
+                                                               .credentials(this.testcredentials1)
+                                                               .ttl(600L)
+                                                               .pool(this.pool)
+                                                               .chunkSize(100)
+                                                               .build();
+    final List<HawkBewitRequest> requests = Lists.newArrayList();
+    for (int i = 0; i < 2500; i++)
+    {
+      final HawkBewitRequest.Builder builder = new HawkBewitRequest.Builder().uri(URI.create("https://Downloads.Example.com/files/" + i + "?campaign=42"));
+      if (i % 3 == 0)
+      {
+        builder.ext("recipient " + i + "\né");
+      }
+      if (i % 5 == 0)
+      {
+        builder.ttl(60L);
+      }
+      requests.add(builder.build());
+    }
+
+    final List<HawkBewitRequest> received = Lists.newArrayList();
+    final List<String> bewits = Lists.newArrayList();
+    final long now = System.currentTimeMillis() / 1000L;
+    final long count = generator.generate(requests, new HawkBewitGenerator.Sink()
+    {
+      @Override
+      public void accept(final HawkBewitRequest request, final CharSequence bewit) throws IOException
+      {
+        received.add(request);
+        bewits.add(bewit.toString());
+      }
+    });
+    assertEquals(count, 2500L);
+    assertEquals(received, requests);
+
+    final HawkServer server = new HawkServer.Builder().build();
+    for (int i = 0; i < requests.size(); i++)
+    {
+      final HawkBewitRequest request = requests.get(i);
+      final ImmutableMap<String, String> fields = server.splitBewit(bewits.get(i));
+      assertNotNull(fields);
+      final long expiry = Long.parseLong(fields.get("expiry"));
+      final long ttl = i % 5 == 0 ? 60L : 600L;
+      assertTrue((expiry >= now + ttl) && (expiry <= now + ttl + 5));
+      assertEquals(fields.get("mac"), Hawk.calculateMAC(this.testcredentials1, Hawk.AuthType.BEWIT, expiry, request.getUri(), null, null, null, request.getExt(), null, null));
+      if (request.getExt() == null)
+      {
+        assertTrue(server.verify(this.testcredentials1, "/files/" + i + "?campaign=42&bewit=" + bewits.get(i), "downloads.example.com", 443).isValid());
+      }
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception
+  {
+    final HawkBewitGenerator generator = new HawkBewitGenerator.Builder()
+                                                               .credentials(this.testcredentials1)
+                                                               .ttl(600L)
+                                                               .build();
+    final long count = generator.generate(Lists.<HawkBewitRequest>newArrayList(), new HawkBewitGenerator.Sink()
+    {
+      @Override
+      public void accept(final HawkBewitRequest request, final CharSequence bewit) throws IOException
+      {
+        fail("Received bewit without request");
+      }
+    });
+    assertEquals(count, 0L);
+    generator.toString();
+  }
+
+  @Test
+  public void testValidation() throws Exception
+  {
+    try
+    {
+      new HawkBewitGenerator.Builder().credentials(this.testcredentials1).build();
+      fail("Created bewit generator without TTL");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkBewitRequest.Builder().uri(URI.create("https://downloads.example.com/files/1")).ttl(0L).build();
+      fail("Created bewit request with zero TTL");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkBewitRequest.Builder().uri(URI.create("/files/1")).build();
+      fail("Created bewit request without host");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
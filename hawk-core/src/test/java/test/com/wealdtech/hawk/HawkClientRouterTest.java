@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.net.URI;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientRouter;
+import com.wealdtech.hawk.HawkCredentials;
+
+public class HawkClientRouterTest
+{
+  private HawkClient client1, client2, client3, client4;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    final HawkCredentials credentials = new HawkCredentials.Builder()
+                                                           .keyId("dh37fgj492je")
+                                                           .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                                           .algorithm(HawkCredentials.Algorithm.SHA256)
+                                                           .build();
+    this.client1 = new HawkClient.Builder().credentials(credentials).build();
+    this.client2 = new HawkClient.Builder().credentials(credentials).build();
+    this.client3 = new HawkClient.Builder().credentials(credentials).build();
+    this.client4 = new HawkClient.Builder().credentials(credentials).build();
+  }
+
+  @Test
+  public void testRouting() throws Exception
+  {
+    final HawkClientRouter router = new HawkClientRouter.Builder()
+                                                        .route(URI.create("https://api.example.com"), this.client1)
+                                                        .route(URI.create("https://api.example.com/v2/"), this.client2)
+                                                        .route("http", "api.example.com", 8080, "/v2/admin/", this.client3)
+                                                        .route("http", "api.example.com", -1, null, this.client4)
+                                                        .build();
+    assertEquals(router.size(), 4);
+    assertSame(router.route(URI.create("https://api.example.com/")), this.client1);
+    assertSame(router.route(URI.create("https://api.example.com/v1/items?id=1")), this.client1);
+    assertSame(router.route(URI.create("https://api.example.com/v2/items")), this.client2);
+    assertSame(router.route(URI.create("https://api.example.com:443/v2/items")), this.client2);
+    // Path prefixes are matched exactly
+    assertSame(router.route(URI.create("https://api.example.com/v2")), this.client1);
+    // Schemes and hosts are case-insensitive
+    assertSame(router.route(URI.create("HTTPS://API.Example.com/v2/items")), this.client2);
+    // Ports are matched exactly
+    assertSame(router.route(URI.create("http://api.example.com/v2/admin/users")), this.client4);
+    assertSame(router.route(URI.create("http://api.example.com:80/")), this.client4);
+    assertSame(router.route(URI.create("http://api.example.com:8080/v2/admin/users")), this.client3);
+    assertNull(router.route(URI.create("http://api.example.com:8080/v2/")));
+    assertNull(router.route(URI.create("http://api.example.com:808/v2/admin/users")));
+    // Unknown hosts and schemes
+    assertNull(router.route(URI.create("https://api.example.co/v1/items")));
+    assertNull(router.route(URI.create("https://api.example.com.evil/v1/items")));
+    assertNull(router.route(URI.create("ftp://api.example.com/v1/items")));
+    assertNull(router.route(URI.create("/v1/items")));
+    router.toString();
+  }
+
+  @Test
+  public void testEmpty() throws Exception
+  {
+    final HawkClientRouter router = new HawkClientRouter.Builder().build();
+    assertEquals(router.size(), 0);
+    assertNull(router.route(URI.create("https://api.example.com/")));
+  }
+
+  @Test
+  public void testManyRoutes() throws Exception
+  {
+    final HawkClientRouter.Builder builder = new HawkClientRouter.Builder();
+    for (int i = 0; i < 300; i++)
+    {
+      builder.route("https", "upstream" + i + ".example.com", -1, "/", i % 2 == 0 ? this.client1 : this.client2);
+      builder.route("https", "upstream" + i + ".example.com", -1, "/private/", this.client3);
+    }
+    final HawkClientRouter router = builder.build();
+    assertEquals(router.size(), 600);
+    for (int i = 0; i < 300; i++)
+    {
+      assertSame(router.route(URI.create("https://upstream" + i + ".example.com/items")), i % 2 == 0 ? this.client1 : this.client2);
+      assertSame(router.route(URI.create("https://upstream" + i + ".example.com/private/items")), this.client3);
+    }
+    assertNull(router.route(URI.create("https://upstream300.example.com/items")));
+  }
+
+  @Test
+  public void testInvalidRoutes() throws Exception
+  {
+    try
+    {
+      new HawkClientRouter.Builder().route(URI.create("https://api.example.com/v1/"), this.client1)
+                                    .route(URI.create("https://API.example.com:443/v1/"), this.client2);
+      fail("Created router with duplicate route");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkClientRouter.Builder().route("ftp", "api.example.com", -1, null, this.client1);
+      fail("Created router with unknown default port");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkClientRouter.Builder().route("https", "api.example.com", -1, "v1/", this.client1);
+      fail("Created router with relative path prefix");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
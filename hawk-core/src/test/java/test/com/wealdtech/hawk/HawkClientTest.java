@@ -16,16 +16,26 @@
 
 package test.com.wealdtech.hawk;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.wealdtech.DataError;
 import com.wealdtech.configuration.ConfigurationSource;
 import com.wealdtech.hawk.Hawk.PayloadValidation;
 import com.wealdtech.hawk.HawkClient;
 import com.wealdtech.hawk.HawkClientConfiguration;
 import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkNonceGenerator;
+import com.wealdtech.hawk.HawkPayloadInputStream;
+import com.wealdtech.hawk.HawkRandomNonceGenerator;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 
@@ -207,6 +217,30 @@ public class HawkClientTest
     assertNotEquals(configuration, null);
   }
 
+  @Test
+  public void testNonceConfiguration() throws Exception
+  {
+    // Test obtaining nonce options from a configuration source
+    final HawkClientConfiguration configuration = new ConfigurationSource<HawkClientConfiguration>().getConfiguration("clientconfig-test4.json", HawkClientConfiguration.class);
+    assertEquals(configuration.getNonceGenerator(), new HawkRandomNonceGenerator.Builder().length(16).counter(true).build());
+    assertNotEquals(configuration, new HawkClientConfiguration());
+
+    // Test a custom nonce generator
+    final HawkClientConfiguration customConfiguration = new HawkClientConfiguration.Builder()
+                                                                                   .nonceGenerator(new HawkNonceGenerator()
+                                                                                   {
+                                                                                     @Override
+                                                                                     public String generate()
+                                                                                     {
+                                                                                       return "customnonce";
+                                                                                     }
+                                                                                   })
+                                                                                   .build();
+    final HawkClient testClient = new HawkClient.Builder().credentials(this.testCredentials1).configuration(customConfiguration).build();
+    final String authorizationHeader = testClient.generateAuthorizationHeader(this.validUri1, "get", null, null, null, null);
+    assertTrue(authorizationHeader.contains("nonce=\"customnonce\""));
+  }
+
   @Test
   public void testInvalidConfiguration1() throws Exception
   {
@@ -236,4 +270,122 @@ public class HawkClientTest
       // Good
     }
   }
+
+  @Test
+  public void testServerAuthorization() throws Exception
+  {
+    // Test verifying a signed response and its payload
+    final HawkServer hawkServer = new HawkServer.Builder().build();
+    final HawkClient testClient = new HawkClient.Builder().credentials(this.testCredentials1).build();
+    final String authorizationHeader = testClient.generateAuthorizationHeader(this.validUri1, "get", null, null, null, null);
+    final byte[] payload = Strings.repeat("Response payload ", 10000).getBytes("UTF-8");
+    final String hash = testClient.calculatePayloadHash("text/plain", payload);
+    final String serverAuthorizationHeader = hawkServer.generateServerAuthorizationHeader(this.testCredentials1, this.validUri1, "get", hawkServer.parseAuthorizationHeader(authorizationHeader), hash, "response-specific");
+
+    final ImmutableMap<String, String> serverAuthorizationHeaders = testClient.parseServerAuthorizationHeader(serverAuthorizationHeader);
+    assertTrue(testClient.verifyServerAuthorization(this.validUri1, "get", authorizationHeader, serverAuthorizationHeaders).isValid());
+    assertEquals(serverAuthorizationHeaders.get("hash"), hash);
+    final HawkPayloadInputStream stream = testClient.verifyPayload(new ByteArrayInputStream(payload), "text/plain; charset=utf-8", hash);
+    ByteStreams.toByteArray(stream);
+    assertTrue(stream.isVerified());
+
+    // Tampered payload
+    payload[0] = 'r';
+    final HawkPayloadInputStream tamperedStream = testClient.verifyPayload(new ByteArrayInputStream(payload), "text/plain", hash);
+    try
+    {
+      ByteStreams.toByteArray(tamperedStream);
+      fail("Read tampered payload");
+    }
+    catch (IOException ioe)
+    {
+      assertTrue(ioe.getCause() instanceof DataError.Authentication);
+    }
+    assertFalse(tamperedStream.isVerified());
+
+    // Tampered payload read only up to its declared length
+    final HawkPayloadInputStream lengthStream = testClient.verifyPayload(new ByteArrayInputStream(payload), "text/plain", hash, payload.length);
+    try
+    {
+      ByteStreams.readFully(lengthStream, new byte[payload.length]);
+      fail("Read tampered payload up to its length");
+    }
+    catch (IOException ioe)
+    {
+      assertTrue(ioe.getCause() instanceof DataError.Authentication);
+    }
+
+    // Tampered payload read and closed by try-with-resources, which sees the failure twice
+    try (final HawkPayloadInputStream resourceStream = testClient.verifyPayload(new ByteArrayInputStream(payload), "text/plain", hash, payload.length))
+    {
+      ByteStreams.toByteArray(resourceStream);
+      fail("Read tampered payload in try-with-resources");
+    }
+    catch (IOException ioe)
+    {
+      assertTrue(ioe.getCause() instanceof DataError.Authentication);
+      assertEquals(ioe.getSuppressed().length, 1);
+    }
+
+    // Payload closed without being read is abandoned, not read to its end
+    final ByteArrayInputStream abandoned = new ByteArrayInputStream(payload);
+    final HawkPayloadInputStream closedStream = testClient.verifyPayload(abandoned, "text/plain", hash, payload.length);
+    closedStream.read(new byte[100]);
+    closedStream.close();
+    assertEquals(abandoned.available(), payload.length - 100);
+    assertFalse(closedStream.isVerified());
+
+    // Skipping nothing
+    assertEquals(testClient.verifyPayload(new ByteArrayInputStream(payload), "text/plain", hash).skip(-1L), 0L);
+
+    // Header for a different request
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "post", authorizationHeader, serverAuthorizationHeaders).getReason(), Reason.BAD_MAC);
+    final String otherAuthorizationHeader = testClient.generateAuthorizationHeader(this.validUri1, "get", null, null, null, null);
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "get", otherAuthorizationHeader, serverAuthorizationHeaders).getReason(), Reason.BAD_MAC);
+    // Tampered hash
+    final String tamperedHeader = serverAuthorizationHeader.replace(hash, testClient.calculatePayloadHash("text/plain", payload));
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "get", authorizationHeader, testClient.parseServerAuthorizationHeader(tamperedHeader)).getReason(), Reason.BAD_MAC);
+    // Invalid headers
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "get", authorizationHeader, testClient.parseServerAuthorizationHeader("Basic abc")).getReason(), Reason.INVALID_HEADER);
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "get", authorizationHeader, testClient.parseServerAuthorizationHeader("Hawk ext=\"x\"")).getReason(), Reason.MISSING_MAC);
+    assertEquals(testClient.verifyServerAuthorization(this.validUri1, "get", null, serverAuthorizationHeaders).getReason(), Reason.INVALID_REQUEST);
+  }
+
+  @Test
+  public void testResponseValidationConfiguration() throws Exception
+  {
+    assertEquals(new HawkClientConfiguration().getResponseValidation(), PayloadValidation.NEVER);
+    final HawkClientConfiguration configuration = new HawkClientConfiguration.Builder().responseValidation(PayloadValidation.MANDATORY).build();
+    assertEquals(configuration.getResponseValidation(), PayloadValidation.MANDATORY);
+    assertNotEquals(configuration, new HawkClientConfiguration());
+    assertEquals(new HawkClientConfiguration.Builder(configuration).build(), configuration);
+    assertEquals(new HawkClient.Builder().credentials(this.testCredentials1).configuration(configuration).build().getResponseValidation(), PayloadValidation.MANDATORY);
+  }
+
+  @Test
+  public void testAdjustForAuthenticateHeader() throws Exception
+  {
+    // Test correcting clock skew for a single server
+    final HawkServer hawkServer = new HawkServer.Builder().build();
+    final HawkClient testClient = new HawkClient.Builder().credentials(this.testCredentials1).build();
+    testClient.setServerDate(System.currentTimeMillis() - 600000L);
+    final String staleHeader = testClient.generateAuthorizationHeader(this.validUri1, "get", null, null, null, null);
+    assertEquals(hawkServer.verify(this.testCredentials1, this.validUri1, "get", hawkServer.parseAuthorizationHeader(staleHeader), null, false).getReason(), Reason.STALE_TIMESTAMP);
+
+    // Invalid headers are ignored
+    assertFalse(testClient.adjustForAuthenticateHeader(this.validUri1, null));
+    assertFalse(testClient.adjustForAuthenticateHeader(this.validUri1, "Basic realm=\"test\""));
+    assertFalse(testClient.adjustForAuthenticateHeader(this.validUri1, "Hawk ts=\"1353832234\", tsm=\"forged\""));
+
+    assertTrue(testClient.adjustForAuthenticateHeader(this.validUri1, hawkServer.generateAuthenticateHeader()));
+    final String correctedHeader = testClient.generateAuthorizationHeader(this.validUri1, "get", null, null, null, null);
+    assertTrue(hawkServer.verify(this.testCredentials1, this.validUri1, "get", hawkServer.parseAuthorizationHeader(correctedHeader), null, false).isValid());
+    // Already corrected
+    assertFalse(testClient.adjustForAuthenticateHeader(this.validUri1, hawkServer.generateAuthenticateHeader()));
+
+    // Other servers keep the client-wide skew
+    final URI otherUri = new URI("http://otherhost:18234/testpath");
+    final String otherHeader = testClient.generateAuthorizationHeader(otherUri, "get", null, null, null, null);
+    assertEquals(hawkServer.verify(this.testCredentials1, otherUri, "get", hawkServer.parseAuthorizationHeader(otherHeader), null, false).getReason(), Reason.STALE_TIMESTAMP);
+  }
 }
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsDeriver;
+
+public class HawkCredentialsDeriverTest
+{
+  @Test
+  public void testRfc5869Vector() throws Exception
+  {
+    // RFC 5869 test case 3: no salt, no info; first block of output
+    final HawkCredentialsDeriver deriver = new HawkCredentialsDeriver.Builder()
+                                                                     .masterSecret(1, Strings.repeat("\u000b", 22))
+                                                                     .versioned(false)
+                                                                     .build();
+    final HawkCredentials credentials = deriver.derive("");
+    assertEquals(BaseEncoding.base16().lowerCase().encode(BaseEncoding.base64Url().decode(credentials.getKey())),
+                 "8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d");
+  }
+
+  @Test
+  public void testDerivation() throws Exception
+  {
+    final HawkCredentialsDeriver deriver1 = new HawkCredentialsDeriver.Builder()
+                                                                      .masterSecret(1, "master secret one")
+                                                                      .build();
+    final HawkCredentialsDeriver deriver2 = new HawkCredentialsDeriver.Builder()
+                                                                      .masterSecret(1, "master secret one")
+                                                                      .build();
+    final String keyId = deriver1.generateKeyId("backup", 5L);
+    assertEquals(keyId, "1.5.backup");
+    final HawkCredentials credentials = deriver1.derive(keyId);
+    assertNotNull(credentials);
+    assertEquals(credentials.getKeyId(), keyId);
+    assertEquals(credentials.getAlgorithm(), HawkCredentials.Algorithm.SHA256);
+    // Derivation is deterministic across instances
+    assertEquals(deriver2.derive(keyId), credentials);
+    // Different key IDs give different keys
+    assertNotEquals(deriver1.derive("1.5.restore").getKey(), credentials.getKey());
+    deriver1.toString();
+  }
+
+  @Test
+  public void testInvalidKeyIds() throws Exception
+  {
+    final HawkCredentialsDeriver deriver = new HawkCredentialsDeriver.Builder()
+                                                                     .masterSecret(1, "master secret one")
+                                                                     .minimumEpoch(10L)
+                                                                     .build();
+    assertNull(deriver.derive(null));
+    assertNull(deriver.derive("backup"));
+    assertNull(deriver.derive("x.12.backup"));
+    assertNull(deriver.derive("1.x.backup"));
+    assertNull(deriver.derive("1.12."));
+    // Epoch below minimum
+    assertNull(deriver.derive("1.9.backup"));
+    // Unknown version
+    assertNull(deriver.derive("2.12.backup"));
+    assertNotNull(deriver.derive("1.12.backup"));
+  }
+
+  @Test
+  public void testRotation() throws Exception
+  {
+    final HawkCredentialsDeriver deriver = new HawkCredentialsDeriver.Builder()
+                                                                     .masterSecret(1, "master secret one")
+                                                                     .masterSecret(2, "master secret two")
+                                                                     .currentVersion(2)
+                                                                     .build();
+    assertEquals(deriver.generateKeyId("backup", 0L), "2.0.backup");
+    assertNotNull(deriver.derive("1.0.backup"));
+    assertNotNull(deriver.derive("2.0.backup"));
+
+    final HawkCredentialsDeriver retired = new HawkCredentialsDeriver.Builder()
+                                                                     .masterSecret(2, "master secret two")
+                                                                     .build();
+    assertNull(retired.derive("1.0.backup"));
+    assertEquals(retired.derive("2.0.backup"), deriver.derive("2.0.backup"));
+  }
+
+  @Test
+  public void testValidation() throws Exception
+  {
+    try
+    {
+      new HawkCredentialsDeriver.Builder().build();
+      fail("Created credentials deriver without master secret");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkCredentialsDeriver.Builder().masterSecret(1, "master secret one").currentVersion(2).build();
+      fail("Created credentials deriver without master secret for current version");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkCredentialsDeriver.Builder().masterSecret(1, "master secret one").versioned(false).build().generateKeyId("backup", 0L);
+      fail("Generated versioned key ID from unversioned deriver");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+
+public class HawkCredentialsIndexTest
+{
+  private HawkCredentials testcredentials1, testcredentials2;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.testcredentials1 = new HawkCredentials.Builder()
+                                               .keyId("dh37fgj492je")
+                                               .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+    this.testcredentials2 = new HawkCredentials.Builder()
+                                               .keyId("kbmdu72h12xt")
+                                               .key("nzvxvljms2n239w7alsaduanpet109apbisuda0bt79")
+                                               .algorithm(HawkCredentials.Algorithm.SHA1)
+                                               .build();
+  }
+
+  @Test
+  public void testLookup() throws Exception
+  {
+    final HawkCredentialsIndex index = new HawkCredentialsIndex.Builder()
+                                                               .add(this.testcredentials1)
+                                                               .add(this.testcredentials2)
+                                                               .build();
+    assertEquals(index.size(), 2);
+    assertEquals(index.get("dh37fgj492je"), this.testcredentials1);
+    assertEquals(index.get("kbmdu72h12xt"), this.testcredentials2);
+    assertNull(index.get("unknown"));
+    assertFalse(index.contains(""));
+    index.toString();
+  }
+
+  @Test
+  public void testEmpty() throws Exception
+  {
+    final HawkCredentialsIndex index = new HawkCredentialsIndex.Builder().build();
+    assertEquals(index.size(), 0);
+    assertNull(index.get("dh37fgj492je"));
+  }
+
+  @Test
+  public void testDuplicateKeyId() throws Exception
+  {
+    try
+    {
+      new HawkCredentialsIndex.Builder()
+                              .add(this.testcredentials1)
+                              .add(new HawkCredentials.Builder(this.testcredentials2).keyId("dh37fgj492je").build())
+                              .build();
+      fail("Created credentials index with duplicate key ID");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+
+  @Test
+  public void testManyCredentials() throws Exception
+  {
+    final HawkCredentialsIndex.Builder builder = new HawkCredentialsIndex.Builder();
+    for (int i = 0; i < 50000; i++)
+    {
+      builder.add(new HawkCredentials.Builder(this.testcredentials1).keyId("key" + i).key("secret" + i).build());
+    }
+    final HawkCredentialsIndex index = builder.build();
+    assertEquals(index.size(), 50000);
+    for (int i = 0; i < 50000; i++)
+    {
+      final HawkCredentials credentials = index.get("key" + i);
+      assertNotNull(credentials);
+      assertEquals(credentials.getKey(), "secret" + i);
+    }
+    assertNull(index.get("key50000"));
+  }
+
+  @Test
+  public void testSnapshot() throws Exception
+  {
+    final HawkCredentialsIndex index = new HawkCredentialsIndex.Builder()
+                                                               .add(this.testcredentials1)
+                                                               .add(this.testcredentials2)
+                                                               .build();
+    final File snapshot = File.createTempFile("hawkcredentials", ".idx");
+    snapshot.deleteOnExit();
+    index.writeTo(snapshot);
+
+    final HawkCredentialsIndex loaded = HawkCredentialsIndex.load(snapshot);
+    assertEquals(loaded.size(), 2);
+    assertEquals(loaded.get("dh37fgj492je"), this.testcredentials1);
+    assertEquals(loaded.get("kbmdu72h12xt"), this.testcredentials2);
+    assertNull(loaded.get("unknown"));
+
+    final HawkCredentialsIndex mapped = HawkCredentialsIndex.map(snapshot);
+    assertEquals(mapped.size(), 2);
+    assertEquals(mapped.get("dh37fgj492je"), this.testcredentials1);
+    assertEquals(mapped.get("kbmdu72h12xt"), this.testcredentials2);
+    assertNull(mapped.get("unknown"));
+  }
+
+  @Test
+  public void testInvalidSnapshot() throws Exception
+  {
+    final File snapshot = File.createTempFile("hawkcredentials", ".idx");
+    snapshot.deleteOnExit();
+    try (final FileOutputStream out = new FileOutputStream(snapshot))
+    {
+      out.write("This is not a snapshot".getBytes("UTF-8"));
+    }
+    try
+    {
+      HawkCredentialsIndex.load(snapshot);
+      fail("Loaded invalid credentials snapshot");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+
+  // Helper to check that a corrupt snapshot can be neither loaded nor mapped
+  private static void checkCorrupt(final byte[] contents) throws Exception
+  {
+    final File snapshot = File.createTempFile("hawkcredentials", ".idx");
+    snapshot.deleteOnExit();
+    Files.write(snapshot.toPath(), contents);
+    try
+    {
+      HawkCredentialsIndex.load(snapshot);
+      fail("Loaded corrupt credentials snapshot");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+    try
+    {
+      HawkCredentialsIndex.map(snapshot);
+      fail("Mapped corrupt credentials snapshot");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+
+  @Test
+  public void testCorruptSnapshot() throws Exception
+  {
+    final HawkCredentialsIndex index = new HawkCredentialsIndex.Builder()
+                                                               .add(this.testcredentials1)
+                                                               .add(this.testcredentials2)
+                                                               .build();
+    final File snapshot = File.createTempFile("hawkcredentials", ".idx");
+    snapshot.deleteOnExit();
+    index.writeTo(snapshot);
+    final byte[] valid = Files.readAllBytes(snapshot.toPath());
+    final int capacity = ByteBuffer.wrap(valid).getInt(12);
+    final int offsetsStart = 20 + capacity * 4;
+    final int dataStart = 20 + capacity * 8;
+
+    // No empty slot, which would leave lookups of unknown key IDs probing for ever
+    final ByteBuffer full = ByteBuffer.wrap(valid.clone());
+    for (int i = 0; i < capacity; i++)
+    {
+      full.putInt(offsetsStart + i * 4, 0);
+    }
+    checkCorrupt(full.array());
+
+    // Offset outside of the records
+    final ByteBuffer outside = ByteBuffer.wrap(valid.clone());
+    for (int i = 0; i < capacity; i++)
+    {
+      if (outside.getInt(offsetsStart + i * 4) != -1)
+      {
+        outside.putInt(offsetsStart + i * 4, valid.length);
+        break;
+      }
+    }
+    checkCorrupt(outside.array());
+
+    // Key length running past the end of the records
+    final byte[] overrun = valid.clone();
+    overrun[dataStart + 2 + 12] = (byte)0xff;
+    overrun[dataStart + 2 + 12 + 1] = (byte)0xff;
+    checkCorrupt(overrun);
+
+    // Invalid algorithm for the first record
+    final byte[] algorithm = valid.clone();
+    algorithm[dataStart + 2 + 12 + 2 + 43] = 99;
+    checkCorrupt(algorithm);
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.net.URI;
+import java.nio.CharBuffer;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientConfiguration;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkHeaderWriter;
+import com.wealdtech.hawk.HawkNonceGenerator;
+import com.wealdtech.hawk.HawkServer;
+
+public class HawkHeaderWriterTest
+{
+  private HawkCredentials testCredentials1, testCredentials2;
+  private HawkServer server;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.testCredentials1 = new HawkCredentials.Builder()
+                                               .keyId("dh37fgj492je")
+                                               .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+    this.testCredentials2 = new HawkCredentials.Builder()
+                                               .keyId("kbmdu72h12xt")
+                                               .key("nzvxvljms2n239w7alsaduanpet109apbisuda0bt79")
+                                               .algorithm(HawkCredentials.Algorithm.SHA1)
+                                               .build();
+    this.server = new HawkServer.Builder().build();
+  }
+
+  // Check a header against one built in the same way as HawkClient, using its timestamp and nonce
+  private void checkHeader(final HawkCredentials credentials, final String header, final URI uri, final String method, final String hash, final String ext)
+  {
+    final ImmutableMap<String, String> fields = this.server.parseAuthorizationHeader(header);
+    assertNotNull(fields, header);
+    final long ts = Long.parseLong(fields.get("ts"));
+    final String nonce = fields.get("nonce");
+    final String mac = Hawk.calculateMAC(credentials, Hawk.AuthType.HEADER, ts, uri, nonce, method, hash, ext, null, null);
+    final String expected = "Hawk id=\"" + credentials.getKeyId() + "\", ts=\"" + ts + "\", nonce=\"" + nonce + "\"" +
+                            (hash == null ? "" : ", hash=\"" + hash + "\"") +
+                            ((ext == null) || (ext.isEmpty()) ? "" : ", ext=\"" + ext + "\"") +
+                            ", mac=\"" + mac + "\"";
+    assertEquals(header, expected);
+    assertTrue(this.server.verify(credentials, uri, method, fields, hash, hash != null).isValid(), header);
+  }
+
+  @Test
+  public void testAppendable() throws Exception
+  {
+    final HawkHeaderWriter writer = new HawkClient.Builder().credentials(this.testCredentials1).build().newHeaderWriter();
+    final URI uri = new URI("http://Example.com:8080/resource/1?b=1&a=2");
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10; i++)
+    {
+      sb.setLength(0);
+      writer.writeAuthorizationHeader(sb, "get", "/resource/1?b=1&a=2", "Example.com", 8080, null, null);
+      checkHeader(this.testCredentials1, sb.toString(), uri, "GET", null, null);
+    }
+
+    // Hash and ext, including characters that are escaped or multi-byte in the MAC
+    final String ext = "some-app-data \\ caf\u00e9 \ud83d\ude00";
+    final String hash = "Yi9LfIIFRtBEPt74PVmbTF/xVAwPn7ub15ePICfgnuY=";
+    final CharBuffer buffer = CharBuffer.allocate(1024);
+    writer.writeAuthorizationHeader(buffer, "POST", "/resource/1?b=1&a=2", "example.com", 8080, hash, ext);
+    buffer.flip();
+    checkHeader(this.testCredentials1, buffer.toString(), uri, "POST", hash, ext);
+  }
+
+  @Test
+  public void testBytes() throws Exception
+  {
+    final HawkHeaderWriter writer = new HawkClient.Builder().credentials(this.testCredentials2).build().newHeaderWriter();
+    final URI uri = new URI("https://example.com/");
+    final byte[] out = new byte[512];
+    final int length = writer.writeAuthorizationHeader(out, 10, "GET", "/", "example.com", 443, null, "ext");
+    checkHeader(this.testCredentials2, new String(out, 10, length, Charsets.US_ASCII), uri, "GET", null, "ext");
+
+    try
+    {
+      writer.writeAuthorizationHeader(new byte[20], 0, "GET", "/", "example.com", 443, null, null);
+      fail("Wrote authorization header to too small a buffer");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      writer.writeAuthorizationHeader(out, 0, "GET", "/", "example.com", 443, null, "caf\u00e9");
+      fail("Wrote non-ASCII authorization header as bytes");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+
+  @Test
+  public void testCustomNonce() throws Exception
+  {
+    final HawkClientConfiguration configuration = new HawkClientConfiguration.Builder()
+                                                                             .nonceGenerator(new HawkNonceGenerator()
+                                                                             {
+                                                                               @Override
+                                                                               public String generate()
+                                                                               {
+                                                                                 return "a-rather-longer-nonce-than-the-writer-starts-with";
+                                                                               }
+                                                                             })
+                                                                             .build();
+    final HawkHeaderWriter writer = new HawkClient.Builder().credentials(this.testCredentials1).configuration(configuration).build().newHeaderWriter();
+    final StringBuilder sb = new StringBuilder();
+    writer.writeAuthorizationHeader(sb, "GET", "/", "example.com", 80, null, null);
+    assertTrue(sb.toString().contains("nonce=\"a-rather-longer-nonce-than-the-writer-starts-with\""));
+    checkHeader(this.testCredentials1, sb.toString(), new URI("http://example.com/"), "GET", null, null);
+  }
+}
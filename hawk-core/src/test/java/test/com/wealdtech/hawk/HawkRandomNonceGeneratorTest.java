@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk;
+
+import static org.testng.Assert.*;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkRandomNonceGenerator;
+
+public class HawkRandomNonceGeneratorTest
+{
+  @Test
+  public void testRandom() throws Exception
+  {
+    final HawkRandomNonceGenerator generator = new HawkRandomNonceGenerator.Builder().build();
+    assertEquals(generator.getLength(), 12);
+    assertEquals(generator.getEntropy(), 72);
+    for (int i = 0; i < 1000; i++)
+    {
+      final String nonce = generator.generate();
+      assertEquals(nonce.length(), 12);
+      assertTrue(nonce.matches("[A-Za-z0-9_-]+"), nonce);
+    }
+    assertNotEquals(generator.generate(), generator.generate());
+    generator.toString();
+  }
+
+  @Test
+  public void testEntropy() throws Exception
+  {
+    assertEquals(new HawkRandomNonceGenerator.Builder().entropy(128).build().getLength(), 22);
+    final HawkRandomNonceGenerator counter = new HawkRandomNonceGenerator.Builder().counter(true).entropy(64).build();
+    assertEquals(counter.getLength(), HawkRandomNonceGenerator.COUNTER_LENGTH + 11);
+    assertEquals(counter.getEntropy(), 66);
+    assertEquals(counter.generate().length(), counter.getLength());
+  }
+
+  @Test
+  public void testCounterUnique() throws Exception
+  {
+    // Only the counter is checked for uniqueness, so no random characters can hide a repeat
+    final HawkRandomNonceGenerator generator = new HawkRandomNonceGenerator.Builder().counter(true).length(HawkRandomNonceGenerator.COUNTER_LENGTH + 1).build();
+    final Set<String> counters = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++)
+    {
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < 5000; i++)
+          {
+            assertTrue(counters.add(generator.generate().substring(0, HawkRandomNonceGenerator.COUNTER_LENGTH)));
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    assertEquals(counters.size(), 40000);
+  }
+
+  @Test
+  public void testValidation() throws Exception
+  {
+    try
+    {
+      new HawkRandomNonceGenerator.Builder().length(0).build();
+      fail("Created nonce generator with zero length");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkRandomNonceGenerator.Builder().counter(true).length(HawkRandomNonceGenerator.COUNTER_LENGTH).build();
+      fail("Created counter nonce generator with no random characters");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    try
+    {
+      new HawkRandomNonceGenerator.Builder().length(12).entropy(72).build();
+      fail("Created nonce generator with both length and entropy");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
@@ -16,15 +16,31 @@
 
 package test.com.wealdtech.hawk;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.wealdtech.DataError;
 import com.wealdtech.hawk.*;
 import com.wealdtech.hawk.Hawk.PayloadValidation;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.testng.Assert.*;
 
@@ -625,4 +641,225 @@ public class HawkServerTest
       server.stop();
     }
   }
+
+  @Test
+  public void testVerify() throws Exception
+  {
+    // Test the exception-free verification results
+    final HawkServer server = new HawkServer.Builder().build();
+    final String authorizationHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    final ImmutableMap<String, String> authorizationHeaders = server.parseAuthorizationHeader(authorizationHeader);
+    assertNotNull(authorizationHeaders);
+
+    assertTrue(server.verify(this.testcredentials1, this.validuri1, "get", authorizationHeaders, null, false).isValid());
+    assertEquals(server.verify(this.testcredentials1, this.validuri1, "get", authorizationHeaders, null, false).getReason(), Reason.REPLAYED_NONCE);
+    final String authorizationHeader2 = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    assertEquals(server.verify(this.testcredentials2, this.validuri1, "get", server.parseAuthorizationHeader(authorizationHeader2), null, false).getReason(), Reason.BAD_MAC);
+
+    final Map<String, String> modified = Maps.newHashMap(authorizationHeaders);
+    modified.put("ts", "notanumber");
+    assertEquals(server.verify(this.testcredentials1, this.validuri1, "get", ImmutableMap.copyOf(modified), null, false).getReason(), Reason.INVALID_TIMESTAMP);
+    modified.put("ts", "1000");
+    assertEquals(server.verify(this.testcredentials1, this.validuri1, "get", ImmutableMap.copyOf(modified), null, false).getReason(), Reason.STALE_TIMESTAMP);
+    modified.remove("mac");
+    assertEquals(server.verify(this.testcredentials1, this.validuri1, "get", ImmutableMap.copyOf(modified), null, false).getReason(), Reason.MISSING_MAC);
+
+    assertNull(server.parseAuthorizationHeader(null));
+    assertNull(server.parseAuthorizationHeader("Basic dXNlcjpwYXNz"));
+  }
+
+  @Test
+  public void testVerifyBewit() throws Exception
+  {
+    // Test the exception-free verification results for bewits
+    final HawkServer server = new HawkServer.Builder().build();
+    final String bewit = Hawk.generateBewit(this.testcredentials1, new URI(BASEBEWITURI), 240L, null);
+    final URI testUri = new URI(BASEBEWITURI + "?bewit=" + bewit);
+
+    assertTrue(server.verify(this.testcredentials1, testUri).isValid());
+    assertEquals(server.verify(this.testcredentials2, testUri).getReason(), Reason.UNKNOWN_ID);
+    assertEquals(server.verify(this.testcredentials1, new URI(BASEBEWITURI)).getReason(), Reason.MISSING_BEWIT);
+    assertEquals(server.verify(this.testcredentials1, new URI(BASEBEWITURI + "?bewit=notabewit!")).getReason(), Reason.INVALID_BEWIT);
+    assertEquals(server.verify(this.testcredentials1, new URI(BASEBEWITURI + "?other=x&bewit=" + bewit)).getReason(), Reason.BAD_MAC);
+    assertEquals(server.parseBewit(testUri).get("id"), this.testcredentials1.getKeyId());
+
+    // The exception-based API reports the same failure
+    try
+    {
+      server.authenticate(this.testcredentials1, new URI(BASEBEWITURI + "?other=x&bewit=" + bewit));
+      fail("Authenticated with bad MAC");
+    }
+    catch (DataError.Authentication dea)
+    {
+      // Good
+    }
+  }
+
+  @Test
+  public void testVerifyRequestTarget() throws Exception
+  {
+    // Test verification from the parts of the request target rather than a URI
+    final HawkServer server = new HawkServer.Builder().build();
+    final String authorizationHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    final ImmutableMap<String, String> authorizationHeaders = server.parseAuthorizationHeader(authorizationHeader);
+    assertEquals(server.verify(this.testcredentials1, "/testpath/subpath?param1=val1&param2=val2", "localhost", 18235, "get", authorizationHeaders, null, false).getReason(), Reason.BAD_MAC);
+    final String authorizationHeader2 = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    final ImmutableMap<String, String> authorizationHeaders2 = server.parseAuthorizationHeader(authorizationHeader2);
+    assertTrue(server.verify(this.testcredentials1, "/testpath/subpath?param1=val1&param2=val2", "LOCALHOST", 18234, "get", authorizationHeaders2, null, false).isValid());
+    assertEquals(server.verify(this.testcredentials1, "/testpath/subpath?param1=val1&param2=val2", "localhost", 18234, "get", authorizationHeaders2, null, false).getReason(), Reason.REPLAYED_NONCE);
+
+    final String bewit = Hawk.generateBewit(this.testcredentials1, new URI(BASEBEWITURI + "?a=b"), 240L, null);
+    assertTrue(server.verify(this.testcredentials1, "/helloworld?a=b&bewit=" + bewit, "localhost", 18234).isValid());
+    assertTrue(server.verify(this.testcredentials1, "/helloworld?bewit=" + bewit + "&a=b", "localhost", 18234).isValid());
+    assertEquals(server.verify(this.testcredentials1, "/helloworld?a=c&bewit=" + bewit, "localhost", 18234).getReason(), Reason.BAD_MAC);
+    assertEquals(server.verify(this.testcredentials2, "/helloworld?a=b&bewit=" + bewit, "localhost", 18234).getReason(), Reason.UNKNOWN_ID);
+    assertEquals(server.verify(this.testcredentials1, "/helloworld?a=b", "localhost", 18234).getReason(), Reason.MISSING_BEWIT);
+    assertEquals(server.verify(this.testcredentials1, "/helloworld?bewit=notabewit!", "localhost", 18234).getReason(), Reason.INVALID_BEWIT);
+    assertEquals(server.parseResourceBewit("/helloworld?a=b&bewit=" + bewit).get("id"), this.testcredentials1.getKeyId());
+    assertNull(server.parseResourceBewit("/helloworld?a=b"));
+  }
+
+  @Test
+  public void testAuthenticateAsync() throws Exception
+  {
+    // Test asynchronous credential lookup with a separate crypto executor
+    final ListeningExecutorService lookupExecutor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    final ExecutorService cryptoExecutor = Executors.newSingleThreadExecutor();
+    final HawkAsyncCredentialsProvider provider = new HawkAsyncCredentialsProvider()
+    {
+      @Override
+      public ListenableFuture<HawkCredentials> getHawkCredentialsAsync(final String keyId)
+      {
+        return lookupExecutor.submit(new Callable<HawkCredentials>()
+        {
+          @Override
+          public HawkCredentials call()
+          {
+            return testcredentials1.getKeyId().equals(keyId) ? testcredentials1 : null;
+          }
+        });
+      }
+    };
+    try
+    {
+      final HawkServer server = new HawkServer.Builder().cryptoExecutor(cryptoExecutor).build();
+      final String authorizationHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+      final ImmutableMap<String, String> authorizationHeaders = server.parseAuthorizationHeader(authorizationHeader);
+      assertEquals(server.authenticateAsync(provider, this.validuri1, "get", authorizationHeaders, null, false).get(), this.testcredentials1);
+      assertEquals(server.verifyAsync(provider, this.validuri1, "get", authorizationHeaders, null, false).get().getReason(), Reason.REPLAYED_NONCE);
+      try
+      {
+        server.authenticateAsync(provider, this.validuri1, "get", authorizationHeaders, null, false).get();
+        fail("Authenticated replayed request");
+      }
+      catch (ExecutionException ee)
+      {
+        assertTrue(ee.getCause() instanceof DataError);
+      }
+
+      final HawkClient unknownclient = new HawkClient.Builder().credentials(this.testcredentials2).build();
+      final String unknownHeader = unknownclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+      assertEquals(server.verifyAsync(provider, this.validuri1, "get", server.parseAuthorizationHeader(unknownHeader), null, false).get().getReason(), Reason.UNKNOWN_ID);
+
+      final String bewit = Hawk.generateBewit(this.testcredentials1, new URI(BASEBEWITURI), 240L, null);
+      assertEquals(server.authenticateAsync(provider, new URI(BASEBEWITURI + "?bewit=" + bewit)).get(), this.testcredentials1);
+      assertEquals(server.verifyAsync(provider, new URI(BASEBEWITURI)).get().getReason(), Reason.MISSING_BEWIT);
+    }
+    finally
+    {
+      lookupExecutor.shutdown();
+      cryptoExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testVerifyAll() throws Exception
+  {
+    final HawkServer server = new HawkServer.Builder().batchPool(new ForkJoinPool(4)).build();
+    final Function<String, HawkCredentials> lookup = new Function<String, HawkCredentials>()
+    {
+      @Override
+      public HawkCredentials apply(final String keyId)
+      {
+        return testcredentials1.getKeyId().equals(keyId) ? testcredentials1 : null;
+      }
+    };
+
+    final List<HawkBatchRequest> requests = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++)
+    {
+      final String authorizationHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+      final HawkBatchRequest.Builder builder = new HawkBatchRequest.Builder()
+                                                                   .method("get")
+                                                                   .authorizationHeaders(server.parseAuthorizationHeader(authorizationHeader));
+      // Requests may be identified by either URI or request target
+      if (i % 2 == 0)
+      {
+        builder.uri(this.validuri1);
+      }
+      else
+      {
+        builder.target("/testpath/subpath?param1=val1&param2=val2", "localhost", 18234);
+      }
+      requests.add(builder.build());
+    }
+    // Replay of an earlier request in the same batch
+    requests.add(requests.get(0));
+    // Request with a bad MAC and explicit credentials
+    final String badHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    requests.add(new HawkBatchRequest.Builder()
+                                     .credentials(this.testcredentials1)
+                                     .uri(this.validuri1)
+                                     .method("post")
+                                     .authorizationHeaders(server.parseAuthorizationHeader(badHeader))
+                                     .build());
+    // Request from an unknown client
+    final HawkClient unknownclient = new HawkClient.Builder().credentials(this.testcredentials2).build();
+    requests.add(new HawkBatchRequest.Builder()
+                                     .uri(this.validuri1)
+                                     .method("get")
+                                     .authorizationHeaders(server.parseAuthorizationHeader(unknownclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null)))
+                                     .build());
+
+    final List<HawkVerificationResult> results = server.verifyAll(requests, lookup);
+    assertEquals(results.size(), 1003);
+    for (int i = 0; i < 1000; i++)
+    {
+      assertTrue(results.get(i).isValid(), "Request " + i + " failed: " + results.get(i));
+    }
+    assertEquals(results.get(1000).getReason(), Reason.REPLAYED_NONCE);
+    assertEquals(results.get(1001).getReason(), Reason.BAD_MAC);
+    assertEquals(results.get(1002).getReason(), Reason.UNKNOWN_ID);
+
+    // Nonces from the batch are seen by single requests and subsequent batches
+    assertEquals(server.verify(this.testcredentials1, this.validuri1, "get", requests.get(1).getAuthorizationHeaders(), null, false).getReason(), Reason.REPLAYED_NONCE);
+    final List<DataError> errors = server.authenticateAll(requests.subList(0, 2), lookup);
+    assertTrue(errors.get(0) instanceof DataError.Bad);
+    assertTrue(server.verifyAll(ImmutableList.<HawkBatchRequest>of(), null).isEmpty());
+  }
+
+  @Test
+  public void testServerAuthorizationHeader() throws Exception
+  {
+    final HawkServer server = new HawkServer.Builder().build();
+    final ImmutableMap<String, String> authorizationHeaders = server.parseAuthorizationHeader("Hawk id=\"dh37fgj492je\", ts=\"1353832234\", nonce=\"j4h3g2\", ext=\"request-specific\", mac=\"ignored\"");
+    final String hash = Hawk.calculateBodyMac(this.testcredentials1, "text/plain", "Some reply");
+    final String header = server.generateServerAuthorizationHeader(this.testcredentials1, new URI("http://example.com:8000/resource/1?b=1&a=2"), "get", authorizationHeaders, hash, "response-specific");
+    // The response MAC reuses the request's timestamp and nonce but has its own hash and ext
+    final String mac = Hawk.calculateMac(this.testcredentials1, "hawk.1.response\n1353832234\nj4h3g2\nGET\n/resource/1?b=1&a=2\nexample.com\n8000\n" + hash + "\nresponse-specific\n");
+    assertEquals(header, "Hawk mac=\"" + mac + "\", hash=\"" + hash + "\", ext=\"response-specific\"");
+    assertEquals(server.generateServerAuthorizationHeader(this.testcredentials1, "/resource/1?b=1&a=2", "EXAMPLE.COM", 8000, "GET", authorizationHeaders, hash, "response-specific"), header);
+
+    final String noHashHeader = server.generateServerAuthorizationHeader(this.testcredentials1, new URI("http://example.com:8000/resource/1?b=1&a=2"), "get", authorizationHeaders, null, null);
+    assertEquals(noHashHeader, "Hawk mac=\"" + Hawk.calculateMac(this.testcredentials1, "hawk.1.response\n1353832234\nj4h3g2\nGET\n/resource/1?b=1&a=2\nexample.com\n8000\n\n\n") + "\"");
+    try
+    {
+      server.generateServerAuthorizationHeader(this.testcredentials1, new URI("http://example.com:8000/resource"), "get", ImmutableMap.of("id", "dh37fgj492je"), null, null);
+      fail("Generated server authorization header without request timestamp");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
 }
@@ -20,6 +20,8 @@ import static org.testng.Assert.*;
 
 import java.net.URI;
 
+import javax.crypto.Mac;
+
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -82,6 +84,18 @@ public class HawkTest
     assertEquals(testmac1, "sbrKX3RkGZdLarMQEU6fmuBcFSlyVuTsOjBSeoeUp2I=");
   }
 
+  @Test
+  public void testRequestTargetMAC() throws Exception
+  {
+    // Calculating from the parts of the request target gives the same results as from a URI
+    assertEquals(Hawk.calculateMAC(this.testhc1, Hawk.AuthType.HEADER, 12345L, "/test/path", "www.example.com", 80, "testnonce", "GET", null, null, null, null),
+                 "ST9uc4f43RcEx72niTPaj/3nADfjazou/wNODvi/SvM=");
+    assertEquals(Hawk.calculateMAC(this.testhc1, Hawk.AuthType.HEADER, 54321L, "/test/path/two?one=1&two=two", "WWW.example.com", 443, "testnonce", "POST", null, null, null, null),
+                 "afBpC1ZwH+s35f/OwKBoPLfrGQsQzEaKLpNM2ZG15Iw=");
+    assertEquals(Hawk.calculateMAC(this.testhc1, Hawk.AuthType.HEADER, 12345L, "/test?param=&lt;&gt;&pound;%54%65%73%74", "www.example.com", 443, "testnonce", "GET", null, null, null, null),
+                 "sbrKX3RkGZdLarMQEU6fmuBcFSlyVuTsOjBSeoeUp2I=");
+  }
+
   @Test
   public void testCorrectMethod() throws Exception
   {
@@ -101,6 +115,17 @@ public class HawkTest
     assertEquals(testmac1, "w1rO8cxeoTwVmO1Weffal3VCYHBTcIxpjgQUZx01mRU=");
   }
 
+  @Test
+  public void testStreamedBodyMac() throws Exception
+  {
+    // Ensure that a body MAC calculated in parts gives the same result as in one go
+    final HawkCredentials testCredentials = new HawkCredentials.Builder().keyId("test").key("mysecretkey").algorithm(Algorithm.SHA256).build();
+    final Mac mac = Hawk.startBodyMac(testCredentials, "text/plain; charset=utf-8");
+    mac.update("Text ".getBytes("UTF-8"));
+    mac.update("body".getBytes("UTF-8"));
+    assertEquals(Hawk.completeBodyMac(mac), "w1rO8cxeoTwVmO1Weffal3VCYHBTcIxpjgQUZx01mRU=");
+  }
+
   @Test
   public void testBewitValidation1() throws Exception
   {
@@ -0,0 +1,270 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.invalidation;
+
+import static org.testng.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.invalidation.HawkInvalidationBus;
+import com.wealdtech.hawk.invalidation.HawkInvalidationListener;
+import com.wealdtech.hawk.invalidation.HawkInvalidationTransport;
+import com.wealdtech.hawk.invalidation.LocalInvalidationTransport;
+import com.wealdtech.hawk.invalidation.UdpInvalidationTransport;
+
+public class HawkInvalidationBusTest
+{
+  // Helper to record invalidations
+  private static class RecordingListener implements HawkInvalidationListener
+  {
+    private final List<Collection<String>> batches = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void invalidate(final Collection<String> keyIds)
+    {
+      this.batches.add(ImmutableList.copyOf(keyIds));
+    }
+  }
+
+  // Helper to fail on every invalidation
+  private static class FailingListener implements HawkInvalidationListener
+  {
+    @Override
+    public void invalidate(final Collection<String> keyIds)
+    {
+      throw new IllegalStateException("Listener failed");
+    }
+  }
+
+  @Test
+  public void testFailingListener() throws Exception
+  {
+    final LocalInvalidationTransport.Hub hub = new LocalInvalidationTransport.Hub();
+    final HawkInvalidationBus bus1 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).build();
+    final HawkInvalidationBus bus2 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).build();
+    final RecordingListener listener1 = new RecordingListener();
+    final RecordingListener listener2 = new RecordingListener();
+    bus1.addListener(new FailingListener());
+    bus1.addListener(listener1);
+    bus2.addListener(new FailingListener());
+    bus2.addListener(listener2);
+
+    // A local failure is reported, but only after all listeners have been told
+    try
+    {
+      bus1.invalidate("dh37fgj492je");
+      fail("Listener failure not reported");
+    }
+    catch (IllegalStateException ise)
+    {
+      // Good
+    }
+    assertEquals(listener1.batches.size(), 1);
+
+    // Remote invalidations still reach listeners after a failing one
+    bus1.flush();
+    assertEquals(listener2.batches, ImmutableList.of(ImmutableList.of("dh37fgj492je")));
+
+    bus1.close();
+    bus2.close();
+  }
+
+  @Test
+  public void testLocalTransport() throws Exception
+  {
+    final LocalInvalidationTransport.Hub hub = new LocalInvalidationTransport.Hub();
+    // Long flush interval so that flushes happen only when asked for
+    final HawkInvalidationBus bus1 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).build();
+    final HawkInvalidationBus bus2 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).build();
+    final RecordingListener listener1 = new RecordingListener();
+    final RecordingListener listener2 = new RecordingListener();
+    bus1.addListener(listener1);
+    bus2.addListener(listener2);
+
+    bus1.invalidate("dh37fgj492je");
+    bus1.invalidate("kbmdu72h12xt");
+    bus1.invalidate("dh37fgj492je");
+
+    // Local invalidations are immediate, remote ones wait for a flush
+    assertEquals(listener1.batches.size(), 3);
+    assertTrue(listener2.batches.isEmpty());
+
+    // Repeated invalidations are coalesced in to a single batch
+    bus1.flush();
+    assertEquals(listener2.batches, ImmutableList.of(ImmutableList.of("dh37fgj492je", "kbmdu72h12xt")));
+    // A node does not hear its own invalidations back
+    assertEquals(listener1.batches.size(), 3);
+
+    // Nothing further to send
+    bus1.flush();
+    assertEquals(listener2.batches.size(), 1);
+
+    bus1.close();
+    bus2.close();
+  }
+
+  @Test
+  public void testBatchSplitting() throws Exception
+  {
+    final LocalInvalidationTransport.Hub hub = new LocalInvalidationTransport.Hub();
+    final HawkInvalidationBus bus1 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).maxMessageSize(64).build();
+    final HawkInvalidationBus bus2 = new HawkInvalidationBus.Builder().transport(hub.newTransport()).flushInterval(60000L).build();
+    final RecordingListener listener = new RecordingListener();
+    bus2.addListener(listener);
+
+    for (int i = 0; i < 20; i++)
+    {
+      bus1.invalidate("key" + i);
+    }
+    bus1.flush();
+    assertTrue(listener.batches.size() > 1);
+    int total = 0;
+    for (final Collection<String> batch : listener.batches)
+    {
+      total += batch.size();
+    }
+    assertEquals(total, 20);
+
+    try
+    {
+      bus1.invalidate("a key ID which is far too long to fit in to a message of this size");
+      fail("Invalidated key ID too long to be sent");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+
+    bus1.close();
+    bus2.close();
+  }
+
+  @Test
+  public void testUdpTransport() throws Exception
+  {
+    final UdpInvalidationTransport transport2 = new UdpInvalidationTransport.Builder().bindAddress(new InetSocketAddress("127.0.0.1", 0)).build();
+    final UdpInvalidationTransport transport1 = new UdpInvalidationTransport.Builder()
+                                                                            .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                                                                            .peer(transport2.getLocalAddress())
+                                                                            .build();
+    final HawkInvalidationBus bus1 = new HawkInvalidationBus.Builder().transport(transport1).flushInterval(10L).build();
+    final HawkInvalidationBus bus2 = new HawkInvalidationBus.Builder().transport(transport2).build();
+    final RecordingListener listener = new RecordingListener();
+    bus2.addListener(listener);
+
+    bus1.invalidate("dh37fgj492je");
+    for (int i = 0; (i < 100) && (listener.batches.isEmpty()); i++)
+    {
+      Thread.sleep(20L);
+    }
+    assertEquals(listener.batches, ImmutableList.of(ImmutableList.of("dh37fgj492je")));
+
+    bus1.close();
+    bus2.close();
+  }
+
+  @Test
+  public void testUdpTransportKey() throws Exception
+  {
+    final String key = "werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn";
+    final UdpInvalidationTransport receiving = new UdpInvalidationTransport.Builder().bindAddress(new InetSocketAddress("127.0.0.1", 0)).key(key).build();
+    final UdpInvalidationTransport unkeyed = new UdpInvalidationTransport.Builder()
+                                                                         .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                                                                         .peer(receiving.getLocalAddress())
+                                                                         .build();
+    final UdpInvalidationTransport wrongKey = new UdpInvalidationTransport.Builder()
+                                                                          .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                                                                          .peer(receiving.getLocalAddress())
+                                                                          .key("not the shared key at all")
+                                                                          .build();
+    final UdpInvalidationTransport keyed = new UdpInvalidationTransport.Builder()
+                                                                       .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                                                                       .peer(receiving.getLocalAddress())
+                                                                       .key(key)
+                                                                       .build();
+    final List<Byte> received = new CopyOnWriteArrayList<>();
+    receiving.start(new HawkInvalidationTransport.Receiver()
+    {
+      @Override
+      public void receive(final byte[] message, final int offset, final int length)
+      {
+        assertEquals(length, 1);
+        received.add(message[offset]);
+      }
+    });
+
+    // Unauthenticated datagrams are dropped, authenticated ones arrive without their MAC
+    for (int i = 0; (i < 100) && (received.isEmpty()); i++)
+    {
+      unkeyed.send(new byte[] { 1 });
+      wrongKey.send(new byte[] { 2 });
+      keyed.send(new byte[] { 3 });
+      Thread.sleep(20L);
+    }
+    assertFalse(received.isEmpty());
+    for (final Byte b : received)
+    {
+      assertEquals(b.byteValue(), (byte)3);
+    }
+
+    unkeyed.close();
+    wrongKey.close();
+    keyed.close();
+    receiving.close();
+  }
+
+  @Test
+  public void testUdpReceiverFailure() throws Exception
+  {
+    final UdpInvalidationTransport transport2 = new UdpInvalidationTransport.Builder().bindAddress(new InetSocketAddress("127.0.0.1", 0)).build();
+    final UdpInvalidationTransport transport1 = new UdpInvalidationTransport.Builder()
+                                                                            .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                                                                            .peer(transport2.getLocalAddress())
+                                                                            .build();
+    final AtomicInteger received = new AtomicInteger();
+    transport2.start(new HawkInvalidationTransport.Receiver()
+    {
+      @Override
+      public void receive(final byte[] message, final int offset, final int length)
+      {
+        if (received.incrementAndGet() == 1)
+        {
+          throw new IllegalStateException("Receiver failed");
+        }
+      }
+    });
+
+    // The receiver keeps going after failing on the first datagram
+    for (int i = 0; (i < 100) && (received.get() < 2); i++)
+    {
+      transport1.send(new byte[] { 1 });
+      Thread.sleep(20L);
+    }
+    assertTrue(received.get() >= 2);
+
+    transport1.close();
+    transport2.close();
+  }
+}
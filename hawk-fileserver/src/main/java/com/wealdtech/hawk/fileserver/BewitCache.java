@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.fileserver;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache of verified bewits, each held until it expires.
+ * <p>
+ * Entries are keyed on the full request target, including the host, so a
+ * cached bewit is only accepted for the exact request that was verified.
+ */
+class BewitCache
+{
+  private final Cache<String, Long> verified;
+
+  BewitCache(final long size)
+  {
+    this.verified = CacheBuilder.newBuilder().maximumSize(size).build();
+  }
+
+  /**
+   * Check if a request has been verified.
+   * @param key the request target
+   * @param now the current time, in seconds since the epoch
+   * @return <code>true</code> if the request has been verified and the bewit has not expired
+   */
+  boolean isVerified(final String key, final long now)
+  {
+    final Long expiry = this.verified.getIfPresent(key);
+    if (expiry == null)
+    {
+      return false;
+    }
+    if (expiry < now)
+    {
+      this.verified.invalidate(key);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Record that a request has been verified.
+   * @param key the request target
+   * @param expiry the expiry of the bewit, in seconds since the epoch
+   */
+  void verified(final String key, final long expiry)
+  {
+    this.verified.put(key, expiry);
+  }
+}
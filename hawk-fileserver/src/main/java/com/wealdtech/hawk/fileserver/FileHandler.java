@@ -0,0 +1,387 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.fileserver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLConnection;
+import java.util.Date;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Handler serving files for requests with valid bewits.
+ * <p>
+ * File contents are sent with {@link DefaultFileRegion}, which uses
+ * <code>FileChannel.transferTo</code> so that the contents go straight from
+ * the file to the socket without passing through the heap.
+ */
+class FileHandler extends ChannelInboundHandlerAdapter
+{
+  private static final long MILLISECONDS_IN_SECONDS = 1000L;
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final HawkServer server;
+  private final Function<String, HawkCredentials> lookup;
+  private final BewitCache cache;
+  private final File root;
+  private final String rootPrefix;
+
+  FileHandler(final HawkServer server, final Function<String, HawkCredentials> lookup, final BewitCache cache, final File root)
+  {
+    this.server = server;
+    this.lookup = lookup;
+    this.cache = cache;
+    this.root = root;
+    this.rootPrefix = root.getPath() + File.separator;
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception
+  {
+    try
+    {
+      if (msg instanceof HttpRequest)
+      {
+        handle(ctx, (HttpRequest)msg);
+      }
+      // Request bodies are of no interest
+    }
+    finally
+    {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  @Override
+  public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause)
+  {
+    ctx.close();
+  }
+
+  private void handle(final ChannelHandlerContext ctx, final HttpRequest request) throws IOException
+  {
+    final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+    if (!request.getDecoderResult().isSuccess())
+    {
+      sendError(ctx, HttpResponseStatus.BAD_REQUEST, "Bad request", false);
+      return;
+    }
+    final boolean head = request.getMethod().equals(HttpMethod.HEAD);
+    if ((!head) && (!request.getMethod().equals(HttpMethod.GET)))
+    {
+      sendError(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED, HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD).getMessage(), keepAlive);
+      return;
+    }
+
+    final HawkVerificationResult result = verify(request);
+    if (!result.isValid())
+    {
+      sendError(ctx, HttpResponseStatus.UNAUTHORIZED, result.getMessage(), keepAlive);
+      return;
+    }
+
+    final File file = resolve(request.getUri());
+    if (file == null)
+    {
+      sendError(ctx, HttpResponseStatus.NOT_FOUND, "Not found", keepAlive);
+      return;
+    }
+    final RandomAccessFile raf;
+    try
+    {
+      raf = new RandomAccessFile(file, "r");
+    }
+    catch (IOException ioe)
+    {
+      sendError(ctx, HttpResponseStatus.NOT_FOUND, "Not found", keepAlive);
+      return;
+    }
+    boolean sent = false;
+    try
+    {
+      sent = sendFile(ctx, request, file, raf, head, keepAlive);
+    }
+    finally
+    {
+      if (!sent)
+      {
+        raf.close();
+      }
+    }
+  }
+
+  // Verify the bewit of a request, using the cache where possible
+  private HawkVerificationResult verify(final HttpRequest request)
+  {
+    final String host = HttpHeaders.getHost(request);
+    final int hostEnd = host == null ? 0 : host.startsWith("[") ? host.indexOf(']') + 1 : host.lastIndexOf(':');
+    if (hostEnd == 0)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, "The host header is missing or invalid");
+    }
+    final String hostName;
+    final int port;
+    if ((hostEnd == -1) || (hostEnd == host.length()))
+    {
+      hostName = host;
+      port = 80;
+    }
+    else
+    {
+      hostName = host.substring(0, hostEnd);
+      try
+      {
+        port = Integer.parseInt(host.substring(hostEnd + 1));
+      }
+      catch (NumberFormatException nfe)
+      {
+        return HawkVerificationResult.of(Reason.INVALID_REQUEST, "The host header is missing or invalid");
+      }
+    }
+
+    final String resource = request.getUri();
+    final String key = hostName + ":" + port + resource;
+    final long now = System.currentTimeMillis() / MILLISECONDS_IN_SECONDS;
+    if (this.cache.isVerified(key, now))
+    {
+      return HawkVerificationResult.OK;
+    }
+    final ImmutableMap<String, String> bewitFields = this.server.parseResourceBewit(resource);
+    final HawkCredentials credentials = bewitFields == null ? null : this.lookup.apply(bewitFields.get("id"));
+    final HawkVerificationResult result = this.server.verify(credentials, resource, hostName, port);
+    if (result.isValid())
+    {
+      this.cache.verified(key, Long.parseLong(bewitFields.get("expiry")));
+    }
+    return result;
+  }
+
+  // Find the file for a request target, or null if there is no such file under the root
+  private File resolve(final String uri) throws IOException
+  {
+    final String path;
+    try
+    {
+      path = new QueryStringDecoder(uri).path();
+    }
+    catch (IllegalArgumentException iae)
+    {
+      return null;
+    }
+    if (path.indexOf('\0') != -1)
+    {
+      return null;
+    }
+    final File file = new File(this.root, path).getCanonicalFile();
+    if ((!file.getPath().startsWith(this.rootPrefix)) || (!file.isFile()))
+    {
+      return null;
+    }
+    return file;
+  }
+
+  // Send all or part of a file, returning true if the file is now owned by the channel
+  private boolean sendFile(final ChannelHandlerContext ctx, final HttpRequest request, final File file, final RandomAccessFile raf, final boolean head, final boolean keepAlive) throws IOException
+  {
+    final long length = raf.length();
+    final long lastModified = file.lastModified() / MILLISECONDS_IN_SECONDS * MILLISECONDS_IN_SECONDS;
+    final String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+    if (notModified(request, etag, lastModified))
+    {
+      final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+      response.headers().set(HttpHeaders.Names.ETAG, etag);
+      HttpHeaders.setDateHeader(response, HttpHeaders.Names.LAST_MODIFIED, new Date(lastModified));
+      finish(ctx.writeAndFlush(response), keepAlive);
+      return false;
+    }
+
+    long start = 0;
+    long end = length - 1;
+    HttpResponseStatus status = HttpResponseStatus.OK;
+    final long[] range = parseRange(request, etag, lastModified, length);
+    if (range != null)
+    {
+      if (range[0] == -1)
+      {
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.headers().set(HttpHeaders.Names.CONTENT_RANGE, "bytes */" + length);
+        HttpHeaders.setContentLength(response, 0);
+        finish(ctx.writeAndFlush(response), keepAlive);
+        return false;
+      }
+      start = range[0];
+      end = range[1];
+      status = HttpResponseStatus.PARTIAL_CONTENT;
+    }
+
+    final HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+    HttpHeaders.setContentLength(response, end - start + 1);
+    final String contentType = URLConnection.guessContentTypeFromName(file.getName());
+    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType == null ? DEFAULT_CONTENT_TYPE : contentType);
+    response.headers().set(HttpHeaders.Names.ACCEPT_RANGES, HttpHeaders.Values.BYTES);
+    response.headers().set(HttpHeaders.Names.ETAG, etag);
+    HttpHeaders.setDateHeader(response, HttpHeaders.Names.LAST_MODIFIED, new Date(lastModified));
+    // Bewit links are for their holder alone
+    response.headers().set(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.PRIVATE);
+    if (status == HttpResponseStatus.PARTIAL_CONTENT)
+    {
+      response.headers().set(HttpHeaders.Names.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+    }
+    HttpHeaders.setKeepAlive(response, keepAlive);
+    ctx.write(response);
+    if ((head) || (length == 0))
+    {
+      finish(ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT), keepAlive);
+      return false;
+    }
+    ctx.write(new DefaultFileRegion(raf.getChannel(), start, end - start + 1));
+    finish(ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT), keepAlive);
+    return true;
+  }
+
+  // Check the conditional headers of a request, with If-None-Match taking precedence
+  private static boolean notModified(final HttpRequest request, final String etag, final long lastModified)
+  {
+    final String ifNoneMatch = request.headers().get(HttpHeaders.Names.IF_NONE_MATCH);
+    if (ifNoneMatch != null)
+    {
+      return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+    }
+    final Date ifModifiedSince = HttpHeaders.getDateHeader(request, HttpHeaders.Names.IF_MODIFIED_SINCE, null);
+    return (ifModifiedSince != null) && (ifModifiedSince.getTime() >= lastModified);
+  }
+
+  /**
+   * Parse the range header of a request.  Only single ranges are supported;
+   * requests for multiple ranges are served in full, as allowed by RFC 7233.
+   * @return the first and last byte of the range, <code>{-1, -1}</code> if
+   *         the range cannot be satisfied, or <code>null</code> to serve the
+   *         whole file
+   */
+  private static long[] parseRange(final HttpRequest request, final String etag, final long lastModified, final long length)
+  {
+    final String header = request.headers().get(HttpHeaders.Names.RANGE);
+    if ((header == null) || (!header.startsWith("bytes=")) || (header.indexOf(',') != -1))
+    {
+      return null;
+    }
+    final String ifRange = request.headers().get(HttpHeaders.Names.IF_RANGE);
+    if (ifRange != null)
+    {
+      final Date ifRangeDate = ifRange.startsWith("\"") ? null : HttpHeaders.getDateHeader(request, HttpHeaders.Names.IF_RANGE, null);
+      if (ifRangeDate == null ? !ifRange.equals(etag) : ifRangeDate.getTime() != lastModified)
+      {
+        // The client's copy is out of date, so it needs all of the file
+        return null;
+      }
+    }
+    final String spec = header.substring(6).trim();
+    final int dash = spec.indexOf('-');
+    if (dash == -1)
+    {
+      return null;
+    }
+    final long start;
+    final long end;
+    try
+    {
+      if (dash == 0)
+      {
+        // Suffix range: the last n bytes
+        final long suffix = Long.parseLong(spec.substring(1));
+        if (suffix == 0)
+        {
+          return new long[] {-1, -1};
+        }
+        start = Math.max(0, length - suffix);
+        end = length - 1;
+      }
+      else
+      {
+        start = Long.parseLong(spec.substring(0, dash));
+        end = dash == spec.length() - 1 ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+      }
+    }
+    catch (NumberFormatException nfe)
+    {
+      return null;
+    }
+    if (start >= length)
+    {
+      return new long[] {-1, -1};
+    }
+    if ((start < 0) || (end < start))
+    {
+      // Syntactically invalid, so ignored
+      return null;
+    }
+    return new long[] {start, end};
+  }
+
+  private void sendError(final ChannelHandlerContext ctx, final HttpResponseStatus status, final String message, final boolean keepAlive)
+  {
+    final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(message, Charsets.UTF_8));
+    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+    if (status == HttpResponseStatus.UNAUTHORIZED)
+    {
+      response.headers().set(HttpHeaders.Names.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader());
+    }
+    else if (status == HttpResponseStatus.METHOD_NOT_ALLOWED)
+    {
+      response.headers().set(HttpHeaders.Names.ALLOW, "GET, HEAD");
+    }
+    HttpHeaders.setContentLength(response, response.content().readableBytes());
+    HttpHeaders.setKeepAlive(response, keepAlive);
+    finish(ctx.writeAndFlush(response), keepAlive);
+  }
+
+  private static void finish(final ChannelFuture future, final boolean keepAlive)
+  {
+    if (!keepAlive)
+    {
+      future.addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+}
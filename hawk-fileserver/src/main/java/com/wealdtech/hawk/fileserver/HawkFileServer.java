@@ -0,0 +1,272 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.fileserver;
+
+import static com.wealdtech.Preconditions.*;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkServer;
+
+/**
+ * A server for time-limited file downloads authorized by Hawk bewits.
+ * <p>
+ * Each <code>GET</code> or <code>HEAD</code> request must carry a valid
+ * bewit; the path of the request, without the query string, names a file
+ * under the root directory.  Single byte ranges, <code>If-Range</code> and
+ * conditional requests with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code> are supported.
+ * <p>
+ * File contents are transferred directly from the file to the socket with
+ * <code>FileChannel.transferTo</code>, never passing through the heap.  Once
+ * a bewit has been verified for a request the result is cached until the
+ * bewit expires, so repeated and resumed downloads with the same link are
+ * not verified again.  Bewits carry no nonce so this does not weaken
+ * verification.
+ * <p>
+ * Credentials are looked up on the I/O threads, so the lookup must not block.
+ */
+public final class HawkFileServer
+{
+  private final InetSocketAddress address;
+  private final File root;
+  private final HawkServer server;
+  private final Function<String, HawkCredentials> lookup;
+  private final BewitCache cache;
+  private final long cacheSize;
+
+  private EventLoopGroup bossGroup;
+  private EventLoopGroup workerGroup;
+  private Channel channel;
+
+  private HawkFileServer(final InetSocketAddress address,
+                         final File root,
+                         final HawkServer server,
+                         final Function<String, HawkCredentials> lookup,
+                         final Long cacheSize)
+  {
+    checkNotNull(address, "Hawk file server requires an address");
+    checkNotNull(root, "Hawk file server requires a root directory");
+    checkArgument(root.isDirectory(), "The root %s is not a directory", root);
+    checkNotNull(lookup, "Hawk file server requires a credentials lookup");
+    this.address = address;
+    try
+    {
+      this.root = root.getCanonicalFile();
+    }
+    catch (IOException ioe)
+    {
+      throw new DataError.Bad("The root " + root + " cannot be resolved", ioe);
+    }
+    this.server = server == null ? new HawkServer.Builder().build() : server;
+    this.lookup = lookup;
+    this.cacheSize = cacheSize == null ? 10000L : cacheSize;
+    checkArgument((this.cacheSize >= 0), "The cache size may not be negative");
+    this.cache = new BewitCache(this.cacheSize);
+  }
+
+  /**
+   * Start the server, returning once it is listening.
+   */
+  public synchronized void start()
+  {
+    checkState(this.channel == null, "Hawk file server is already running");
+    this.bossGroup = new NioEventLoopGroup(1);
+    this.workerGroup = new NioEventLoopGroup();
+    this.channel = new ServerBootstrap().group(this.bossGroup, this.workerGroup)
+                                        .channel(NioServerSocketChannel.class)
+                                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                                        .childHandler(new ChannelInitializer<SocketChannel>()
+                                        {
+                                          @Override
+                                          protected void initChannel(final SocketChannel ch)
+                                          {
+                                            ch.pipeline().addLast(new HttpServerCodec(),
+                                                                  new FileHandler(server, lookup, cache, root));
+                                          }
+                                        })
+                                        .bind(this.address)
+                                        .syncUninterruptibly()
+                                        .channel();
+  }
+
+  /**
+   * Stop the server, closing all connections.
+   */
+  public synchronized void stop()
+  {
+    if (this.channel == null)
+    {
+      return;
+    }
+    this.channel.close().syncUninterruptibly();
+    this.bossGroup.shutdownGracefully().syncUninterruptibly();
+    this.workerGroup.shutdownGracefully().syncUninterruptibly();
+    this.channel = null;
+  }
+
+  /**
+   * Obtain the address on which the server listens.
+   * @return the address, or <code>null</code> if the server is not running
+   */
+  public synchronized InetSocketAddress getAddress()
+  {
+    return this.channel == null ? null : (InetSocketAddress)this.channel.localAddress();
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("address", this.address)
+                  .add("root", this.root)
+                  .add("server", this.server)
+                  .add("cacheSize", this.cacheSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private InetSocketAddress address;
+    private File root;
+    private HawkServer server;
+    private Function<String, HawkCredentials> lookup;
+    private Long cacheSize;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the address on which to listen.
+     * @param address the address
+     * @return The builder
+     */
+    public Builder address(final InetSocketAddress address)
+    {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Set the port on which to listen, on all interfaces.
+     * @param port the port
+     * @return The builder
+     */
+    public Builder port(final int port)
+    {
+      this.address = new InetSocketAddress(port);
+      return this;
+    }
+
+    /**
+     * Set the directory from which files are served.
+     * @param root the root directory
+     * @return The builder
+     */
+    public Builder root(final File root)
+    {
+      this.root = root;
+      return this;
+    }
+
+    /**
+     * Override the Hawk server that verifies bewits.  Defaults to a server
+     * with the default configuration.
+     * @param server the Hawk server
+     * @return The builder
+     */
+    public Builder server(final HawkServer server)
+    {
+      this.server = server;
+      return this;
+    }
+
+    /**
+     * Set the function to look up credentials by key ID.
+     * @param lookup the function, which returns <code>null</code> if there are no credentials for a key ID
+     * @return The builder
+     */
+    public Builder credentials(final Function<String, HawkCredentials> lookup)
+    {
+      this.lookup = lookup;
+      return this;
+    }
+
+    /**
+     * Set the index from which to look up credentials.
+     * @param index the credentials index
+     * @return The builder
+     */
+    public Builder credentials(final HawkCredentialsIndex index)
+    {
+      checkNotNull(index, "The credentials index is required");
+      this.lookup = new Function<String, HawkCredentials>()
+      {
+        @Override
+        public HawkCredentials apply(final String keyId)
+        {
+          return index.get(keyId);
+        }
+      };
+      return this;
+    }
+
+    /**
+     * Override the maximum number of verified bewits to hold in cache.  Defaults to <code>10000</code>.
+     * @param cacheSize the maximum number of verified bewits to hold in cache
+     * @return The builder
+     */
+    public Builder cacheSize(final Long cacheSize)
+    {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * Build the server.
+     * @return a new server, not yet started
+     * @throws DataError if the data provided is invalid for a server
+     */
+    public HawkFileServer build()
+    {
+      return new HawkFileServer(this.address, this.root, this.server, this.lookup, this.cacheSize);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.fileserver;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.fileserver.HawkFileServer;
+
+public class HawkFileServerTest
+{
+  private static final String BASEURI = "http://localhost:18243";
+  private static final String CONTENTS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private File root;
+  private HawkFileServer server;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    this.root = Files.createTempDirectory("hawkfiles").toFile();
+    final File downloads = new File(this.root, "downloads");
+    assertTrue(downloads.mkdir());
+    Files.write(new File(downloads, "file.txt").toPath(), CONTENTS.getBytes(Charsets.UTF_8));
+
+    this.server = new HawkFileServer.Builder()
+                                    .address(new InetSocketAddress("localhost", 18243))
+                                    .root(this.root)
+                                    .credentials(new HawkCredentialsIndex.Builder().add(this.goodCredentials).build())
+                                    .build();
+    this.server.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.server.stop();
+  }
+
+  // Helper
+  private HttpURLConnection get(final HawkCredentials credentials, final String path) throws Exception
+  {
+    final String bewit = Hawk.generateBewit(credentials, new URI(BASEURI + path), 60L, null);
+    final HttpURLConnection connection = (HttpURLConnection)new URI(BASEURI + path + "?bewit=" + bewit).toURL().openConnection();
+    connection.setUseCaches(false);
+    return connection;
+  }
+
+  private static String read(final HttpURLConnection connection) throws Exception
+  {
+    try (final InputStream in = connection.getInputStream())
+    {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testDownload() throws Exception
+  {
+    final HttpURLConnection connection = get(this.goodCredentials, "/downloads/file.txt");
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(connection.getHeaderField("Accept-Ranges"), "bytes");
+    assertEquals(connection.getContentLengthLong(), CONTENTS.length());
+    assertEquals(read(connection), CONTENTS);
+
+    // The same link again is served from the verification cache
+    final URI uri = connection.getURL().toURI();
+    for (int i = 0; i < 3; i++)
+    {
+      final HttpURLConnection again = (HttpURLConnection)uri.toURL().openConnection();
+      assertEquals(again.getResponseCode(), 200);
+      assertEquals(read(again), CONTENTS);
+    }
+  }
+
+  @Test
+  public void testRanges() throws Exception
+  {
+    HttpURLConnection connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("Range", "bytes=10-15");
+    assertEquals(connection.getResponseCode(), 206);
+    assertEquals(connection.getHeaderField("Content-Range"), "bytes 10-15/36");
+    assertEquals(read(connection), "abcdef");
+
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("Range", "bytes=-4");
+    assertEquals(connection.getResponseCode(), 206);
+    assertEquals(read(connection), "wxyz");
+
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("Range", "bytes=30-");
+    assertEquals(connection.getResponseCode(), 206);
+    assertEquals(read(connection), "uvwxyz");
+
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("Range", "bytes=100-200");
+    assertEquals(connection.getResponseCode(), 416);
+    assertEquals(connection.getHeaderField("Content-Range"), "bytes */36");
+
+    // A stale If-Range gets the whole file
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("Range", "bytes=10-15");
+    connection.setRequestProperty("If-Range", "\"stale\"");
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), CONTENTS);
+  }
+
+  @Test
+  public void testConditional() throws Exception
+  {
+    final HttpURLConnection first = get(this.goodCredentials, "/downloads/file.txt");
+    assertEquals(first.getResponseCode(), 200);
+    final String etag = first.getHeaderField("ETag");
+    final String lastModified = first.getHeaderField("Last-Modified");
+    assertNotNull(etag);
+    assertNotNull(lastModified);
+    read(first);
+
+    HttpURLConnection connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("If-None-Match", etag);
+    assertEquals(connection.getResponseCode(), 304);
+
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("If-Modified-Since", lastModified);
+    assertEquals(connection.getResponseCode(), 304);
+
+    connection = get(this.goodCredentials, "/downloads/file.txt");
+    connection.setRequestProperty("If-None-Match", "\"other\"");
+    assertEquals(connection.getResponseCode(), 200);
+    read(connection);
+  }
+
+  @Test
+  public void testUnauthorized() throws Exception
+  {
+    assertEquals(get(this.badCredentials, "/downloads/file.txt").getResponseCode(), 401);
+
+    final HttpURLConnection noBewit = (HttpURLConnection)new URI(BASEURI + "/downloads/file.txt").toURL().openConnection();
+    assertEquals(noBewit.getResponseCode(), 401);
+
+    // A bewit for one file does not grant access to another
+    final String bewit = Hawk.generateBewit(this.goodCredentials, new URI(BASEURI + "/downloads/other.txt"), 60L, null);
+    final HttpURLConnection moved = (HttpURLConnection)new URI(BASEURI + "/downloads/file.txt?bewit=" + bewit).toURL().openConnection();
+    assertEquals(moved.getResponseCode(), 401);
+
+    final HttpURLConnection post = get(this.goodCredentials, "/downloads/file.txt");
+    post.setRequestMethod("POST");
+    post.setDoOutput(true);
+    post.getOutputStream().close();
+    assertEquals(post.getResponseCode(), 405);
+  }
+
+  @Test
+  public void testNotFound() throws Exception
+  {
+    assertEquals(get(this.goodCredentials, "/downloads/missing.txt").getResponseCode(), 404);
+    assertEquals(get(this.goodCredentials, "/downloads").getResponseCode(), 404);
+    // Escaping the root is not possible
+    assertEquals(get(this.goodCredentials, "/downloads/%2e%2e/%2e%2e/etc/passwd").getResponseCode(), 404);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of idle connections to the backend.
+ * <p>
+ * Connections are pooled per event loop, and a frontend connection only
+ * uses backend connections on its own event loop, so data passes between
+ * the two without changing threads and each pool is only ever accessed
+ * from a single thread.
+ */
+class BackendPool
+{
+  private final Bootstrap bootstrap;
+  private final InetSocketAddress backend;
+  private final int maxIdle;
+  private final ConcurrentMap<EventLoop, ArrayDeque<Channel>> idle = new ConcurrentHashMap<>();
+
+  BackendPool(final Bootstrap bootstrap, final InetSocketAddress backend, final int maxIdle)
+  {
+    this.bootstrap = bootstrap;
+    this.backend = backend;
+    this.maxIdle = maxIdle;
+  }
+
+  /**
+   * Obtain a connection to the backend, reusing an idle connection if there
+   * is one.  Must be called from the event loop.
+   * @param eventLoop the event loop of the frontend connection
+   * @return a future for the connection
+   */
+  ChannelFuture acquire(final EventLoop eventLoop)
+  {
+    final ArrayDeque<Channel> channels = idleChannels(eventLoop);
+    Channel channel;
+    while ((channel = channels.pollFirst()) != null)
+    {
+      if (channel.isActive())
+      {
+        return channel.newSucceededFuture();
+      }
+    }
+    final ChannelFuture connect = this.bootstrap.clone().group(eventLoop).connect(this.backend);
+    connect.addListener(new ChannelFutureListener()
+    {
+      @Override
+      public void operationComplete(final ChannelFuture future)
+      {
+        if (future.isSuccess())
+        {
+          watch(future.channel());
+        }
+      }
+    });
+    return connect;
+  }
+
+  /**
+   * Return a connection to the pool once it has finished with a request and
+   * response.  Must be called from the event loop.
+   * @param channel the connection
+   */
+  void release(final Channel channel)
+  {
+    final ArrayDeque<Channel> channels = idleChannels(channel.eventLoop());
+    if ((!channel.isActive()) || (channels.size() >= this.maxIdle))
+    {
+      channel.close();
+      return;
+    }
+    channels.offerFirst(channel);
+  }
+
+  private ArrayDeque<Channel> idleChannels(final EventLoop eventLoop)
+  {
+    final ArrayDeque<Channel> channels = this.idle.get(eventLoop);
+    if (channels != null)
+    {
+      return channels;
+    }
+    this.idle.putIfAbsent(eventLoop, new ArrayDeque<Channel>());
+    return this.idle.get(eventLoop);
+  }
+
+  // Watch a new connection so that it is removed from the pool if it is closed by the backend while idle
+  private void watch(final Channel channel)
+  {
+    channel.closeFuture().addListener(new ChannelFutureListener()
+    {
+      @Override
+      public void operationComplete(final ChannelFuture future)
+      {
+        idleChannels(channel.eventLoop()).remove(channel);
+      }
+    });
+  }
+}
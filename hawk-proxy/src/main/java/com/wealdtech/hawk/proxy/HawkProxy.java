@@ -0,0 +1,312 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import static com.wealdtech.Preconditions.*;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+import java.net.InetSocketAddress;
+
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.netty.HawkNettyHandler;
+import com.wealdtech.hawk.netty.HawkPrincipalProvider;
+
+/**
+ * A reverse proxy that authenticates requests with Hawk before passing them
+ * on to a backend that knows nothing of Hawk.
+ * <p>
+ * Requests are authenticated with either an authorization header or a bewit,
+ * and the name of the authenticated principal is passed to the backend in a
+ * header, by default {@link #DEFAULT_PRINCIPAL_HEADER}.  Any value for that
+ * header supplied by the client is removed.  Unauthenticated requests are
+ * rejected with a <code>401</code> and never reach the backend.
+ * <p>
+ * Payloads are streamed to the backend as they arrive and hashed in flight;
+ * if a payload does not match its hash then both the client and backend
+ * connections are closed before the end of the request is sent, so the
+ * backend never receives a complete tampered request.
+ * <p>
+ * Clients may pipeline requests; each request is passed on only once the
+ * response to the previous request on the same connection has been written,
+ * so responses are returned in order and a backend connection is never
+ * shared between requests.
+ * <p>
+ * The proxy uses non-blocking I/O with pooled buffers.  Backend connections
+ * are kept alive and reused between requests, and each is tied to the same
+ * event loop as the client connections that use it.
+ */
+public final class HawkProxy
+{
+  public static final String DEFAULT_PRINCIPAL_HEADER = "X-Hawk-Principal";
+
+  private final InetSocketAddress address;
+  private final InetSocketAddress backend;
+  private final HawkServer server;
+  private final HawkPrincipalProvider<? extends HawkPrincipal> provider;
+  private final String principalHeader;
+  private final int workerThreads;
+  private final int maxIdleConnections;
+
+  private EventLoopGroup bossGroup;
+  private EventLoopGroup workerGroup;
+  private Channel channel;
+
+  private HawkProxy(final InetSocketAddress address,
+                    final InetSocketAddress backend,
+                    final HawkServer server,
+                    final HawkPrincipalProvider<? extends HawkPrincipal> provider,
+                    final String principalHeader,
+                    final Integer workerThreads,
+                    final Integer maxIdleConnections)
+  {
+    checkNotNull(address, "Hawk proxy requires an address");
+    checkNotNull(backend, "Hawk proxy requires a backend");
+    checkNotNull(provider, "Hawk proxy requires a principal provider");
+    this.address = address;
+    this.backend = backend;
+    this.server = server == null ? new HawkServer.Builder().build() : server;
+    this.provider = provider;
+    this.principalHeader = principalHeader == null ? DEFAULT_PRINCIPAL_HEADER : principalHeader;
+    this.workerThreads = workerThreads == null ? 0 : workerThreads;
+    checkArgument((this.workerThreads >= 0), "The number of worker threads may not be negative");
+    this.maxIdleConnections = maxIdleConnections == null ? 64 : maxIdleConnections;
+    checkArgument((this.maxIdleConnections >= 0), "The maximum number of idle connections may not be negative");
+  }
+
+  /**
+   * Start the proxy, returning once it is listening.
+   */
+  public synchronized void start()
+  {
+    checkState(this.channel == null, "Hawk proxy is already running");
+    this.bossGroup = new NioEventLoopGroup(1);
+    // Zero threads selects Netty's default of twice the number of processors
+    this.workerGroup = new NioEventLoopGroup(this.workerThreads);
+
+    final Bootstrap backendBootstrap = new Bootstrap().channel(NioSocketChannel.class)
+                                                      .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                                                      .option(ChannelOption.TCP_NODELAY, true)
+                                                      .handler(new ChannelInitializer<SocketChannel>()
+                                                      {
+                                                        @Override
+                                                        protected void initChannel(final SocketChannel ch)
+                                                        {
+                                                          ch.pipeline().addLast(new HttpClientCodec(), new ProxyBackendHandler());
+                                                        }
+                                                      });
+    final BackendPool pool = new BackendPool(backendBootstrap, this.backend, this.maxIdleConnections);
+
+    this.channel = new ServerBootstrap().group(this.bossGroup, this.workerGroup)
+                                        .channel(NioServerSocketChannel.class)
+                                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                                        .childOption(ChannelOption.TCP_NODELAY, true)
+                                        .childHandler(new ChannelInitializer<SocketChannel>()
+                                        {
+                                          @Override
+                                          protected void initChannel(final SocketChannel ch)
+                                          {
+                                            ch.pipeline().addLast(new HttpServerCodec(),
+                                                                  new ProxyPipeliningHandler(),
+                                                                  newHawkHandler(server, provider),
+                                                                  new ProxyFrontendHandler(pool, principalHeader));
+                                          }
+                                        })
+                                        .bind(this.address)
+                                        .syncUninterruptibly()
+                                        .channel();
+  }
+
+  /**
+   * Stop the proxy, closing all connections.
+   */
+  public synchronized void stop()
+  {
+    if (this.channel == null)
+    {
+      return;
+    }
+    this.channel.close().syncUninterruptibly();
+    this.bossGroup.shutdownGracefully().syncUninterruptibly();
+    this.workerGroup.shutdownGracefully().syncUninterruptibly();
+    this.channel = null;
+  }
+
+  /**
+   * Obtain the address on which the proxy listens.
+   * @return the address, or <code>null</code> if the proxy is not running
+   */
+  public synchronized InetSocketAddress getAddress()
+  {
+    return this.channel == null ? null : (InetSocketAddress)this.channel.localAddress();
+  }
+
+  // Capture the type of the principal for the handler
+  private static <T extends HawkPrincipal> HawkNettyHandler<T> newHawkHandler(final HawkServer server, final HawkPrincipalProvider<T> provider)
+  {
+    return new HawkNettyHandler<>(server, provider);
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("address", this.address)
+                  .add("backend", this.backend)
+                  .add("server", this.server)
+                  .add("principalHeader", this.principalHeader)
+                  .add("workerThreads", this.workerThreads)
+                  .add("maxIdleConnections", this.maxIdleConnections)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private InetSocketAddress address;
+    private InetSocketAddress backend;
+    private HawkServer server;
+    private HawkPrincipalProvider<? extends HawkPrincipal> provider;
+    private String principalHeader;
+    private Integer workerThreads;
+    private Integer maxIdleConnections;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the address on which to listen.
+     * @param address the address
+     * @return The builder
+     */
+    public Builder address(final InetSocketAddress address)
+    {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Set the port on which to listen, on all addresses.
+     * @param port the port
+     * @return The builder
+     */
+    public Builder port(final int port)
+    {
+      this.address = new InetSocketAddress(port);
+      return this;
+    }
+
+    /**
+     * Set the address of the backend to which to pass authenticated requests.
+     * @param backend the address of the backend
+     * @return The builder
+     */
+    public Builder backend(final InetSocketAddress backend)
+    {
+      this.backend = backend;
+      return this;
+    }
+
+    /**
+     * Override the Hawk server that authenticates requests.  Defaults to a
+     * server with the default configuration.
+     * @param server the Hawk server
+     * @return The builder
+     */
+    public Builder server(final HawkServer server)
+    {
+      this.server = server;
+      return this;
+    }
+
+    /**
+     * Set the provider for principals.
+     * @param provider the provider
+     * @return The builder
+     */
+    public Builder provider(final HawkPrincipalProvider<? extends HawkPrincipal> provider)
+    {
+      this.provider = provider;
+      return this;
+    }
+
+    /**
+     * Override the header in which the name of the principal is passed to
+     * the backend.  Defaults to {@link HawkProxy#DEFAULT_PRINCIPAL_HEADER}.
+     * @param principalHeader the name of the header
+     * @return The builder
+     */
+    public Builder principalHeader(final String principalHeader)
+    {
+      this.principalHeader = principalHeader;
+      return this;
+    }
+
+    /**
+     * Override the number of worker threads.  Defaults to twice the number of
+     * processors.
+     * @param workerThreads the number of worker threads
+     * @return The builder
+     */
+    public Builder workerThreads(final Integer workerThreads)
+    {
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /**
+     * Override the maximum number of idle backend connections kept per worker
+     * thread.  Defaults to <code>64</code>.
+     * @param maxIdleConnections the maximum number of idle backend connections
+     * @return The builder
+     */
+    public Builder maxIdleConnections(final Integer maxIdleConnections)
+    {
+      this.maxIdleConnections = maxIdleConnections;
+      return this;
+    }
+
+    /**
+     * Build the proxy.
+     * @return a new proxy, not yet started
+     * @throws DataError if the data provided is invalid for a proxy
+     */
+    public HawkProxy build()
+    {
+      return new HawkProxy(this.address, this.backend, this.server, this.provider, this.principalHeader, this.workerThreads, this.maxIdleConnections);
+    }
+  }
+}
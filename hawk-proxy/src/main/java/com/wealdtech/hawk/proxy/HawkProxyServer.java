@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.netty.HawkPrincipalProvider;
+
+/**
+ * Command-line tool to run a Hawk reverse proxy, with credentials from a
+ * credentials index snapshot.  The principal passed to the backend is the
+ * key ID of the credentials.
+ * <p>
+ * Usage: <code>HawkProxyServer --index &lt;snapshot&gt; --port &lt;port&gt;
+ * --backend &lt;host:port&gt; [--header &lt;name&gt;]</code>
+ * <p>
+ * The exit status is <code>2</code> if the proxy could not start.
+ */
+public final class HawkProxyServer
+{
+  private static final String USAGE = "Usage: HawkProxyServer --index <snapshot> --port <port> --backend <host:port> [--header <name>]";
+
+  private HawkProxyServer()
+  {
+  }
+
+  public static void main(final String[] args)
+  {
+    final HawkProxy proxy = create(args, System.err);
+    if (proxy == null)
+    {
+      System.exit(2);
+    }
+    proxy.start();
+    Runtime.getRuntime().addShutdownHook(new Thread()
+    {
+      @Override
+      public void run()
+      {
+        proxy.stop();
+      }
+    });
+  }
+
+  /**
+   * Create a proxy from command-line arguments.
+   * @param args the command-line arguments
+   * @param errors the stream to which to write any errors
+   * @return the proxy, not yet started, or <code>null</code> if the arguments are invalid
+   */
+  public static HawkProxy create(final String[] args, final PrintStream errors)
+  {
+    File index = null;
+    Integer port = null;
+    HostAndPort backend = null;
+    String header = null;
+    try
+    {
+      for (int i = 0; i < args.length; i++)
+      {
+        switch (args[i])
+        {
+          case "--index":
+            index = new File(args[++i]);
+            break;
+          case "--port":
+            port = Integer.valueOf(args[++i]);
+            break;
+          case "--backend":
+            backend = HostAndPort.fromString(args[++i]);
+            break;
+          case "--header":
+            header = args[++i];
+            break;
+          default:
+            errors.println(USAGE);
+            return null;
+        }
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e)
+    {
+      errors.println(USAGE);
+      return null;
+    }
+    if ((index == null) || (port == null) || (backend == null) || (!backend.hasPort()))
+    {
+      errors.println(USAGE);
+      return null;
+    }
+
+    try
+    {
+      final HawkCredentialsIndex credentials = HawkCredentialsIndex.map(index);
+      return new HawkProxy.Builder()
+                          .port(port)
+                          .backend(new InetSocketAddress(backend.getHostText(), backend.getPort()))
+                          .provider(new IndexPrincipalProvider(credentials))
+                          .principalHeader(header)
+                          .build();
+    }
+    catch (DataError | ServerError e)
+    {
+      errors.println("Proxy failed: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * A principal identified by the key ID of its credentials.
+   */
+  private static class KeyIdPrincipal implements HawkPrincipal
+  {
+    private final HawkCredentials credentials;
+
+    KeyIdPrincipal(final HawkCredentials credentials)
+    {
+      this.credentials = credentials;
+    }
+
+    @Override
+    public String getName()
+    {
+      return this.credentials.getKeyId();
+    }
+
+    @Override
+    public HawkCredentials getHawkCredentials(final String keyId)
+    {
+      return this.credentials.getKeyId().equals(keyId) ? this.credentials : null;
+    }
+  }
+
+  /**
+   * A provider of principals from a credentials index.
+   */
+  private static class IndexPrincipalProvider implements HawkPrincipalProvider<KeyIdPrincipal>
+  {
+    private final HawkCredentialsIndex index;
+
+    IndexPrincipalProvider(final HawkCredentialsIndex index)
+    {
+      this.index = index;
+    }
+
+    @Override
+    public Optional<KeyIdPrincipal> getFromKey(final String keyId)
+    {
+      final HawkCredentials credentials = this.index.get(keyId);
+      return credentials == null ? Optional.<KeyIdPrincipal>absent() : Optional.of(new KeyIdPrincipal(credentials));
+    }
+  }
+}
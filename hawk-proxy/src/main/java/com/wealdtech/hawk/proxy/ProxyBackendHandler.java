@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Handler for connections to the backend, which passes responses back to
+ * the client connection whose request is currently being served.
+ */
+class ProxyBackendHandler extends ChannelInboundHandlerAdapter
+{
+  private ProxyFrontendHandler frontend;
+  private boolean backendKeepAlive;
+
+  /**
+   * Bind the connection to a client connection, or unbind it if the
+   * connection is being returned to the pool.
+   * @param frontend the handler for the client connection, or <code>null</code>
+   */
+  void bind(final ProxyFrontendHandler frontend)
+  {
+    this.frontend = frontend;
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+  {
+    if (this.frontend == null)
+    {
+      // Nothing should arrive on an idle connection
+      ReferenceCountUtil.release(msg);
+      ctx.close();
+      return;
+    }
+    final ProxyFrontendHandler handler = this.frontend;
+    if (msg instanceof HttpResponse)
+    {
+      final HttpResponse response = (HttpResponse)msg;
+      this.backendKeepAlive = HttpHeaders.isKeepAlive(response);
+      HttpHeaders.setKeepAlive(response, handler.isKeepAlive());
+    }
+    final ChannelFuture write = handler.getFrontend().writeAndFlush(msg);
+    if (msg instanceof LastHttpContent)
+    {
+      handler.responseComplete(this.backendKeepAlive, write);
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception
+  {
+    // Stop reading the client's request while the backend is not keeping up
+    if (this.frontend != null)
+    {
+      this.frontend.getFrontend().config().setAutoRead(ctx.channel().isWritable());
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception
+  {
+    if (this.frontend != null)
+    {
+      // The backend went away part-way through a request or response
+      this.frontend.getFrontend().close();
+      this.frontend = null;
+    }
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause)
+  {
+    ctx.close();
+  }
+}
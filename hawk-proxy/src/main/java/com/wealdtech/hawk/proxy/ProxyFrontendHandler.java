@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.netty.HawkNettyHandler;
+
+/**
+ * Handler for connections from clients, which passes authenticated requests
+ * on to the backend as they arrive.
+ * <p>
+ * Each request is sent over a backend connection obtained from the pool, and
+ * the connection is returned to the pool once both the request and the
+ * response are complete.  If the client connection closes part-way through a
+ * request, for example because its payload did not match its hash, then the
+ * backend connection is closed rather than reused so the backend never
+ * receives a complete request.
+ * <p>
+ * Requests arrive one at a time, as pipelined requests are held by
+ * {@link ProxyPipeliningHandler} until the response to the previous request
+ * has been written.
+ */
+class ProxyFrontendHandler extends ChannelInboundHandlerAdapter
+{
+  private final BackendPool pool;
+  private final String principalHeader;
+
+  private Channel frontend;
+  private Channel backend;
+  private boolean connecting;
+  private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+  // State of the current request
+  private boolean keepAlive;
+  private boolean requestComplete;
+  private boolean discarding;
+
+  ProxyFrontendHandler(final BackendPool pool, final String principalHeader)
+  {
+    this.pool = pool;
+    this.principalHeader = principalHeader;
+  }
+
+  @Override
+  public void channelActive(final ChannelHandlerContext ctx) throws Exception
+  {
+    this.frontend = ctx.channel();
+    super.channelActive(ctx);
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+  {
+    if ((this.discarding) && (!(msg instanceof HttpRequest)))
+    {
+      // The backend responded before the request was complete; the remainder is not needed
+      this.discarding = !(msg instanceof LastHttpContent);
+      ReferenceCountUtil.release(msg);
+      return;
+    }
+    this.discarding = false;
+    if (msg instanceof HttpRequest)
+    {
+      final HttpRequest request = (HttpRequest)msg;
+      this.keepAlive = HttpHeaders.isKeepAlive(request);
+      this.requestComplete = false;
+
+      // Clients must not be able to supply their own principal
+      final HawkPrincipal principal = ctx.channel().attr(HawkNettyHandler.PRINCIPAL).get();
+      request.headers().remove(this.principalHeader);
+      if (principal != null)
+      {
+        request.headers().set(this.principalHeader, principal.getName());
+      }
+      // The backend connection is kept regardless of the client connection
+      HttpHeaders.setKeepAlive(request, true);
+    }
+    if (msg instanceof LastHttpContent)
+    {
+      this.requestComplete = true;
+    }
+
+    if ((this.backend != null) && (!this.connecting))
+    {
+      this.backend.writeAndFlush(msg).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+      return;
+    }
+    this.pending.add(msg);
+    if (!this.connecting)
+    {
+      connect(ctx);
+    }
+  }
+
+  // Obtain a backend connection and send any pending messages over it
+  private void connect(final ChannelHandlerContext ctx)
+  {
+    this.connecting = true;
+    // Hold further reads until the connection is available
+    ctx.channel().config().setAutoRead(false);
+    this.pool.acquire(ctx.channel().eventLoop()).addListener(new ChannelFutureListener()
+    {
+      @Override
+      public void operationComplete(final ChannelFuture future)
+      {
+        connecting = false;
+        if (!future.isSuccess())
+        {
+          releasePending();
+          final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY, Unpooled.EMPTY_BUFFER);
+          HttpHeaders.setContentLength(response, 0);
+          ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+          return;
+        }
+        if (!ctx.channel().isActive())
+        {
+          // The client went away while connecting
+          releasePending();
+          future.channel().close();
+          return;
+        }
+        backend = future.channel();
+        backend.pipeline().get(ProxyBackendHandler.class).bind(ProxyFrontendHandler.this);
+        Object msg;
+        while ((msg = pending.poll()) != null)
+        {
+          backend.write(msg).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+        backend.flush();
+        ctx.channel().config().setAutoRead(backend.isWritable());
+      }
+    });
+  }
+
+  /**
+   * Called by the backend handler once the response is complete.
+   * @param backendKeepAlive <code>true</code> if the backend will keep the connection open
+   * @param lastWrite the write of the last part of the response to the client
+   */
+  void responseComplete(final boolean backendKeepAlive, final ChannelFuture lastWrite)
+  {
+    final Channel channel = this.backend;
+    this.backend = null;
+    channel.pipeline().get(ProxyBackendHandler.class).bind(null);
+    if ((backendKeepAlive) && (this.requestComplete))
+    {
+      this.pool.release(channel);
+    }
+    else
+    {
+      channel.close();
+      this.discarding = !this.requestComplete;
+    }
+    if (!this.keepAlive)
+    {
+      lastWrite.addListener(ChannelFutureListener.CLOSE);
+    }
+    else
+    {
+      this.frontend.config().setAutoRead(true);
+    }
+  }
+
+  /**
+   * Obtain the client connection.
+   * @return the client connection
+   */
+  Channel getFrontend()
+  {
+    return this.frontend;
+  }
+
+  /**
+   * Obtain the keep-alive state of the current request.
+   * @return <code>true</code> if the client connection is to be kept open after this request
+   */
+  boolean isKeepAlive()
+  {
+    return this.keepAlive;
+  }
+
+  @Override
+  public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception
+  {
+    // Stop reading the backend's response while the client is not keeping up
+    if (this.backend != null)
+    {
+      this.backend.config().setAutoRead(ctx.channel().isWritable());
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception
+  {
+    releasePending();
+    if (this.backend != null)
+    {
+      // The backend connection is part-way through a request so cannot be reused
+      this.backend.pipeline().get(ProxyBackendHandler.class).bind(null);
+      this.backend.close();
+      this.backend = null;
+    }
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause)
+  {
+    ctx.close();
+  }
+
+  private void releasePending()
+  {
+    Object msg;
+    while ((msg = this.pending.poll()) != null)
+    {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.proxy;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * Handler for client connections that passes on pipelined requests one at a
+ * time.
+ * <p>
+ * The handler sits directly after the HTTP codec.  Once a complete request
+ * has been passed on, reading from the client stops and any further requests
+ * already decoded are held until the response to that request has been
+ * written, so later handlers never see a request while the response to an
+ * earlier one is in flight.  This applies equally to responses from the
+ * backend and to rejections written by the authentication handler, so
+ * responses are always written in the order that the requests arrived.
+ * Requests following one that does not keep the connection alive are
+ * discarded.
+ */
+class ProxyPipeliningHandler extends ChannelDuplexHandler
+{
+  private final ArrayDeque<Object> held = new ArrayDeque<>();
+
+  // Number of requests passed on whose responses have not been written
+  private int outstanding;
+  // True if a complete request is awaiting its response
+  private boolean holding;
+  // State of the request being passed on
+  private boolean keepAlive = true;
+  private boolean closing;
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+  {
+    if ((this.holding) || (!this.held.isEmpty()))
+    {
+      this.held.add(msg);
+      ctx.channel().config().setAutoRead(false);
+      return;
+    }
+    pass(ctx, msg);
+  }
+
+  // Pass a message on to the following handlers
+  private void pass(final ChannelHandlerContext ctx, final Object msg)
+  {
+    if (this.closing)
+    {
+      // The connection closes once the current response has been written
+      ReferenceCountUtil.release(msg);
+      return;
+    }
+    if (msg instanceof HttpRequest)
+    {
+      // Obtained before passing the request on, as later handlers change its headers
+      this.keepAlive = HttpHeaders.isKeepAlive((HttpRequest)msg);
+      this.outstanding++;
+    }
+    final boolean last = msg instanceof LastHttpContent;
+    ctx.fireChannelRead(msg);
+    if (last)
+    {
+      if (!this.keepAlive)
+      {
+        this.closing = true;
+      }
+      else if (this.outstanding > 0)
+      {
+        this.holding = true;
+        ctx.channel().config().setAutoRead(false);
+      }
+    }
+  }
+
+  @Override
+  public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) throws Exception
+  {
+    final boolean last = msg instanceof LastHttpContent;
+    ctx.write(msg, promise);
+    if ((last) && (this.outstanding > 0))
+    {
+      this.outstanding--;
+      if ((this.outstanding == 0) && (this.holding))
+      {
+        this.holding = false;
+        // Released after the handler writing the response has finished with
+        // the request, for example returning its backend connection to the pool
+        ctx.executor().execute(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            release(ctx);
+          }
+        });
+      }
+    }
+  }
+
+  // Pass on held requests until one is awaiting its response, then resume reading
+  private void release(final ChannelHandlerContext ctx)
+  {
+    if (!ctx.channel().isActive())
+    {
+      discardHeld();
+      return;
+    }
+    boolean passed = false;
+    Object msg;
+    while ((!this.holding) && ((msg = this.held.poll()) != null))
+    {
+      pass(ctx, msg);
+      passed = true;
+    }
+    if (passed)
+    {
+      ctx.fireChannelReadComplete();
+    }
+    if ((!this.holding) && (this.held.isEmpty()))
+    {
+      ctx.channel().config().setAutoRead(true);
+    }
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception
+  {
+    discardHeld();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception
+  {
+    discardHeld();
+    super.handlerRemoved(ctx);
+  }
+
+  private void discardHeld()
+  {
+    Object msg;
+    while ((msg = this.held.poll()) != null)
+    {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.proxy;
+
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.netty.HawkPrincipalProvider;
+import com.wealdtech.hawk.proxy.HawkProxy;
+
+public class HawkProxyTest
+{
+  private static final String BASEURI = "http://localhost:18240/";
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private HttpServer backend;
+  private HawkProxy proxy;
+  private final Set<Integer> backendPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+  private final CopyOnWriteArrayList<String> backendBodies = new CopyOnWriteArrayList<>();
+
+  /**
+   * Stand-in backend greeting the principal passed by the proxy, along with
+   * the body if there is one.
+   */
+  private class BackendHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      backendPorts.add(exchange.getRemoteAddress().getPort());
+      String response = "Hello " + exchange.getRequestHeaders().getFirst(HawkProxy.DEFAULT_PRINCIPAL_HEADER);
+      try (final InputStream in = exchange.getRequestBody())
+      {
+        final byte[] body = ByteStreams.toByteArray(in);
+        if (body.length > 0)
+        {
+          final String text = new String(body, Charsets.UTF_8);
+          backendBodies.add(text);
+          if (text.startsWith("slow"))
+          {
+            // Keep the response in flight while later requests arrive
+            try
+            {
+              Thread.sleep(200L);
+            }
+            catch (InterruptedException ie)
+            {
+              Thread.currentThread().interrupt();
+            }
+          }
+          response = response + ": " + text;
+        }
+      }
+      final byte[] bytes = response.getBytes(Charsets.UTF_8);
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (final OutputStream out = exchange.getResponseBody())
+      {
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * A simple example user class for testing Hawk.
+   */
+  private static class ExampleUser implements HawkPrincipal
+  {
+    private final HawkCredentials hawkCredentials;
+
+    ExampleUser(final HawkCredentials hawkCredentials)
+    {
+      this.hawkCredentials = hawkCredentials;
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Steve";
+    }
+
+    @Override
+    public HawkCredentials getHawkCredentials(final String keyId)
+    {
+      return this.hawkCredentials.getKeyId().equals(keyId) ? this.hawkCredentials : null;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    final ExampleUser user = new ExampleUser(this.goodCredentials);
+    final HawkPrincipalProvider<ExampleUser> provider = new HawkPrincipalProvider<ExampleUser>()
+    {
+      @Override
+      public Optional<ExampleUser> getFromKey(final String keyId)
+      {
+        return user.getHawkCredentials(keyId) == null ? Optional.<ExampleUser>absent() : Optional.of(user);
+      }
+    };
+
+    this.backend = HttpServer.create(new InetSocketAddress("localhost", 18241), 0);
+    this.backend.createContext("/", new BackendHandler());
+    this.backend.start();
+
+    this.proxy = new HawkProxy.Builder()
+                              .port(18240)
+                              .backend(new InetSocketAddress("localhost", 18241))
+                              .provider(provider)
+                              .workerThreads(1)
+                              .build();
+    this.proxy.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.proxy.stop();
+    this.backend.stop(0);
+  }
+
+  // Helper
+  private HttpURLConnection connect(final URI uri, final String method, final String authorizationHeader, final String body) throws Exception
+  {
+    final HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
+    connection.setRequestMethod(method);
+    if (authorizationHeader != null)
+    {
+      connection.setRequestProperty("Authorization", authorizationHeader);
+    }
+    connection.setRequestProperty(HawkProxy.DEFAULT_PRINCIPAL_HEADER, "Mallory");
+    if (body != null)
+    {
+      connection.setRequestProperty("Content-Type", "text/plain");
+      connection.setDoOutput(true);
+      try (final OutputStream out = connection.getOutputStream())
+      {
+        out.write(body.getBytes(Charsets.UTF_8));
+      }
+    }
+    return connection;
+  }
+
+  private static String read(final HttpURLConnection connection) throws Exception
+  {
+    try (final InputStream in = connection.getInputStream())
+    {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+
+  // Build a raw request for sending over a socket
+  private static String request(final URI uri, final String authorizationHeader, final String body)
+  {
+    return "POST " + uri.getRawPath() + " HTTP/1.1\r\n" +
+           "Host: " + uri.getHost() + ":" + uri.getPort() + "\r\n" +
+           "Authorization: " + authorizationHeader + "\r\n" +
+           "Content-Type: text/plain\r\n" +
+           "Content-Length: " + body.length() + "\r\n" +
+           "\r\n" +
+           body;
+  }
+
+  // Read a response from a socket, returning its status and body
+  private static String readResponse(final InputStream in) throws IOException
+  {
+    String status = null;
+    int length = 0;
+    String line;
+    while (!(line = readLine(in)).isEmpty())
+    {
+      if (status == null)
+      {
+        status = line.split(" ")[1];
+      }
+      else if (line.toLowerCase().startsWith("content-length:"))
+      {
+        length = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+      }
+    }
+    final byte[] body = new byte[length];
+    ByteStreams.readFully(in, body);
+    return status + " " + new String(body, Charsets.UTF_8);
+  }
+
+  private static String readLine(final InputStream in) throws IOException
+  {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) != '\n')
+    {
+      if (c == -1)
+      {
+        throw new IOException("Connection closed");
+      }
+      if (c != '\r')
+      {
+        line.write(c);
+      }
+    }
+    return new String(line.toByteArray(), Charsets.UTF_8);
+  }
+
+  @Test
+  public void testPipelined() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final HawkClient badClient = new HawkClient.Builder().credentials(this.badCredentials).build();
+    final String requests = request(uri, client.generateAuthorizationHeader(uri, "POST", null, null, null, null), "slow one") +
+                            request(uri, badClient.generateAuthorizationHeader(uri, "POST", null, null, null, null), "bad") +
+                            request(uri, client.generateAuthorizationHeader(uri, "POST", null, null, null, null), "two");
+    try (final Socket socket = new Socket("localhost", 18240))
+    {
+      socket.setSoTimeout(5000);
+      // All requests are sent before the first response is complete
+      socket.getOutputStream().write(requests.getBytes(Charsets.UTF_8));
+      socket.getOutputStream().flush();
+      final InputStream in = socket.getInputStream();
+      final List<String> responses = Lists.newArrayList();
+      for (int i = 0; i < 3; i++)
+      {
+        responses.add(readResponse(in));
+      }
+      assertEquals(responses.get(0), "200 Hello Steve: slow one");
+      assertTrue(responses.get(1).startsWith("401 "));
+      assertEquals(responses.get(2), "200 Hello Steve: two");
+    }
+    assertFalse(this.backendBodies.contains("bad"));
+  }
+
+  @Test
+  public void testGet() throws Exception
+  {
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    this.backendPorts.clear();
+    for (int i = 0; i < 5; i++)
+    {
+      final URI uri = new URI(BASEURI + "helloworld?count=" + i);
+      final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+      assertEquals(connection.getResponseCode(), 200);
+      // The principal supplied by the client is replaced by the authenticated principal
+      assertEquals(read(connection), "Hello Steve");
+    }
+    // Backend connections are reused
+    assertEquals(this.backendPorts.size(), 1);
+  }
+
+  @Test
+  public void testUnauthenticated() throws Exception
+  {
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld"), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 401);
+    assertNotNull(connection.getHeaderField("WWW-Authenticate"));
+  }
+
+  @Test
+  public void testBadCredentials() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.badCredentials).build();
+    final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+    assertEquals(connection.getResponseCode(), 401);
+  }
+
+  @Test
+  public void testBewit() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final String bewit = Hawk.generateBewit(this.goodCredentials, uri, 240L, null);
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld?bewit=" + bewit), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), "Hello Steve");
+  }
+
+  @Test
+  public void testPayload() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = client.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+
+    final HttpURLConnection good = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "payload");
+    assertEquals(good.getResponseCode(), 200);
+    assertEquals(read(good), "Hello Steve: payload");
+
+    final HttpURLConnection tampered = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "tampered");
+    assertEquals(tampered.getResponseCode(), 401);
+    assertFalse(this.backendBodies.contains("tampered"));
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.replay;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Command-line tool to re-verify logged Hawk requests.
+ * <p>
+ * Usage: <code>HawkLogReplay --index &lt;snapshot&gt; [--skew &lt;seconds&gt;]
+ * [--nonces &lt;count&gt;] [--output &lt;file&gt;] &lt;log&gt;...</code>
+ * <p>
+ * Failures are written to the output file, or standard output if none is
+ * given, and a summary is written to standard error.  The exit status is
+ * <code>0</code> if all requests verified, <code>1</code> if any failed and
+ * <code>2</code> if the tool could not run.
+ */
+public final class HawkLogReplay
+{
+  private static final String USAGE = "Usage: HawkLogReplay --index <snapshot> [--skew <seconds>] [--nonces <count>] [--output <file>] <log>...";
+
+  private HawkLogReplay()
+  {
+  }
+
+  public static void main(final String[] args)
+  {
+    System.exit(run(args, System.err));
+  }
+
+  /**
+   * Run the tool.
+   * @param args the command-line arguments
+   * @param summary the stream to which to write the summary and any errors
+   * @return the exit status
+   */
+  public static int run(final String[] args, final PrintStream summary)
+  {
+    File index = null;
+    File output = null;
+    Long skew = null;
+    Long nonces = null;
+    final List<File> logs = Lists.newArrayList();
+    try
+    {
+      for (int i = 0; i < args.length; i++)
+      {
+        switch (args[i])
+        {
+          case "--index":
+            index = new File(args[++i]);
+            break;
+          case "--output":
+            output = new File(args[++i]);
+            break;
+          case "--skew":
+            skew = Long.valueOf(args[++i]);
+            break;
+          case "--nonces":
+            nonces = Long.valueOf(args[++i]);
+            break;
+          default:
+            logs.add(new File(args[i]));
+        }
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException | NumberFormatException e)
+    {
+      summary.println(USAGE);
+      return 2;
+    }
+    if ((index == null) || (logs.isEmpty()))
+    {
+      summary.println(USAGE);
+      return 2;
+    }
+
+    Writer failures = null;
+    try
+    {
+      failures = new BufferedWriter(new OutputStreamWriter(output == null ? System.out : new FileOutputStream(output), Charsets.UTF_8));
+      final HawkLogReplayer replayer = new HawkLogReplayer.Builder()
+                                                          .credentials(HawkCredentialsIndex.map(index))
+                                                          .timestampSkew(skew)
+                                                          .nonceCacheSize(nonces)
+                                                          .build();
+      long failed = 0;
+      for (final File log : logs)
+      {
+        final long start = System.currentTimeMillis();
+        final HawkReplayReport report = replayer.replay(log, failures);
+        summary.println(log + ": " + report.getTotal() + " requests, " + report.getVerified() + " verified, " +
+                        report.getFailed() + " failed (" + report.getReplayed() + " replayed) in " +
+                        (System.currentTimeMillis() - start) + "ms");
+        for (final Map.Entry<Reason, Long> entry : report.getCounts().entrySet())
+        {
+          if (entry.getKey() != Reason.OK)
+          {
+            summary.println("  " + entry.getKey() + ": " + entry.getValue());
+          }
+        }
+        failed += report.getFailed();
+      }
+      failures.flush();
+      return failed == 0 ? 0 : 1;
+    }
+    catch (DataError | ServerError | IOException e)
+    {
+      summary.println("Replay failed: " + e.getMessage());
+      return 2;
+    }
+    finally
+    {
+      // Standard output is flushed but left open
+      if ((failures != null) && (output != null))
+      {
+        try
+        {
+          failures.close();
+        }
+        catch (IOException ioe)
+        {
+          summary.println("Failed to close output: " + ioe.getMessage());
+        }
+      }
+    }
+  }
+}
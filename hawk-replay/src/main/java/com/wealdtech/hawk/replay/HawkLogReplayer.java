@@ -0,0 +1,405 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.replay;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkBatchRequest;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkServerConfiguration;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Re-verify logged Hawk requests offline.
+ * <p>
+ * Each line of the log holds a single request as tab-separated fields: the
+ * time at which the request was received in seconds since the epoch, the
+ * method, the URI and the Hawk authorization header.  Logs are read through
+ * memory-mapped regions and verified in batches using the parallel batch
+ * verification of {@link HawkServer}, with credentials resolved from a
+ * credentials index snapshot.
+ * <p>
+ * Request timestamps are checked against the logged time rather than the
+ * current time.  Nonces are remembered across the whole replay, up to the
+ * configured number, so that replayed requests are reported wherever they
+ * appear in the log.  As the log does not contain request bodies the payload
+ * hash in the authorization header is taken as given.
+ */
+public final class HawkLogReplayer
+{
+  // Effectively disables the server's own timestamp check, which is against the current time
+  private static final long UNBOUNDED_SKEW = 100L * 365L * 24L * 60L * 60L;
+  private static final String HEADER_ID = "id";
+  private static final String HEADER_TS = "ts";
+  private static final String HEADER_HASH = "hash";
+  private static final int LOG_FIELDS = 4;
+
+  private final HawkCredentialsIndex credentials;
+  private final long timestampSkew;
+  private final long nonceCacheSize;
+  private final int batchSize;
+  private final int regionSize;
+  private final HawkServer server;
+  private final Function<String, HawkCredentials> lookup;
+
+  private HawkLogReplayer(final HawkCredentialsIndex credentials,
+                          final Long timestampSkew,
+                          final Long nonceCacheSize,
+                          final Integer batchSize,
+                          final Integer regionSize,
+                          final ForkJoinPool batchPool)
+  {
+    checkNotNull(credentials, "The credentials index is required");
+    this.credentials = credentials;
+    this.timestampSkew = timestampSkew == null ? 60L : timestampSkew;
+    checkArgument((this.timestampSkew >= 0), "The timestamp skew may not be negative");
+    this.nonceCacheSize = nonceCacheSize == null ? 10000000L : nonceCacheSize;
+    checkArgument((this.nonceCacheSize >= 0), "The nonce cache size may not be negative");
+    this.batchSize = batchSize == null ? 10000 : batchSize;
+    checkArgument((this.batchSize > 0), "The batch size must be positive");
+    this.regionSize = regionSize == null ? 256 * 1024 * 1024 : regionSize;
+    checkArgument((this.regionSize > 0), "The region size must be positive");
+
+    final HawkServerConfiguration configuration = new HawkServerConfiguration.Builder()
+                                                                             .timestampSkew(UNBOUNDED_SKEW)
+                                                                             .nonceCacheSize(this.nonceCacheSize)
+                                                                             .build();
+    this.server = new HawkServer.Builder().configuration(configuration).batchPool(batchPool).build();
+    this.lookup = new Function<String, HawkCredentials>()
+    {
+      @Override
+      public HawkCredentials apply(final String keyId)
+      {
+        return HawkLogReplayer.this.credentials.get(keyId);
+      }
+    };
+  }
+
+  /**
+   * Replay a log.  Nonces seen in previous replays by this replayer are
+   * remembered, so a set of logs should be replayed in order by a single
+   * replayer.
+   * @param log the log file
+   * @param failures a writer to which to write requests that fail
+   *          verification, or <code>null</code> if they are not required
+   * @return a report of the results of verification
+   * @throws DataError if the log contains a line longer than the region size
+   * @throws ServerError if the log cannot be read or failures cannot be written
+   */
+  public HawkReplayReport replay(final File log, final Writer failures)
+  {
+    checkNotNull(log, "The log is required");
+    final HawkReplayReport report = new HawkReplayReport(failures);
+    final List<Entry> batch = Lists.newArrayListWithCapacity(this.batchSize);
+    try (final FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ))
+    {
+      final long size = channel.size();
+      byte[] buf = new byte[1024];
+      long position = 0;
+      long lineNumber = 0;
+      while (position < size)
+      {
+        final int length = (int)Math.min(this.regionSize, size - position);
+        final boolean last = (position + length == size);
+        final MappedByteBuffer region = channel.map(MapMode.READ_ONLY, position, length);
+        int start = 0;
+        for (int i = 0; i <= length; i++)
+        {
+          if ((i == length) ? (last && i > start) : (region.get(i) == '\n'))
+          {
+            // Found a complete line
+            lineNumber++;
+            int end = i;
+            if ((end > start) && (region.get(end - 1) == '\r'))
+            {
+              end--;
+            }
+            if (end > start)
+            {
+              if (end - start > buf.length)
+              {
+                buf = new byte[Math.max(end - start, buf.length * 2)];
+              }
+              region.position(start);
+              region.get(buf, 0, end - start);
+              batch.add(parse(lineNumber, new String(buf, 0, end - start, Charsets.UTF_8)));
+              if (batch.size() == this.batchSize)
+              {
+                verify(batch, report);
+              }
+            }
+            start = i + 1;
+          }
+        }
+        if (last)
+        {
+          break;
+        }
+        if (start == 0)
+        {
+          throw new DataError.Bad("Line " + (lineNumber + 1) + " is longer than the region size");
+        }
+        // Carry on from the start of the incomplete line
+        position += start;
+      }
+      verify(batch, report);
+    }
+    catch (IOException ioe)
+    {
+      throw new ServerError("Failed to read log", ioe);
+    }
+    return report;
+  }
+
+  // Parse a line of the log, recording an immediate result if it cannot be verified
+  private Entry parse(final long lineNumber, final String line)
+  {
+    final String[] fields = new String[LOG_FIELDS];
+    int start = 0;
+    for (int i = 0; i < LOG_FIELDS - 1; i++)
+    {
+      final int end = line.indexOf('\t', start);
+      if (end == -1)
+      {
+        return new Entry(lineNumber, null, null, null, null, HawkVerificationResult.of(Reason.INVALID_REQUEST, "Log line has too few fields"));
+      }
+      fields[i] = line.substring(start, end);
+      start = end + 1;
+    }
+    fields[LOG_FIELDS - 1] = line.substring(start);
+    final String method = fields[1];
+    final String uriStr = fields[2];
+
+    final long loggedTime;
+    final URI uri;
+    try
+    {
+      loggedTime = Long.parseLong(fields[0]);
+      uri = new URI(uriStr);
+    }
+    catch (NumberFormatException | URISyntaxException e)
+    {
+      return new Entry(lineNumber, null, null, method, uriStr, HawkVerificationResult.of(Reason.INVALID_REQUEST, e.getMessage()));
+    }
+
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(fields[3]);
+    if (authorizationHeaders == null)
+    {
+      return new Entry(lineNumber, null, null, method, uriStr, HawkVerificationResult.of(Reason.INVALID_HEADER));
+    }
+    final String keyId = authorizationHeaders.get(HEADER_ID);
+
+    // Check the timestamp against the time the request was logged; missing or invalid timestamps are left to the server
+    final String ts = authorizationHeaders.get(HEADER_TS);
+    if (ts != null)
+    {
+      try
+      {
+        if (Math.abs(Long.parseLong(ts) - loggedTime) > this.timestampSkew)
+        {
+          return new Entry(lineNumber, null, keyId, method, uriStr, HawkVerificationResult.of(Reason.STALE_TIMESTAMP));
+        }
+      }
+      catch (NumberFormatException nfe)
+      {
+        // Reported by the server
+      }
+    }
+
+    final HawkBatchRequest request = new HawkBatchRequest.Builder()
+                                                         .uri(uri)
+                                                         .method(method)
+                                                         .authorizationHeaders(authorizationHeaders)
+                                                         .hash(authorizationHeaders.get(HEADER_HASH))
+                                                         .build();
+    return new Entry(lineNumber, request, keyId, method, uriStr, null);
+  }
+
+  // Verify a batch of entries and record their results in order
+  private void verify(final List<Entry> batch, final HawkReplayReport report)
+  {
+    final List<HawkBatchRequest> requests = Lists.newArrayListWithCapacity(batch.size());
+    for (final Entry entry : batch)
+    {
+      if (entry.result == null)
+      {
+        requests.add(entry.request);
+      }
+    }
+    final List<HawkVerificationResult> results = this.server.verifyAll(requests, this.lookup);
+    int next = 0;
+    for (final Entry entry : batch)
+    {
+      report.record(entry.line, entry.result == null ? results.get(next++) : entry.result, entry.keyId, entry.method, entry.uri);
+    }
+    batch.clear();
+  }
+
+  // A single line of the log
+  private static final class Entry
+  {
+    final long line;
+    final HawkBatchRequest request;
+    final String keyId;
+    final String method;
+    final String uri;
+    final HawkVerificationResult result;
+
+    Entry(final long line, final HawkBatchRequest request, final String keyId, final String method, final String uri, final HawkVerificationResult result)
+    {
+      this.line = line;
+      this.request = request;
+      this.keyId = keyId;
+      this.method = method;
+      this.uri = uri;
+      this.result = result;
+    }
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("credentials", this.credentials)
+                  .add("timestampSkew", this.timestampSkew)
+                  .add("nonceCacheSize", this.nonceCacheSize)
+                  .add("batchSize", this.batchSize)
+                  .add("regionSize", this.regionSize)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private HawkCredentialsIndex credentials;
+    private Long timestampSkew;
+    private Long nonceCacheSize;
+    private Integer batchSize;
+    private Integer regionSize;
+    private ForkJoinPool batchPool;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the index from which to resolve credentials.
+     * @param credentials the credentials index
+     * @return The builder
+     */
+    public Builder credentials(final HawkCredentialsIndex credentials)
+    {
+      this.credentials = credentials;
+      return this;
+    }
+
+    /**
+     * Override the allowable difference between the request timestamp and
+     * the logged time, in seconds.  Defaults to <code>60</code>.
+     * @param timestampSkew the allowable difference
+     * @return The builder
+     */
+    public Builder timestampSkew(final Long timestampSkew)
+    {
+      this.timestampSkew = timestampSkew;
+      return this;
+    }
+
+    /**
+     * Override the number of nonces to remember when looking for replays.
+     * Defaults to <code>10000000</code>.
+     * @param nonceCacheSize the number of nonces to remember
+     * @return The builder
+     */
+    public Builder nonceCacheSize(final Long nonceCacheSize)
+    {
+      this.nonceCacheSize = nonceCacheSize;
+      return this;
+    }
+
+    /**
+     * Override the number of requests verified in each batch.
+     * Defaults to <code>10000</code>.
+     * @param batchSize the number of requests in each batch
+     * @return The builder
+     */
+    public Builder batchSize(final Integer batchSize)
+    {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Override the size of each memory-mapped region of the log, in bytes.
+     * This is also the maximum length of a line.  Defaults to 256MB.
+     * @param regionSize the size of each region
+     * @return The builder
+     */
+    public Builder regionSize(final Integer regionSize)
+    {
+      this.regionSize = regionSize;
+      return this;
+    }
+
+    /**
+     * Override the pool used to verify batches.  Defaults to the pool shared
+     * by all Hawk servers.
+     * @param batchPool the pool
+     * @return The builder
+     */
+    public Builder batchPool(final ForkJoinPool batchPool)
+    {
+      this.batchPool = batchPool;
+      return this;
+    }
+
+    /**
+     * Build the replayer.
+     * @return a new replayer
+     * @throws DataError if the data provided is invalid for a replayer
+     */
+    public HawkLogReplayer build()
+    {
+      return new HawkLogReplayer(this.credentials, this.timestampSkew, this.nonceCacheSize, this.batchSize, this.regionSize, this.batchPool);
+    }
+  }
+}
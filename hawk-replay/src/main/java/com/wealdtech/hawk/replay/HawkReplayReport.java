@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.replay;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * The results of replaying a log of Hawk requests.
+ * <p>
+ * Counts are kept for each verification result.  If a writer is supplied then
+ * each request that fails verification is also written to it, one per line,
+ * as tab-separated line number, reason, key ID, method and URI.
+ */
+public final class HawkReplayReport
+{
+  private final Writer failures;
+  private final EnumMap<Reason, Long> counts = new EnumMap<>(Reason.class);
+  private long total;
+
+  HawkReplayReport(final Writer failures)
+  {
+    this.failures = failures;
+  }
+
+  // Record the result of verifying a single logged request
+  void record(final long line, final HawkVerificationResult result, final String keyId, final String method, final String uri)
+  {
+    this.total++;
+    final Long count = this.counts.get(result.getReason());
+    this.counts.put(result.getReason(), count == null ? 1L : count + 1L);
+    if ((!result.isValid()) && (this.failures != null))
+    {
+      try
+      {
+        this.failures.append(Long.toString(line)).append('\t')
+                     .append(result.getReason().name()).append('\t')
+                     .append(keyId == null ? "-" : keyId).append('\t')
+                     .append(method == null ? "-" : method).append('\t')
+                     .append(uri == null ? "-" : uri).append('\n');
+      }
+      catch (IOException ioe)
+      {
+        throw new ServerError("Failed to write replay failure", ioe);
+      }
+    }
+  }
+
+  /**
+   * Obtain the total number of requests replayed.
+   * @return the total number of requests
+   */
+  public long getTotal()
+  {
+    return this.total;
+  }
+
+  /**
+   * Obtain the number of requests that passed verification.
+   * @return the number of verified requests
+   */
+  public long getVerified()
+  {
+    return getCount(Reason.OK);
+  }
+
+  /**
+   * Obtain the number of requests that failed verification for any reason,
+   * including replays.
+   * @return the number of failed requests
+   */
+  public long getFailed()
+  {
+    return this.total - getVerified();
+  }
+
+  /**
+   * Obtain the number of requests that were replays of earlier requests.
+   * @return the number of replayed requests
+   */
+  public long getReplayed()
+  {
+    return getCount(Reason.REPLAYED_NONCE);
+  }
+
+  /**
+   * Obtain the number of requests with a given verification result.
+   * @param reason the verification result
+   * @return the number of requests
+   */
+  public long getCount(final Reason reason)
+  {
+    final Long count = this.counts.get(reason);
+    return count == null ? 0L : count;
+  }
+
+  /**
+   * Obtain the number of requests for each verification result seen.
+   * @return the number of requests for each result
+   */
+  public Map<Reason, Long> getCounts()
+  {
+    return ImmutableMap.copyOf(this.counts);
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("total", this.total)
+                  .add("counts", this.counts)
+                  .toString();
+  }
+}
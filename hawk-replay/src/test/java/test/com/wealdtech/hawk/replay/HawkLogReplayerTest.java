@@ -0,0 +1,152 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.replay;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+import com.wealdtech.hawk.replay.HawkLogReplayer;
+import com.wealdtech.hawk.replay.HawkReplayReport;
+
+public class HawkLogReplayerTest
+{
+  private HawkCredentials testcredentials1, testcredentials2;
+  private HawkCredentialsIndex index;
+  private URI validuri1;
+  private File log;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.testcredentials1 = new HawkCredentials.Builder()
+                                               .keyId("dh37fgj492je")
+                                               .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                               .algorithm(HawkCredentials.Algorithm.SHA256)
+                                               .build();
+    this.testcredentials2 = new HawkCredentials.Builder()
+                                               .keyId("kbmdu72h12xt")
+                                               .key("nzvxvljms2n239w7alsaduanpet109apbisuda0bt79")
+                                               .algorithm(HawkCredentials.Algorithm.SHA1)
+                                               .build();
+    this.index = new HawkCredentialsIndex.Builder().add(this.testcredentials1).build();
+    this.validuri1 = new URI("http://localhost:18234/testpath/subpath?param1=val1&param2=val2");
+
+    final HawkClient client = new HawkClient.Builder().credentials(this.testcredentials1).build();
+    final HawkClient unknownclient = new HawkClient.Builder().credentials(this.testcredentials2).build();
+    final long now = System.currentTimeMillis() / 1000L;
+    this.log = File.createTempFile("hawkreplay", ".log");
+    this.log.deleteOnExit();
+    try (final Writer writer = new OutputStreamWriter(new FileOutputStream(this.log), Charsets.UTF_8))
+    {
+      String replayed = null;
+      for (int i = 0; i < 100; i++)
+      {
+        final String line = now + "\tGET\t" + this.validuri1 + "\t" + client.generateAuthorizationHeader(this.validuri1, "GET", null, null, null, null);
+        writer.write(line + "\n");
+        if (i == 10)
+        {
+          replayed = line;
+        }
+      }
+      // Line 101: replay of line 11
+      writer.write(replayed + "\r\n");
+      // Line 102: bad MAC
+      writer.write(now + "\tPOST\t" + this.validuri1 + "\t" + client.generateAuthorizationHeader(this.validuri1, "GET", null, null, null, null) + "\n");
+      // Line 103: logged well after the request was made
+      writer.write((now + 3600) + "\tGET\t" + this.validuri1 + "\t" + client.generateAuthorizationHeader(this.validuri1, "GET", null, null, null, null) + "\n");
+      // Line 104: unknown client
+      writer.write(now + "\tGET\t" + this.validuri1 + "\t" + unknownclient.generateAuthorizationHeader(this.validuri1, "GET", null, null, null, null) + "\n");
+      // Line 105: empty; line 106: malformed
+      writer.write("\n");
+      writer.write("not a log line\n");
+      // Line 107: invalid header, no trailing newline
+      writer.write(now + "\tGET\t" + this.validuri1 + "\tBasic dXNlcjpwYXNz");
+    }
+  }
+
+  private void checkReport(final HawkReplayReport report, final String failures)
+  {
+    assertEquals(report.getTotal(), 106);
+    assertEquals(report.getVerified(), 100);
+    assertEquals(report.getFailed(), 6);
+    assertEquals(report.getReplayed(), 1);
+    assertEquals(report.getCount(Reason.BAD_MAC), 1);
+    assertEquals(report.getCount(Reason.STALE_TIMESTAMP), 1);
+    assertEquals(report.getCount(Reason.UNKNOWN_ID), 1);
+    assertEquals(report.getCount(Reason.INVALID_REQUEST), 1);
+    assertEquals(report.getCount(Reason.INVALID_HEADER), 1);
+
+    final String[] lines = Iterables.toArray(Splitter.on('\n').omitEmptyStrings().split(failures), String.class);
+    assertEquals(lines.length, 6);
+    assertTrue(lines[0].startsWith("101\tREPLAYED_NONCE\tdh37fgj492je\tGET\t"));
+    assertTrue(lines[1].startsWith("102\tBAD_MAC\t"));
+    assertTrue(lines[2].startsWith("103\tSTALE_TIMESTAMP\t"));
+    assertTrue(lines[3].startsWith("104\tUNKNOWN_ID\tkbmdu72h12xt\t"));
+    assertTrue(lines[4].startsWith("106\tINVALID_REQUEST\t"));
+    assertTrue(lines[5].startsWith("107\tINVALID_HEADER\t"));
+  }
+
+  @Test
+  public void testReplay() throws Exception
+  {
+    final HawkLogReplayer replayer = new HawkLogReplayer.Builder().credentials(this.index).batchSize(7).build();
+    final StringWriter failures = new StringWriter();
+    checkReport(replayer.replay(this.log, failures), failures.toString());
+    replayer.toString();
+  }
+
+  @Test
+  public void testSmallRegions() throws Exception
+  {
+    // Lines straddle region boundaries
+    final HawkLogReplayer replayer = new HawkLogReplayer.Builder().credentials(this.index).regionSize(1000).build();
+    final StringWriter failures = new StringWriter();
+    checkReport(replayer.replay(this.log, failures), failures.toString());
+  }
+
+  @Test
+  public void testLineTooLong() throws Exception
+  {
+    final HawkLogReplayer replayer = new HawkLogReplayer.Builder().credentials(this.index).regionSize(64).build();
+    try
+    {
+      replayer.replay(this.log, null);
+      fail("Replayed log with lines longer than the region size");
+    }
+    catch (DataError de)
+    {
+      // Good
+    }
+  }
+}
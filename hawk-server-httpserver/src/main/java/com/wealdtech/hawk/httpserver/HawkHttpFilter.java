@@ -0,0 +1,278 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.httpserver;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsExchange;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPayloadInputStream;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Authentication filter using the Hawk protocol for the JDK's built-in HTTP
+ * server.
+ * <p>
+ * Requests are authenticated with either an authorization header or a bewit.
+ * Authenticated requests are passed on with the principal available as the
+ * exchange attribute {@link #PRINCIPAL_ATTRIBUTE}; other requests are
+ * rejected with a <code>401</code>.
+ * <p>
+ * Requests are verified from the request target and host header, without
+ * building a URI.  If the authorization header contains a payload hash then
+ * the payload is checked as the handler reads it, so the body is never
+ * buffered by the filter.  Bodies that are never read are not checked, as
+ * their content cannot affect the handler.
+ * @param <T> the type of the principal
+ */
+public class HawkHttpFilter<T extends HawkPrincipal> extends Filter
+{
+  public static final String PRINCIPAL_ATTRIBUTE = "com.wealdtech.authenticatedprincipal";
+
+  private static final int DEFAULT_HTTP_PORT = 80;
+  private static final int DEFAULT_HTTPS_PORT = 443;
+  private static final int HTTP_UNAUTHORIZED = 401;
+
+  private final HawkServer server;
+  private final HawkPrincipalProvider<T> provider;
+
+  /**
+   * Create a new authentication filter for Hawk.
+   * @param server the Hawk server
+   * @param provider a provider for principals
+   */
+  public HawkHttpFilter(final HawkServer server, final HawkPrincipalProvider<T> provider)
+  {
+    checkNotNull(server, "Hawk HTTP filter requires a Hawk server");
+    checkNotNull(provider, "Hawk HTTP filter requires a principal provider");
+    this.server = server;
+    this.provider = provider;
+  }
+
+  @Override
+  public String description()
+  {
+    return "Hawk authentication";
+  }
+
+  @Override
+  public void doFilter(final HttpExchange exchange, final Chain chain) throws IOException
+  {
+    final Authentication authentication = authenticate(exchange);
+    if (!authentication.result.isValid())
+    {
+      final byte[] message = authentication.result.getMessage().getBytes(Charsets.UTF_8);
+      exchange.getResponseHeaders().set(HttpHeaders.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader());
+      exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "text/plain; charset=UTF-8");
+      exchange.sendResponseHeaders(HTTP_UNAUTHORIZED, message.length);
+      try (final OutputStream out = exchange.getResponseBody())
+      {
+        out.write(message);
+      }
+      return;
+    }
+    exchange.setAttribute(PRINCIPAL_ATTRIBUTE, authentication.principal);
+    if (authentication.payloadMac != null)
+    {
+      exchange.setStreams(new HawkPayloadInputStream(exchange.getRequestBody(), authentication.payloadMac, authentication.payloadHash, authentication.contentLength), null);
+    }
+    chain.doFilter(exchange);
+  }
+
+  // Authenticate a request, with either a bewit or an authorization header
+  private Authentication authenticate(final HttpExchange exchange)
+  {
+    final URI requestUri = exchange.getRequestURI();
+    final String query = requestUri.getRawQuery();
+    final String resource = query == null ? requestUri.getRawPath() : requestUri.getRawPath() + '?' + query;
+    final String hostHeader = exchange.getRequestHeaders().getFirst(HttpHeaders.HOST);
+    if (hostHeader == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_REQUEST, "The host header is missing"));
+    }
+    // Parse the host header as an authority so that IPv6 literals and ports are handled
+    URI hostUri;
+    try
+    {
+      hostUri = new URI(null, hostHeader, null, null, null);
+    }
+    catch (URISyntaxException use)
+    {
+      hostUri = null;
+    }
+    if ((hostUri == null) || (hostUri.getHost() == null))
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_REQUEST, "The host header is invalid"));
+    }
+    final String host = hostUri.getHost();
+    int port = hostUri.getPort();
+    if (port == -1)
+    {
+      port = exchange instanceof HttpsExchange ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+    }
+
+    // Look for the bewit in the query string directly
+    if ((query != null) && ((query.startsWith("bewit=")) || (query.contains("&bewit="))))
+    {
+      return authenticateFromBewit(exchange, resource, host, port);
+    }
+    return authenticateFromHeader(exchange, resource, host, port);
+  }
+
+  private Authentication authenticateFromBewit(final HttpExchange exchange, final String resource, final String host, final int port)
+  {
+    if (!"GET".equals(exchange.getRequestMethod()))
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD));
+    }
+    final ImmutableMap<String, String> bewitFields = this.server.parseResourceBewit(resource);
+    if (bewitFields == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_BEWIT));
+    }
+    final Optional<T> principal = this.provider.getFromKey(bewitFields.get("id"));
+    if (!principal.isPresent())
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+    final HawkVerificationResult result = this.server.verify(principal.get().getHawkCredentials(bewitFields.get("id")), resource, host, port);
+    if (!result.isValid())
+    {
+      return new Authentication(result);
+    }
+    return new Authentication(principal.get(), null, null, -1L);
+  }
+
+  private Authentication authenticateFromHeader(final HttpExchange exchange, final String resource, final String host, final int port)
+  {
+    final String authorizationHeader = exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+    if (authorizationHeader == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.MISSING_HEADER));
+    }
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(authorizationHeader);
+    if (authorizationHeaders == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_HEADER));
+    }
+    if (authorizationHeaders.get("id") == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.MISSING_ID));
+    }
+    final Optional<T> principal = this.provider.getFromKey(authorizationHeaders.get("id"));
+    if (!principal.isPresent())
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+    final HawkCredentials credentials = principal.get().getHawkCredentials(authorizationHeaders.get("id"));
+    if (credentials == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+
+    // The MAC covers the claimed payload hash; the payload itself is checked against it as it is read
+    final String payloadHash = authorizationHeaders.get("hash");
+    Mac payloadMac = null;
+    if (payloadHash != null)
+    {
+      final String contentType = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+      if (contentType == null)
+      {
+        return new Authentication(HawkVerificationResult.of(Reason.MISSING_CONTENT_TYPE));
+      }
+      try
+      {
+        payloadMac = Hawk.startBodyMac(credentials, contentType);
+      }
+      catch (DataError de)
+      {
+        return new Authentication(HawkVerificationResult.of(Reason.INVALID_PAYLOAD, de.getMessage()));
+      }
+    }
+    final String contentLengthHeader = exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_LENGTH);
+    final boolean hasBody = ((contentLengthHeader != null) && (!"0".equals(contentLengthHeader))) || (exchange.getRequestHeaders().getFirst(HttpHeaders.TRANSFER_ENCODING) != null);
+    final HawkVerificationResult result = this.server.verify(credentials, resource, host, port, exchange.getRequestMethod(), authorizationHeaders, payloadHash, hasBody);
+    if (!result.isValid())
+    {
+      return new Authentication(result);
+    }
+    return new Authentication(principal.get(), payloadMac, payloadHash, parseContentLength(contentLengthHeader));
+  }
+
+  // Parse a Content-Length header, returning -1 if it is absent or invalid
+  private static long parseContentLength(final String contentLength)
+  {
+    if (contentLength == null)
+    {
+      return -1L;
+    }
+    try
+    {
+      return Long.parseLong(contentLength.trim());
+    }
+    catch (NumberFormatException nfe)
+    {
+      return -1L;
+    }
+  }
+
+  // The outcome of authenticating a request
+  private class Authentication
+  {
+    final HawkVerificationResult result;
+    final T principal;
+    final Mac payloadMac;
+    final String payloadHash;
+    final long contentLength;
+
+    Authentication(final HawkVerificationResult result)
+    {
+      this.result = result;
+      this.principal = null;
+      this.payloadMac = null;
+      this.payloadHash = null;
+      this.contentLength = -1L;
+    }
+
+    Authentication(final T principal, final Mac payloadMac, final String payloadHash, final long contentLength)
+    {
+      this.result = HawkVerificationResult.OK;
+      this.principal = principal;
+      this.payloadMac = payloadMac;
+      this.payloadHash = payloadHash;
+      this.contentLength = contentLength;
+    }
+  }
+}
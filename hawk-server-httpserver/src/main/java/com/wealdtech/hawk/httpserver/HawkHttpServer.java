@@ -0,0 +1,236 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.httpserver;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+
+/**
+ * A lightweight HTTP server, built on the JDK's built-in HTTP server, with
+ * every context protected by Hawk authentication.
+ * <p>
+ * Each request is handled on its own thread.  Where the JVM supports virtual
+ * threads they are used, so handlers and principal lookups may block without
+ * the need for a large pool of platform threads; otherwise a cached thread
+ * pool is used.
+ */
+public final class HawkHttpServer
+{
+  private final HttpServer server;
+  private final Executor executor;
+  private final boolean ownExecutor;
+  private final ImmutableMap<String, HttpHandler> contexts;
+
+  private HawkHttpServer(final InetSocketAddress address,
+                         final Integer backlog,
+                         final Executor executor,
+                         final HawkHttpFilter<?> filter,
+                         final Map<String, HttpHandler> contexts)
+  {
+    checkNotNull(address, "Hawk HTTP server requires an address");
+    checkNotNull(filter, "Hawk HTTP server requires a Hawk filter");
+    checkState(!contexts.isEmpty(), "Hawk HTTP server requires at least one context");
+    this.contexts = ImmutableMap.copyOf(contexts);
+    this.ownExecutor = executor == null;
+    this.executor = executor == null ? newRequestExecutor() : executor;
+    try
+    {
+      this.server = HttpServer.create(address, backlog == null ? 0 : backlog);
+    }
+    catch (IOException ioe)
+    {
+      throw new ServerError("Failed to create HTTP server", ioe);
+    }
+    for (final Map.Entry<String, HttpHandler> context : this.contexts.entrySet())
+    {
+      this.server.createContext(context.getKey(), context.getValue()).getFilters().add(filter);
+    }
+    this.server.setExecutor(this.executor);
+  }
+
+  /**
+   * Obtain an executor that runs each task on its own thread, using virtual
+   * threads if the JVM supports them and a cached thread pool if not.
+   * @return the executor
+   */
+  public static ExecutorService newRequestExecutor()
+  {
+    try
+    {
+      // Looked up reflectively so that the module still runs on JVMs without virtual threads
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e)
+    {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Start the server.
+   */
+  public void start()
+  {
+    this.server.start();
+  }
+
+  /**
+   * Stop the server, waiting for current exchanges to finish.  If the server
+   * created its own executor then the executor is shut down.
+   * @param delay the maximum time to wait for current exchanges to finish, in seconds
+   */
+  public void stop(final int delay)
+  {
+    this.server.stop(delay);
+    if ((this.ownExecutor) && (this.executor instanceof ExecutorService))
+    {
+      ((ExecutorService)this.executor).shutdown();
+    }
+  }
+
+  /**
+   * Obtain the address on which the server listens.
+   * @return the address
+   */
+  public InetSocketAddress getAddress()
+  {
+    return this.server.getAddress();
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("address", this.server.getAddress())
+                  .add("contexts", this.contexts.keySet())
+                  .add("executor", this.executor)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private InetSocketAddress address;
+    private Integer backlog;
+    private Executor executor;
+    private HawkHttpFilter<?> filter;
+    private final Map<String, HttpHandler> contexts = Maps.newLinkedHashMap();
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the address on which to listen.
+     * @param address the address
+     * @return The builder
+     */
+    public Builder address(final InetSocketAddress address)
+    {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Set the port on which to listen, on all addresses.
+     * @param port the port
+     * @return The builder
+     */
+    public Builder port(final int port)
+    {
+      this.address = new InetSocketAddress(port);
+      return this;
+    }
+
+    /**
+     * Override the backlog of pending connections.  Defaults to the system default.
+     * @param backlog the backlog
+     * @return The builder
+     */
+    public Builder backlog(final Integer backlog)
+    {
+      this.backlog = backlog;
+      return this;
+    }
+
+    /**
+     * Override the executor on which requests are handled.  Defaults to
+     * {@link HawkHttpServer#newRequestExecutor()}.
+     * @param executor the executor
+     * @return The builder
+     */
+    public Builder executor(final Executor executor)
+    {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Set the Hawk filter that authenticates requests.
+     * @param filter the Hawk filter
+     * @return The builder
+     */
+    public Builder filter(final HawkHttpFilter<?> filter)
+    {
+      this.filter = filter;
+      return this;
+    }
+
+    /**
+     * Add a context, the requests for which are authenticated before being
+     * passed to the handler.
+     * @param path the root path of the context
+     * @param handler the handler for the context
+     * @return The builder
+     */
+    public Builder context(final String path, final HttpHandler handler)
+    {
+      checkNotNull(path, "Context requires a path");
+      checkNotNull(handler, "Context requires a handler");
+      this.contexts.put(path, handler);
+      return this;
+    }
+
+    /**
+     * Build the server.
+     * @return a new server, not yet started
+     * @throws DataError if the data provided is invalid for a server
+     */
+    public HawkHttpServer build()
+    {
+      return new HawkHttpServer(this.address, this.backlog, this.executor, this.filter, this.contexts);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.httpserver;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.httpserver.HawkHttpFilter;
+import com.wealdtech.hawk.httpserver.HawkHttpServer;
+import com.wealdtech.hawk.httpserver.HawkPrincipalProvider;
+
+public class HawkHttpServerTest
+{
+  private static final String BASEURI = "http://localhost:18239/";
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private HawkHttpServer server;
+
+  /**
+   * Handler greeting the principal, along with the body if there is one.
+   */
+  private static class HelloWorldHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      final HawkPrincipal principal = (HawkPrincipal)exchange.getAttribute(HawkHttpFilter.PRINCIPAL_ATTRIBUTE);
+      int status = 200;
+      String response = "Hello " + principal.getName();
+      try (final InputStream in = exchange.getRequestBody())
+      {
+        final byte[] body = ByteStreams.toByteArray(in);
+        if (body.length > 0)
+        {
+          response = response + ": " + new String(body, Charsets.UTF_8);
+        }
+      }
+      catch (IOException ioe)
+      {
+        status = 400;
+        response = ioe.getMessage();
+      }
+      final byte[] bytes = response.getBytes(Charsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (final OutputStream out = exchange.getResponseBody())
+      {
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * Handler reading exactly Content-Length bytes of the body, without
+   * looking for its end.
+   */
+  private static class ExactLengthHandler implements HttpHandler
+  {
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException
+    {
+      int status = 200;
+      String response;
+      final byte[] body = new byte[Integer.parseInt(exchange.getRequestHeaders().getFirst("Content-Length"))];
+      try
+      {
+        ByteStreams.readFully(exchange.getRequestBody(), body);
+        response = new String(body, Charsets.UTF_8);
+      }
+      catch (IOException ioe)
+      {
+        status = 400;
+        response = ioe.getMessage();
+      }
+      final byte[] bytes = response.getBytes(Charsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (final OutputStream out = exchange.getResponseBody())
+      {
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * A simple example user class for testing Hawk.
+   */
+  private static class ExampleUser implements HawkPrincipal
+  {
+    private final HawkCredentials hawkCredentials;
+
+    ExampleUser(final HawkCredentials hawkCredentials)
+    {
+      this.hawkCredentials = hawkCredentials;
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Steve";
+    }
+
+    @Override
+    public HawkCredentials getHawkCredentials(final String keyId)
+    {
+      return this.hawkCredentials.getKeyId().equals(keyId) ? this.hawkCredentials : null;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    final ExampleUser user = new ExampleUser(this.goodCredentials);
+    final HawkPrincipalProvider<ExampleUser> provider = new HawkPrincipalProvider<ExampleUser>()
+    {
+      @Override
+      public Optional<ExampleUser> getFromKey(final String keyId)
+      {
+        return user.getHawkCredentials(keyId) == null ? Optional.<ExampleUser>absent() : Optional.of(user);
+      }
+    };
+
+    this.server = new HawkHttpServer.Builder()
+                                    .port(18239)
+                                    .filter(new HawkHttpFilter<>(new HawkServer.Builder().build(), provider))
+                                    .context("/helloworld", new HelloWorldHandler())
+                                    .context("/exact", new ExactLengthHandler())
+                                    .build();
+    this.server.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.server.stop(0);
+  }
+
+  // Helper
+  private HttpURLConnection connect(final URI uri, final String method, final String authorizationHeader, final String body) throws Exception
+  {
+    final HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
+    connection.setRequestMethod(method);
+    if (authorizationHeader != null)
+    {
+      connection.setRequestProperty("Authorization", authorizationHeader);
+    }
+    if (body != null)
+    {
+      connection.setRequestProperty("Content-Type", "text/plain");
+      connection.setDoOutput(true);
+      try (final OutputStream out = connection.getOutputStream())
+      {
+        out.write(body.getBytes(Charsets.UTF_8));
+      }
+    }
+    return connection;
+  }
+
+  private static String read(final HttpURLConnection connection) throws Exception
+  {
+    try (final InputStream in = connection.getInputStream())
+    {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testGet() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld?param=value");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), "Hello Steve");
+  }
+
+  @Test
+  public void testUnauthenticated() throws Exception
+  {
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld"), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 401);
+    assertNotNull(connection.getHeaderField("WWW-Authenticate"));
+  }
+
+  @Test
+  public void testBadCredentials() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.badCredentials).build();
+    final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+    assertEquals(connection.getResponseCode(), 401);
+  }
+
+  @Test
+  public void testBewit() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final String bewit = Hawk.generateBewit(this.goodCredentials, uri, 240L, null);
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld?bewit=" + bewit), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), "Hello Steve");
+  }
+
+  @Test
+  public void testPayload() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = client.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+
+    final HttpURLConnection good = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "payload");
+    assertEquals(good.getResponseCode(), 200);
+    assertEquals(read(good), "Hello Steve: payload");
+
+    final HttpURLConnection tampered = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "tampered");
+    assertEquals(tampered.getResponseCode(), 400);
+  }
+
+  @Test
+  public void testExactLengthPayload() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "exact");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = client.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+
+    final HttpURLConnection good = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "payload");
+    assertEquals(good.getResponseCode(), 200);
+    assertEquals(read(good), "payload");
+
+    // Same length as the signed payload, so the end of the body is never read
+    final HttpURLConnection tampered = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "tampere");
+    assertEquals(tampered.getResponseCode(), 400);
+  }
+
+  @Test
+  public void testRequestExecutor() throws Exception
+  {
+    final ExecutorService executor = HawkHttpServer.newRequestExecutor();
+    try
+    {
+      assertEquals(executor.submit(new Callable<String>()
+      {
+        @Override
+        public String call()
+        {
+          return "done";
+        }
+      }).get(), "done");
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wealdtech.hawk.HawkPrincipal;
+
+/**
+ * A provider of principals for Hawk authentication that returns a future for
+ * each principal.
+ * <p>
+ * {@link HawkAuthenticationFilter} blocks the container thread on the future,
+ * so this does not free container threads; it lets lookups that are already
+ * asynchronous, such as those against a non-blocking data store, be used
+ * without an adapter, and lets resources chain on
+ * {@link HawkAuthentication#getPrincipal()}.
+ * @param <T> the type of the principal
+ */
+public interface HawkAsyncPrincipalProvider<T extends HawkPrincipal>
+{
+  /**
+   * Obtain the principal for a Hawk key ID.
+   * @param keyId the Hawk key ID
+   * @return a future for the principal, which completes with
+   *         <code>null</code> if there is no principal for the key ID
+   */
+  ListenableFuture<T> getPrincipalAsync(final String keyId);
+}
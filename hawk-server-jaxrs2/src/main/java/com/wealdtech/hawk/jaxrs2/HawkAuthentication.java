@@ -0,0 +1,166 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.container.ContainerRequestContext;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+
+/**
+ * The authentication of a single request with Hawk, which may still be in
+ * progress.
+ * <p>
+ * Resources are only invoked once authentication has succeeded, so
+ * {@link #getPrincipal()} has always completed by the time a resource runs;
+ * asynchronous resources can still chain on it.  The authentication for a
+ * request can be obtained from its context with
+ * {@link #from(ContainerRequestContext)}.
+ * @param <T> the type of the principal
+ */
+public final class HawkAuthentication<T extends HawkPrincipal>
+{
+  /**
+   * The name of the request property holding the authentication.
+   */
+  public static final String PROPERTY = "com.wealdtech.hawk.authentication";
+
+  private final ListenableFuture<T> principal;
+  private final ListenableFuture<HawkCredentials> credentials;
+  private final String payloadHash;
+  private final String contentType;
+  private final long timeout;
+
+  HawkAuthentication(final ListenableFuture<T> principal,
+                     final ListenableFuture<HawkCredentials> credentials,
+                     final String payloadHash,
+                     final String contentType,
+                     final long timeout)
+  {
+    this.principal = principal;
+    this.credentials = credentials;
+    this.payloadHash = payloadHash;
+    this.contentType = contentType;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Obtain the authenticated principal.
+   * @return a future for the principal, which fails with a {@link DataError}
+   *         if the request fails authentication
+   */
+  public ListenableFuture<T> getPrincipal()
+  {
+    return this.principal;
+  }
+
+  /**
+   * Find out if authentication has completed successfully.
+   * @return <code>true</code> if the request has been authenticated
+   */
+  public boolean isAuthenticated()
+  {
+    return (this.principal.isDone()) && (getPrincipalNow() != null);
+  }
+
+  // Obtain the principal if authentication has completed successfully, otherwise null
+  T getPrincipalNow()
+  {
+    if (!this.principal.isDone())
+    {
+      return null;
+    }
+    try
+    {
+      return this.principal.get();
+    }
+    catch (InterruptedException | ExecutionException e)
+    {
+      return null;
+    }
+  }
+
+  // The hash of the payload claimed in the authorization header, if any
+  String getPayloadHash()
+  {
+    return this.payloadHash;
+  }
+
+  String getContentType()
+  {
+    return this.contentType;
+  }
+
+  // Wait for the authenticated credentials, for checking the payload
+  HawkCredentials awaitCredentials()
+  {
+    try
+    {
+      return this.credentials.get(this.timeout, TimeUnit.MILLISECONDS);
+    }
+    catch (ExecutionException ee)
+    {
+      if (ee.getCause() instanceof DataError)
+      {
+        throw (DataError)ee.getCause();
+      }
+      throw new ServerError("Failed to authenticate request", ee.getCause());
+    }
+    catch (TimeoutException te)
+    {
+      throw new ServerError("Timed out authenticating request", te);
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      throw new ServerError("Interrupted authenticating request", ie);
+    }
+  }
+
+  /**
+   * Obtain the Hawk authentication for a request.
+   * @param request the request
+   * @return the authentication, or <code>null</code> if the request was not
+   *         authenticated with Hawk
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends HawkPrincipal> HawkAuthentication<T> from(final ContainerRequestContext request)
+  {
+    final Object authentication = request.getProperty(PROPERTY);
+    return authentication instanceof HawkAuthentication ? (HawkAuthentication<T>)authentication : null;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("principal", getPrincipalNow())
+                  .add("complete", this.principal.isDone())
+                  .add("payloadHash", this.payloadHash)
+                  .add("contentType", this.contentType)
+                  .toString();
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.HawkAsyncCredentialsProvider;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Authentication filter using the Hawk protocol for JAX-RS 2 containers.
+ * <p>
+ * Checks that do not need credentials are carried out first, so requests
+ * that can be rejected without credentials never reach the principal
+ * provider.  The filter then blocks the container thread until the principal
+ * has been obtained, for up to the configured timeout, before any resource is
+ * invoked.  This includes resources that take an <code>@Suspended</code>
+ * {@link javax.ws.rs.container.AsyncResponse}, as JAX-RS 2 request filters
+ * cannot suspend a request, so a resource is never run for a request that
+ * fails authentication.  Requests that time out are rejected with a
+ * <code>503</code>.
+ * <p>
+ * Payload hashes are checked by {@link HawkPayloadInterceptor} as the body is
+ * read, so this filter does not buffer the body.
+ * @param <T> the type of the principal
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class HawkAuthenticationFilter<T extends HawkPrincipal> implements ContainerRequestFilter
+{
+  private static final long DEFAULT_TIMEOUT = 30000L;
+
+  private final transient HawkServer server;
+  private final transient HawkAsyncPrincipalProvider<T> provider;
+  private final transient long timeout;
+
+  /**
+   * Create a new authentication filter for Hawk.
+   * @param server the Hawk server
+   * @param provider a provider for principals
+   */
+  public HawkAuthenticationFilter(final HawkServer server, final HawkAsyncPrincipalProvider<T> provider)
+  {
+    this(server, provider, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Create a new authentication filter for Hawk.
+   * @param server the Hawk server
+   * @param provider a provider for principals
+   * @param timeout the time for which to block the container thread waiting
+   *          for authentication of a request, in milliseconds
+   */
+  public HawkAuthenticationFilter(final HawkServer server, final HawkAsyncPrincipalProvider<T> provider, final long timeout)
+  {
+    checkNotNull(server, "Hawk authentication filter requires a Hawk server");
+    checkNotNull(provider, "Hawk authentication filter requires a principal provider");
+    this.server = server;
+    this.provider = provider;
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void filter(final ContainerRequestContext request)
+  {
+    final HawkAuthentication<T> authentication = start(request);
+    if (authentication == null)
+    {
+      return;
+    }
+    request.setProperty(HawkAuthentication.PROPERTY, authentication);
+    request.setSecurityContext(new HawkSecurityContext<>(authentication, request.getSecurityContext().isSecure()));
+
+    try
+    {
+      authentication.getPrincipal().get(this.timeout, TimeUnit.MILLISECONDS);
+    }
+    catch (ExecutionException ee)
+    {
+      if (ee.getCause() instanceof DataError)
+      {
+        request.abortWith(unauthorized(ee.getCause().getMessage()));
+      }
+      else
+      {
+        request.abortWith(Response.serverError().build());
+      }
+    }
+    catch (TimeoutException te)
+    {
+      request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+    }
+  }
+
+  /**
+   * Start authentication of a request, aborting the request if it can be
+   * rejected without looking up the principal.
+   * @return the authentication, or <code>null</code> if the request has been aborted
+   */
+  private HawkAuthentication<T> start(final ContainerRequestContext request)
+  {
+    final URI uri = request.getUriInfo().getRequestUri();
+    final PrincipalLookup lookup = new PrincipalLookup();
+    if (request.getUriInfo().getQueryParameters().containsKey("bewit"))
+    {
+      if (!"GET".equals(request.getMethod()))
+      {
+        request.abortWith(unauthorized(HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD).getMessage()));
+        return null;
+      }
+      return authenticated(lookup, this.server.authenticateAsync(lookup, uri), null, null);
+    }
+
+    final String authorizationHeader = request.getHeaderString(HttpHeaders.AUTHORIZATION);
+    if (authorizationHeader == null)
+    {
+      request.abortWith(unauthorized(HawkVerificationResult.of(Reason.MISSING_HEADER).getMessage()));
+      return null;
+    }
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(authorizationHeader);
+    if (authorizationHeaders == null)
+    {
+      request.abortWith(unauthorized(HawkVerificationResult.of(Reason.INVALID_HEADER).getMessage()));
+      return null;
+    }
+    // The MAC covers the claimed payload hash; the payload itself is checked against it as it is read
+    final String payloadHash = authorizationHeaders.get("hash");
+    String contentType = null;
+    if (payloadHash != null)
+    {
+      final MediaType mediaType = request.getMediaType();
+      if (mediaType == null)
+      {
+        request.abortWith(unauthorized(HawkVerificationResult.of(Reason.MISSING_CONTENT_TYPE).getMessage()));
+        return null;
+      }
+      contentType = mediaType.toString();
+    }
+    final ListenableFuture<HawkCredentials> credentials = this.server.authenticateAsync(lookup, uri, request.getMethod(), authorizationHeaders, payloadHash, request.hasEntity());
+    return authenticated(lookup, credentials, payloadHash, contentType);
+  }
+
+  // Create the authentication for a request from the authenticated credentials
+  private HawkAuthentication<T> authenticated(final PrincipalLookup lookup,
+                                              final ListenableFuture<HawkCredentials> credentials,
+                                              final String payloadHash,
+                                              final String contentType)
+  {
+    final ListenableFuture<T> principal = Futures.transform(credentials, new AsyncFunction<HawkCredentials, T>()
+    {
+      @Override
+      public ListenableFuture<T> apply(final HawkCredentials input)
+      {
+        // Credentials are only obtained through the lookup, so the principal is already available
+        return lookup.principal;
+      }
+    });
+    return new HawkAuthentication<>(principal, credentials, payloadHash, contentType, this.timeout);
+  }
+
+  private Response unauthorized(final String message)
+  {
+    return Response.status(Response.Status.UNAUTHORIZED)
+                   .header(HttpHeaders.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader())
+                   .entity(message)
+                   .type(MediaType.TEXT_PLAIN_TYPE)
+                   .build();
+  }
+
+  /**
+   * Adapt the principal provider to provide credentials, keeping hold of the
+   * principal for when authentication completes.
+   */
+  private class PrincipalLookup implements HawkAsyncCredentialsProvider
+  {
+    private volatile ListenableFuture<T> principal;
+
+    @Override
+    public ListenableFuture<HawkCredentials> getHawkCredentialsAsync(final String keyId)
+    {
+      this.principal = HawkAuthenticationFilter.this.provider.getPrincipalAsync(keyId);
+      return Futures.transform(this.principal, new Function<T, HawkCredentials>()
+      {
+        @Override
+        public HawkCredentials apply(final T input)
+        {
+          return input == null ? null : input.getHawkCredentials(keyId);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkPayloadInputStream;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Check the payload of a request authenticated by
+ * {@link HawkAuthenticationFilter} against the hash in its authorization
+ * header.
+ * <p>
+ * The payload MAC is calculated as the body is streamed to the entity
+ * provider, so the body is never held in memory, and is checked by the
+ * stream itself once the Content-Length of the body or its end has been
+ * read.  A body that does not match its hash therefore fails the read that
+ * completes it, before the entity provider or a resource reading the body
+ * as a stream can act on the whole of it.  Bodies that are never read as
+ * entities are not checked, as their content cannot affect the resource.
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class HawkPayloadInterceptor implements ReaderInterceptor
+{
+  @Override
+  public Object aroundReadFrom(final ReaderInterceptorContext context) throws IOException
+  {
+    final Object property = context.getProperty(HawkAuthentication.PROPERTY);
+    if ((!(property instanceof HawkAuthentication)) || (((HawkAuthentication<?>)property).getPayloadHash() == null))
+    {
+      return context.proceed();
+    }
+    final HawkAuthentication<?> authentication = (HawkAuthentication<?>)property;
+
+    try
+    {
+      context.setInputStream(new HawkPayloadInputStream(context.getInputStream(),
+                                                        Hawk.startBodyMac(authentication.awaitCredentials(), authentication.getContentType()),
+                                                        authentication.getPayloadHash(),
+                                                        contentLength(context)));
+    }
+    catch (DataError de)
+    {
+      throw new NotAuthorizedException(de.getMessage(), "Hawk");
+    }
+    try
+    {
+      return context.proceed();
+    }
+    catch (IOException ioe)
+    {
+      // Entity providers may wrap the failure from the stream
+      for (Throwable cause = ioe.getCause(); cause != null; cause = cause.getCause())
+      {
+        if (cause instanceof DataError.Authentication)
+        {
+          throw new NotAuthorizedException(HawkVerificationResult.of(Reason.BAD_MAC, "The payload does not match its hash").getMessage(), "Hawk");
+        }
+      }
+      throw ioe;
+    }
+  }
+
+  // Obtain the Content-Length of the body, or -1 if it is absent or invalid
+  private static long contentLength(final ReaderInterceptorContext context)
+  {
+    final String contentLength = context.getHeaders().getFirst(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength == null)
+    {
+      return -1L;
+    }
+    try
+    {
+      return Long.parseLong(contentLength.trim());
+    }
+    catch (NumberFormatException nfe)
+    {
+      return -1L;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jaxrs2;
+
+import java.security.Principal;
+
+import javax.ws.rs.core.SecurityContext;
+
+import com.wealdtech.hawk.HawkPrincipal;
+
+/**
+ * Security context for a request authenticated with Hawk.
+ * <p>
+ * The user principal is only available once authentication has completed
+ * successfully; before then it is <code>null</code>.
+ * @param <T> the type of the principal
+ */
+public class HawkSecurityContext<T extends HawkPrincipal> implements SecurityContext
+{
+  public static final String HAWK_AUTH = "Hawk";
+
+  private final HawkAuthentication<T> authentication;
+  private final boolean secure;
+
+  public HawkSecurityContext(final HawkAuthentication<T> authentication, final boolean secure)
+  {
+    this.authentication = authentication;
+    this.secure = secure;
+  }
+
+  @Override
+  public Principal getUserPrincipal()
+  {
+    return this.authentication.getPrincipalNow();
+  }
+
+  @Override
+  public boolean isUserInRole(final String role)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isSecure()
+  {
+    return this.secure;
+  }
+
+  @Override
+  public String getAuthenticationScheme()
+  {
+    return HAWK_AUTH;
+  }
+}
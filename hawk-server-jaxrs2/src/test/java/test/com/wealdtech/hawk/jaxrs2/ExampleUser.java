@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jaxrs2;
+
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+
+/**
+ * A simple example user class for testing Hawk.
+ */
+public class ExampleUser implements HawkPrincipal
+{
+  private final String name;
+  private final HawkCredentials hawkCredentials;
+
+  public ExampleUser(final String name, final HawkCredentials hawkCredentials)
+  {
+    this.name = name;
+    this.hawkCredentials = hawkCredentials;
+  }
+
+  @Override
+  public String getName()
+  {
+    return this.name;
+  }
+
+  @Override
+  public HawkCredentials getHawkCredentials(final String keyId)
+  {
+    return this.hawkCredentials.getKeyId().equals(keyId) ? this.hawkCredentials : null;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jaxrs2;
+
+import static org.testng.Assert.*;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.wealdtech.hawk.Hawk.PayloadValidation;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkClientConfiguration;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.jaxrs2.HawkAsyncPrincipalProvider;
+import com.wealdtech.hawk.jaxrs2.HawkAuthenticationFilter;
+import com.wealdtech.hawk.jaxrs2.HawkAuthorizationFilter;
+import com.wealdtech.hawk.jaxrs2.HawkPayloadInterceptor;
+
+public class HawkJaxrs2ServerTest
+{
+  private static final URI BASEURI = URI.create("http://localhost:18236/");
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private ListeningScheduledExecutorService lookupExecutor;
+  private HttpServer server;
+  private Client client;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    final ExampleUser user = new ExampleUser("Steve", this.goodCredentials);
+
+    // Look up principals after a delay, to make sure that nothing relies on the lookup completing immediately
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.lookupExecutor = MoreExecutors.listeningDecorator(scheduler);
+    final HawkAsyncPrincipalProvider<ExampleUser> provider = new HawkAsyncPrincipalProvider<ExampleUser>()
+    {
+      @Override
+      public ListenableFuture<ExampleUser> getPrincipalAsync(final String keyId)
+      {
+        return lookupExecutor.schedule(new Callable<ExampleUser>()
+        {
+          @Override
+          public ExampleUser call()
+          {
+            return user.getHawkCredentials(keyId) == null ? null : user;
+          }
+        }, 20, TimeUnit.MILLISECONDS);
+      }
+    };
+
+    final ResourceConfig config = new ResourceConfig(HelloWorldResource.class)
+                                                    .register(new HawkAuthenticationFilter<>(new HawkServer.Builder().build(), provider))
+                                                    .register(HawkPayloadInterceptor.class);
+    this.server = GrizzlyHttpServerFactory.createHttpServer(BASEURI, config);
+    this.client = ClientBuilder.newClient();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.client.close();
+    this.server.shutdownNow();
+    this.lookupExecutor.shutdown();
+  }
+
+  private Client hawkClient(final HawkCredentials credentials, final PayloadValidation payloadValidation)
+  {
+    final HawkClient hawkClient = new HawkClient.Builder()
+                                                .credentials(credentials)
+                                                .configuration(new HawkClientConfiguration.Builder().payloadValidation(payloadValidation).build())
+                                                .build();
+    return ClientBuilder.newClient().register(new HawkAuthorizationFilter(hawkClient));
+  }
+
+  @Test
+  public void testGet() throws Exception
+  {
+    final Response response = hawkClient(this.goodCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld").request().get();
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.readEntity(String.class), "Hello Steve");
+  }
+
+  @Test
+  public void testUnauthenticated() throws Exception
+  {
+    final Response response = this.client.target(BASEURI).path("helloworld").request().get();
+    assertEquals(response.getStatus(), 401);
+    assertNotNull(response.getHeaderString(HttpHeaders.WWW_AUTHENTICATE));
+  }
+
+  @Test
+  public void testBadCredentials() throws Exception
+  {
+    final Response response = hawkClient(this.badCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld").request().get();
+    assertEquals(response.getStatus(), 401);
+  }
+
+  @Test
+  public void testPostWithPayload() throws Exception
+  {
+    final Response response = hawkClient(this.goodCredentials, PayloadValidation.MANDATORY).target(BASEURI).path("helloworld").request()
+                                                                                           .post(Entity.entity("payload", MediaType.TEXT_PLAIN_TYPE));
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.readEntity(String.class), "Hello Steve: payload");
+  }
+
+  @Test
+  public void testPostWithTamperedPayload() throws Exception
+  {
+    final HawkClient hawkClient = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final URI uri = BASEURI.resolve("helloworld");
+    final String hash = hawkClient.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+    final Response response = this.client.target(uri).request()
+                                     .header(HttpHeaders.AUTHORIZATION, hawkClient.generateAuthorizationHeader(uri, "POST", hash, null, null, null))
+                                     .post(Entity.entity("tampered", MediaType.TEXT_PLAIN_TYPE));
+    assertEquals(response.getStatus(), 401);
+  }
+
+  @Test
+  public void testPostWithStreamedPayload() throws Exception
+  {
+    final Response response = hawkClient(this.goodCredentials, PayloadValidation.MANDATORY).target(BASEURI).path("helloworld/stream").request()
+                                                                                           .post(Entity.entity("payload", MediaType.TEXT_PLAIN_TYPE));
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.readEntity(String.class), "Hello Steve: payload");
+  }
+
+  @Test
+  public void testPostWithTamperedStreamedPayload() throws Exception
+  {
+    // Tampered body of the same length, read exactly to its Content-Length
+    final HawkClient hawkClient = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final URI uri = BASEURI.resolve("helloworld/stream");
+    final String hash = hawkClient.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+    final Response response = this.client.target(uri).request()
+                                     .header(HttpHeaders.AUTHORIZATION, hawkClient.generateAuthorizationHeader(uri, "POST", hash, null, null, null))
+                                     .post(Entity.entity("tampere", MediaType.TEXT_PLAIN_TYPE));
+    assertEquals(response.getStatus(), 500);
+  }
+
+  @Test
+  public void testAsync() throws Exception
+  {
+    final Response response = hawkClient(this.goodCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld/async").request().async().get().get();
+    assertEquals(response.getStatus(), 200);
+    assertEquals(response.readEntity(String.class), "Hello Steve");
+  }
+
+  @Test
+  public void testAsyncBadCredentials() throws Exception
+  {
+    final Response response = hawkClient(this.badCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld/async").request().get();
+    assertEquals(response.getStatus(), 401);
+  }
+
+  @Test
+  public void testAsyncUnchecked() throws Exception
+  {
+    // Resource responds without waiting for authentication, so must not be invoked at all
+    final int calls = HelloWorldResource.UNCHECKED_CALLS.get();
+    final Response response = hawkClient(this.badCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld/unchecked").request().get();
+    assertEquals(response.getStatus(), 401);
+    assertEquals(HelloWorldResource.UNCHECKED_CALLS.get(), calls);
+  }
+
+  @Test
+  public void testAsyncUncheckedGoodCredentials() throws Exception
+  {
+    final int calls = HelloWorldResource.UNCHECKED_CALLS.get();
+    final Response response = hawkClient(this.goodCredentials, PayloadValidation.NEVER).target(BASEURI).path("helloworld/unchecked").request().get();
+    assertEquals(response.getStatus(), 200);
+    assertEquals(HelloWorldResource.UNCHECKED_CALLS.get(), calls + 1);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jaxrs2;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.wealdtech.hawk.jaxrs2.HawkAuthentication;
+
+/**
+ * Simple resource for testing Hawk authentication, both synchronous and
+ * asynchronous.
+ */
+@Path("helloworld")
+public class HelloWorldResource
+{
+  // Number of times the unchecked resource has been invoked
+  static final AtomicInteger UNCHECKED_CALLS = new AtomicInteger();
+
+  @Context
+  SecurityContext securityContext;
+
+  @GET
+  @Produces("text/plain")
+  public String getHelloWorld()
+  {
+    return "Hello " + this.securityContext.getUserPrincipal().getName();
+  }
+
+  @POST
+  @Consumes("text/plain")
+  @Produces("text/plain")
+  public String postHelloWorld(final String body)
+  {
+    return "Hello " + this.securityContext.getUserPrincipal().getName() + ": " + body;
+  }
+
+  @POST
+  @Path("stream")
+  @Consumes("text/plain")
+  @Produces("text/plain")
+  public String postHelloWorldStream(@HeaderParam(HttpHeaders.CONTENT_LENGTH) final int length, final InputStream body) throws IOException
+  {
+    // Read exactly the declared length, as a resource streaming the body would
+    final byte[] buf = new byte[length];
+    new DataInputStream(body).readFully(buf);
+    return "Hello " + this.securityContext.getUserPrincipal().getName() + ": " + new String(buf, Charsets.UTF_8);
+  }
+
+  @GET
+  @Path("async")
+  @Produces("text/plain")
+  public void getHelloWorldAsync(@Context final ContainerRequestContext request, @Suspended final AsyncResponse response)
+  {
+    final HawkAuthentication<ExampleUser> authentication = HawkAuthentication.from(request);
+    Futures.addCallback(authentication.getPrincipal(), new FutureCallback<ExampleUser>()
+    {
+      @Override
+      public void onSuccess(final ExampleUser user)
+      {
+        response.resume("Hello " + user.getName());
+      }
+
+      @Override
+      public void onFailure(final Throwable t)
+      {
+        response.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+      }
+    });
+  }
+
+  @GET
+  @Path("unchecked")
+  @Produces("text/plain")
+  public void getHelloWorldUnchecked(@Suspended final AsyncResponse response)
+  {
+    UNCHECKED_CALLS.incrementAndGet();
+    response.resume("Hello world");
+  }
+}
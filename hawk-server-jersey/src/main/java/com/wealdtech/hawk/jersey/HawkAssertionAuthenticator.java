@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.wealdtech.hawk.HawkAssertion;
+import com.wealdtech.hawk.HawkAssertionSigner;
+import com.wealdtech.jersey.auth.Authenticator;
+
+/**
+ * Authenticate a request on an internal service using the assertion minted
+ * by the edge service that verified the original Hawk request.
+ * <p>
+ * Validation is a single HMAC with no credentials lookup or nonce check.
+ * The authenticated principal is the {@link HawkAssertion} itself.
+ */
+public class HawkAssertionAuthenticator implements Authenticator<HawkAssertion>
+{
+  private final transient HawkAssertionSigner signer;
+
+  /**
+   * Create a new authenticator for Hawk assertions.
+   * @param signer the signer with which assertions were minted
+   */
+  @Inject
+  public HawkAssertionAuthenticator(final HawkAssertionSigner signer)
+  {
+    this.signer = signer;
+  }
+
+  @Override
+  public boolean canAuthenticate(final ContainerRequest request)
+  {
+    return request.getHeaderValue(HawkAssertionSigner.HEADER) != null;
+  }
+
+  /**
+   * Authenticate a request.
+   * @param request the HTTP request
+   * @return the assertion, or <code>Optional.absent()</code> if the request does not carry a valid assertion
+   */
+  @Override
+  public Optional<HawkAssertion> authenticate(final ContainerRequest request)
+  {
+    return this.signer.verify(request.getHeaderValue(HawkAssertionSigner.HEADER), request.getMethod(), request.getRequestUri());
+  }
+}
@@ -35,6 +35,13 @@ import com.wealdtech.jersey.exceptions.UnauthorizedException;
  */
 public class HawkAuthenticationFilter<T> implements ContainerRequestFilter
 {
+  /**
+   * The request attribute holding the assertion minted for a verified
+   * request, if the authenticator mints assertions.  Pass this to internal
+   * services in the {@link com.wealdtech.hawk.HawkAssertionSigner#HEADER} header.
+   */
+  public static final String ASSERTION_ATTRIBUTE = "com.wealdtech.hawk.assertion";
+
   private final transient Authenticator<T> authenticator;
 
   @Context
@@ -49,6 +56,11 @@ public class HawkAuthenticationFilter<T> implements ContainerRequestFilter
   @Override
   public ContainerRequest filter(final ContainerRequest request)
   {
+    if (this.authenticator instanceof HawkAuthenticator)
+    {
+      return filterHawk(request);
+    }
+
     Optional<T> result;
     try
     {
@@ -79,4 +91,56 @@ public class HawkAuthenticationFilter<T> implements ContainerRequestFilter
 
     return request;
   }
+
+  /**
+   * Filter using the Hawk authenticator's verification result rather than
+   * exceptions, so that rejected requests cost a single exception without a
+   * stack trace.
+   */
+  private ContainerRequest filterHawk(final ContainerRequest request)
+  {
+    final HawkAuthenticationResult<?> result;
+    try
+    {
+      result = ((HawkAuthenticator<?>)this.authenticator).verify(request);
+    }
+    catch (ServerError se)
+    {
+      // A server error means that the authentication attempt failed due to a server problem
+      throw new InternalServerException(se);
+    }
+
+    if (!result.isValid())
+    {
+      throw new HawkUnauthorizedException(result.getVerification().getMessage());
+    }
+
+    this.servletrequest.setAttribute("com.wealdtech.authenticatedprincipal", result.getPrincipal().get());
+    if (result.getAssertion().isPresent())
+    {
+      this.servletrequest.setAttribute(ASSERTION_ATTRIBUTE, result.getAssertion().get());
+    }
+
+    return request;
+  }
+
+  /**
+   * An unauthorized exception that does not fill in its stack trace, which
+   * would be of no use for a rejected request.
+   */
+  private static class HawkUnauthorizedException extends UnauthorizedException
+  {
+    private static final long serialVersionUID = 1L;
+
+    HawkUnauthorizedException(final String message)
+    {
+      super(message, "Authentication failed");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace()
+    {
+      return this;
+    }
+  }
 }
@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.wealdtech.hawk.HawkVerificationResult;
+
+/**
+ * The result of authenticating a request with Hawk: the result of
+ * verification and, if verification succeeded, the authenticated principal
+ * and any assertion minted for internal services.
+ */
+public final class HawkAuthenticationResult<T>
+{
+  private final HawkVerificationResult verification;
+  private final Optional<T> principal;
+  private final Optional<String> assertion;
+
+  private HawkAuthenticationResult(final HawkVerificationResult verification, final Optional<T> principal, final Optional<String> assertion)
+  {
+    this.verification = verification;
+    this.principal = principal;
+    this.assertion = assertion;
+  }
+
+  /**
+   * Create a result for a successful authentication.
+   * @param principal the authenticated principal
+   * @return the result
+   */
+  public static <T> HawkAuthenticationResult<T> success(final T principal)
+  {
+    return new HawkAuthenticationResult<>(HawkVerificationResult.OK, Optional.of(principal), Optional.<String>absent());
+  }
+
+  /**
+   * Create a result for a successful authentication with an assertion for
+   * internal services.
+   * @param principal the authenticated principal
+   * @param assertion the assertion
+   * @return the result
+   */
+  public static <T> HawkAuthenticationResult<T> success(final T principal, final String assertion)
+  {
+    return new HawkAuthenticationResult<>(HawkVerificationResult.OK, Optional.of(principal), Optional.of(assertion));
+  }
+
+  /**
+   * Create a result for a failed authentication.
+   * @param verification the failed verification
+   * @return the result
+   */
+  public static <T> HawkAuthenticationResult<T> failure(final HawkVerificationResult verification)
+  {
+    return new HawkAuthenticationResult<>(verification, Optional.<T>absent(), Optional.<String>absent());
+  }
+
+  public boolean isValid()
+  {
+    return this.verification.isValid();
+  }
+
+  public HawkVerificationResult getVerification()
+  {
+    return this.verification;
+  }
+
+  public Optional<T> getPrincipal()
+  {
+    return this.principal;
+  }
+
+  /**
+   * Obtain the assertion minted for internal services.
+   * @return the assertion, or <code>Optional.absent()</code> if none was minted
+   */
+  public Optional<String> getAssertion()
+  {
+    return this.assertion;
+  }
+
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("verification", this.verification)
+                  .add("principal", this.principal.orNull())
+                  .add("assertion", this.assertion.isPresent() ? "present" : null)
+                  .omitNullValues()
+                  .toString();
+  }
+}
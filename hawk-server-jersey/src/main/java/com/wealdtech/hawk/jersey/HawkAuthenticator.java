@@ -16,11 +16,10 @@
 
 package com.wealdtech.hawk.jersey;
 
-import static com.wealdtech.Preconditions.*;
-
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.security.Principal;
 import java.util.List;
 
 import com.google.common.base.Optional;
@@ -30,8 +29,11 @@ import com.google.inject.Inject;
 import com.sun.jersey.spi.container.ContainerRequest;
 import com.wealdtech.DataError;
 import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkAssertionSigner;
 import com.wealdtech.hawk.HawkCredentials;
 import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
 import com.wealdtech.jersey.auth.Authenticator;
 import com.wealdtech.jersey.auth.PrincipalProvider;
 
@@ -40,8 +42,12 @@ import com.wealdtech.jersey.auth.PrincipalProvider;
  */
 public class HawkAuthenticator<T extends HawkCredentialsProvider> implements Authenticator<T>
 {
+  // Distinguishes a missing principal from other unknown IDs by identity
+  private static final HawkVerificationResult PRINCIPAL_NOT_FOUND = HawkVerificationResult.of(Reason.UNKNOWN_ID, "No principal is known for the id");
+
   private final transient HawkServer server;
   private final transient PrincipalProvider<T, String> provider;
+  private final transient HawkAssertionSigner signer;
 
   /**
    * Create a new authenticator for Hawk.
@@ -51,9 +57,28 @@ public class HawkAuthenticator<T extends HawkCredentialsProvider> implements Aut
   @Inject
   public HawkAuthenticator(final HawkServer server,
                            final PrincipalProvider<T, String> provider)
+  {
+    this(server, provider, null);
+  }
+
+  /**
+   * Create a new authenticator for Hawk that mints an assertion for each
+   * request it verifies, so that internal services handling the request do
+   * not need to verify it again.
+   * <p>
+   * The principal named in the assertion is the principal's name if it is a
+   * {@link Principal}, otherwise the key ID.
+   * @param server a the Hawk server
+   * @param provider a provider for Hawk credentials
+   * @param signer the signer for assertions, or <code>null</code> to not mint assertions
+   */
+  public HawkAuthenticator(final HawkServer server,
+                           final PrincipalProvider<T, String> provider,
+                           final HawkAssertionSigner signer)
   {
     this.server = server;
     this.provider = provider;
+    this.signer = signer;
   }
 
   @Override
@@ -77,57 +102,110 @@ public class HawkAuthenticator<T extends HawkCredentialsProvider> implements Aut
    * <p>Authentication can be with an authentication header or a query string, so
    * decide which it is and handle it appropriately.
    * @param request the HTTP request
-   * @return the authenticated principal, or <code>Optional.absent()</code> if the request was not authenticated
-   * @throws DataError if there is a problem with the data that prevents the authentication attempt
+   * @return the authenticated principal, or <code>Optional.absent()</code> if there is no principal for the key ID
+   * @throws DataError if the request fails verification for any other reason
    */
   @Override
   public Optional<T> authenticate(final ContainerRequest request)
+  {
+    final HawkAuthenticationResult<T> result = verify(request);
+    if (result.getVerification() == PRINCIPAL_NOT_FOUND)
+    {
+      // Not an error; there is simply nobody to authenticate
+      return Optional.absent();
+    }
+    if (!result.isValid())
+    {
+      throw result.getVerification().toError();
+    }
+    return result.getPrincipal();
+  }
+
+  /**
+   * Verify a request, without throwing an exception if verification fails.
+   * <p>Authentication can be with an authentication header or a query string, so
+   * decide which it is and handle it appropriately.
+   * <p>A request verified with an authentication header is marked so that
+   * {@link HawkServerAuthorizationFilter} can sign its response.
+   * @param request the HTTP request
+   * @return the result of authentication, including the principal if authentication succeeded
+   */
+  public HawkAuthenticationResult<T> verify(final ContainerRequest request)
   {
     if (request.getQueryParameters().containsKey("bewit"))
     {
-      return authenticateFromBewit(request);
+      return verifyFromBewit(request);
     }
     else
     {
-      return authenticateFromHeader(request);
+      return verifyFromHeader(request);
     }
   }
 
   /**
-   * Authenticate a request from a bewit.
+   * Verify a request from a bewit.
    * @param request the HTTP request
-   * @return the authenticated principal, or <code>Optional.absent()</code> if the request was not authenticated
-   * @throws DataError if there is a problem with the data that prevents the authentication attempt
+   * @return the result of authentication
    */
-  private Optional<T> authenticateFromBewit(final ContainerRequest request)
+  private HawkAuthenticationResult<T> verifyFromBewit(final ContainerRequest request)
   {
-    checkState((request.getMethod().equals("GET")), "HTTP method %s not supported with bewit", request.getMethod());
-    final String bewit = server.extractBewit(request.getRequestUri());
-    final ImmutableMap<String, String> bewitFields = server.splitBewit(bewit);
+    if (!request.getMethod().equals("GET"))
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD));
+    }
+    final ImmutableMap<String, String> bewitFields = server.parseBewit(request.getRequestUri());
+    if (bewitFields == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.INVALID_BEWIT));
+    }
     final Optional<T> principal = provider.getFromKey(bewitFields.get("id"));
     if (!principal.isPresent())
     {
       // Could not find the principal, reject this authentication request
-      return Optional.absent();
+      return HawkAuthenticationResult.failure(PRINCIPAL_NOT_FOUND);
     }
     final HawkCredentials credentials = principal.get().getHawkCredentials(bewitFields.get("id"));
-    this.server.authenticate(credentials, request.getRequestUri());
-    return principal;
+    final HawkVerificationResult verification = this.server.verify(credentials, request.getRequestUri());
+    if (!verification.isValid())
+    {
+      return HawkAuthenticationResult.failure(verification);
+    }
+    return success(principal.get(), bewitFields.get("id"), request);
   }
 
   /**
-   * Authenticate a request from an authentication header.
+   * Verify a request from an authentication header.
    * @param request the HTTP request
-   * @return the authenticated principal, or <code>Optional.absent()</code> if the request was not authenticated
-   * @throws DataError if there is a problem with the data that prevents the authentication attempt
+   * @return the result of authentication
    */
-  private Optional<T> authenticateFromHeader(final ContainerRequest request)
+  private HawkAuthenticationResult<T> verifyFromHeader(final ContainerRequest request)
   {
-    final ImmutableMap<String, String> authorizationHeaders = server.splitAuthorizationHeader(request.getHeaderValue(ContainerRequest.AUTHORIZATION));
-    checkNotNull(authorizationHeaders.get("id"), "Missing required Hawk authorization header \"id\"");
-    checkNotNull(authorizationHeaders.get("ts"), "Missing required Hawk authorization header \"ts\"");
-    checkNotNull(authorizationHeaders.get("mac"), "Missing required Hawk authorization header \"mac\"");
-    checkNotNull(authorizationHeaders.get("nonce"), "Missing required Hawk authorization header \"nonce\"");
+    final String authorizationHeader = request.getHeaderValue(ContainerRequest.AUTHORIZATION);
+    if (authorizationHeader == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_HEADER));
+    }
+    final ImmutableMap<String, String> authorizationHeaders = server.parseAuthorizationHeader(authorizationHeader);
+    if (authorizationHeaders == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.INVALID_HEADER));
+    }
+    if (authorizationHeaders.get("id") == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_ID));
+    }
+    if (authorizationHeaders.get("ts") == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_TIMESTAMP));
+    }
+    if (authorizationHeaders.get("mac") == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_MAC));
+    }
+    if (authorizationHeaders.get("nonce") == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_NONCE));
+    }
     String hash = null;
     final URI uri = request.getRequestUri();
     final String method = request.getMethod();
@@ -135,27 +213,51 @@ public class HawkAuthenticator<T extends HawkCredentialsProvider> implements Aut
     if (!principal.isPresent())
     {
       // Could not find the principal, reject this authentication request
-      return Optional.absent();
+      return HawkAuthenticationResult.failure(PRINCIPAL_NOT_FOUND);
     }
     final HawkCredentials credentials = principal.get().getHawkCredentials(authorizationHeaders.get("id"));
+    if (credentials == null)
+    {
+      return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
     if (authorizationHeaders.get("hash") != null)
     {
+      List<String> contentTypes = request.getRequestHeader(ContainerRequest.CONTENT_TYPE);
+      if ((contentTypes == null) || (contentTypes.size() == 0))
+      {
+        return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.MISSING_CONTENT_TYPE));
+      }
       try
       {
-        List<String> contentTypes = request.getRequestHeader(ContainerRequest.CONTENT_TYPE);
-        if ((contentTypes == null) || (contentTypes.size() == 0))
-        {
-          throw new DataError.Bad("Missing content type header for body verification");
-        }
         hash = Hawk.calculateBodyMac(credentials, contentTypes.get(0), CharStreams.toString(new InputStreamReader(request.getEntityInputStream(), "UTF-8")));
       }
       catch (IOException ioe)
       {
-        throw new DataError.Bad("Failed to read the message body to calculate hash", ioe);
+        return HawkAuthenticationResult.failure(HawkVerificationResult.of(Reason.INVALID_PAYLOAD));
       }
     }
     final boolean hasBody = request.getHeaderValue(ContainerRequest.CONTENT_LENGTH) != null ? true : false;
-    this.server.authenticate(credentials, uri, method, authorizationHeaders, hash, hasBody);
-    return principal;
+    final HawkVerificationResult verification = this.server.verify(credentials, uri, method, authorizationHeaders, hash, hasBody);
+    if (!verification.isValid())
+    {
+      return HawkAuthenticationResult.failure(verification);
+    }
+    // Keep what is needed to sign the response
+    request.getProperties().put(HawkServerAuthorizationFilter.REQUEST_PROPERTY,
+                                new HawkServerAuthorizationFilter.VerifiedRequest(credentials, authorizationHeaders));
+    return success(principal.get(), authorizationHeaders.get("id"), request);
+  }
+
+  /**
+   * Create the result for a verified request, minting an assertion if required.
+   */
+  private HawkAuthenticationResult<T> success(final T principal, final String keyId, final ContainerRequest request)
+  {
+    if (this.signer == null)
+    {
+      return HawkAuthenticationResult.success(principal);
+    }
+    final String name = principal instanceof Principal ? ((Principal)principal).getName() : keyId;
+    return HawkAuthenticationResult.success(principal, this.signer.mint(keyId, name, request.getMethod(), request.getRequestUri()));
   }
 }
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.wealdtech.hawk.invalidation.HawkInvalidationBus;
+import com.wealdtech.hawk.invalidation.HawkInvalidationListener;
+import com.wealdtech.jersey.auth.PrincipalProvider;
+
+/**
+ * Cache principals obtained from another provider.
+ * <p>
+ * Principals are held until they expire.  If an invalidation bus is supplied
+ * then principals are also dropped as soon as their key ID is invalidated on
+ * any node, which makes long expiry times safe.  Failed lookups are not cached.
+ * <p>
+ * A lookup that is in progress when its key ID is invalidated may have
+ * obtained the principal from before the invalidation, so its result is
+ * returned to the caller but not left in the cache.  Invalidations are
+ * tracked with a generation for each of a fixed number of stripes of key IDs,
+ * so a lookup may occasionally be left uncached because of an invalidation of
+ * another key ID in the same stripe.
+ */
+public class HawkCachingPrincipalProvider<T> extends HawkPrincipalProvider<T> implements HawkInvalidationListener
+{
+  private static final int STRIPES = 256;
+
+  private final transient PrincipalProvider<T, String> delegate;
+  private final transient Cache<String, T> principals;
+  private final transient AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+  /**
+   * Create a caching provider.
+   * @param delegate the provider from which to obtain principals
+   * @param expiry the time for which to cache principals, in seconds
+   * @param maximumSize the maximum number of principals to cache
+   * @param bus a bus for invalidations, or <code>null</code> if none
+   */
+  public HawkCachingPrincipalProvider(final PrincipalProvider<T, String> delegate,
+                                      final long expiry,
+                                      final long maximumSize,
+                                      final HawkInvalidationBus bus)
+  {
+    checkNotNull(delegate, "The underlying principal provider is required");
+    checkArgument((expiry >= 0), "The expiry may not be negative");
+    checkArgument((maximumSize >= 0), "The maximum size may not be negative");
+    this.delegate = delegate;
+    this.principals = CacheBuilder.newBuilder()
+                                  .expireAfterWrite(expiry, TimeUnit.SECONDS)
+                                  .maximumSize(maximumSize)
+                                  .build();
+    if (bus != null)
+    {
+      bus.addListener(this);
+    }
+  }
+
+  @Override
+  public Optional<T> getFromKey(final String key)
+  {
+    final T cached = this.principals.getIfPresent(key);
+    if (cached != null)
+    {
+      return Optional.of(cached);
+    }
+    final int stripe = stripe(key);
+    final long generation = this.generations.get(stripe);
+    final Optional<T> principal = this.delegate.getFromKey(key);
+    if (principal.isPresent())
+    {
+      this.principals.put(key, principal.get());
+      // Checked after the put, as an invalidation between a check and the put would be lost
+      if (this.generations.get(stripe) != generation)
+      {
+        this.principals.invalidate(key);
+      }
+    }
+    return principal;
+  }
+
+  @Override
+  public void invalidate(final Collection<String> keyIds)
+  {
+    // Generations move on before the cache is invalidated, so that lookups in progress see them
+    for (final String keyId : keyIds)
+    {
+      this.generations.incrementAndGet(stripe(keyId));
+    }
+    this.principals.invalidateAll(keyIds);
+  }
+
+  private static int stripe(final String key)
+  {
+    return key.hashCode() & (STRIPES - 1);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Objects;
+import com.wealdtech.hawk.HawkCredentials;
+
+/**
+ * A principal whose Hawk credentials are derived from a master secret
+ * rather than stored.  The principal is identified solely by its key ID.
+ */
+public class HawkDerivedPrincipal implements HawkCredentialsProvider
+{
+  private final HawkCredentials credentials;
+
+  public HawkDerivedPrincipal(final HawkCredentials credentials)
+  {
+    this.credentials = credentials;
+  }
+
+  /**
+   * Obtain the key ID that identifies this principal.
+   * @return the key ID
+   */
+  public String getKeyId()
+  {
+    return this.credentials.getKeyId();
+  }
+
+  @Override
+  public HawkCredentials getHawkCredentials(final String keyId)
+  {
+    if (this.credentials.getKeyId().equals(keyId))
+    {
+      return this.credentials;
+    }
+    return null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("keyId", this.getKeyId())
+                  .toString();
+  }
+}
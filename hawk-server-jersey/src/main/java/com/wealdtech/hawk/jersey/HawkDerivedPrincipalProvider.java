@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsDeriver;
+
+/**
+ * Provide principals with credentials derived from a master secret.
+ * <p>
+ * No credential store is consulted, so this is suitable for machine-to-machine
+ * clients that have been issued credentials by the same deriver.
+ */
+public class HawkDerivedPrincipalProvider extends HawkPrincipalProvider<HawkDerivedPrincipal>
+{
+  private final transient HawkCredentialsDeriver deriver;
+
+  @Inject
+  public HawkDerivedPrincipalProvider(final HawkCredentialsDeriver deriver)
+  {
+    this.deriver = deriver;
+  }
+
+  @Override
+  public Optional<HawkDerivedPrincipal> getFromKey(final String key)
+  {
+    final HawkCredentials credentials = this.deriver.derive(key);
+    if (credentials == null)
+    {
+      return Optional.absent();
+    }
+    return Optional.of(new HawkDerivedPrincipal(credentials));
+  }
+}
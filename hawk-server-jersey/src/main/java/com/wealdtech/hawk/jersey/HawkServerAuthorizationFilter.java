@@ -0,0 +1,239 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.jersey;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.crypto.Mac;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkServer;
+
+/**
+ * Response filter providing a Server-Authorization header for responses to
+ * requests authenticated with a Hawk authorization header, allowing clients
+ * to authenticate the response as per the Hawk specification.
+ * <p>
+ * The response payload is hashed as it is written.  As the header must be
+ * sent before the body, payloads up to a threshold, by default 64KB, are
+ * held until they are complete so that their hash can be included in the
+ * header.  Larger payloads are streamed as they are written, with a header
+ * that authenticates the response but not its payload.
+ */
+public class HawkServerAuthorizationFilter implements ContainerResponseFilter
+{
+  public static final String SERVER_AUTHORIZATION = "Server-Authorization";
+  public static final int DEFAULT_BUFFER_THRESHOLD = 64 * 1024;
+
+  // The request property holding the details of a verified request
+  static final String REQUEST_PROPERTY = "com.wealdtech.hawk.verifiedrequest";
+
+  private final transient HawkServer server;
+  private final int bufferThreshold;
+
+  @Inject
+  public HawkServerAuthorizationFilter(final HawkServer server)
+  {
+    this(server, DEFAULT_BUFFER_THRESHOLD);
+  }
+
+  /**
+   * Create a filter with a specific buffer threshold.
+   * @param server the Hawk server
+   * @param bufferThreshold the largest payload, in bytes, whose hash is included in the header
+   */
+  public HawkServerAuthorizationFilter(final HawkServer server, final int bufferThreshold)
+  {
+    checkNotNull(server, "Server authorization filter requires a hawk server");
+    checkArgument(bufferThreshold >= 0, "The buffer threshold may not be negative");
+    this.server = server;
+    this.bufferThreshold = bufferThreshold;
+  }
+
+  @Override
+  public ContainerResponse filter(final ContainerRequest request, final ContainerResponse response)
+  {
+    final Object verified = request.getProperties().get(REQUEST_PROPERTY);
+    if ((verified instanceof VerifiedRequest) &&
+        (response.getStatus() != Status.UNAUTHORIZED.getStatusCode()))
+    {
+      response.setContainerResponseWriter(new SigningWriter(response.getContainerResponseWriter(), request, (VerifiedRequest)verified));
+    }
+    return response;
+  }
+
+  /**
+   * The details of a verified request required to sign its response.
+   */
+  static final class VerifiedRequest
+  {
+    private final HawkCredentials credentials;
+    private final ImmutableMap<String, String> authorizationHeaders;
+
+    VerifiedRequest(final HawkCredentials credentials, final ImmutableMap<String, String> authorizationHeaders)
+    {
+      this.credentials = credentials;
+      this.authorizationHeaders = authorizationHeaders;
+    }
+  }
+
+  /**
+   * A response writer that adds the Server-Authorization header when the
+   * response is committed.
+   */
+  private class SigningWriter implements ContainerResponseWriter
+  {
+    private final ContainerResponseWriter writer;
+    private final ContainerRequest request;
+    private final VerifiedRequest verified;
+    private SigningOutputStream stream;
+
+    SigningWriter(final ContainerResponseWriter writer, final ContainerRequest request, final VerifiedRequest verified)
+    {
+      this.writer = writer;
+      this.request = request;
+      this.verified = verified;
+    }
+
+    @Override
+    public OutputStream writeStatusAndHeaders(final long contentLength, final ContainerResponse response) throws IOException
+    {
+      final Object contentType = response.getHttpHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+      if ((contentType == null) || (contentLength > bufferThreshold))
+      {
+        // Cannot or should not hash the payload, so commit immediately
+        sign(response, null);
+        return this.writer.writeStatusAndHeaders(contentLength, response);
+      }
+      this.stream = new SigningOutputStream(this, response, Hawk.startBodyMac(this.verified.credentials, contentType.toString()));
+      return this.stream;
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+      if (this.stream != null)
+      {
+        // Responses without entities are finished without closing the stream
+        this.stream.commit();
+      }
+      this.writer.finish();
+    }
+
+    private void sign(final ContainerResponse response, final String hash)
+    {
+      response.getHttpHeaders().putSingle(SERVER_AUTHORIZATION,
+                                          server.generateServerAuthorizationHeader(this.verified.credentials,
+                                                                                   this.request.getRequestUri(),
+                                                                                   this.request.getMethod(),
+                                                                                   this.verified.authorizationHeaders,
+                                                                                   hash,
+                                                                                   null));
+    }
+  }
+
+  /**
+   * An output stream hashing the payload as it is written, holding it until
+   * it is complete or passes the buffer threshold.
+   */
+  private class SigningOutputStream extends OutputStream
+  {
+    private final SigningWriter writer;
+    private final ContainerResponse response;
+    private final Mac mac;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream out;
+
+    SigningOutputStream(final SigningWriter writer, final ContainerResponse response, final Mac mac)
+    {
+      this.writer = writer;
+      this.response = response;
+      this.mac = mac;
+    }
+
+    @Override
+    public void write(final int b) throws IOException
+    {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException
+    {
+      if (this.out != null)
+      {
+        this.out.write(b, off, len);
+        return;
+      }
+      this.mac.update(b, off, len);
+      this.buffer.write(b, off, len);
+      if (this.buffer.size() > bufferThreshold)
+      {
+        // Too large to hold; send what we have without a payload hash
+        this.writer.sign(this.response, null);
+        this.out = this.writer.writer.writeStatusAndHeaders(-1, this.response);
+        this.buffer.writeTo(this.out);
+        this.buffer = null;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      // Flushing a held payload would commit it before it is hashed
+      if (this.out != null)
+      {
+        this.out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      commit();
+      this.out.close();
+    }
+
+    /**
+     * Commit the response if it has not already been committed, including
+     * the hash of the payload.
+     */
+    void commit() throws IOException
+    {
+      if (this.out == null)
+      {
+        this.writer.sign(this.response, Hawk.completeBodyMac(this.mac));
+        this.out = this.writer.writer.writeStatusAndHeaders(this.buffer.size(), this.response);
+        this.buffer.writeTo(this.out);
+        this.buffer = null;
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ package test.com.wealdtech.hawk;
 
 import static org.testng.Assert.*;
 
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URI;
 
@@ -29,6 +30,7 @@ import test.com.wealdtech.hawk.config.ApplicationModule;
 import test.com.wealdtech.hawk.jersey.guice.HawkConfigurationModule;
 import test.com.wealdtech.hawk.jersey.guice.HawkServletModule;
 
+import com.google.common.io.CharStreams;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.wealdtech.hawk.Hawk;
@@ -137,6 +139,25 @@ public class HawkJerseyServerTest
     assertEquals(connection.getResponseCode(), 200);
   }
 
+  @Test
+  public void testServerAuthorization() throws Exception
+  {
+    // Test the response to an authenticated request is signed, including its payload
+    final HawkClient testclient = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String authorizationHeader = testclient.generateAuthorizationHeader(this.validuri1, "get", null, null, null, null);
+    HttpURLConnection connection = connect(this.validuri1, "GET", authorizationHeader, null, null);
+    assertEquals(connection.getResponseCode(), 200);
+    final String body = CharStreams.toString(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+    final String serverAuthorization = connection.getHeaderField("Server-Authorization");
+    assertNotNull(serverAuthorization);
+    assertTrue(serverAuthorization.contains("hash=\"" + Hawk.calculateBodyMac(this.goodCredentials, connection.getContentType(), body) + "\""));
+
+    // Unauthenticated responses are not signed
+    connection = connect(this.validuri1, "GET", null, null, null);
+    assertEquals(connection.getResponseCode(), 401);
+    assertNull(connection.getHeaderField("Server-Authorization"));
+  }
+
   @Test
   public void testReplayProtection() throws Exception
   {
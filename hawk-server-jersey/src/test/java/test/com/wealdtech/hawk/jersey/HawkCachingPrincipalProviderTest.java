@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.jersey;
+
+import static org.testng.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.hawk.jersey.HawkCachingPrincipalProvider;
+import com.wealdtech.jersey.auth.PrincipalProvider;
+
+public class HawkCachingPrincipalProviderTest
+{
+  /**
+   * Provider counting its lookups, which can invalidate the key being looked
+   * up part-way through a lookup.
+   */
+  private static class CountingProvider implements PrincipalProvider<String, String>
+  {
+    private final AtomicInteger lookups = new AtomicInteger();
+    private HawkCachingPrincipalProvider<String> cache;
+    private boolean invalidateDuringLookup;
+
+    @Override
+    public Optional<String> getFromKey(final String key)
+    {
+      this.lookups.incrementAndGet();
+      if (this.invalidateDuringLookup)
+      {
+        // The principal is revoked after it has been read
+        this.cache.invalidate(ImmutableList.of(key));
+      }
+      return "missing".equals(key) ? Optional.<String>absent() : Optional.of("principal " + key);
+    }
+  }
+
+  @Test
+  public void testCached() throws Exception
+  {
+    final CountingProvider delegate = new CountingProvider();
+    final HawkCachingPrincipalProvider<String> provider = new HawkCachingPrincipalProvider<>(delegate, 60L, 100L, null);
+    assertEquals(provider.getFromKey("key1").get(), "principal key1");
+    assertEquals(provider.getFromKey("key1").get(), "principal key1");
+    assertEquals(delegate.lookups.get(), 1);
+  }
+
+  @Test
+  public void testFailedLookupNotCached() throws Exception
+  {
+    final CountingProvider delegate = new CountingProvider();
+    final HawkCachingPrincipalProvider<String> provider = new HawkCachingPrincipalProvider<>(delegate, 60L, 100L, null);
+    assertFalse(provider.getFromKey("missing").isPresent());
+    assertFalse(provider.getFromKey("missing").isPresent());
+    assertEquals(delegate.lookups.get(), 2);
+  }
+
+  @Test
+  public void testInvalidated() throws Exception
+  {
+    final CountingProvider delegate = new CountingProvider();
+    final HawkCachingPrincipalProvider<String> provider = new HawkCachingPrincipalProvider<>(delegate, 60L, 100L, null);
+    provider.getFromKey("key1");
+    provider.invalidate(ImmutableList.of("key1"));
+    provider.getFromKey("key1");
+    assertEquals(delegate.lookups.get(), 2);
+  }
+
+  @Test
+  public void testInvalidatedDuringLookup() throws Exception
+  {
+    final CountingProvider delegate = new CountingProvider();
+    final HawkCachingPrincipalProvider<String> provider = new HawkCachingPrincipalProvider<>(delegate, 60L, 100L, null);
+    delegate.cache = provider;
+    delegate.invalidateDuringLookup = true;
+    // The lookup still returns its result, but does not cache it
+    assertEquals(provider.getFromKey("key1").get(), "principal key1");
+    delegate.invalidateDuringLookup = false;
+    provider.getFromKey("key1");
+    assertEquals(delegate.lookups.get(), 2);
+    // Later lookups are cached as usual
+    provider.getFromKey("key1");
+    assertEquals(delegate.lookups.get(), 2);
+  }
+}
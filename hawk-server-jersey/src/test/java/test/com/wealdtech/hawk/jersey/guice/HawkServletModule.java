@@ -29,6 +29,7 @@ import com.google.common.collect.ObjectArrays;
 import com.google.inject.servlet.ServletModule;
 import com.sun.jersey.api.core.PackagesResourceConfig;
 import com.sun.jersey.guice.spi.container.servlet.GuiceContainer;
+import com.wealdtech.hawk.jersey.HawkServerAuthorizationFilter;
 import com.wealdtech.hawk.jersey.HawkUnauthorizedFilter;
 import com.wealdtech.jersey.filters.BodyPrefetchFilter;
 import com.wealdtech.jersey.filters.ServerHeaderFilter;
@@ -57,9 +58,9 @@ public class HawkServletModule extends ServletModule
     final Map<String, String> params = new HashMap<String, String>();
     params.put(PackagesResourceConfig.PROPERTY_PACKAGES, this.packages);
 
-    // Add the authentication filter to requests and the unauthorized filter to responses
+    // Add the authentication filter to requests and the unauthorized and server authorization filters to responses
     final String requestFilters = joinClassNames(BodyPrefetchFilter.class, HawkExampleUserAuthenticationFilter.class);
-    final String responseFilters = joinClassNames(HawkUnauthorizedFilter.class, ServerHeaderFilter.class);
+    final String responseFilters = joinClassNames(HawkUnauthorizedFilter.class, HawkServerAuthorizationFilter.class, ServerHeaderFilter.class);
 
     params.put(PackagesResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS, requestFilters);
     params.put(PackagesResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS, responseFilters);
@@ -0,0 +1,364 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.netty;
+
+import static com.wealdtech.Preconditions.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Authentication handler using the Hawk protocol for Netty 4.
+ * <p>
+ * The handler sits after the HTTP codec, and before any aggregator, and
+ * authenticates each request with either an authorization header or a bewit.
+ * Authenticated requests are passed on with the principal available from the
+ * channel attribute {@link #PRINCIPAL}; other requests are rejected with a
+ * <code>401</code> and their content discarded.
+ * <p>
+ * Requests are verified from the request line and headers as decoded by the
+ * codec, without building a URI.  The canonical host and port are worked out
+ * from the first request on a connection and reused for following requests
+ * with the same host header.  If the authorization header contains a payload
+ * hash then the content is hashed as it passes through, directly from the
+ * buffers that hold it, so it is neither copied nor aggregated.  Content is
+ * passed on as it arrives; if the payload does not match its hash then the
+ * last content is withheld and the connection is closed, so handlers that act
+ * on a request when its last content arrives, such as an aggregator, will
+ * never see a tampered request.
+ * <p>
+ * The handler holds the state of the current request and connection, so a new
+ * handler is required for each channel.  Principals are obtained on the
+ * channel's event loop, so the provider should not block.
+ * @param <T> the type of the principal
+ */
+public class HawkNettyHandler<T extends HawkPrincipal> extends ChannelInboundHandlerAdapter
+{
+  public static final AttributeKey<HawkPrincipal> PRINCIPAL = AttributeKey.valueOf("com.wealdtech.hawk.netty.principal");
+
+  private static final int DEFAULT_HTTP_PORT = 80;
+  private static final int DEFAULT_HTTPS_PORT = 443;
+
+  private final HawkServer server;
+  private final HawkPrincipalProvider<T> provider;
+
+  // Canonical host and port for the connection
+  private Boolean secure;
+  private String hostHeader;
+  private String host;
+  private int port;
+
+  // State of the current request
+  private boolean discarding;
+  private Mac payloadMac;
+  private String payloadHash;
+
+  /**
+   * Create a new authentication handler for Hawk.
+   * @param server the Hawk server
+   * @param provider a provider for principals
+   */
+  public HawkNettyHandler(final HawkServer server, final HawkPrincipalProvider<T> provider)
+  {
+    checkNotNull(server, "Hawk Netty handler requires a Hawk server");
+    checkNotNull(provider, "Hawk Netty handler requires a principal provider");
+    this.server = server;
+    this.provider = provider;
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception
+  {
+    if (msg instanceof HttpRequest)
+    {
+      final HttpRequest request = (HttpRequest)msg;
+      this.payloadMac = null;
+      this.payloadHash = null;
+      ctx.channel().attr(PRINCIPAL).remove();
+      final HawkVerificationResult result = authenticate(ctx, request);
+      if (!result.isValid())
+      {
+        this.discarding = !(msg instanceof LastHttpContent);
+        ReferenceCountUtil.release(msg);
+        reject(ctx, result, !HttpHeaders.isKeepAlive(request));
+        return;
+      }
+    }
+    else if (msg instanceof HttpContent)
+    {
+      if (this.discarding)
+      {
+        this.discarding = !(msg instanceof LastHttpContent);
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+    }
+
+    if ((msg instanceof HttpContent) && (this.payloadMac != null) && (!checkPayload((HttpContent)msg)))
+    {
+      // The request has been partly passed on, so the connection cannot be reused
+      ReferenceCountUtil.release(msg);
+      reject(ctx, HawkVerificationResult.of(Reason.INVALID_PAYLOAD, "The payload does not match its hash"), true);
+      return;
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  // Authenticate a request, with either a bewit or an authorization header
+  private HawkVerificationResult authenticate(final ChannelHandlerContext ctx, final HttpRequest request)
+  {
+    final String resource = request.getUri();
+    if ((resource.isEmpty()) || (resource.charAt(0) != '/'))
+    {
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, "The request target is not a path");
+    }
+    if (!resolveHost(ctx, request.headers().get(HttpHeaders.Names.HOST)))
+    {
+      return HawkVerificationResult.of(Reason.INVALID_REQUEST, "The host header is missing or invalid");
+    }
+    if (hasBewit(resource))
+    {
+      return authenticateFromBewit(ctx, request, resource);
+    }
+    return authenticateFromHeader(ctx, request, resource);
+  }
+
+  private HawkVerificationResult authenticateFromBewit(final ChannelHandlerContext ctx, final HttpRequest request, final String resource)
+  {
+    if (!HttpMethod.GET.equals(request.getMethod()))
+    {
+      return HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD);
+    }
+    final ImmutableMap<String, String> bewitFields = this.server.parseResourceBewit(resource);
+    if (bewitFields == null)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_BEWIT);
+    }
+    final Optional<T> principal = this.provider.getFromKey(bewitFields.get("id"));
+    if (!principal.isPresent())
+    {
+      return HawkVerificationResult.of(Reason.UNKNOWN_ID);
+    }
+    final HawkVerificationResult result = this.server.verify(principal.get().getHawkCredentials(bewitFields.get("id")), resource, this.host, this.port);
+    if (result.isValid())
+    {
+      ctx.channel().attr(PRINCIPAL).set(principal.get());
+    }
+    return result;
+  }
+
+  private HawkVerificationResult authenticateFromHeader(final ChannelHandlerContext ctx, final HttpRequest request, final String resource)
+  {
+    final String authorizationHeader = request.headers().get(HttpHeaders.Names.AUTHORIZATION);
+    if (authorizationHeader == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_HEADER);
+    }
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(authorizationHeader);
+    if (authorizationHeaders == null)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_HEADER);
+    }
+    if (authorizationHeaders.get("id") == null)
+    {
+      return HawkVerificationResult.of(Reason.MISSING_ID);
+    }
+    final Optional<T> principal = this.provider.getFromKey(authorizationHeaders.get("id"));
+    if (!principal.isPresent())
+    {
+      return HawkVerificationResult.of(Reason.UNKNOWN_ID);
+    }
+    final HawkCredentials credentials = principal.get().getHawkCredentials(authorizationHeaders.get("id"));
+    if (credentials == null)
+    {
+      return HawkVerificationResult.of(Reason.UNKNOWN_ID);
+    }
+
+    // The MAC covers the claimed payload hash; the payload itself is checked against it as it passes through
+    final String hash = authorizationHeaders.get("hash");
+    Mac mac = null;
+    if (hash != null)
+    {
+      final String contentType = request.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+      if (contentType == null)
+      {
+        return HawkVerificationResult.of(Reason.MISSING_CONTENT_TYPE);
+      }
+      try
+      {
+        mac = Hawk.startBodyMac(credentials, contentType);
+      }
+      catch (DataError de)
+      {
+        return HawkVerificationResult.of(Reason.INVALID_PAYLOAD, de.getMessage());
+      }
+    }
+    final boolean hasBody = (HttpHeaders.getContentLength(request, 0L) > 0) || (HttpHeaders.isTransferEncodingChunked(request));
+    final HawkVerificationResult result = this.server.verify(credentials, resource, this.host, this.port, request.getMethod().name(), authorizationHeaders, hash, hasBody);
+    if (result.isValid())
+    {
+      this.payloadMac = mac;
+      this.payloadHash = hash;
+      ctx.channel().attr(PRINCIPAL).set(principal.get());
+    }
+    return result;
+  }
+
+  // Add content to the payload MAC, returning false if this is the last content and the payload does not match its hash
+  private boolean checkPayload(final HttpContent content)
+  {
+    final ByteBuf buf = content.content();
+    if (buf.isReadable())
+    {
+      if (buf.nioBufferCount() == -1)
+      {
+        final byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        this.payloadMac.update(bytes);
+      }
+      else
+      {
+        // Composite buffers are hashed component by component, without copying
+        for (final ByteBuffer component : buf.nioBuffers())
+        {
+          this.payloadMac.update(component);
+        }
+      }
+    }
+    if (!(content instanceof LastHttpContent))
+    {
+      return true;
+    }
+    final String calculated = Hawk.completeBodyMac(this.payloadMac);
+    final String expected = this.payloadHash;
+    this.payloadMac = null;
+    this.payloadHash = null;
+    return MessageDigest.isEqual(calculated.getBytes(Charsets.UTF_8), expected.getBytes(Charsets.UTF_8));
+  }
+
+  // Work out the canonical host and port from the host header, reusing the previous values where possible
+  private boolean resolveHost(final ChannelHandlerContext ctx, final String header)
+  {
+    if (header == null)
+    {
+      return false;
+    }
+    if (header.equals(this.hostHeader))
+    {
+      return true;
+    }
+    if (this.secure == null)
+    {
+      this.secure = ctx.pipeline().get(SslHandler.class) != null;
+    }
+
+    // IPv6 literals are enclosed in brackets, and contain colons themselves
+    final int hostEnd = header.startsWith("[") ? header.indexOf(']') + 1 : header.lastIndexOf(':');
+    if (hostEnd == 0)
+    {
+      return false;
+    }
+    final String newHost;
+    final int newPort;
+    if ((hostEnd == -1) || (hostEnd == header.length()))
+    {
+      newHost = header;
+      newPort = this.secure ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+    }
+    else
+    {
+      if (header.charAt(hostEnd) != ':')
+      {
+        return false;
+      }
+      newHost = header.substring(0, hostEnd);
+      try
+      {
+        newPort = Integer.parseInt(header.substring(hostEnd + 1));
+      }
+      catch (NumberFormatException nfe)
+      {
+        return false;
+      }
+    }
+    if (newHost.isEmpty())
+    {
+      return false;
+    }
+    this.hostHeader = header;
+    this.host = newHost;
+    this.port = newPort;
+    return true;
+  }
+
+  // Check if a request target contains a bewit in its query string
+  private static boolean hasBewit(final String resource)
+  {
+    final int query = resource.indexOf('?');
+    return (query != -1) && ((resource.startsWith("bewit=", query + 1)) || (resource.indexOf("&bewit=", query) != -1));
+  }
+
+  // Reject a request
+  private void reject(final ChannelHandlerContext ctx, final HawkVerificationResult result, final boolean close)
+  {
+    final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                                                                  HttpResponseStatus.UNAUTHORIZED,
+                                                                  Unpooled.copiedBuffer(result.getMessage(), Charsets.UTF_8));
+    response.headers().set(HttpHeaders.Names.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader());
+    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+    HttpHeaders.setContentLength(response, response.content().readableBytes());
+    if (close)
+    {
+      ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+    else
+    {
+      ctx.writeAndFlush(response);
+    }
+  }
+}
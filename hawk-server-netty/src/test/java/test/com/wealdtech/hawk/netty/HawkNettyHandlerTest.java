@@ -0,0 +1,241 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.netty;
+
+import static org.testng.Assert.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.URI;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.netty.HawkNettyHandler;
+import com.wealdtech.hawk.netty.HawkPrincipalProvider;
+
+public class HawkNettyHandlerTest
+{
+  private static final String BASEURI = "http://localhost:18238";
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private HawkPrincipalProvider<ExampleUser> provider;
+  private HawkServer server;
+
+  /**
+   * A simple example user class for testing Hawk.
+   */
+  private static class ExampleUser implements HawkPrincipal
+  {
+    private final HawkCredentials hawkCredentials;
+
+    ExampleUser(final HawkCredentials hawkCredentials)
+    {
+      this.hawkCredentials = hawkCredentials;
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Steve";
+    }
+
+    @Override
+    public HawkCredentials getHawkCredentials(final String keyId)
+    {
+      return this.hawkCredentials.getKeyId().equals(keyId) ? this.hawkCredentials : null;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    final ExampleUser user = new ExampleUser(this.goodCredentials);
+    this.provider = new HawkPrincipalProvider<ExampleUser>()
+    {
+      @Override
+      public Optional<ExampleUser> getFromKey(final String keyId)
+      {
+        return user.getHawkCredentials(keyId) == null ? Optional.<ExampleUser>absent() : Optional.of(user);
+      }
+    };
+    this.server = new HawkServer.Builder().build();
+  }
+
+  private EmbeddedChannel newChannel()
+  {
+    return new EmbeddedChannel(new HawkNettyHandler<>(this.server, this.provider));
+  }
+
+  private static HttpRequest newRequest(final HttpMethod method, final String path, final String authorization)
+  {
+    final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, path);
+    request.headers().set(HttpHeaders.Names.HOST, "localhost:18238");
+    if (authorization != null)
+    {
+      request.headers().set(HttpHeaders.Names.AUTHORIZATION, authorization);
+    }
+    return request;
+  }
+
+  private static void assertUnauthorized(final EmbeddedChannel channel)
+  {
+    final FullHttpResponse response = (FullHttpResponse)channel.readOutbound();
+    assertNotNull(response);
+    assertEquals(response.getStatus(), HttpResponseStatus.UNAUTHORIZED);
+    assertNotNull(response.headers().get(HttpHeaders.Names.WWW_AUTHENTICATE));
+    ReferenceCountUtil.release(response);
+  }
+
+  @Test
+  public void testValidHeader() throws Exception
+  {
+    final EmbeddedChannel channel = newChannel();
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    // Several requests on the same connection share the canonical host and port
+    for (int i = 0; i < 3; i++)
+    {
+      final String path = "/helloworld?count=" + i;
+      channel.writeInbound(newRequest(HttpMethod.GET, path, client.generateAuthorizationHeader(new URI(BASEURI + path), "GET", null, null, null, null)));
+      assertNotNull(channel.readInbound());
+      assertNull(channel.readOutbound());
+      assertEquals(channel.attr(HawkNettyHandler.PRINCIPAL).get().getName(), "Steve");
+    }
+    channel.finish();
+  }
+
+  @Test
+  public void testMissingHeader() throws Exception
+  {
+    final EmbeddedChannel channel = newChannel();
+    channel.writeInbound(newRequest(HttpMethod.GET, "/helloworld", null));
+    assertNull(channel.readInbound());
+    assertUnauthorized(channel);
+    assertNull(channel.attr(HawkNettyHandler.PRINCIPAL).get());
+    // Keep-alive requests that fail leave the connection open
+    assertTrue(channel.isOpen());
+    channel.finish();
+  }
+
+  @Test
+  public void testBadCredentials() throws Exception
+  {
+    final EmbeddedChannel channel = newChannel();
+    final HawkClient client = new HawkClient.Builder().credentials(this.badCredentials).build();
+    channel.writeInbound(newRequest(HttpMethod.POST, "/helloworld", client.generateAuthorizationHeader(new URI(BASEURI + "/helloworld"), "POST", null, null, null, null)));
+    // Content of a rejected request is discarded
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("Body", Charsets.UTF_8)));
+    assertNull(channel.readInbound());
+    assertUnauthorized(channel);
+    channel.finish();
+  }
+
+  @Test
+  public void testBewit() throws Exception
+  {
+    final EmbeddedChannel channel = newChannel();
+    final String bewit = Hawk.generateBewit(this.goodCredentials, new URI(BASEURI + "/helloworld?a=b"), 240L, null);
+    channel.writeInbound(newRequest(HttpMethod.GET, "/helloworld?a=b&bewit=" + bewit, null));
+    assertNotNull(channel.readInbound());
+    assertNull(channel.readOutbound());
+
+    channel.writeInbound(newRequest(HttpMethod.GET, "/helloworld?a=c&bewit=" + bewit, null));
+    assertNull(channel.readInbound());
+    assertUnauthorized(channel);
+
+    channel.writeInbound(newRequest(HttpMethod.POST, "/helloworld?a=b&bewit=" + bewit, null));
+    assertNull(channel.readInbound());
+    assertUnauthorized(channel);
+    channel.finish();
+  }
+
+  @Test
+  public void testPayload() throws Exception
+  {
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = Hawk.calculateBodyMac(this.goodCredentials, "text/plain", "Hello, composite world");
+    final String authorization = client.generateAuthorizationHeader(new URI(BASEURI + "/helloworld"), "POST", hash, null, null, null);
+
+    final EmbeddedChannel channel = newChannel();
+    final HttpRequest request = newRequest(HttpMethod.POST, "/helloworld", authorization);
+    request.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
+    HttpHeaders.setTransferEncodingChunked(request);
+    channel.writeInbound(request);
+    assertNotNull(channel.readInbound());
+    final ByteBuf composite = Unpooled.wrappedBuffer(Unpooled.copiedBuffer("Hello, ", Charsets.UTF_8),
+                                                     Unpooled.directBuffer().writeBytes("composite".getBytes(Charsets.UTF_8)));
+    channel.writeInbound(new DefaultHttpContent(composite));
+    final HttpContent content = (HttpContent)channel.readInbound();
+    assertEquals(content.content().toString(Charsets.UTF_8), "Hello, composite");
+    content.release();
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer(" world", Charsets.UTF_8)));
+    final LastHttpContent last = (LastHttpContent)channel.readInbound();
+    assertNotNull(last);
+    last.release();
+    assertNull(channel.readOutbound());
+    assertTrue(channel.isOpen());
+    channel.finish();
+  }
+
+  @Test
+  public void testTamperedPayload() throws Exception
+  {
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = Hawk.calculateBodyMac(this.goodCredentials, "text/plain", "Hello, world");
+    final String authorization = client.generateAuthorizationHeader(new URI(BASEURI + "/helloworld"), "POST", hash, null, null, null);
+
+    final EmbeddedChannel channel = newChannel();
+    final HttpRequest request = newRequest(HttpMethod.POST, "/helloworld", authorization);
+    request.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
+    HttpHeaders.setContentLength(request, 12);
+    channel.writeInbound(request);
+    assertNotNull(channel.readInbound());
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("Hello, there", Charsets.UTF_8)));
+    // The last content is withheld and the connection closed
+    assertNull(channel.readInbound());
+    assertUnauthorized(channel);
+    assertFalse(channel.isOpen());
+    channel.finish();
+  }
+}
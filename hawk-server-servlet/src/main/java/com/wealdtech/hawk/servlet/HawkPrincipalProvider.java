@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.servlet;
+
+import com.google.common.base.Optional;
+import com.wealdtech.hawk.HawkPrincipal;
+
+/**
+ * A provider of principals for Hawk authentication.
+ * @param <T> the type of the principal
+ */
+public interface HawkPrincipalProvider<T extends HawkPrincipal>
+{
+  /**
+   * Obtain the principal for a Hawk key ID.
+   * @param keyId the Hawk key ID
+   * @return the principal, or <code>Optional.absent()</code> if there is no
+   *         principal for the key ID
+   */
+  Optional<T> getFromKey(final String keyId);
+}
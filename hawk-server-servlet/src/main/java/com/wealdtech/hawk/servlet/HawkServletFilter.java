@@ -0,0 +1,305 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.servlet;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.crypto.Mac;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPayloadInputStream;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Authentication filter using the Hawk protocol for any Servlet 3.1
+ * container.
+ * <p>
+ * Requests are authenticated with either an authorization header or a bewit.
+ * Authenticated requests are passed on with the principal available from
+ * {@link HttpServletRequest#getUserPrincipal()} and as the request attribute
+ * {@link #PRINCIPAL_ATTRIBUTE}; other requests are rejected with a
+ * <code>401</code>.
+ * <p>
+ * If the authorization header contains a payload hash then the payload is
+ * checked as the application reads it, through either blocking or
+ * non-blocking reads, so the body is never buffered by the filter.  The MAC
+ * of the request covers the claimed hash, so the filter can authenticate the
+ * request before the body arrives.  Bodies that are never read are not
+ * checked, as their content cannot affect the application.
+ * <p>
+ * The exception is form bodies, which the container parses itself when the
+ * application asks for request parameters.  A form body with a payload hash
+ * is read and checked by the filter before the request is passed on, and is
+ * rejected with a <code>401</code> if it does not match its hash or a
+ * <code>413</code> if it is larger than {@link #MAX_FORM_SIZE}.  Multipart
+ * bodies with a payload hash must be read as a stream, as their parts cannot
+ * be checked before the container parses them.
+ * @param <T> the type of the principal
+ */
+public class HawkServletFilter<T extends HawkPrincipal> implements Filter
+{
+  public static final String PRINCIPAL_ATTRIBUTE = "com.wealdtech.authenticatedprincipal";
+
+  /**
+   * The largest form body with a payload hash that is accepted, in bytes.
+   */
+  public static final int MAX_FORM_SIZE = 200000;
+
+  private final HawkServer server;
+  private final HawkPrincipalProvider<T> provider;
+
+  /**
+   * Create a new authentication filter for Hawk.
+   * @param server the Hawk server
+   * @param provider a provider for principals
+   */
+  public HawkServletFilter(final HawkServer server, final HawkPrincipalProvider<T> provider)
+  {
+    checkNotNull(server, "Hawk servlet filter requires a Hawk server");
+    checkNotNull(provider, "Hawk servlet filter requires a principal provider");
+    this.server = server;
+    this.provider = provider;
+  }
+
+  @Override
+  public void init(final FilterConfig filterConfig)
+  {
+  }
+
+  @Override
+  public void doFilter(final ServletRequest req, final ServletResponse res, final FilterChain chain) throws IOException, ServletException
+  {
+    if ((!(req instanceof HttpServletRequest)) || (!(res instanceof HttpServletResponse)))
+    {
+      chain.doFilter(req, res);
+      return;
+    }
+    final HttpServletRequest request = (HttpServletRequest)req;
+    final HttpServletResponse response = (HttpServletResponse)res;
+
+    final Authentication authentication = authenticate(request);
+    if (!authentication.result.isValid())
+    {
+      response.setHeader(HttpHeaders.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader());
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, authentication.result.getMessage());
+      return;
+    }
+    byte[] form = null;
+    if ((authentication.payloadMac != null) && (HawkServletRequest.isForm(request)))
+    {
+      form = readForm(request, response, authentication);
+      if (form == null)
+      {
+        return;
+      }
+    }
+    request.setAttribute(PRINCIPAL_ATTRIBUTE, authentication.principal);
+    chain.doFilter(new HawkServletRequest(request, authentication.principal, authentication.payloadMac, authentication.payloadHash, form), response);
+  }
+
+  /**
+   * Read a form body and check it against its hash, before the container can
+   * parse it.
+   * @return the body, or <code>null</code> if the request has been rejected
+   */
+  private byte[] readForm(final HttpServletRequest request, final HttpServletResponse response, final Authentication authentication) throws IOException
+  {
+    final long contentLength = request.getContentLengthLong();
+    if (contentLength > MAX_FORM_SIZE)
+    {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+      return null;
+    }
+    try (final InputStream in = new HawkPayloadInputStream(request.getInputStream(), authentication.payloadMac, authentication.payloadHash, contentLength))
+    {
+      final byte[] form = ByteStreams.toByteArray(ByteStreams.limit(in, MAX_FORM_SIZE + 1));
+      if (form.length > MAX_FORM_SIZE)
+      {
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return null;
+      }
+      return form;
+    }
+    catch (IOException ioe)
+    {
+      if (ioe.getCause() instanceof DataError.Authentication)
+      {
+        response.setHeader(HttpHeaders.WWW_AUTHENTICATE, this.server.generateAuthenticateHeader());
+        response.sendError(HttpServletResponse.SC_UNAUTHORIZED, HawkVerificationResult.of(Reason.INVALID_PAYLOAD, "The payload does not match its hash").getMessage());
+        return null;
+      }
+      throw ioe;
+    }
+  }
+
+  @Override
+  public void destroy()
+  {
+  }
+
+  // Authenticate a request, with either a bewit or an authorization header
+  private Authentication authenticate(final HttpServletRequest request)
+  {
+    final URI uri;
+    try
+    {
+      final StringBuffer url = request.getRequestURL();
+      if (request.getQueryString() != null)
+      {
+        url.append('?').append(request.getQueryString());
+      }
+      uri = new URI(url.toString());
+    }
+    catch (URISyntaxException use)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_REQUEST, use.getMessage()));
+    }
+
+    // Look for the bewit in the query string directly, as request parameters could include a form body
+    final String query = request.getQueryString();
+    if ((query != null) && ((query.startsWith("bewit=")) || (query.contains("&bewit="))))
+    {
+      return authenticateFromBewit(request, uri);
+    }
+    return authenticateFromHeader(request, uri);
+  }
+
+  private Authentication authenticateFromBewit(final HttpServletRequest request, final URI uri)
+  {
+    if (!"GET".equals(request.getMethod()))
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD));
+    }
+    final ImmutableMap<String, String> bewitFields = this.server.parseBewit(uri);
+    if (bewitFields == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_BEWIT));
+    }
+    final Optional<T> principal = this.provider.getFromKey(bewitFields.get("id"));
+    if (!principal.isPresent())
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+    final HawkVerificationResult result = this.server.verify(principal.get().getHawkCredentials(bewitFields.get("id")), uri);
+    if (!result.isValid())
+    {
+      return new Authentication(result);
+    }
+    return new Authentication(principal.get(), null, null);
+  }
+
+  private Authentication authenticateFromHeader(final HttpServletRequest request, final URI uri)
+  {
+    final String authorizationHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (authorizationHeader == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.MISSING_HEADER));
+    }
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(authorizationHeader);
+    if (authorizationHeaders == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.INVALID_HEADER));
+    }
+    if (authorizationHeaders.get("id") == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.MISSING_ID));
+    }
+    final Optional<T> principal = this.provider.getFromKey(authorizationHeaders.get("id"));
+    if (!principal.isPresent())
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+    final HawkCredentials credentials = principal.get().getHawkCredentials(authorizationHeaders.get("id"));
+    if (credentials == null)
+    {
+      return new Authentication(HawkVerificationResult.of(Reason.UNKNOWN_ID));
+    }
+
+    // The MAC covers the claimed payload hash; the payload itself is checked against it as it is read
+    final String payloadHash = authorizationHeaders.get("hash");
+    Mac payloadMac = null;
+    if (payloadHash != null)
+    {
+      if (request.getContentType() == null)
+      {
+        return new Authentication(HawkVerificationResult.of(Reason.MISSING_CONTENT_TYPE));
+      }
+      try
+      {
+        payloadMac = Hawk.startBodyMac(credentials, request.getContentType());
+      }
+      catch (DataError de)
+      {
+        return new Authentication(HawkVerificationResult.of(Reason.INVALID_PAYLOAD, de.getMessage()));
+      }
+    }
+    final boolean hasBody = (request.getContentLengthLong() > 0) || (request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null);
+    final HawkVerificationResult result = this.server.verify(credentials, uri, request.getMethod(), authorizationHeaders, payloadHash, hasBody);
+    if (!result.isValid())
+    {
+      return new Authentication(result);
+    }
+    return new Authentication(principal.get(), payloadMac, payloadHash);
+  }
+
+  // The outcome of authenticating a request
+  private class Authentication
+  {
+    final HawkVerificationResult result;
+    final T principal;
+    final Mac payloadMac;
+    final String payloadHash;
+
+    Authentication(final HawkVerificationResult result)
+    {
+      this.result = result;
+      this.principal = null;
+      this.payloadMac = null;
+      this.payloadHash = null;
+    }
+
+    Authentication(final T principal, final Mac payloadMac, final String payloadHash)
+    {
+      this.result = HawkVerificationResult.OK;
+      this.principal = principal;
+      this.payloadMac = payloadMac;
+      this.payloadHash = payloadHash;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.servlet;
+
+import java.io.IOException;
+
+import javax.crypto.Mac;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import com.wealdtech.hawk.HawkPayloadInputStream;
+
+/**
+ * A servlet input stream that passes the bytes read through a payload MAC
+ * and checks the MAC against the hash in the authorization header once the
+ * body has been read, as {@link HawkPayloadInputStream} does.  The body has
+ * been read once its Content-Length has been read or its end reached;
+ * closing the stream before then does not read the remainder.
+ * <p>
+ * For blocking reads a mismatch is reported as an {@link IOException} from
+ * the read that completes the body.  For non-blocking reads the
+ * application's {@link ReadListener} receives
+ * {@link ReadListener#onError(Throwable)} in place of
+ * {@link ReadListener#onAllDataRead()}.  Either way the application never
+ * reads the whole of a body that does not match its hash without an error.
+ */
+class HawkServletInputStream extends ServletInputStream
+{
+  private final ServletInputStream in;
+  private final HawkPayloadInputStream payload;
+
+  HawkServletInputStream(final ServletInputStream in, final Mac mac, final String payloadHash, final long contentLength)
+  {
+    this.in = in;
+    this.payload = new HawkPayloadInputStream(in, mac, payloadHash, contentLength);
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    return this.payload.read();
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException
+  {
+    return this.payload.read(b, off, len);
+  }
+
+  @Override
+  public long skip(final long n) throws IOException
+  {
+    return this.payload.skip(n);
+  }
+
+  @Override
+  public int available() throws IOException
+  {
+    return this.in.available();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    this.payload.close();
+  }
+
+  @Override
+  public boolean isFinished()
+  {
+    return this.in.isFinished();
+  }
+
+  @Override
+  public boolean isReady()
+  {
+    return this.in.isReady();
+  }
+
+  @Override
+  public void setReadListener(final ReadListener listener)
+  {
+    this.in.setReadListener(new ReadListener()
+    {
+      @Override
+      public void onDataAvailable() throws IOException
+      {
+        listener.onDataAvailable();
+      }
+
+      @Override
+      public void onAllDataRead() throws IOException
+      {
+        try
+        {
+          // All data has arrived, so this reads the end of the body and completes the check
+          HawkServletInputStream.this.payload.read();
+        }
+        catch (IOException ioe)
+        {
+          listener.onError(ioe);
+          return;
+        }
+        listener.onAllDataRead();
+      }
+
+      @Override
+      public void onError(final Throwable t)
+      {
+        listener.onError(t);
+      }
+    });
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.servlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.Part;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A request authenticated with Hawk, exposing the authenticated principal and
+ * checking the payload against its hash as it is read.
+ * <p>
+ * A form body with a payload hash has already been read and checked by the
+ * filter, so its parameters and the body itself are served from the checked
+ * copy rather than by the container.
+ */
+class HawkServletRequest extends HttpServletRequestWrapper
+{
+  static final String HAWK_AUTH = "Hawk";
+
+  private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+  private static final String MULTIPART_CONTENT_TYPE = "multipart/form-data";
+
+  private final Principal principal;
+  private final Mac payloadMac;
+  private final String payloadHash;
+  private final byte[] form;
+  private ServletInputStream inputStream;
+  private BufferedReader reader;
+  private Map<String, String[]> parameters;
+
+  HawkServletRequest(final HttpServletRequest request, final Principal principal, final Mac payloadMac, final String payloadHash, final byte[] form)
+  {
+    super(request);
+    this.principal = principal;
+    this.payloadMac = payloadMac;
+    this.payloadHash = payloadHash;
+    this.form = form;
+  }
+
+  @Override
+  public Principal getUserPrincipal()
+  {
+    return this.principal;
+  }
+
+  @Override
+  public String getAuthType()
+  {
+    return HAWK_AUTH;
+  }
+
+  @Override
+  public ServletInputStream getInputStream() throws IOException
+  {
+    if (this.payloadMac == null)
+    {
+      return super.getInputStream();
+    }
+    if (this.reader != null)
+    {
+      throw new IllegalStateException("getReader() has already been called");
+    }
+    if (this.inputStream == null)
+    {
+      this.inputStream = newInputStream();
+    }
+    return this.inputStream;
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException
+  {
+    if (this.payloadMac == null)
+    {
+      return super.getReader();
+    }
+    if (this.reader == null)
+    {
+      if (this.inputStream != null)
+      {
+        throw new IllegalStateException("getInputStream() has already been called");
+      }
+      final String encoding = getCharacterEncoding();
+      this.reader = new BufferedReader(new InputStreamReader(newInputStream(), encoding == null ? Charsets.ISO_8859_1.name() : encoding));
+    }
+    return this.reader;
+  }
+
+  private ServletInputStream newInputStream() throws IOException
+  {
+    if (this.form != null)
+    {
+      return new FormInputStream(this.form);
+    }
+    return new HawkServletInputStream(super.getInputStream(), this.payloadMac, this.payloadHash, getContentLengthLong());
+  }
+
+  @Override
+  public String getParameter(final String name)
+  {
+    if (this.form == null)
+    {
+      return super.getParameter(name);
+    }
+    final String[] values = getParameterMap().get(name);
+    return values == null ? null : values[0];
+  }
+
+  @Override
+  public Enumeration<String> getParameterNames()
+  {
+    if (this.form == null)
+    {
+      return super.getParameterNames();
+    }
+    return Collections.enumeration(getParameterMap().keySet());
+  }
+
+  @Override
+  public String[] getParameterValues(final String name)
+  {
+    if (this.form == null)
+    {
+      return super.getParameterValues(name);
+    }
+    final String[] values = getParameterMap().get(name);
+    return values == null ? null : values.clone();
+  }
+
+  @Override
+  public Map<String, String[]> getParameterMap()
+  {
+    if (this.form == null)
+    {
+      return super.getParameterMap();
+    }
+    if (this.parameters == null)
+    {
+      this.parameters = parseForm();
+    }
+    return this.parameters;
+  }
+
+  // Combine the query parameters with those in the checked form body, query parameters first
+  private Map<String, String[]> parseForm()
+  {
+    // The filter has read the body, so the container's parameters are those from the query alone
+    final Map<String, List<String>> values = Maps.newLinkedHashMap();
+    for (final Map.Entry<String, String[]> entry : super.getParameterMap().entrySet())
+    {
+      values.put(entry.getKey(), Lists.newArrayList(entry.getValue()));
+    }
+    final String encoding = getCharacterEncoding() == null ? Charsets.ISO_8859_1.name() : getCharacterEncoding();
+    try
+    {
+      for (final String pair : new String(this.form, Charsets.ISO_8859_1).split("&"))
+      {
+        if (pair.isEmpty())
+        {
+          continue;
+        }
+        final int equals = pair.indexOf('=');
+        final String name = URLDecoder.decode(equals == -1 ? pair : pair.substring(0, equals), encoding);
+        final String value = equals == -1 ? "" : URLDecoder.decode(pair.substring(equals + 1), encoding);
+        if (!values.containsKey(name))
+        {
+          values.put(name, Lists.<String>newArrayList());
+        }
+        values.get(name).add(value);
+      }
+    }
+    catch (UnsupportedEncodingException | IllegalArgumentException e)
+    {
+      throw new IllegalStateException("Failed to parse form body", e);
+    }
+    final Map<String, String[]> result = Maps.newLinkedHashMap();
+    for (final Map.Entry<String, List<String>> entry : values.entrySet())
+    {
+      result.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  @Override
+  public Collection<Part> getParts() throws IOException, ServletException
+  {
+    checkParts();
+    return super.getParts();
+  }
+
+  @Override
+  public Part getPart(final String name) throws IOException, ServletException
+  {
+    checkParts();
+    return super.getPart(name);
+  }
+
+  // The container parses parts straight from the body, so they cannot be checked against the payload hash
+  private void checkParts() throws ServletException
+  {
+    if ((this.payloadMac != null) && (isContentType(this, MULTIPART_CONTENT_TYPE)))
+    {
+      throw new ServletException("Multipart bodies with a payload hash must be read with getInputStream()");
+    }
+  }
+
+  /**
+   * Find out if a request has a form body that the container would parse for
+   * parameters.
+   * @param request the request
+   * @return <code>true</code> if the body is a form
+   */
+  static boolean isForm(final HttpServletRequest request)
+  {
+    return isContentType(request, FORM_CONTENT_TYPE);
+  }
+
+  private static boolean isContentType(final HttpServletRequest request, final String contentType)
+  {
+    final String header = request.getContentType();
+    if (header == null)
+    {
+      return false;
+    }
+    final int semicolon = header.indexOf(';');
+    return (semicolon == -1 ? header : header.substring(0, semicolon)).trim().equalsIgnoreCase(contentType);
+  }
+
+  /**
+   * A stream over a form body that has already been read and checked.
+   */
+  private static class FormInputStream extends ServletInputStream
+  {
+    private final ByteArrayInputStream in;
+
+    FormInputStream(final byte[] form)
+    {
+      this.in = new ByteArrayInputStream(form);
+    }
+
+    @Override
+    public int read()
+    {
+      return this.in.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+    {
+      return this.in.read(b, off, len);
+    }
+
+    @Override
+    public int available()
+    {
+      return this.in.available();
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+      return this.in.available() == 0;
+    }
+
+    @Override
+    public boolean isReady()
+    {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(final ReadListener listener)
+    {
+      // All of the body is available, so it can be read at once
+      try
+      {
+        listener.onDataAvailable();
+        if (isFinished())
+        {
+          listener.onAllDataRead();
+        }
+      }
+      catch (IOException ioe)
+      {
+        listener.onError(ioe);
+      }
+    }
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.servlet;
+
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.EnumSet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkPrincipal;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.servlet.HawkPrincipalProvider;
+import com.wealdtech.hawk.servlet.HawkServletFilter;
+
+public class HawkServletFilterTest
+{
+  private static final String BASEURI = "http://localhost:18237/";
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private Server server;
+
+  /**
+   * Servlet reading the body with blocking reads.
+   */
+  public static class HelloWorldServlet extends HttpServlet
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+      response.getWriter().print("Hello " + request.getUserPrincipal().getName());
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+      final byte[] body;
+      try
+      {
+        body = ByteStreams.toByteArray(request.getInputStream());
+      }
+      catch (IOException ioe)
+      {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, ioe.getMessage());
+        return;
+      }
+      response.getWriter().print("Hello " + request.getUserPrincipal().getName() + ": " + new String(body, Charsets.UTF_8));
+    }
+  }
+
+  /**
+   * Servlet reading exactly Content-Length bytes of the body, without
+   * looking for its end.
+   */
+  public static class ExactLengthServlet extends HttpServlet
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+      final byte[] body = new byte[request.getContentLength()];
+      try
+      {
+        ByteStreams.readFully(request.getInputStream(), body);
+      }
+      catch (IOException ioe)
+      {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, ioe.getMessage());
+        return;
+      }
+      response.getWriter().print("Hello " + request.getUserPrincipal().getName() + ": " + new String(body, Charsets.UTF_8));
+    }
+  }
+
+  /**
+   * Servlet reading form parameters, which the container parses itself.
+   */
+  public static class FormServlet extends HttpServlet
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+      response.getWriter().print("Hello " + request.getUserPrincipal().getName() + ": " + request.getParameter("greeting") + " from " + request.getParameter("source"));
+    }
+  }
+
+  /**
+   * Servlet reading the body with non-blocking reads.
+   */
+  public static class AsyncHelloWorldServlet extends HttpServlet
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+      final AsyncContext context = request.startAsync();
+      final ServletInputStream in = request.getInputStream();
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      in.setReadListener(new ReadListener()
+      {
+        @Override
+        public void onDataAvailable() throws IOException
+        {
+          final byte[] buf = new byte[1024];
+          while ((in.isReady()) && (!in.isFinished()))
+          {
+            final int count = in.read(buf);
+            if (count > 0)
+            {
+              body.write(buf, 0, count);
+            }
+          }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException
+        {
+          response.getWriter().print("Hello " + request.getUserPrincipal().getName() + ": " + new String(body.toByteArray(), Charsets.UTF_8));
+          context.complete();
+        }
+
+        @Override
+        public void onError(final Throwable t)
+        {
+          response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+          context.complete();
+        }
+      });
+    }
+  }
+
+  /**
+   * A simple example user class for testing Hawk.
+   */
+  private static class ExampleUser implements HawkPrincipal
+  {
+    private final HawkCredentials hawkCredentials;
+
+    ExampleUser(final HawkCredentials hawkCredentials)
+    {
+      this.hawkCredentials = hawkCredentials;
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Steve";
+    }
+
+    @Override
+    public HawkCredentials getHawkCredentials(final String keyId)
+    {
+      return this.hawkCredentials.getKeyId().equals(keyId) ? this.hawkCredentials : null;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    final ExampleUser user = new ExampleUser(this.goodCredentials);
+    final HawkPrincipalProvider<ExampleUser> provider = new HawkPrincipalProvider<ExampleUser>()
+    {
+      @Override
+      public Optional<ExampleUser> getFromKey(final String keyId)
+      {
+        return user.getHawkCredentials(keyId) == null ? Optional.<ExampleUser>absent() : Optional.of(user);
+      }
+    };
+
+    final ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/");
+    final FilterHolder filter = new FilterHolder(new HawkServletFilter<>(new HawkServer.Builder().build(), provider));
+    filter.setAsyncSupported(true);
+    context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+    context.addServlet(new ServletHolder(new HelloWorldServlet()), "/helloworld");
+    context.addServlet(new ServletHolder(new ExactLengthServlet()), "/exact");
+    context.addServlet(new ServletHolder(new FormServlet()), "/form");
+    final ServletHolder async = new ServletHolder(new AsyncHelloWorldServlet());
+    async.setAsyncSupported(true);
+    context.addServlet(async, "/async");
+    this.server = new Server(18237);
+    this.server.setHandler(context);
+    this.server.start();
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    this.server.stop();
+  }
+
+  // Helper
+  private HttpURLConnection connect(final URI uri, final String method, final String authorizationHeader, final String body) throws Exception
+  {
+    return connect(uri, method, authorizationHeader, body, "text/plain");
+  }
+
+  private HttpURLConnection connect(final URI uri, final String method, final String authorizationHeader, final String body, final String contentType) throws Exception
+  {
+    final HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
+    connection.setRequestMethod(method);
+    if (authorizationHeader != null)
+    {
+      connection.setRequestProperty("Authorization", authorizationHeader);
+    }
+    if (body != null)
+    {
+      connection.setRequestProperty("Content-Type", contentType);
+      connection.setDoOutput(true);
+      try (final OutputStream out = connection.getOutputStream())
+      {
+        out.write(body.getBytes(Charsets.UTF_8));
+      }
+    }
+    return connection;
+  }
+
+  private static String read(final HttpURLConnection connection) throws Exception
+  {
+    try (final InputStream in = connection.getInputStream())
+    {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testGet() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), "Hello Steve");
+  }
+
+  @Test
+  public void testUnauthenticated() throws Exception
+  {
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld"), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 401);
+    assertNotNull(connection.getHeaderField("WWW-Authenticate"));
+  }
+
+  @Test
+  public void testBadCredentials() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final HawkClient client = new HawkClient.Builder().credentials(this.badCredentials).build();
+    final HttpURLConnection connection = connect(uri, "GET", client.generateAuthorizationHeader(uri, "GET", null, null, null, null), null);
+    assertEquals(connection.getResponseCode(), 401);
+  }
+
+  @Test
+  public void testBewit() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "helloworld");
+    final String bewit = Hawk.generateBewit(this.goodCredentials, uri, 240L, null);
+    final HttpURLConnection connection = connect(new URI(BASEURI + "helloworld?bewit=" + bewit), "GET", null, null);
+    assertEquals(connection.getResponseCode(), 200);
+    assertEquals(read(connection), "Hello Steve");
+  }
+
+  private void checkPayload(final String path, final String body, final int expectedStatus) throws Exception
+  {
+    final URI uri = new URI(BASEURI + path);
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String hash = client.calculatePayloadHash("text/plain", "payload".getBytes(Charsets.UTF_8));
+    final HttpURLConnection connection = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), body);
+    assertEquals(connection.getResponseCode(), expectedStatus);
+    if (expectedStatus == 200)
+    {
+      assertEquals(read(connection), "Hello Steve: payload");
+    }
+  }
+
+  @Test
+  public void testPayload() throws Exception
+  {
+    checkPayload("helloworld", "payload", 200);
+    checkPayload("helloworld", "tampered", 400);
+  }
+
+  @Test
+  public void testExactLengthPayload() throws Exception
+  {
+    checkPayload("exact", "payload", 200);
+    checkPayload("exact", "tampere", 400);
+  }
+
+  @Test
+  public void testFormPayload() throws Exception
+  {
+    final URI uri = new URI(BASEURI + "form?source=query");
+    final HawkClient client = new HawkClient.Builder().credentials(this.goodCredentials).build();
+    final String contentType = "application/x-www-form-urlencoded";
+    final String hash = client.calculatePayloadHash(contentType, "greeting=payload".getBytes(Charsets.UTF_8));
+
+    final HttpURLConnection good = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "greeting=payload", contentType);
+    assertEquals(good.getResponseCode(), 200);
+    assertEquals(read(good), "Hello Steve: payload from query");
+
+    // Parameters are never parsed from a tampered form
+    final HttpURLConnection tampered = connect(uri, "POST", client.generateAuthorizationHeader(uri, "POST", hash, null, null, null), "greeting=tampered", contentType);
+    assertEquals(tampered.getResponseCode(), 401);
+  }
+
+  @Test
+  public void testNonBlockingPayload() throws Exception
+  {
+    checkPayload("async", "payload", 200);
+    checkPayload("async", "tampered", 400);
+  }
+}
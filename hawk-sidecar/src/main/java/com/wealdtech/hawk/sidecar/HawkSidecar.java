@@ -0,0 +1,409 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import static com.wealdtech.Preconditions.*;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.wealdtech.DataError;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkBatchRequest;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkServer;
+import com.wealdtech.hawk.HawkVerificationResult;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+import com.wealdtech.hawk.sidecar.SidecarHandler.Frame;
+
+/**
+ * A local service that verifies Hawk requests on behalf of other processes,
+ * so that services in any language share a single implementation, nonce
+ * cache and credentials cache per host.
+ * <p>
+ * Requests and responses use the compact binary framing described in
+ * {@link HawkSidecarProtocol}.  Clients may pipeline requests; those that
+ * arrive together are verified as a batch with
+ * {@link HawkServer#verifyAll(List, Function)}, spreading the work across
+ * all cores.  By default the sidecar only listens on the loopback interface.
+ */
+public final class HawkSidecar
+{
+  private final InetSocketAddress address;
+  private final HawkServer server;
+  private final Function<String, HawkCredentials> lookup;
+  private final int maxFrameLength;
+  private final Executor executor;
+  private final boolean ownExecutor;
+
+  private EventLoopGroup bossGroup;
+  private EventLoopGroup workerGroup;
+  private Channel channel;
+
+  private HawkSidecar(final InetSocketAddress address,
+                      final HawkServer server,
+                      final Function<String, HawkCredentials> lookup,
+                      final Integer maxFrameLength,
+                      final Executor executor)
+  {
+    checkNotNull(lookup, "Hawk sidecar requires a credentials lookup");
+    this.address = address == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), HawkSidecarProtocol.DEFAULT_PORT) : address;
+    this.server = server == null ? new HawkServer.Builder().build() : server;
+    this.lookup = lookup;
+    this.maxFrameLength = maxFrameLength == null ? HawkSidecarProtocol.DEFAULT_MAX_FRAME_LENGTH : maxFrameLength;
+    checkArgument((this.maxFrameLength > 0), "The maximum frame length must be positive");
+    this.ownExecutor = executor == null;
+    this.executor = executor == null ? Executors.newCachedThreadPool() : executor;
+  }
+
+  /**
+   * Start the sidecar, returning once it is listening.
+   */
+  public synchronized void start()
+  {
+    checkState(this.channel == null, "Hawk sidecar is already running");
+    this.bossGroup = new NioEventLoopGroup(1);
+    this.workerGroup = new NioEventLoopGroup();
+    this.channel = new ServerBootstrap().group(this.bossGroup, this.workerGroup)
+                                        .channel(NioServerSocketChannel.class)
+                                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                                        .childOption(ChannelOption.TCP_NODELAY, true)
+                                        .childHandler(new ChannelInitializer<SocketChannel>()
+                                        {
+                                          @Override
+                                          protected void initChannel(final SocketChannel ch)
+                                          {
+                                            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(maxFrameLength, 0, 4, 0, 4),
+                                                                  new SidecarHandler(HawkSidecar.this, executor));
+                                          }
+                                        })
+                                        .bind(this.address)
+                                        .syncUninterruptibly()
+                                        .channel();
+  }
+
+  /**
+   * Stop the sidecar, closing all connections.  If the sidecar created its
+   * own executor then the executor is shut down.
+   */
+  public synchronized void stop()
+  {
+    if (this.channel == null)
+    {
+      return;
+    }
+    this.channel.close().syncUninterruptibly();
+    this.bossGroup.shutdownGracefully().syncUninterruptibly();
+    this.workerGroup.shutdownGracefully().syncUninterruptibly();
+    if ((this.ownExecutor) && (this.executor instanceof ExecutorService))
+    {
+      ((ExecutorService)this.executor).shutdown();
+    }
+    this.channel = null;
+  }
+
+  /**
+   * Obtain the address on which the sidecar listens.
+   * @return the address, or <code>null</code> if the sidecar is not running
+   */
+  public synchronized InetSocketAddress getAddress()
+  {
+    return this.channel == null ? null : (InetSocketAddress)this.channel.localAddress();
+  }
+
+  /**
+   * Verify a batch of decoded requests.
+   * @param frames the requests
+   * @return the results, in the same order as the requests
+   */
+  List<HawkSidecarResult> verifyBatch(final List<Frame> frames)
+  {
+    final HawkVerificationResult[] results = new HawkVerificationResult[frames.size()];
+    final String[] keyIds = new String[frames.size()];
+    final List<HawkBatchRequest> headerRequests = Lists.newArrayList();
+    final List<Integer> headerIndexes = Lists.newArrayList();
+    for (int i = 0; i < results.length; i++)
+    {
+      final Frame frame = frames.get(i);
+      if (frame.type == HawkSidecarProtocol.TYPE_BEWIT)
+      {
+        results[i] = verifyBewit(frame, keyIds, i);
+      }
+      else if (frame.type == HawkSidecarProtocol.TYPE_HEADER)
+      {
+        final HawkBatchRequest request = prepareHeader(frame, keyIds, i, results);
+        if (request != null)
+        {
+          headerRequests.add(request);
+          headerIndexes.add(i);
+        }
+      }
+      else
+      {
+        results[i] = HawkVerificationResult.of(Reason.INVALID_REQUEST, "Unknown authentication type");
+      }
+    }
+
+    // All requests with headers that passed the initial checks are verified together
+    final List<HawkVerificationResult> headerResults = this.server.verifyAll(headerRequests, null);
+    for (int i = 0; i < headerResults.size(); i++)
+    {
+      results[headerIndexes.get(i)] = headerResults.get(i);
+    }
+
+    final List<HawkSidecarResult> sidecarResults = Lists.newArrayListWithCapacity(results.length);
+    for (int i = 0; i < results.length; i++)
+    {
+      sidecarResults.add(new HawkSidecarResult(results[i].isValid(), results[i].getReason(), keyIds[i]));
+    }
+    return sidecarResults;
+  }
+
+  private HawkVerificationResult verifyBewit(final Frame frame, final String[] keyIds, final int index)
+  {
+    if (!"GET".equals(frame.method))
+    {
+      return HawkVerificationResult.of(Reason.UNSUPPORTED_METHOD);
+    }
+    final ImmutableMap<String, String> bewitFields = this.server.parseResourceBewit(frame.resource);
+    if (bewitFields == null)
+    {
+      return this.server.verify(null, frame.resource, frame.host, frame.port);
+    }
+    keyIds[index] = bewitFields.get("id");
+    return this.server.verify(this.lookup.apply(keyIds[index]), frame.resource, frame.host, frame.port);
+  }
+
+  // Check the parts of a request with a header that are not part of batch verification, returning the request to verify if they pass
+  private HawkBatchRequest prepareHeader(final Frame frame, final String[] keyIds, final int index, final HawkVerificationResult[] results)
+  {
+    if (frame.authorization.isEmpty())
+    {
+      results[index] = HawkVerificationResult.of(Reason.MISSING_HEADER);
+      return null;
+    }
+    final ImmutableMap<String, String> authorizationHeaders = this.server.parseAuthorizationHeader(frame.authorization);
+    if (authorizationHeaders == null)
+    {
+      results[index] = HawkVerificationResult.of(Reason.INVALID_HEADER);
+      return null;
+    }
+    keyIds[index] = authorizationHeaders.get("id");
+    if (keyIds[index] == null)
+    {
+      results[index] = HawkVerificationResult.of(Reason.MISSING_ID);
+      return null;
+    }
+    final HawkCredentials credentials = this.lookup.apply(keyIds[index]);
+    if (credentials == null)
+    {
+      results[index] = HawkVerificationResult.of(Reason.UNKNOWN_ID);
+      return null;
+    }
+    final String hash = authorizationHeaders.get("hash");
+    if ((hash != null) && (frame.hasFlag(HawkSidecarProtocol.FLAG_PAYLOAD)))
+    {
+      final HawkVerificationResult payloadResult = checkPayload(credentials, frame, hash);
+      if (!payloadResult.isValid())
+      {
+        results[index] = payloadResult;
+        return null;
+      }
+    }
+    return new HawkBatchRequest.Builder()
+                               .credentials(credentials)
+                               .target(frame.resource, frame.host, frame.port)
+                               .method(frame.method)
+                               .authorizationHeaders(authorizationHeaders)
+                               .hash(hash)
+                               .hasBody(frame.hasFlag(HawkSidecarProtocol.FLAG_HAS_BODY))
+                               .build();
+  }
+
+  // Check an included payload against its hash, directly from the frame buffer
+  private static HawkVerificationResult checkPayload(final HawkCredentials credentials, final Frame frame, final String hash)
+  {
+    final Mac mac;
+    try
+    {
+      mac = Hawk.startBodyMac(credentials, frame.contentType);
+    }
+    catch (DataError de)
+    {
+      return HawkVerificationResult.of(Reason.INVALID_PAYLOAD, de.getMessage());
+    }
+    if (frame.payload.nioBufferCount() == -1)
+    {
+      final byte[] bytes = new byte[frame.payload.readableBytes()];
+      frame.payload.getBytes(frame.payload.readerIndex(), bytes);
+      mac.update(bytes);
+    }
+    else
+    {
+      for (final ByteBuffer component : frame.payload.nioBuffers())
+      {
+        mac.update(component);
+      }
+    }
+    final String calculated = Hawk.completeBodyMac(mac);
+    if (!MessageDigest.isEqual(calculated.getBytes(Charsets.UTF_8), hash.getBytes(Charsets.UTF_8)))
+    {
+      return HawkVerificationResult.of(Reason.INVALID_PAYLOAD, "The payload does not match its hash");
+    }
+    return HawkVerificationResult.OK;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("address", this.address)
+                  .add("server", this.server)
+                  .add("maxFrameLength", this.maxFrameLength)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private InetSocketAddress address;
+    private HawkServer server;
+    private Function<String, HawkCredentials> lookup;
+    private Integer maxFrameLength;
+    private Executor executor;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Override the address on which to listen.  Defaults to port
+     * {@link HawkSidecarProtocol#DEFAULT_PORT} on the loopback interface.
+     * @param address the address
+     * @return The builder
+     */
+    public Builder address(final InetSocketAddress address)
+    {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Override the Hawk server that verifies requests.  Defaults to a server
+     * with the default configuration.
+     * @param server the Hawk server
+     * @return The builder
+     */
+    public Builder server(final HawkServer server)
+    {
+      this.server = server;
+      return this;
+    }
+
+    /**
+     * Set the function to look up credentials by key ID.
+     * @param lookup the function, which returns <code>null</code> if there are no credentials for a key ID
+     * @return The builder
+     */
+    public Builder credentials(final Function<String, HawkCredentials> lookup)
+    {
+      this.lookup = lookup;
+      return this;
+    }
+
+    /**
+     * Set the index from which to look up credentials.
+     * @param index the credentials index
+     * @return The builder
+     */
+    public Builder credentials(final HawkCredentialsIndex index)
+    {
+      checkNotNull(index, "The credentials index is required");
+      this.lookup = new Function<String, HawkCredentials>()
+      {
+        @Override
+        public HawkCredentials apply(final String keyId)
+        {
+          return index.get(keyId);
+        }
+      };
+      return this;
+    }
+
+    /**
+     * Override the maximum length of a request frame.  Defaults to
+     * {@link HawkSidecarProtocol#DEFAULT_MAX_FRAME_LENGTH}.
+     * @param maxFrameLength the maximum length of a request frame
+     * @return The builder
+     */
+    public Builder maxFrameLength(final Integer maxFrameLength)
+    {
+      this.maxFrameLength = maxFrameLength;
+      return this;
+    }
+
+    /**
+     * Override the executor on which batches are verified.  Defaults to a
+     * cached thread pool.
+     * @param executor the executor
+     * @return The builder
+     */
+    public Builder executor(final Executor executor)
+    {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Build the sidecar.
+     * @return a new sidecar, not yet started
+     * @throws DataError if the data provided is invalid for a sidecar
+     */
+    public HawkSidecar build()
+    {
+      return new HawkSidecar(this.address, this.server, this.lookup, this.maxFrameLength, this.executor);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import static com.wealdtech.Preconditions.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * A client for the Hawk sidecar.  Each client holds a single connection, and
+ * is not thread-safe.
+ */
+public final class HawkSidecarClient implements Closeable
+{
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream();
+  private final DataOutputStream frame = new DataOutputStream(this.frameBuffer);
+  private int nextId;
+
+  /**
+   * Connect to a sidecar on the default port of the loopback interface.
+   * @throws ServerError if the connection could not be made
+   */
+  public HawkSidecarClient()
+  {
+    this(new InetSocketAddress(InetAddress.getLoopbackAddress(), HawkSidecarProtocol.DEFAULT_PORT));
+  }
+
+  /**
+   * Connect to a sidecar.
+   * @param address the address of the sidecar
+   * @throws ServerError if the connection could not be made
+   */
+  public HawkSidecarClient(final InetSocketAddress address)
+  {
+    checkNotNull(address, "The address of the sidecar is required");
+    this.socket = new Socket();
+    try
+    {
+      this.socket.setTcpNoDelay(true);
+      this.socket.connect(address);
+      this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+    }
+    catch (IOException ioe)
+    {
+      closeQuietly();
+      throw new ServerError("Failed to connect to Hawk sidecar", ioe);
+    }
+  }
+
+  /**
+   * Verify a single request.
+   * @param request the request
+   * @return the result of verification
+   * @throws ServerError if there was a problem communicating with the sidecar
+   */
+  public HawkSidecarResult verify(final HawkSidecarRequest request)
+  {
+    return verifyAll(ImmutableList.of(request)).get(0);
+  }
+
+  /**
+   * Verify a number of requests.  All of the requests are sent before any
+   * responses are read, so the sidecar can verify them in parallel.
+   * @param requests the requests
+   * @return the results of verification, in the same order as the requests
+   * @throws ServerError if there was a problem communicating with the sidecar
+   */
+  public List<HawkSidecarResult> verifyAll(final List<HawkSidecarRequest> requests)
+  {
+    checkNotNull(requests, "The requests are required");
+    final int firstId = this.nextId;
+    this.nextId += requests.size();
+    final HawkSidecarResult[] results = new HawkSidecarResult[requests.size()];
+    try
+    {
+      for (int i = 0; i < requests.size(); i++)
+      {
+        writeRequest(firstId + i, requests.get(i));
+      }
+      this.out.flush();
+      for (int i = 0; i < results.length; i++)
+      {
+        final int length = this.in.readInt();
+        final int id = this.in.readInt();
+        final int status = this.in.readUnsignedByte();
+        final String reason = readString();
+        final String keyId = readString();
+        final int index = id - firstId;
+        if ((length < 5) || (index < 0) || (index >= results.length) || (results[index] != null))
+        {
+          throw new ServerError("Unexpected response from Hawk sidecar");
+        }
+        results[index] = new HawkSidecarResult(status == HawkSidecarProtocol.STATUS_ALLOW, Reason.valueOf(reason), keyId.isEmpty() ? null : keyId);
+      }
+    }
+    catch (IOException | IllegalArgumentException e)
+    {
+      closeQuietly();
+      throw new ServerError("Failed to communicate with Hawk sidecar", e);
+    }
+    return Arrays.asList(results);
+  }
+
+  private void writeRequest(final int id, final HawkSidecarRequest request) throws IOException
+  {
+    this.frameBuffer.reset();
+    this.frame.writeInt(id);
+    this.frame.writeByte(request.getAuthorization() == null ? HawkSidecarProtocol.TYPE_BEWIT : HawkSidecarProtocol.TYPE_HEADER);
+    int flags = 0;
+    if (request.hasBody())
+    {
+      flags |= HawkSidecarProtocol.FLAG_HAS_BODY;
+    }
+    if (request.getPayload() != null)
+    {
+      flags |= HawkSidecarProtocol.FLAG_PAYLOAD;
+    }
+    this.frame.writeByte(flags);
+    this.frame.writeShort(request.getPort());
+    writeString(request.getMethod());
+    writeString(request.getHost());
+    writeString(request.getResource());
+    writeString(request.getAuthorization());
+    writeString(request.getContentType());
+    if (request.getPayload() == null)
+    {
+      this.frame.writeInt(0);
+    }
+    else
+    {
+      this.frame.writeInt(request.getPayload().length);
+      this.frame.write(request.getPayload());
+    }
+    this.out.writeInt(this.frameBuffer.size());
+    this.frameBuffer.writeTo(this.out);
+  }
+
+  // Read a string as in the protocol, which unlike readUTF is standard UTF-8
+  private String readString() throws IOException
+  {
+    final byte[] bytes = new byte[this.in.readUnsignedShort()];
+    this.in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  // Write a string as in the protocol, which unlike writeUTF is standard UTF-8
+  private void writeString(final String value) throws IOException
+  {
+    final byte[] bytes = value == null ? new byte[0] : value.getBytes(Charsets.UTF_8);
+    checkArgument((bytes.length <= 0xFFFF), "String too long for Hawk sidecar");
+    this.frame.writeShort(bytes.length);
+    this.frame.write(bytes);
+  }
+
+  private void closeQuietly()
+  {
+    try
+    {
+      this.socket.close();
+    }
+    catch (IOException ioe)
+    {
+      // Nothing more can be done
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    this.socket.close();
+  }
+}
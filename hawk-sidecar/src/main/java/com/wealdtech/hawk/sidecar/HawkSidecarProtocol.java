@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+/**
+ * The binary framing used between the Hawk sidecar and its clients.
+ * <p>
+ * All integers are big-endian and unsigned, and strings are a two-byte
+ * length followed by that many bytes of UTF-8.  Every frame starts with a
+ * four-byte length, which does not include itself, and a four-byte request
+ * ID chosen by the client and echoed in the response.
+ * <p>
+ * A verification request continues with:
+ * <ul>
+ * <li>a byte giving the type of authentication, {@link #TYPE_HEADER} or {@link #TYPE_BEWIT}</li>
+ * <li>a byte of flags, a combination of {@link #FLAG_HAS_BODY} and {@link #FLAG_PAYLOAD}</li>
+ * <li>two bytes giving the port of the request</li>
+ * <li>strings giving the method, host and resource (raw path and query) of the request</li>
+ * <li>a string giving the authorization header, empty for a bewit</li>
+ * <li>a string giving the content type, empty unless the payload is included</li>
+ * <li>four bytes giving the length of the payload, followed by the payload</li>
+ * </ul>
+ * A verification response continues with:
+ * <ul>
+ * <li>a byte giving the outcome, {@link #STATUS_ALLOW} or {@link #STATUS_DENY}</li>
+ * <li>a string giving the name of the verification reason</li>
+ * <li>a string giving the key ID of the request, empty if it is not known</li>
+ * </ul>
+ * Clients may send any number of requests without waiting for responses.
+ * Responses may be returned in a different order from the requests.
+ */
+public final class HawkSidecarProtocol
+{
+  public static final int TYPE_HEADER = 0;
+  public static final int TYPE_BEWIT = 1;
+
+  /** The request has a body */
+  public static final int FLAG_HAS_BODY = 1;
+  /** The payload is included, so its hash can be checked */
+  public static final int FLAG_PAYLOAD = 2;
+
+  public static final int STATUS_ALLOW = 0;
+  public static final int STATUS_DENY = 1;
+
+  public static final int DEFAULT_PORT = 18333;
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+  private HawkSidecarProtocol()
+  {
+  }
+}
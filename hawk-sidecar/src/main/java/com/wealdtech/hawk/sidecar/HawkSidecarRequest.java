@@ -0,0 +1,233 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import static com.wealdtech.Preconditions.*;
+
+import com.google.common.base.Objects;
+import com.wealdtech.DataError;
+
+/**
+ * A request to be verified by the Hawk sidecar.
+ * <p>
+ * Requests with an authorization header are verified by header, and others
+ * by bewit.  If the payload is included then it is checked against the hash
+ * in the authorization header; if not then only the MAC is checked, which
+ * covers the claimed hash, and the caller remains responsible for the
+ * payload.
+ */
+public final class HawkSidecarRequest
+{
+  private final String method;
+  private final String host;
+  private final int port;
+  private final String resource;
+  private final String authorization;
+  private final boolean hasBody;
+  private final String contentType;
+  private final byte[] payload;
+
+  private HawkSidecarRequest(final String method,
+                             final String host,
+                             final Integer port,
+                             final String resource,
+                             final String authorization,
+                             final Boolean hasBody,
+                             final String contentType,
+                             final byte[] payload)
+  {
+    checkNotNull(method, "The method is required");
+    checkNotNull(host, "The host is required");
+    checkNotNull(port, "The port is required");
+    checkArgument(((port > 0) && (port <= 0xFFFF)), "The port is invalid");
+    checkNotNull(resource, "The resource is required");
+    checkArgument(((contentType == null) == (payload == null)), "The content type and payload must be supplied together");
+    this.method = method;
+    this.host = host;
+    this.port = port;
+    this.resource = resource;
+    this.authorization = authorization;
+    this.hasBody = (payload != null) ? payload.length > 0 : (hasBody == null ? false : hasBody);
+    this.contentType = contentType;
+    this.payload = payload;
+  }
+
+  public String getMethod()
+  {
+    return this.method;
+  }
+
+  public String getHost()
+  {
+    return this.host;
+  }
+
+  public int getPort()
+  {
+    return this.port;
+  }
+
+  public String getResource()
+  {
+    return this.resource;
+  }
+
+  /**
+   * Obtain the authorization header of the request.
+   * @return the authorization header, or <code>null</code> if the request is to be verified by bewit
+   */
+  public String getAuthorization()
+  {
+    return this.authorization;
+  }
+
+  public boolean hasBody()
+  {
+    return this.hasBody;
+  }
+
+  public String getContentType()
+  {
+    return this.contentType;
+  }
+
+  /**
+   * Obtain the payload of the request.
+   * @return the payload, or <code>null</code> if it is not included
+   */
+  public byte[] getPayload()
+  {
+    return this.payload;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("method", this.method)
+                  .add("host", this.host)
+                  .add("port", this.port)
+                  .add("resource", this.resource)
+                  .add("authorization", this.authorization)
+                  .add("hasBody", this.hasBody)
+                  .add("contentType", this.contentType)
+                  .toString();
+  }
+
+  public static class Builder
+  {
+    private String method;
+    private String host;
+    private Integer port;
+    private String resource;
+    private String authorization;
+    private Boolean hasBody;
+    private String contentType;
+    private byte[] payload;
+
+    /**
+     * Generate a new builder.
+     */
+    public Builder()
+    {
+    }
+
+    /**
+     * Set the method of the request.
+     * @param method the method
+     * @return The builder
+     */
+    public Builder method(final String method)
+    {
+      this.method = method;
+      return this;
+    }
+
+    /**
+     * Set the host and port of the request.
+     * @param host the host
+     * @param port the port
+     * @return The builder
+     */
+    public Builder host(final String host, final Integer port)
+    {
+      this.host = host;
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Set the resource of the request.
+     * @param resource the raw path of the request, including the raw query string if present
+     * @return The builder
+     */
+    public Builder resource(final String resource)
+    {
+      this.resource = resource;
+      return this;
+    }
+
+    /**
+     * Set the authorization header of the request.  If not set then the
+     * request is verified by bewit.
+     * @param authorization the authorization header
+     * @return The builder
+     */
+    public Builder authorization(final String authorization)
+    {
+      this.authorization = authorization;
+      return this;
+    }
+
+    /**
+     * Set if the request has a body, when the payload is not included.
+     * Defaults to <code>false</code>.
+     * @param hasBody <code>true</code> if the request has a body
+     * @return The builder
+     */
+    public Builder hasBody(final Boolean hasBody)
+    {
+      this.hasBody = hasBody;
+      return this;
+    }
+
+    /**
+     * Include the payload of the request, so that it is checked against the
+     * hash in the authorization header.
+     * @param contentType the content type of the payload
+     * @param payload the payload
+     * @return The builder
+     */
+    public Builder payload(final String contentType, final byte[] payload)
+    {
+      this.contentType = contentType;
+      this.payload = payload;
+      return this;
+    }
+
+    /**
+     * Build the request.
+     * @return a new request
+     * @throws DataError if the data provided is invalid for a request
+     */
+    public HawkSidecarRequest build()
+    {
+      return new HawkSidecarRequest(this.method, this.host, this.port, this.resource, this.authorization, this.hasBody, this.contentType, this.payload);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import com.google.common.base.Objects;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * The result of verification by the Hawk sidecar.
+ */
+public final class HawkSidecarResult
+{
+  private final boolean allowed;
+  private final Reason reason;
+  private final String keyId;
+
+  HawkSidecarResult(final boolean allowed, final Reason reason, final String keyId)
+  {
+    this.allowed = allowed;
+    this.reason = reason;
+    this.keyId = keyId;
+  }
+
+  /**
+   * Find out if the request was allowed.
+   * @return <code>true</code> if the request was allowed
+   */
+  public boolean isAllowed()
+  {
+    return this.allowed;
+  }
+
+  /**
+   * Obtain the reason for the result.
+   * @return the reason
+   */
+  public Reason getReason()
+  {
+    return this.reason;
+  }
+
+  /**
+   * Obtain the key ID of the request.
+   * @return the key ID, or <code>null</code> if it could not be found
+   */
+  public String getKeyId()
+  {
+    return this.keyId;
+  }
+
+  // Standard object methods follow
+  @Override
+  public String toString()
+  {
+    return Objects.toStringHelper(this)
+                  .add("allowed", this.allowed)
+                  .add("reason", this.reason)
+                  .add("keyId", this.keyId)
+                  .toString();
+  }
+}
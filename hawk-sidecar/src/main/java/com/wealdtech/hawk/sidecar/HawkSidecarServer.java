@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import com.wealdtech.DataError;
+import com.wealdtech.ServerError;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+
+/**
+ * Command-line tool to run a Hawk sidecar, with credentials from a
+ * credentials index snapshot.
+ * <p>
+ * Usage: <code>HawkSidecarServer --index &lt;snapshot&gt; [--port &lt;port&gt;]
+ * [--address &lt;address&gt;]</code>
+ * <p>
+ * The exit status is <code>2</code> if the sidecar could not start.
+ */
+public final class HawkSidecarServer
+{
+  private static final String USAGE = "Usage: HawkSidecarServer --index <snapshot> [--port <port>] [--address <address>]";
+
+  private HawkSidecarServer()
+  {
+  }
+
+  public static void main(final String[] args)
+  {
+    final HawkSidecar sidecar = create(args, System.err);
+    if (sidecar == null)
+    {
+      System.exit(2);
+    }
+    sidecar.start();
+    Runtime.getRuntime().addShutdownHook(new Thread()
+    {
+      @Override
+      public void run()
+      {
+        sidecar.stop();
+      }
+    });
+  }
+
+  /**
+   * Create a sidecar from command-line arguments.
+   * @param args the command-line arguments
+   * @param errors the stream to which to write any errors
+   * @return the sidecar, not yet started, or <code>null</code> if the arguments are invalid
+   */
+  public static HawkSidecar create(final String[] args, final PrintStream errors)
+  {
+    File index = null;
+    int port = HawkSidecarProtocol.DEFAULT_PORT;
+    InetAddress address = InetAddress.getLoopbackAddress();
+    try
+    {
+      for (int i = 0; i < args.length; i++)
+      {
+        switch (args[i])
+        {
+          case "--index":
+            index = new File(args[++i]);
+            break;
+          case "--port":
+            port = Integer.parseInt(args[++i]);
+            break;
+          case "--address":
+            address = InetAddress.getByName(args[++i]);
+            break;
+          default:
+            errors.println(USAGE);
+            return null;
+        }
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | UnknownHostException e)
+    {
+      errors.println(USAGE);
+      return null;
+    }
+    if (index == null)
+    {
+      errors.println(USAGE);
+      return null;
+    }
+
+    try
+    {
+      return new HawkSidecar.Builder()
+                            .address(new InetSocketAddress(address, port))
+                            .credentials(HawkCredentialsIndex.map(index))
+                            .build();
+    }
+    catch (DataError | ServerError | IllegalArgumentException e)
+    {
+      errors.println("Sidecar failed: " + e.getMessage());
+      return null;
+    }
+  }
+}
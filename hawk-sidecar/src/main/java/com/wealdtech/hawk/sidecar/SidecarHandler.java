@@ -0,0 +1,232 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.wealdtech.hawk.sidecar;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+
+/**
+ * Handler for connections from sidecar clients.
+ * <p>
+ * Requests that arrive in the same read are verified together as a batch,
+ * off the event loop, so clients that pipeline requests have them verified
+ * in parallel across all cores.
+ * <p>
+ * Reading from the connection is paused while a batch is outstanding, so
+ * each connection has at most one batch in flight.  If verification of a
+ * batch fails unexpectedly, for example because the credentials lookup
+ * throws, every request in the batch is denied as an invalid request.  A
+ * malformed frame closes the connection, and any requests from the same
+ * read are discarded unanswered.
+ */
+class SidecarHandler extends ChannelInboundHandlerAdapter
+{
+  private final HawkSidecar sidecar;
+  private final Executor executor;
+  private List<Frame> batch = Lists.newArrayList();
+  private boolean closed = false;
+
+  SidecarHandler(final HawkSidecar sidecar, final Executor executor)
+  {
+    this.sidecar = sidecar;
+    this.executor = executor;
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+  {
+    final ByteBuf frame = (ByteBuf)msg;
+    try
+    {
+      if (this.closed)
+      {
+        return;
+      }
+      this.batch.add(Frame.decode(frame));
+    }
+    catch (IndexOutOfBoundsException | IllegalArgumentException e)
+    {
+      // Malformed frame; the stream cannot be trusted after this, so nor
+      // can anything else in the same read
+      this.closed = true;
+      releaseBatch();
+      ctx.close();
+    }
+    finally
+    {
+      frame.release();
+    }
+  }
+
+  @Override
+  public void channelReadComplete(final ChannelHandlerContext ctx)
+  {
+    if (this.batch.isEmpty())
+    {
+      return;
+    }
+    final List<Frame> frames = this.batch;
+    this.batch = Lists.newArrayList();
+    final Channel channel = ctx.channel();
+    // Read no more requests until this batch has been answered
+    channel.config().setAutoRead(false);
+    this.executor.execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          List<HawkSidecarResult> results;
+          try
+          {
+            results = sidecar.verifyBatch(frames);
+          }
+          catch (RuntimeException e)
+          {
+            results = Lists.newArrayListWithCapacity(frames.size());
+            for (int i = 0; i < frames.size(); i++)
+            {
+              results.add(new HawkSidecarResult(false, Reason.INVALID_REQUEST, null));
+            }
+          }
+          for (int i = 0; i < results.size(); i++)
+          {
+            channel.write(encode(channel, frames.get(i).id, results.get(i)));
+          }
+          channel.flush();
+        }
+        finally
+        {
+          for (final Frame frame : frames)
+          {
+            frame.release();
+          }
+          channel.config().setAutoRead(true);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception
+  {
+    releaseBatch();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause)
+  {
+    ctx.close();
+  }
+
+  private void releaseBatch()
+  {
+    for (final Frame frame : this.batch)
+    {
+      frame.release();
+    }
+    this.batch.clear();
+  }
+
+  // Encode a response
+  private static ByteBuf encode(final Channel channel, final int id, final HawkSidecarResult result)
+  {
+    final ByteBuf buf = channel.alloc().buffer();
+    buf.writeInt(0);
+    buf.writeInt(id);
+    buf.writeByte(result.isAllowed() ? HawkSidecarProtocol.STATUS_ALLOW : HawkSidecarProtocol.STATUS_DENY);
+    writeString(buf, result.getReason().name());
+    writeString(buf, result.getKeyId() == null ? "" : result.getKeyId());
+    buf.setInt(0, buf.readableBytes() - 4);
+    return buf;
+  }
+
+  private static void writeString(final ByteBuf buf, final String value)
+  {
+    final byte[] bytes = value.getBytes(Charsets.UTF_8);
+    buf.writeShort(bytes.length);
+    buf.writeBytes(bytes);
+  }
+
+  /**
+   * A decoded request frame.  The payload, if any, is a slice of the
+   * original buffer rather than a copy, and must be released.
+   */
+  static final class Frame
+  {
+    final int id;
+    final int type;
+    final int flags;
+    final int port;
+    final String method;
+    final String host;
+    final String resource;
+    final String authorization;
+    final String contentType;
+    final ByteBuf payload;
+
+    private Frame(final ByteBuf buf)
+    {
+      this.id = buf.readInt();
+      this.type = buf.readUnsignedByte();
+      this.flags = buf.readUnsignedByte();
+      this.port = buf.readUnsignedShort();
+      this.method = readString(buf);
+      this.host = readString(buf);
+      this.resource = readString(buf);
+      this.authorization = readString(buf);
+      this.contentType = readString(buf);
+      final int payloadLength = buf.readInt();
+      this.payload = buf.readSlice(payloadLength).retain();
+    }
+
+    static Frame decode(final ByteBuf buf)
+    {
+      return new Frame(buf);
+    }
+
+    boolean hasFlag(final int flag)
+    {
+      return (this.flags & flag) != 0;
+    }
+
+    void release()
+    {
+      ReferenceCountUtil.release(this.payload);
+    }
+
+    private static String readString(final ByteBuf buf)
+    {
+      final int length = buf.readUnsignedShort();
+      final String value = buf.toString(buf.readerIndex(), length, Charsets.UTF_8);
+      buf.skipBytes(length);
+      return value;
+    }
+  }
+}
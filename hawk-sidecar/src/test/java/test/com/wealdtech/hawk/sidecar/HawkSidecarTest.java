@@ -0,0 +1,246 @@
+/*
+ *    Copyright 2014 Weald Technology Trading Limited
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package test.com.wealdtech.hawk.sidecar;
+
+import static org.testng.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.wealdtech.hawk.Hawk;
+import com.wealdtech.hawk.HawkClient;
+import com.wealdtech.hawk.HawkCredentials;
+import com.wealdtech.hawk.HawkCredentialsIndex;
+import com.wealdtech.hawk.HawkVerificationResult.Reason;
+import com.wealdtech.hawk.sidecar.HawkSidecar;
+import com.wealdtech.hawk.sidecar.HawkSidecarClient;
+import com.wealdtech.hawk.sidecar.HawkSidecarRequest;
+import com.wealdtech.hawk.sidecar.HawkSidecarResult;
+
+public class HawkSidecarTest
+{
+  private static final InetSocketAddress ADDRESS = new InetSocketAddress(InetAddress.getLoopbackAddress(), 18242);
+
+  private HawkCredentials goodCredentials, badCredentials;
+  private HawkSidecar sidecar;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    this.goodCredentials = new HawkCredentials.Builder()
+                                              .keyId("dh37fgj492je")
+                                              .key("werxhqb98rpaxn39848xrunpaw3489ruxnpa98w4rxn")
+                                              .algorithm(HawkCredentials.Algorithm.SHA256)
+                                              .build();
+    this.badCredentials = new HawkCredentials.Builder(this.goodCredentials).key("bad").build();
+    this.sidecar = new HawkSidecar.Builder()
+                                  .address(ADDRESS)
+                                  .credentials(new HawkCredentialsIndex.Builder().add(this.goodCredentials).build())
+                                  .build();
+    this.sidecar.start();
+  }
+
+  @AfterClass
+  public void tearDown()
+  {
+    this.sidecar.stop();
+  }
+
+  private HawkSidecarRequest.Builder request(final HawkCredentials credentials, final String method, final String resource, final String hash)
+  {
+    final HawkClient client = new HawkClient.Builder().credentials(credentials).build();
+    final URI uri = URI.create("http://localhost:8080" + resource);
+    return new HawkSidecarRequest.Builder()
+                                 .method(method)
+                                 .host("localhost", 8080)
+                                 .resource(resource)
+                                 .authorization(client.generateAuthorizationHeader(uri, method, hash, null, null, null));
+  }
+
+  @Test
+  public void testValid() throws Exception
+  {
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final HawkSidecarResult result = client.verify(request(this.goodCredentials, "GET", "/resource?a=b", null).build());
+      assertTrue(result.isAllowed());
+      assertEquals(result.getReason(), Reason.OK);
+      assertEquals(result.getKeyId(), "dh37fgj492je");
+    }
+  }
+
+  @Test
+  public void testInvalid() throws Exception
+  {
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final HawkSidecarResult badMac = client.verify(request(this.badCredentials, "GET", "/", null).build());
+      assertFalse(badMac.isAllowed());
+      assertEquals(badMac.getReason(), Reason.BAD_MAC);
+      assertEquals(badMac.getKeyId(), "dh37fgj492je");
+
+      final HawkCredentials unknownCredentials = new HawkCredentials.Builder(this.goodCredentials).keyId("unknown").build();
+      final HawkSidecarResult unknown = client.verify(request(unknownCredentials, "GET", "/", null).build());
+      assertFalse(unknown.isAllowed());
+      assertEquals(unknown.getReason(), Reason.UNKNOWN_ID);
+
+      final HawkSidecarResult garbage = client.verify(new HawkSidecarRequest.Builder().method("GET").host("localhost", 8080).resource("/").authorization("Basic abc").build());
+      assertEquals(garbage.getReason(), Reason.INVALID_HEADER);
+      assertNull(garbage.getKeyId());
+
+      // The target is covered by the MAC
+      final HawkSidecarRequest moved = new HawkSidecarRequest.Builder()
+                                                             .method("GET")
+                                                             .host("localhost", 8080)
+                                                             .resource("/other")
+                                                             .authorization(request(this.goodCredentials, "GET", "/", null).build().getAuthorization())
+                                                             .build();
+      assertEquals(client.verify(moved).getReason(), Reason.BAD_MAC);
+    }
+  }
+
+  @Test
+  public void testReplay() throws Exception
+  {
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final HawkSidecarRequest request = request(this.goodCredentials, "GET", "/replay", null).build();
+      assertTrue(client.verify(request).isAllowed());
+      final HawkSidecarResult replayed = client.verify(request);
+      assertFalse(replayed.isAllowed());
+      assertEquals(replayed.getReason(), Reason.REPLAYED_NONCE);
+    }
+  }
+
+  @Test
+  public void testBewit() throws Exception
+  {
+    final String bewit = Hawk.generateBewit(this.goodCredentials, URI.create("http://localhost:8080/file?x=1"), 60L, null);
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final HawkSidecarResult result = client.verify(new HawkSidecarRequest.Builder()
+                                                                           .method("GET")
+                                                                           .host("localhost", 8080)
+                                                                           .resource("/file?x=1&bewit=" + bewit)
+                                                                           .build());
+      assertTrue(result.isAllowed());
+      assertEquals(result.getKeyId(), "dh37fgj492je");
+
+      final HawkSidecarResult missing = client.verify(new HawkSidecarRequest.Builder()
+                                                                            .method("GET")
+                                                                            .host("localhost", 8080)
+                                                                            .resource("/file?x=1")
+                                                                            .build());
+      assertEquals(missing.getReason(), Reason.MISSING_BEWIT);
+
+      final HawkSidecarResult post = client.verify(new HawkSidecarRequest.Builder()
+                                                                         .method("POST")
+                                                                         .host("localhost", 8080)
+                                                                         .resource("/file?x=1&bewit=" + bewit)
+                                                                         .build());
+      assertEquals(post.getReason(), Reason.UNSUPPORTED_METHOD);
+    }
+  }
+
+  @Test
+  public void testPayload() throws Exception
+  {
+    final byte[] body = "Thank you for flying Hawk".getBytes(Charsets.UTF_8);
+    final String hash = new HawkClient.Builder().credentials(this.goodCredentials).build().calculatePayloadHash("text/plain", body);
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final HawkSidecarResult good = client.verify(request(this.goodCredentials, "POST", "/upload", hash).payload("text/plain", body).build());
+      assertTrue(good.isAllowed());
+
+      final byte[] tampered = "Thank you for flying Hawk!".getBytes(Charsets.UTF_8);
+      final HawkSidecarResult bad = client.verify(request(this.goodCredentials, "POST", "/upload", hash).payload("text/plain", tampered).build());
+      assertFalse(bad.isAllowed());
+      assertEquals(bad.getReason(), Reason.INVALID_PAYLOAD);
+
+      // Without the payload only the MAC is checked
+      final HawkSidecarResult claimed = client.verify(request(this.goodCredentials, "POST", "/upload", hash).hasBody(true).build());
+      assertTrue(claimed.isAllowed());
+    }
+  }
+
+  @Test
+  public void testPipelined() throws Exception
+  {
+    final List<HawkSidecarRequest> requests = Lists.newArrayList();
+    for (int i = 0; i < 500; i++)
+    {
+      requests.add(request(i % 5 == 0 ? this.badCredentials : this.goodCredentials, "GET", "/item/" + i, null).build());
+    }
+    try (final HawkSidecarClient client = new HawkSidecarClient(ADDRESS))
+    {
+      final List<HawkSidecarResult> results = client.verifyAll(requests);
+      assertEquals(results.size(), 500);
+      for (int i = 0; i < 500; i++)
+      {
+        assertEquals(results.get(i).isAllowed(), i % 5 != 0, "Request " + i);
+      }
+      // The connection remains usable afterwards
+      assertTrue(client.verify(request(this.goodCredentials, "GET", "/after", null).build()).isAllowed());
+    }
+  }
+
+  @Test
+  public void testLookupFailure() throws Exception
+  {
+    final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 18243);
+    final HawkSidecar failing = new HawkSidecar.Builder()
+                                               .address(address)
+                                               .credentials(new Function<String, HawkCredentials>()
+                                               {
+                                                 @Override
+                                                 public HawkCredentials apply(final String keyId)
+                                                 {
+                                                   if ("broken".equals(keyId))
+                                                   {
+                                                     throw new IllegalStateException("Credentials store unavailable");
+                                                   }
+                                                   return goodCredentials;
+                                                 }
+                                               })
+                                               .build();
+    failing.start();
+    try (final HawkSidecarClient client = new HawkSidecarClient(address))
+    {
+      final HawkCredentials brokenCredentials = new HawkCredentials.Builder(this.goodCredentials).keyId("broken").build();
+      final HawkSidecarResult broken = client.verify(request(brokenCredentials, "GET", "/", null).build());
+      assertFalse(broken.isAllowed());
+      assertEquals(broken.getReason(), Reason.INVALID_REQUEST);
+      assertNull(broken.getKeyId());
+
+      // The connection remains usable afterwards
+      assertTrue(client.verify(request(this.goodCredentials, "GET", "/after", null).build()).isAllowed());
+    }
+    finally
+    {
+      failing.stop();
+    }
+  }
+}